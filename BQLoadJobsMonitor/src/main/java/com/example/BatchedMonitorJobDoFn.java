@@ -0,0 +1,433 @@
+package com.example;
+
+import com.google.api.services.bigquery.model.JobList;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobStatus;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessageWithAttributesCoder;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.TupleTag;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Monitors the Load Jobs keyed by Monitor Shard in batches, instead of one jobs.get per Job with
+ * BackOff sleeps. The Loader Envelopes of a Shard are held in keyed state, and a Processing Time
+ * Timer lists the DONE Jobs of the BQ Project every monitorPollSeconds, only those created between
+ * the oldest and the newest monitored Job(minCreationTime/maxCreationTime), and by Job Id alone.
+ * Every monitored Job found DONE is looked up and completed in that same pass
+ * (CompletedLoadJobHandler), the others wait in State for the next one. The monitored Jobs which
+ * are not DONE never show up in the listing, so a poll lists a limited number of pages only, and
+ * looks the monitored Jobs due for it up on their own when the DONE Jobs take more pages. The worker threads never sleep, and the Loader Envelopes
+ * no longer go back through PubSub for monitoring.
+ * A Job monitored for longer than the maximum Load Job execution time is looked up on its own, and
+ * dead lettered when BQ no longer knows it.
+ * With the predictive Poll Scheduling, every Job carries its own next poll time instead: just after
+ * the completion time predicted by the LoadJobRunTimeModel of the worker, then spaced by the error of
+ * the model(doubling on every poll which misses the Job, up to monitorPollSeconds). The Shard Timer
+ * is set at the earliest of them, and a listing completes every DONE Job of the Shard whether its
+ * own poll was due or not.
+ */
+public class BatchedMonitorJobDoFn extends DoFn<KV<String, PubsubMessage>, Void> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(BatchedMonitorJobDoFn.class);
+  /*
+   * Attribute carrying the time(ms) the Monitor first held the Loader Envelope
+   */
+  static final String MONITORED_SINCE_ATTRIBUTE = "monitorMonitoredSinceTimestamp";
+  /*
+   * Attributes carrying the time(ms) the Job is next due for a poll, and the polls due so far
+   */
+  static final String NEXT_POLL_ATTRIBUTE = "monitorNextPollTimestamp";
+  static final String POLL_COUNT_ATTRIBUTE = "monitorPollCount";
+  /*
+   * Delay of the first poll after the predicted completion time, for the Job to be reported DONE
+   */
+  private static final long COMPLETION_SLACK_MS = 1000L;
+  /*
+   * Allowance for the clock skew between the workers and BQ on the Job creation times
+   */
+  private static final long CREATION_TIME_SKEW_MS = 60000L;
+  private static final long MAX_LOAD_JOB_EXECUTION_MS = Duration.standardHours(6).getMillis();
+  private static final long LIST_JOBS_PAGE_SIZE = 1000L;
+  private static final int MAX_LIST_JOBS_PAGES_PER_POLL = 5;
+  private static final List<String> DONE_STATE_FILTER = Collections.singletonList("done");
+  private static final String JOB_LIST_FIELDS = "jobs(jobReference/jobId),nextPageToken";
+  /*
+   * The Configuration of a Load Job lists its source URIs, which the completion has no use for
+   */
+  private static final BigQuery.JobOption JOB_FIELDS =
+      BigQuery.JobOption.fields(
+          BigQuery.JobField.ID, BigQuery.JobField.STATUS, BigQuery.JobField.STATISTICS);
+  private final long pollIntervalMs;
+  private final long minPollIntervalMs;
+  private final boolean predictivePollScheduling;
+  private final CompletedLoadJobHandler completedLoadJobHandler;
+  private Counter pollCount = Metrics.counter(BatchedMonitorJobDoFn.class, "batched-polls");
+  private Counter listJobsPageCount =
+      Metrics.counter(BatchedMonitorJobDoFn.class, "list-jobs-pages");
+  private Counter listJobsErrorCount =
+      Metrics.counter(BatchedMonitorJobDoFn.class, "list-jobs-errors");
+  private Counter listJobsTruncatedCount =
+      Metrics.counter(BatchedMonitorJobDoFn.class, "list-jobs-truncated");
+  private Counter staleJobCount = Metrics.counter(BatchedMonitorJobDoFn.class, "stale-jobs");
+  private Counter missingJobCount = Metrics.counter(BatchedMonitorJobDoFn.class, "missing-jobs");
+  private Distribution monitoredJobsPerPoll =
+      Metrics.distribution(BatchedMonitorJobDoFn.class, "monitored-jobs-per-poll");
+  private Distribution completedJobsPerPoll =
+      Metrics.distribution(BatchedMonitorJobDoFn.class, "completed-jobs-per-poll");
+  private Distribution pollsPerJob = Metrics.distribution(BatchedMonitorJobDoFn.class, "polls-per-job");
+  private Counter unpredictedJobCount =
+      Metrics.counter(BatchedMonitorJobDoFn.class, "unpredicted-jobs");
+
+  @StateId("monitoredJobs")
+  private final StateSpec<BagState<PubsubMessage>> monitoredJobsSpec =
+      StateSpecs.bag(PubsubMessageWithAttributesCoder.of());
+
+  /*
+   * Time(ms) the pollJobs Timer is set at
+   */
+  @StateId("nextPoll")
+  private final StateSpec<ValueState<Long>> nextPollSpec = StateSpecs.value(VarLongCoder.of());
+
+  @TimerId("pollJobs")
+  private final TimerSpec pollJobsSpec = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
+  BatchedMonitorJobDoFn(
+      MonitorOptions options,
+      TupleTag<PubsubMessage> pushedBackForRetryAfterJobFailure,
+      TupleTag<String> failedLoadJobRequests,
+      TupleTag<PubsubMessage> releasedSlots) {
+    this.pollIntervalMs = Duration.standardSeconds(options.getMonitorPollSeconds().get()).getMillis();
+    this.minPollIntervalMs =
+        Duration.standardSeconds(options.getMonitorMinPollSeconds().get()).getMillis();
+    String pollScheduling = options.getMonitorPollScheduling().get();
+    if (!pollScheduling.equals("fixed") && !pollScheduling.equals("predictive")) {
+      throw new IllegalArgumentException(
+          "Unknown Monitor Poll Scheduling " + pollScheduling + ", expected fixed or predictive");
+    }
+    this.predictivePollScheduling = pollScheduling.equals("predictive");
+    this.completedLoadJobHandler =
+        new CompletedLoadJobHandler(
+            options, pushedBackForRetryAfterJobFailure, failedLoadJobRequests, releasedSlots);
+  }
+
+  /*
+   * Creation time of the Job as recorded by the Loader, or the time the Monitor first held it
+   */
+  private static long getJobCreatedTimeMs(
+      LoaderEnvelope loaderEnvelope, PubsubMessage loaderEnvelopeMessage) {
+    Long jobCreatedTimestamp = loaderEnvelope.loaderEnvelopeAttributes.getJobCreatedTimestamp();
+    if (jobCreatedTimestamp != null) {
+      return jobCreatedTimestamp;
+    }
+    return Long.parseLong(loaderEnvelopeMessage.getAttribute(MONITORED_SINCE_ATTRIBUTE));
+  }
+
+  private static PubsubMessage withPollAttributes(
+      PubsubMessage loaderEnvelopeMessage, long nextPollMs, int pollCount) {
+    Map<String, String> loaderEnvelopeAttributesMap =
+        new HashMap<String, String>(loaderEnvelopeMessage.getAttributeMap());
+    loaderEnvelopeAttributesMap.put(NEXT_POLL_ATTRIBUTE, String.valueOf(nextPollMs));
+    loaderEnvelopeAttributesMap.put(POLL_COUNT_ATTRIBUTE, String.valueOf(pollCount));
+    return new PubsubMessage(loaderEnvelopeMessage.getPayload(), loaderEnvelopeAttributesMap);
+  }
+
+  private static long getNextPollMs(PubsubMessage loaderEnvelopeMessage) {
+    return Long.parseLong(loaderEnvelopeMessage.getAttribute(NEXT_POLL_ATTRIBUTE));
+  }
+
+  private static int getPollCount(PubsubMessage loaderEnvelopeMessage) {
+    return Integer.parseInt(loaderEnvelopeMessage.getAttribute(POLL_COUNT_ATTRIBUTE));
+  }
+
+  /*
+   * Time(ms) of the first poll of a Job: just after its predicted completion time, or a poll
+   * interval away when the Scheduling is fixed or the model cannot predict it yet
+   */
+  private long getFirstPollMs(PubsubMessage loaderEnvelopeMessage, long nowMs) {
+    if (!this.predictivePollScheduling) {
+      return nowMs + this.pollIntervalMs;
+    }
+    LoaderEnvelope loaderEnvelope =
+        LoaderMessageCodec.decodeLoaderEnvelope(loaderEnvelopeMessage.getPayload());
+    Long predictedCompletionTimeMs =
+        LoadJobRunTimeModel.getInstance()
+            .predictCompletionTimeMs(
+                loaderEnvelope, getJobCreatedTimeMs(loaderEnvelope, loaderEnvelopeMessage));
+    if (predictedCompletionTimeMs == null) {
+      this.unpredictedJobCount.inc();
+      return nowMs + this.pollIntervalMs;
+    }
+    return Math.max(predictedCompletionTimeMs + COMPLETION_SLACK_MS, nowMs + this.minPollIntervalMs);
+  }
+
+  /*
+   * Time(ms) of the next poll of a Job not DONE after the given number of its polls. The predictive
+   * Scheduling starts from half the average prediction error, and doubles it up to the poll interval
+   */
+  private long getRetryPollMs(int pollCount, long nowMs) {
+    if (!this.predictivePollScheduling) {
+      return nowMs + this.pollIntervalMs;
+    }
+    return nowMs
+        + LoadJobRunTimeModel.getInstance()
+            .getRetryIntervalMs(pollCount, this.minPollIntervalMs, this.pollIntervalMs);
+  }
+
+  /*
+   * Brings the pollJobs Timer forward to the given time, unless it is already set earlier
+   */
+  private static void schedulePoll(
+      ValueState<Long> nextPollState, Timer pollJobsTimer, long nextPollMs, long nowMs) {
+    Long scheduledPollMs = nextPollState.read();
+    if (scheduledPollMs == null || nextPollMs < scheduledPollMs) {
+      pollJobsTimer.offset(Duration.millis(Math.max(0L, nextPollMs - nowMs))).setRelative();
+      nextPollState.write(nextPollMs);
+    }
+  }
+
+  /*
+   * Looks a monitored Job up on its own for its status and statistics, and completes it when it is
+   * DONE. Returns true once the Job is completed
+   */
+  private boolean completeMonitoredJob(
+      OnTimerContext context,
+      Map<String, PubsubMessage> monitoredJobs,
+      Map<String, LoaderEnvelope> loaderEnvelopes,
+      String jobId) {
+    Job job = MonitorBigQuery.getInstance().getJob(jobId, JOB_FIELDS);
+    if (job == null || job.getStatus().getState() != JobStatus.State.DONE) {
+      return false;
+    }
+    PubsubMessage loaderEnvelopeMessage = monitoredJobs.remove(jobId);
+    this.pollsPerJob.update(getPollCount(loaderEnvelopeMessage));
+    this.completedLoadJobHandler.handle(
+        context, loaderEnvelopeMessage, loaderEnvelopes.get(jobId), job);
+    return true;
+  }
+
+  /*
+   * Lists the DONE Jobs created between the oldest and the newest monitored ones, and completes the
+   * monitored Jobs among them. Once the maximum pages per poll are listed, the monitored Jobs due
+   * for this poll which were not listed yet are looked up on their own instead. Returns the number
+   * of Jobs completed
+   */
+  private int completeListedJobs(
+      OnTimerContext context,
+      Map<String, PubsubMessage> monitoredJobs,
+      Map<String, LoaderEnvelope> loaderEnvelopes,
+      long oldestJobCreatedTimeMs,
+      long newestJobCreatedTimeMs,
+      long nowMs)
+      throws IOException {
+    int completedJobs = 0;
+    int listedPages = 0;
+    String pageToken = null;
+    do {
+      JobList jobList =
+          MonitorBigQuery.getBigquery()
+              .jobs()
+              .list(MonitorBigQuery.getInstance().getOptions().getProjectId())
+              .setAllUsers(true)
+              .setStateFilter(DONE_STATE_FILTER)
+              .setProjection("minimal")
+              .setFields(JOB_LIST_FIELDS)
+              .setMinCreationTime(
+                  BigInteger.valueOf(oldestJobCreatedTimeMs - CREATION_TIME_SKEW_MS))
+              .setMaxCreationTime(
+                  BigInteger.valueOf(newestJobCreatedTimeMs + CREATION_TIME_SKEW_MS))
+              .setMaxResults(LIST_JOBS_PAGE_SIZE)
+              .setPageToken(pageToken)
+              .execute();
+      this.listJobsPageCount.inc();
+      listedPages++;
+      if (jobList.getJobs() != null) {
+        for (JobList.Jobs listedJob : jobList.getJobs()) {
+          String jobId = listedJob.getJobReference().getJobId();
+          if (monitoredJobs.containsKey(jobId)
+              && completeMonitoredJob(context, monitoredJobs, loaderEnvelopes, jobId)) {
+            completedJobs++;
+          }
+        }
+      }
+      if (monitoredJobs.isEmpty()) {
+        return completedJobs;
+      }
+      pageToken = jobList.getNextPageToken();
+    } while (pageToken != null && listedPages < MAX_LIST_JOBS_PAGES_PER_POLL);
+    if (pageToken == null) {
+      return completedJobs;
+    }
+    this.listJobsTruncatedCount.inc();
+    for (String jobId : new ArrayList<String>(monitoredJobs.keySet())) {
+      if ((!this.predictivePollScheduling || getNextPollMs(monitoredJobs.get(jobId)) <= nowMs)
+          && completeMonitoredJob(context, monitoredJobs, loaderEnvelopes, jobId)) {
+        completedJobs++;
+      }
+    }
+    return completedJobs;
+  }
+
+  /*
+   * Looks up a Job older than the maximum Load Job execution time on its own. Returns true once the
+   * Job is done with
+   */
+  private boolean completeStaleJob(
+      OnTimerContext context, PubsubMessage loaderEnvelopeMessage, LoaderEnvelope loaderEnvelope) {
+    String jobId = loaderEnvelope.loaderEnvelopeAttributes.getJobId();
+    this.staleJobCount.inc();
+    Job job =
+        MonitorBigQuery.getInstance().getJob(jobId, JOB_FIELDS);
+    if (job == null) {
+      LOG.warn("BQ Job {} is no longer found, dead lettering its Load Requests", jobId);
+      this.missingJobCount.inc();
+      this.completedLoadJobHandler.deadLetter(context, loaderEnvelope);
+      return true;
+    }
+    if (job.getStatus().getState() != JobStatus.State.DONE) {
+      return false;
+    }
+    this.pollsPerJob.update(getPollCount(loaderEnvelopeMessage));
+    this.completedLoadJobHandler.handle(context, loaderEnvelopeMessage, loaderEnvelope, job);
+    return true;
+  }
+
+  @ProcessElement
+  public void processElement(
+      ProcessContext context,
+      @StateId("monitoredJobs") BagState<PubsubMessage> monitoredJobsState,
+      @StateId("nextPoll") ValueState<Long> nextPollState,
+      @TimerId("pollJobs") Timer pollJobsTimer) {
+    long nowMs = LoaderClock.currentTimeMillis();
+    PubsubMessage loaderEnvelopeMessage = context.element().getValue();
+    Map<String, String> loaderEnvelopeAttributesMap = new HashMap<String, String>();
+    if (loaderEnvelopeMessage.getAttributeMap() != null) {
+      loaderEnvelopeAttributesMap.putAll(loaderEnvelopeMessage.getAttributeMap());
+    }
+    loaderEnvelopeAttributesMap.putIfAbsent(MONITORED_SINCE_ATTRIBUTE, String.valueOf(nowMs));
+    loaderEnvelopeMessage =
+        new PubsubMessage(loaderEnvelopeMessage.getPayload(), loaderEnvelopeAttributesMap);
+    long nextPollMs = getFirstPollMs(loaderEnvelopeMessage, nowMs);
+    monitoredJobsState.add(withPollAttributes(loaderEnvelopeMessage, nextPollMs, 0));
+    schedulePoll(nextPollState, pollJobsTimer, nextPollMs, nowMs);
+  }
+
+  @OnTimer("pollJobs")
+  public void onPollJobs(
+      OnTimerContext context,
+      @StateId("monitoredJobs") BagState<PubsubMessage> monitoredJobsState,
+      @StateId("nextPoll") ValueState<Long> nextPollState,
+      @TimerId("pollJobs") Timer pollJobsTimer) {
+    long nowMs = LoaderClock.currentTimeMillis();
+    nextPollState.clear();
+    /*
+     * jobId -> Loader Envelope(message and decoded) of the Jobs monitored by this Shard
+     */
+    Map<String, PubsubMessage> monitoredJobs = new HashMap<String, PubsubMessage>();
+    Map<String, LoaderEnvelope> loaderEnvelopes = new HashMap<String, LoaderEnvelope>();
+    long oldestJobCreatedTimeMs = Long.MAX_VALUE;
+    long newestJobCreatedTimeMs = Long.MIN_VALUE;
+    for (PubsubMessage loaderEnvelopeMessage : monitoredJobsState.read()) {
+      LoaderEnvelope loaderEnvelope =
+          LoaderMessageCodec.decodeLoaderEnvelope(loaderEnvelopeMessage.getPayload());
+      String jobId = loaderEnvelope.loaderEnvelopeAttributes.getJobId();
+      /*
+       * The poll counts for the Jobs it was due for. With the fixed Scheduling it is due for all
+       */
+      if (!this.predictivePollScheduling || getNextPollMs(loaderEnvelopeMessage) <= nowMs) {
+        loaderEnvelopeMessage =
+            withPollAttributes(
+                loaderEnvelopeMessage,
+                getNextPollMs(loaderEnvelopeMessage),
+                getPollCount(loaderEnvelopeMessage) + 1);
+      }
+      monitoredJobs.put(jobId, loaderEnvelopeMessage);
+      loaderEnvelopes.put(jobId, loaderEnvelope);
+      long jobCreatedTimeMs = getJobCreatedTimeMs(loaderEnvelope, loaderEnvelopeMessage);
+      oldestJobCreatedTimeMs = Math.min(oldestJobCreatedTimeMs, jobCreatedTimeMs);
+      newestJobCreatedTimeMs = Math.max(newestJobCreatedTimeMs, jobCreatedTimeMs);
+    }
+    this.pollCount.inc();
+    this.monitoredJobsPerPoll.update(monitoredJobs.size());
+    int completedJobs = 0;
+    if (!monitoredJobs.isEmpty()) {
+      try {
+        completedJobs =
+            completeListedJobs(
+                context,
+                monitoredJobs,
+                loaderEnvelopes,
+                Math.max(oldestJobCreatedTimeMs, nowMs - MAX_LOAD_JOB_EXECUTION_MS),
+                newestJobCreatedTimeMs,
+                nowMs);
+        Iterator<Map.Entry<String, PubsubMessage>> monitoredJobsIterator =
+            monitoredJobs.entrySet().iterator();
+        while (monitoredJobsIterator.hasNext()) {
+          Map.Entry<String, PubsubMessage> monitoredJob = monitoredJobsIterator.next();
+          LoaderEnvelope loaderEnvelope = loaderEnvelopes.get(monitoredJob.getKey());
+          if (nowMs - getJobCreatedTimeMs(loaderEnvelope, monitoredJob.getValue())
+                  > MAX_LOAD_JOB_EXECUTION_MS
+              && completeStaleJob(context, monitoredJob.getValue(), loaderEnvelope)) {
+            monitoredJobsIterator.remove();
+            completedJobs++;
+          }
+        }
+      } catch (IOException | BigQueryException e) {
+        /*
+         * The Jobs not completed yet stay monitored, the next poll lists them again
+         */
+        LOG.warn("Unable to list the DONE BQ Jobs: {}", e.getMessage());
+        this.listJobsErrorCount.inc();
+      }
+    }
+    this.completedJobsPerPoll.update(completedJobs);
+    monitoredJobsState.clear();
+    if (monitoredJobs.isEmpty()) {
+      return;
+    }
+    /*
+     * The Jobs this poll was due for are due again after their retry interval, and the Timer is
+     * set at the earliest Job due
+     */
+    long nextPollMs = Long.MAX_VALUE;
+    for (PubsubMessage loaderEnvelopeMessage : monitoredJobs.values()) {
+      if (getNextPollMs(loaderEnvelopeMessage) <= nowMs || !this.predictivePollScheduling) {
+        loaderEnvelopeMessage =
+            withPollAttributes(
+                loaderEnvelopeMessage,
+                getRetryPollMs(getPollCount(loaderEnvelopeMessage), nowMs),
+                getPollCount(loaderEnvelopeMessage));
+      }
+      monitoredJobsState.add(loaderEnvelopeMessage);
+      nextPollMs = Math.min(nextPollMs, getNextPollMs(loaderEnvelopeMessage));
+    }
+    schedulePoll(
+        nextPollState, pollJobsTimer, Math.max(nextPollMs, nowMs + this.minPollIntervalMs), nowMs);
+  }
+}
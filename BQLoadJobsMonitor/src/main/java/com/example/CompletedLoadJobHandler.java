@@ -0,0 +1,425 @@
+package com.example;
+
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobStatistics;
+import com.google.gson.Gson;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.commons.lang3.ObjectUtils;
+import org.joda.time.Duration;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/*
+ * Takes a Load Job seen DONE by the Monitor to its outcome: Job Metrics and Spans, the Slot
+ * Release for the Loader, and the Retry(or Dead Letter) of the Load Requests of a Failed Job.
+ * Shared by the Monitoring Modes, each of which only decides how a Job is found DONE.
+ * The error of a Failed Job is classified by the LoadJobErrorClassifier: the Load Request of a
+ * Job failed by a fatal error goes to the Dead Letter(or is bisected, for a data error) without
+ * Retry, unless the Job coalesced it with others, the others are retried after a BackOff, a longer
+ * one for Quota errors, which DeferRetryDoFn waits out
+ */
+class CompletedLoadJobHandler implements Serializable {
+
+  private static final Gson GSON = new Gson();
+  private final Integer maxLoadRequestJobFailures;
+  private final TupleTag<PubsubMessage> pushedBackForRetryAfterJobFailure;
+  private final TupleTag<String> failedLoadJobRequests;
+  private final TupleTag<PubsubMessage> releasedSlots;
+  private final boolean slotReleaseEnabled;
+  private final Tracer tracer;
+  private final boolean bisectFailedJobs;
+  private final LoadJobErrorClassifier jobErrorClassifier;
+  private final long transientJobErrorBackOffMs;
+  private final long quotaJobErrorBackOffMs;
+  private final long maxJobErrorBackOffMs;
+  private final int messageWriterFormat;
+  /*
+   * The Metrics keep the namespace of MonitorJobDoFn, whichever Monitoring Mode completes the Job
+   */
+  private Counter failedLoadJobCount = Metrics.counter(MonitorJobDoFn.class, "failed-load-jobs");
+  private Counter successfulLoadJobCount =
+      Metrics.counter(MonitorJobDoFn.class, "successful-load-jobs");
+  private Counter slotReleaseCount = Metrics.counter(MonitorJobDoFn.class, "slot-releases");
+  private Distribution jobAwaitingToRunLatencyMs =
+      Metrics.distribution(MonitorJobDoFn.class, "job-awaiting-to-run-latency-ms");
+  private Distribution jobRunLatencyMs =
+      Metrics.distribution(MonitorJobDoFn.class, "job-run-latency-ms");
+  private Distribution jobTotalLatencyMs =
+      Metrics.distribution(MonitorJobDoFn.class, "job-total-latency-ms");
+  private Distribution detectionDelayMs =
+      Metrics.distribution(MonitorJobDoFn.class, "detection-delay-ms");
+  /*
+   * Bytes loaded again, or dead lettered, because of failed Jobs
+   */
+  private Counter wastedLoadBytes = Metrics.counter(MonitorJobDoFn.class, "wasted-load-bytes");
+  private Counter bisectedLoadRequestCount =
+      Metrics.counter(MonitorJobDoFn.class, "bisected-load-requests");
+  private Counter offendingFileCount = Metrics.counter(MonitorJobDoFn.class, "offending-files");
+  private Counter fatalJobFailureCount =
+      Metrics.counter(MonitorJobDoFn.class, "fatal-job-failures");
+  private Counter transientJobFailureCount =
+      Metrics.counter(MonitorJobDoFn.class, "transient-job-failures");
+  private Counter quotaJobFailureCount =
+      Metrics.counter(MonitorJobDoFn.class, "quota-job-failures");
+
+  CompletedLoadJobHandler(
+      MonitorOptions options,
+      TupleTag<PubsubMessage> pushedBackForRetryAfterJobFailure,
+      TupleTag<String> failedLoadJobRequests,
+      TupleTag<PubsubMessage> releasedSlots) {
+    this.maxLoadRequestJobFailures = options.getMaxLoadRequestJobFailures().get();
+    this.pushedBackForRetryAfterJobFailure = pushedBackForRetryAfterJobFailure;
+    this.failedLoadJobRequests = failedLoadJobRequests;
+    this.releasedSlots = releasedSlots;
+    this.slotReleaseEnabled = !options.getSlotReleaseTopic().get().isEmpty();
+    this.tracer = new Tracer("BQLoadJobsMonitor", options.getSpanSink().get());
+    String jobFailureHandling = options.getJobFailureHandling().get();
+    if (!jobFailureHandling.equals("retry") && !jobFailureHandling.equals("bisect")) {
+      throw new IllegalArgumentException(
+          "Unknown Job Failure Handling " + jobFailureHandling + ", expected retry or bisect");
+    }
+    this.bisectFailedJobs = jobFailureHandling.equals("bisect");
+    this.jobErrorClassifier = LoadJobErrorClassifier.forSpec(options.getJobErrorClassifier().get());
+    this.transientJobErrorBackOffMs =
+        Duration.standardSeconds(options.getTransientJobErrorBackOffSeconds().get()).getMillis();
+    this.quotaJobErrorBackOffMs =
+        Duration.standardSeconds(options.getQuotaJobErrorBackOffSeconds().get()).getMillis();
+    this.maxJobErrorBackOffMs =
+        Duration.standardSeconds(options.getMaxJobErrorBackOffSeconds().get()).getMillis();
+    this.messageWriterFormat = LoaderMessageCodec.getWriterFormat(options.getMessageFormat().get());
+  }
+
+  /*
+   * Classifies the error of the Failed Job, and counts it by class and by BQ reason code
+   */
+  private LoadJobErrorClassifier.ErrorClass classifyJobError(Job job) {
+    BigQueryError error = job.getStatus().getError();
+    String reason = ObjectUtils.firstNonNull(error.getReason(), "unknown");
+    Metrics.counter(MonitorJobDoFn.class, "job-errors-" + reason).inc();
+    LoadJobErrorClassifier.ErrorClass errorClass =
+        this.jobErrorClassifier.classify(reason, error.getMessage());
+    switch (errorClass) {
+      case FATAL:
+        this.fatalJobFailureCount.inc();
+        break;
+      case QUOTA:
+        this.quotaJobFailureCount.inc();
+        break;
+      default:
+        this.transientJobFailureCount.inc();
+    }
+    return errorClass;
+  }
+
+  /*
+   * BackOff(ms) before the Retry of a Load Request after the given number of its Job failures so
+   * far, doubled on every further failure up to the maximum BackOff
+   */
+  private long getRetryBackOffMs(LoadJobErrorClassifier.ErrorClass errorClass, int retriesSoFar) {
+    long backOffMs =
+        errorClass == LoadJobErrorClassifier.ErrorClass.QUOTA
+            ? this.quotaJobErrorBackOffMs
+            : this.transientJobErrorBackOffMs;
+    return Math.min(backOffMs << Math.min(retriesSoFar, 16), this.maxJobErrorBackOffMs);
+  }
+
+  /*
+   * Location and message of every BQ error of the failed Job
+   */
+  private static List<String> getErrorDetails(Job job) {
+    List<BigQueryError> errors = new ArrayList<BigQueryError>();
+    if (job.getStatus().getExecutionErrors() != null) {
+      errors.addAll(job.getStatus().getExecutionErrors());
+    }
+    errors.add(job.getStatus().getError());
+    List<String> errorDetails = new ArrayList<String>();
+    for (BigQueryError error : errors) {
+      errorDetails.add(error.getLocation());
+      errorDetails.add(error.getMessage());
+    }
+    return errorDetails;
+  }
+
+  /*
+   * Whether the failed Job was failed by its data: an invalid reason at a location of the source,
+   * the only error some of the files of the Job may be blamed for
+   */
+  private static boolean isDataError(Job job) {
+    List<BigQueryError> errors = new ArrayList<BigQueryError>();
+    if (job.getStatus().getExecutionErrors() != null) {
+      errors.addAll(job.getStatus().getExecutionErrors());
+    }
+    errors.add(job.getStatus().getError());
+    for (BigQueryError error : errors) {
+      if ("invalid".equals(error.getReason())
+          && error.getLocation() != null
+          && !error.getLocation().isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /*
+   * Submits the Load Request for Retry once the BackOff has passed, counting the failure of the Job
+   * against it when asked to
+   */
+  private void retry(
+      DoFn<?, Void>.WindowedContext context,
+      LoadRequest loadRequest,
+      Job job,
+      boolean countFailure,
+      long backOffMs) {
+    if (countFailure) {
+      Integer retriesSoFar = ObjectUtils.firstNonNull(loadRequest.loadRequestAttributes.getRetryAttemptsAfterJobFailures(), 0);
+      loadRequest.loadRequestAttributes.setRetryAttemptsAfterJobFailures(retriesSoFar + 1);
+    }
+    List<String> previousJobIds = ObjectUtils.firstNonNull(loadRequest.loadRequestAttributes.getPreviousFailedJobIds(), new ArrayList<String>());
+    previousJobIds.add(job.getJobId().toString());
+    loadRequest.loadRequestAttributes.setPreviousFailedJobIds(previousJobIds);
+    Map<String, String> loadRequestAttributesMap = new HashMap<String, String>();
+    loadRequestAttributesMap.put("uniqueMessageId", UUID.randomUUID().toString());
+    if (loadRequest.loadRequestAttributes.getTraceContext() != null) {
+      loadRequestAttributesMap.put(TraceContext.TRACEPARENT_ATTRIBUTE, loadRequest.loadRequestAttributes.getTraceContext());
+    }
+    if (backOffMs > 0) {
+      loadRequestAttributesMap.put(
+          DeferRetryDoFn.RETRY_NOT_BEFORE_ATTRIBUTE,
+          String.valueOf(LoaderClock.currentTimeMillis() + backOffMs));
+    }
+    context.output(
+        this.pushedBackForRetryAfterJobFailure,
+        new PubsubMessage(
+            LoaderMessageCodec.encodeLoadRequest(loadRequest, this.messageWriterFormat),
+            loadRequestAttributesMap));
+  }
+
+  /*
+   * Narrows the Load Request down to the files the BQ errors name, or to halves of its files, so
+   * that only the offending files reach the Dead Letter. The halves are retried without counting
+   * the failure against them, as only one of them may hold the offending file.
+   * Returns false when the Load Request can not be narrowed down(a single file, no bundleFiles, or
+   * none of its files named while the errors name others)
+   */
+  private boolean bisect(
+      DoFn<?, Void>.WindowedContext context,
+      LoadRequest loadRequest,
+      Job job,
+      Set<String> offendingUris) {
+    LoadRequestBisector.Bisection bisection =
+        LoadRequestBisector.bisect(loadRequest, offendingUris);
+    if (bisection.isEmpty()) {
+      return false;
+    }
+    this.bisectedLoadRequestCount.inc();
+    for (LoadRequest deadLetteredPart : bisection.deadLetteredParts) {
+      this.offendingFileCount.inc(deadLetteredPart.loadRequestPayload.bundleFiles.size());
+      context.output(this.failedLoadJobRequests, GSON.toJson(deadLetteredPart));
+    }
+    for (LoadRequest retriedPart : bisection.retriedParts) {
+      retry(context, retriedPart, job, false, 0L);
+    }
+    return true;
+  }
+
+  /*
+   * Records the time the Load Job spent Pending and Running in BQ, and the time until the Monitor
+   * saw it DONE, as Spans of the Trace of every Load Request of the Job
+   */
+  private void recordCompletedJobSpans(LoaderEnvelope loaderEnvelope, Job job) {
+    JobStatistics jobStatistics = job.getStatistics();
+    long jobStartTime = jobStatistics.getStartTime();
+    long jobCreatedTime = jobStatistics.getCreationTime();
+    long jobEndTime = jobStatistics.getEndTime();
+    for (LoadRequest loadRequest : loaderEnvelope.getSubmittedLoadRequests()) {
+      Map<String, String> spanAttributes = new HashMap<String, String>();
+      spanAttributes.put("bundleId", loadRequest.loadRequestPayload.bundleId);
+      spanAttributes.put("jobId", job.getJobId().getJob());
+      spanAttributes.put("jobState", job.getStatus().getError() == null ? "SUCCEEDED" : "FAILED");
+      TraceContext traceContext = Tracer.getTraceContext(loadRequest, null);
+      traceContext =
+          this.tracer.record(traceContext, "job-pending", jobCreatedTime, jobStartTime, spanAttributes);
+      traceContext =
+          this.tracer.record(traceContext, "job-running", jobStartTime, jobEndTime, spanAttributes);
+      traceContext =
+          this.tracer.record(
+              traceContext,
+              "completion-detection",
+              jobEndTime,
+              LoaderClock.currentTimeMillis(),
+              spanAttributes);
+      Tracer.setTraceContext(loadRequest, traceContext);
+    }
+  }
+
+  /*
+   * The Job no longer holds a Load Job Slot, whether it has Succeeded or Failed. The Slot Release
+   * goes to the Loader Permit Shard which submitted the Job
+   */
+  private PubsubMessage getSlotReleaseMessage(String jobId, PubsubMessage loaderEnvelopeMessage) {
+    Map<String, String> slotReleaseAttributesMap = new HashMap<String, String>();
+    slotReleaseAttributesMap.put(SlotRelease.JOB_ID_ATTRIBUTE, jobId);
+    String permitShard = loaderEnvelopeMessage.getAttribute(SlotRelease.PERMIT_SHARD_ATTRIBUTE);
+    if (permitShard != null) {
+      slotReleaseAttributesMap.put(SlotRelease.PERMIT_SHARD_ATTRIBUTE, permitShard);
+    }
+    return new PubsubMessage(jobId.getBytes(StandardCharsets.UTF_8), slotReleaseAttributesMap);
+  }
+
+  private void updatePipelineMetrics(Job job) {
+    JobStatistics jobStatistics = job.getStatistics();
+    long jobStartTime = jobStatistics.getStartTime();
+    long jobCreatedTime = jobStatistics.getCreationTime();
+    long jobEndTime = jobStatistics.getEndTime();
+    this.jobAwaitingToRunLatencyMs.update(jobStartTime - jobCreatedTime);
+    this.jobRunLatencyMs.update(jobEndTime - jobStartTime);
+    this.jobTotalLatencyMs.update((jobStartTime - jobCreatedTime) + (jobEndTime - jobStartTime));
+    /*
+     * Time from the end of the Job in BQ until the Monitor saw it DONE
+     */
+    this.detectionDelayMs.update(Math.max(0L, LoaderClock.currentTimeMillis() - jobEndTime));
+    if (job.getStatus().getError() != null) {
+      /*
+       * Job has not Succeeded.
+       * Error details are encapsulated inside Job in addition to the Job State, and Job Statistics
+       */
+      this.failedLoadJobCount.inc();
+    } else {
+      /*
+       * Job is Successful. Update the Job State, Job Statistics
+       */
+      this.successfulLoadJobCount.inc();
+    }
+  }
+
+  void handle(
+      DoFn<?, Void>.WindowedContext context,
+      PubsubMessage loaderEnvelopeMessage,
+      LoaderEnvelope loaderEnvelope,
+      Job job) {
+    /*
+     * Job is in DONE State
+     */
+    this.updatePipelineMetrics(job);
+    LoadJobRunTimeModel.getInstance()
+        .observe(
+            loaderEnvelope,
+            job.getStatistics().getCreationTime(),
+            job.getStatistics().getStartTime(),
+            job.getStatistics().getEndTime());
+    if (this.slotReleaseEnabled) {
+      this.slotReleaseCount.inc();
+      context.output(
+          this.releasedSlots, getSlotReleaseMessage(job.getJobId().getJob(), loaderEnvelopeMessage));
+    }
+    if (this.tracer.isEnabled()) {
+      this.recordCompletedJobSpans(loaderEnvelope, job);
+    }
+    /*
+     * Add Job Monitoring Stats as PubSub attributes or Update State Management Store
+     */
+    loaderEnvelope.loaderEnvelopeAttributes.setJobMonitoringEndTimeStamp(ObjectUtils.firstNonNull(loaderEnvelope.loaderEnvelopeAttributes.getJobMonitoringEndTimeStamp(),LoaderClock.currentTimeMillis()));
+    /*
+     * Only the blocking Monitor records when it started monitoring the Job
+     */
+    loaderEnvelope.loaderEnvelopeAttributes.setJobMonitoringStartTimeStamp(ObjectUtils.firstNonNull(loaderEnvelope.loaderEnvelopeAttributes.getJobMonitoringStartTimeStamp(), loaderEnvelope.loaderEnvelopeAttributes.getJobMonitoringEndTimeStamp()));
+    loaderEnvelope.loaderEnvelopeAttributes.setJobMonitoringTotalTimeMs(ObjectUtils.firstNonNull(loaderEnvelope.loaderEnvelopeAttributes.getJobMonitoringTotalTimeMs(), (
+        loaderEnvelope.loaderEnvelopeAttributes.getJobMonitoringEndTimeStamp())
+            - loaderEnvelope.loaderEnvelopeAttributes.getJobMonitoringStartTimeStamp()));
+    loaderEnvelope.loaderEnvelopeAttributes.setJobCompleted(true);
+
+    /*
+     * TODO: Update Job State, Job Statistics, Errors(if any) inside State Management Store
+     */
+    long jobStartTime = job.getStatistics().getStartTime();
+    long jobCreatedTime = job.getStatistics().getCreationTime();
+    long jobEndTime = job.getStatistics().getEndTime();
+    loaderEnvelope.loaderEnvelopeAttributes.setJobAwaitingToRunLatencyMs(jobStartTime - jobCreatedTime);
+    loaderEnvelope.loaderEnvelopeAttributes.setJobRunLatencyMs(jobEndTime - jobStartTime);
+    loaderEnvelope.loaderEnvelopeAttributes.setJobTotalLatencyMs((jobStartTime - jobCreatedTime) + (jobEndTime - jobStartTime));
+    /*
+     * TODO: We will lose LoaderEnvelope if the job has failed. Ensure that Job Statistics are updated before
+     *  moving forward
+     */
+    if (job.getStatus().getError() != null) {
+      /*
+       * TODO: The Job has Failed. Capture Error details and update state
+       *  The size of Error Message and Error Reason may be large to fit
+       *  Inside PubSub Attributes
+       *  For eg:
+       *  messageAttributes.putIfAbsent("errorMessage", job.getStatus().getError().getMessage());
+       *  messageAttributes.putIfAbsent("errorReason", job.getStatus().getError().getReason());
+       *
+       * Extract and Submit Original LoadRequest(input element) with Attributes to pushedBackForRetryAfterJobFailure TupleTag
+       * for Job Replay(Retry after Job Failure within BQ)
+       */
+      /*
+       * A coalesced Load Job carries several Load Requests, each of them is retried(or dead lettered) on its own
+       */
+      LoadJobErrorClassifier.ErrorClass errorClass = classifyJobError(job);
+      boolean fatal = errorClass == LoadJobErrorClassifier.ErrorClass.FATAL;
+      /*
+       * Only a data error may be caused by some of the files, any other error is retried(or dead
+       * lettered) whole
+       */
+      boolean bisectJob = this.bisectFailedJobs && fatal && isDataError(job);
+      Set<String> offendingUris =
+          bisectJob ? LoadRequestBisector.getOffendingUris(getErrorDetails(job)) : null;
+      for (LoadRequest loadRequest : loaderEnvelope.getSubmittedLoadRequests()) {
+        if (loadRequest.loadRequestPayload.bundleSize != null) {
+          this.wastedLoadBytes.inc(loadRequest.loadRequestPayload.bundleSize);
+        }
+        if (bisectJob && bisect(context, loadRequest, job, offendingUris)) {
+          continue;
+        }
+        Integer retriesSoFar = ObjectUtils.firstNonNull(loadRequest.loadRequestAttributes.getRetryAttemptsAfterJobFailures(), 0);
+        if (fatal && loaderEnvelope.getSubmittedLoadRequests().size() > 1 && retriesSoFar < this.maxLoadRequestJobFailures) {
+          /*
+           * The fatal error of a coalesced Job may come from any of its Load Requests. Each of them is retried
+           * right away in a Job of its own, where only the culprit fails again
+           */
+          retry(context, loadRequest, job, true, 0L);
+        } else if (!fatal && retriesSoFar < this.maxLoadRequestJobFailures) {
+          /*
+           * Check if we are within the max allowed number of RetryAttemptsAfterJobFailures
+           *  and submit the Load Request for Retry
+           */
+          retry(context, loadRequest, job, true, getRetryBackOffMs(errorClass, retriesSoFar));
+        } else {
+          /*
+           * The error is fatal, or we are beyond the maxLoadRequestJobFailures threshold. We need to send the LoadRequest
+           * to Dead Letter GCS location for Manual Inspection/Rectification
+           */
+          context.output(this.failedLoadJobRequests, GSON.toJson(loadRequest));
+        }
+      }
+    } else {
+      /*
+       * TODO: The Job has Succeeded. Extract Stats from LoadEnvelopeAttributes, and Job Status
+       *  Update State Management and we are done monitoring the Job here
+       */
+    }
+  }
+
+  /*
+   * A Job the Monitor can no longer find in BQ, its Load Requests go to the Dead Letter
+   */
+  void deadLetter(DoFn<?, Void>.WindowedContext context, LoaderEnvelope loaderEnvelope) {
+    for (LoadRequest loadRequest : loaderEnvelope.getSubmittedLoadRequests()) {
+      context.output(this.failedLoadJobRequests, GSON.toJson(loadRequest));
+    }
+  }
+}
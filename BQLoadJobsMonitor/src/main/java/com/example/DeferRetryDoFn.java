@@ -0,0 +1,103 @@
+package com.example;
+
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessageWithAttributesCoder;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+import org.joda.time.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Holds the Load Requests retried after a Job failure, keyed by their bundleId, until the BackOff
+ * set by CompletedLoadJobHandler in their monitorRetryNotBeforeTimestamp Attribute has passed, so
+ * that a transient or Quota error of BQ is not hit again right away. The Load Requests without the
+ * Attribute, or past it, go to the Retry Topic right away.
+ */
+public class DeferRetryDoFn extends DoFn<KV<String, PubsubMessage>, PubsubMessage> {
+
+  static final String RETRY_NOT_BEFORE_ATTRIBUTE = "monitorRetryNotBeforeTimestamp";
+  private Counter deferredRetryCount = Metrics.counter(DeferRetryDoFn.class, "deferred-retries");
+
+  @StateId("deferredRetries")
+  private final StateSpec<BagState<PubsubMessage>> deferredRetriesSpec =
+      StateSpecs.bag(PubsubMessageWithAttributesCoder.of());
+
+  /*
+   * Time(ms) the Release Timer is set for
+   */
+  @StateId("releaseAt")
+  private final StateSpec<ValueState<Long>> releaseAtSpec = StateSpecs.value(VarLongCoder.of());
+
+  @TimerId("release")
+  private final TimerSpec releaseSpec = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
+  private static long getRetryNotBefore(PubsubMessage pubsubMessage) {
+    String retryNotBefore = pubsubMessage.getAttribute(RETRY_NOT_BEFORE_ATTRIBUTE);
+    return retryNotBefore == null ? 0L : Long.parseLong(retryNotBefore);
+  }
+
+  @ProcessElement
+  public void processElement(
+      ProcessContext context,
+      @StateId("deferredRetries") BagState<PubsubMessage> deferredRetriesState,
+      @StateId("releaseAt") ValueState<Long> releaseAtState,
+      @TimerId("release") Timer releaseTimer) {
+    long nowMs = LoaderClock.currentTimeMillis();
+    PubsubMessage pubsubMessage = context.element().getValue();
+    long retryNotBefore = getRetryNotBefore(pubsubMessage);
+    if (retryNotBefore <= nowMs) {
+      context.output(pubsubMessage);
+      return;
+    }
+    this.deferredRetryCount.inc();
+    deferredRetriesState.add(pubsubMessage);
+    Long releaseAt = releaseAtState.read();
+    if (releaseAt == null || retryNotBefore < releaseAt) {
+      releaseAtState.write(retryNotBefore);
+      releaseTimer.offset(Duration.millis(retryNotBefore - nowMs)).setRelative();
+    }
+  }
+
+  @OnTimer("release")
+  public void onRelease(
+      OnTimerContext context,
+      @StateId("deferredRetries") BagState<PubsubMessage> deferredRetriesState,
+      @StateId("releaseAt") ValueState<Long> releaseAtState,
+      @TimerId("release") Timer releaseTimer) {
+    long nowMs = LoaderClock.currentTimeMillis();
+    List<PubsubMessage> stillDeferred = new ArrayList<PubsubMessage>();
+    Long nextReleaseAt = null;
+    for (PubsubMessage pubsubMessage : deferredRetriesState.read()) {
+      long retryNotBefore = getRetryNotBefore(pubsubMessage);
+      if (retryNotBefore <= nowMs) {
+        context.output(pubsubMessage);
+      } else {
+        stillDeferred.add(pubsubMessage);
+        nextReleaseAt = nextReleaseAt == null ? retryNotBefore : Math.min(nextReleaseAt, retryNotBefore);
+      }
+    }
+    deferredRetriesState.clear();
+    releaseAtState.clear();
+    if (nextReleaseAt == null) {
+      return;
+    }
+    for (PubsubMessage pubsubMessage : stillDeferred) {
+      deferredRetriesState.add(pubsubMessage);
+    }
+    releaseAtState.write(nextReleaseAt);
+    releaseTimer.offset(Duration.millis(nextReleaseAt - nowMs)).setRelative();
+  }
+}
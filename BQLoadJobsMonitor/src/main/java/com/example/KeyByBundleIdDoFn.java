@@ -0,0 +1,20 @@
+package com.example;
+
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+
+/*
+ * Keys the Load Requests retried after a Job failure by their bundleId, for DeferRetryDoFn to hold
+ * them in keyed state until their BackOff has passed
+ */
+public class KeyByBundleIdDoFn extends DoFn<PubsubMessage, KV<String, PubsubMessage>> {
+
+  @ProcessElement
+  public void processElement(ProcessContext context) {
+    LoadRequest loadRequest =
+        LoaderMessageCodec.decodeLoadRequests(context.element().getPayload()).get(0);
+    context.output(
+        KV.of(String.valueOf(loadRequest.loadRequestPayload.bundleId), context.element()));
+  }
+}
@@ -0,0 +1,19 @@
+package com.example;
+
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+
+/*
+ * Keys the Loader Envelopes by their Job Id, so that every Job is held in keyed state with a Timer
+ * of its own
+ */
+public class KeyByJobIdDoFn extends DoFn<PubsubMessage, KV<String, PubsubMessage>> {
+
+  @ProcessElement
+  public void processElement(ProcessContext context) {
+    LoaderEnvelope loaderEnvelope =
+        LoaderMessageCodec.decodeLoaderEnvelope(context.element().getPayload());
+    context.output(KV.of(loaderEnvelope.loaderEnvelopeAttributes.getJobId(), context.element()));
+  }
+}
@@ -0,0 +1,32 @@
+package com.example;
+
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+
+/*
+ * Keys the Loader Envelopes by one of a small number of Monitor Shards, from the Job Id, so that
+ * every Shard polls BQ for all of its Jobs at once
+ */
+public class KeyByMonitorShardDoFn extends DoFn<PubsubMessage, KV<String, PubsubMessage>> {
+
+  private final int monitorShards;
+
+  KeyByMonitorShardDoFn(int monitorShards) {
+    this.monitorShards = monitorShards;
+  }
+
+  static String getMonitorShard(String jobId, int monitorShards) {
+    return "monitor-shard-" + Math.floorMod(jobId.hashCode(), monitorShards);
+  }
+
+  @ProcessElement
+  public void processElement(ProcessContext context) {
+    LoaderEnvelope loaderEnvelope =
+        LoaderMessageCodec.decodeLoaderEnvelope(context.element().getPayload());
+    context.output(
+        KV.of(
+            getMonitorShard(loaderEnvelope.loaderEnvelopeAttributes.getJobId(), this.monitorShards),
+            context.element()));
+  }
+}
@@ -0,0 +1,97 @@
+package com.example;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Classifies the error of a failed Load Job by its BQ reason code, for the Monitor to decide
+ * whether its Load Requests are worth a Retry. The Classifier is chosen by the jobErrorClassifier
+ * Option of the Monitor:
+ * a) reasons(default) classifies by the documented BQ reason codes
+ * b) none retries every error, as before the classification
+ * c) class:<fully qualified class name> instantiates a LoadJobErrorClassifier with a no-arg
+ * constructor
+ */
+public interface LoadJobErrorClassifier extends Serializable {
+
+  enum ErrorClass {
+    /*
+     * The Job fails the same way however often it is retried(schema mismatch, corrupt data,
+     * missing table, permission denied). Its Load Requests go to the Dead Letter right away
+     */
+    FATAL,
+    /*
+     * BQ failed the Job on its side, a Retry after a BackOff may succeed
+     */
+    TRANSIENT,
+    /*
+     * A Quota or Rate Limit of the BQ Project, a Retry has to wait for the Quota to refill
+     */
+    QUOTA
+  }
+
+  ErrorClass classify(String reason, String message);
+
+  static LoadJobErrorClassifier forSpec(String jobErrorClassifier) {
+    if (jobErrorClassifier == null
+        || jobErrorClassifier.isEmpty()
+        || jobErrorClassifier.equals("reasons")) {
+      return new ReasonCodes();
+    }
+    if (jobErrorClassifier.equals("none")) {
+      return (reason, message) -> ErrorClass.TRANSIENT;
+    }
+    if (jobErrorClassifier.startsWith("class:")) {
+      try {
+        return (LoadJobErrorClassifier)
+            Class.forName(jobErrorClassifier.substring("class:".length()))
+                .getConstructor()
+                .newInstance();
+      } catch (ReflectiveOperationException e) {
+        throw new IllegalArgumentException(
+            "Unable to create Load Job Error Classifier " + jobErrorClassifier, e);
+      }
+    }
+    throw new IllegalArgumentException(
+        "Unknown Load Job Error Classifier "
+            + jobErrorClassifier
+            + ", expected reasons, none or class:<class name>");
+  }
+
+  /*
+   * Classification by the BQ reason codes(https://cloud.google.com/bigquery/docs/error-messages).
+   * An unknown reason is TRANSIENT, so that a new reason code is still retried
+   */
+  final class ReasonCodes implements LoadJobErrorClassifier {
+
+    private static final Set<String> FATAL_REASONS =
+        new HashSet<String>(
+            Arrays.asList(
+                "invalid",
+                "invalidQuery",
+                "notFound",
+                "accessDenied",
+                "billingNotEnabled",
+                "billingTierLimitExceeded",
+                "blocked",
+                "duplicate",
+                "notImplemented",
+                "resourcesExceeded",
+                "responseTooLarge"));
+    private static final Set<String> QUOTA_REASONS =
+        new HashSet<String>(Arrays.asList("quotaExceeded", "rateLimitExceeded"));
+
+    @Override
+    public ErrorClass classify(String reason, String message) {
+      if (FATAL_REASONS.contains(reason)) {
+        return ErrorClass.FATAL;
+      }
+      if (QUOTA_REASONS.contains(reason)) {
+        return ErrorClass.QUOTA;
+      }
+      return ErrorClass.TRANSIENT;
+    }
+  }
+}
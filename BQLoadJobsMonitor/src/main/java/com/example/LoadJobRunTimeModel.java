@@ -0,0 +1,239 @@
+package com.example;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Online model of when a Load Job is expected DONE, learned from the Jobs the Monitor has seen
+ * DONE. The Run Time is fitted per destination table, by exponentially weighted least squares, against
+ * the bytes and the number of files of the Job(sum of the bundleSize and bundleCount of its Load
+ * Requests). A table with too few Jobs yet is predicted by the model fitted over all the tables.
+ * The Pending Delay depends on the BQ Project rather than on the Job, so it is an exponentially
+ * weighted average over all the Jobs. The model also keeps the average error of its completion time
+ * predictions, for the Monitor to space its polls of a Job found not DONE at the predicted time.
+ * One model per worker JVM, shared by all the Monitor threads of the worker(LoaderSimulator resets
+ * it before every Scheduling Configuration).
+ */
+public class LoadJobRunTimeModel {
+
+  private static final LoadJobRunTimeModel INSTANCE = new LoadJobRunTimeModel();
+  /*
+   * Jobs a Regression is fitted on before it predicts
+   */
+  static final int MIN_SAMPLES = 5;
+  /*
+   * Weight kept by the past Jobs on every new one, for the model to follow the drift of BQ
+   */
+  private static final double DECAY = 0.98;
+  /*
+   * Weight of a new Job in the exponentially weighted averages
+   */
+  private static final double SMOOTHING = 0.1;
+  /*
+   * Ridge penalty on the bytes and files coefficients, relative to the weight of the samples. It
+   * keeps the fit defined while the Jobs of a table all carry the same number of files
+   */
+  private static final double RIDGE = 1e-4;
+  private static final double BYTES_PER_GB = 1024.0 * 1024.0 * 1024.0;
+  private static final String ALL_TABLES = "*";
+
+  /*
+   * destination table -> Run Time Regression, ALL_TABLES for the one over all the tables
+   */
+  private final Map<String, Regression> regressions = new ConcurrentHashMap<String, Regression>();
+  private double pendingDelayMs = 0.0;
+  private double completionErrorMs = 0.0;
+  private long samples = 0L;
+
+  /*
+   * Model of the worker JVM
+   */
+  public static LoadJobRunTimeModel getInstance() {
+    return INSTANCE;
+  }
+
+  /*
+   * Forgets every Job seen so far
+   */
+  public synchronized void reset() {
+    this.regressions.clear();
+    this.pendingDelayMs = 0.0;
+    this.completionErrorMs = 0.0;
+    this.samples = 0L;
+  }
+
+  private static String getDestinationTable(LoaderEnvelope loaderEnvelope) {
+    LoadRequestPayload loadRequestPayload =
+        loaderEnvelope.getSubmittedLoadRequests().get(0).loadRequestPayload;
+    return loadRequestPayload.bundleDataset + "." + loadRequestPayload.bundleTable;
+  }
+
+  /*
+   * Features of the Job: intercept, GB and files
+   */
+  private static double[] getFeatures(LoaderEnvelope loaderEnvelope) {
+    long bytes = 0L;
+    long files = 0L;
+    for (LoadRequest loadRequest : loaderEnvelope.getSubmittedLoadRequests()) {
+      if (loadRequest.loadRequestPayload.bundleSize != null) {
+        bytes += loadRequest.loadRequestPayload.bundleSize;
+      }
+      if (loadRequest.loadRequestPayload.bundleCount != null) {
+        files += loadRequest.loadRequestPayload.bundleCount;
+      }
+    }
+    return new double[] {1.0, bytes / BYTES_PER_GB, files};
+  }
+
+  /*
+   * Expected Run Time(ms) of the Job, null until the model has seen enough Jobs
+   */
+  private Double predictRunTimeMs(String destinationTable, double[] features) {
+    Regression regression = this.regressions.get(destinationTable);
+    if (regression == null || regression.getSamples() < MIN_SAMPLES) {
+      regression = this.regressions.get(ALL_TABLES);
+    }
+    if (regression == null || regression.getSamples() < MIN_SAMPLES) {
+      return null;
+    }
+    return regression.predict(features);
+  }
+
+  /*
+   * Time(ms) the Job created at the given time is expected DONE, null until the model has seen
+   * enough Jobs
+   */
+  public synchronized Long predictCompletionTimeMs(
+      LoaderEnvelope loaderEnvelope, long jobCreatedTimeMs) {
+    Double runTimeMs =
+        predictRunTimeMs(getDestinationTable(loaderEnvelope), getFeatures(loaderEnvelope));
+    if (runTimeMs == null) {
+      return null;
+    }
+    return jobCreatedTimeMs + Math.round(this.pendingDelayMs + runTimeMs);
+  }
+
+  /*
+   * Average error(ms) of the completion time predictions so far
+   */
+  public synchronized long getCompletionErrorMs() {
+    return Math.round(this.completionErrorMs);
+  }
+
+  /*
+   * Interval(ms) until the next poll of a Job found not DONE by the given number of its polls: half
+   * the average prediction error, doubled on every further poll, within the given bounds
+   */
+  public long getRetryIntervalMs(int pollCount, long minIntervalMs, long maxIntervalMs) {
+    long retryIntervalMs = Math.max(minIntervalMs, getCompletionErrorMs() / 2);
+    for (int poll = 1; poll < pollCount && retryIntervalMs < maxIntervalMs; poll++) {
+      retryIntervalMs *= 2;
+    }
+    return Math.min(retryIntervalMs, maxIntervalMs);
+  }
+
+  /*
+   * Learns from a DONE Job, with its creation, start and end times as reported by BQ
+   */
+  public synchronized void observe(
+      LoaderEnvelope loaderEnvelope,
+      long jobCreatedTimeMs,
+      long jobStartTimeMs,
+      long jobEndTimeMs) {
+    Long predictedCompletionTimeMs = predictCompletionTimeMs(loaderEnvelope, jobCreatedTimeMs);
+    if (predictedCompletionTimeMs != null) {
+      this.completionErrorMs +=
+          SMOOTHING * (Math.abs(jobEndTimeMs - predictedCompletionTimeMs) - this.completionErrorMs);
+    }
+    long pendingDelayMs = Math.max(0L, jobStartTimeMs - jobCreatedTimeMs);
+    this.pendingDelayMs =
+        this.samples == 0L
+            ? pendingDelayMs
+            : this.pendingDelayMs + SMOOTHING * (pendingDelayMs - this.pendingDelayMs);
+    this.samples++;
+    double[] features = getFeatures(loaderEnvelope);
+    double runTimeMs = Math.max(0L, jobEndTimeMs - jobStartTimeMs);
+    this.regressions
+        .computeIfAbsent(getDestinationTable(loaderEnvelope), table -> new Regression())
+        .update(features, runTimeMs);
+    this.regressions
+        .computeIfAbsent(ALL_TABLES, table -> new Regression())
+        .update(features, runTimeMs);
+  }
+
+  /*
+   * Exponentially weighted least squares of the Run Time against the features, from its normal
+   * equations
+   */
+  private static class Regression {
+
+    private final double[][] featureProducts = new double[3][3];
+    private final double[] featureRunTimes = new double[3];
+    private long samples = 0L;
+
+    long getSamples() {
+      return this.samples;
+    }
+
+    void update(double[] features, double runTimeMs) {
+      for (int i = 0; i < 3; i++) {
+        for (int j = 0; j < 3; j++) {
+          this.featureProducts[i][j] =
+              DECAY * this.featureProducts[i][j] + features[i] * features[j];
+        }
+        this.featureRunTimes[i] = DECAY * this.featureRunTimes[i] + features[i] * runTimeMs;
+      }
+      this.samples++;
+    }
+
+    double predict(double[] features) {
+      double[][] system = new double[3][4];
+      for (int i = 0; i < 3; i++) {
+        System.arraycopy(this.featureProducts[i], 0, system[i], 0, 3);
+        system[i][3] = this.featureRunTimes[i];
+      }
+      double penalty = RIDGE * Math.max(this.featureProducts[0][0], 1.0);
+      system[1][1] += penalty;
+      system[2][2] += penalty;
+      /*
+       * Gaussian elimination with partial pivoting
+       */
+      for (int column = 0; column < 3; column++) {
+        int pivot = column;
+        for (int row = column + 1; row < 3; row++) {
+          if (Math.abs(system[row][column]) > Math.abs(system[pivot][column])) {
+            pivot = row;
+          }
+        }
+        double[] pivotRow = system[pivot];
+        system[pivot] = system[column];
+        system[column] = pivotRow;
+        if (Math.abs(system[column][column]) < 1e-12) {
+          /*
+           * Degenerate fit, fall back to the weighted average Run Time
+           */
+          return Math.max(0.0, this.featureRunTimes[0] / this.featureProducts[0][0]);
+        }
+        for (int row = column + 1; row < 3; row++) {
+          double factor = system[row][column] / system[column][column];
+          for (int k = column; k < 4; k++) {
+            system[row][k] -= factor * system[column][k];
+          }
+        }
+      }
+      double[] coefficients = new double[3];
+      for (int row = 2; row >= 0; row--) {
+        double sum = system[row][3];
+        for (int k = row + 1; k < 3; k++) {
+          sum -= system[row][k] * coefficients[k];
+        }
+        coefficients[row] = sum / system[row][row];
+      }
+      double runTimeMs = 0.0;
+      for (int i = 0; i < 3; i++) {
+        runTimeMs += coefficients[i] * features[i];
+      }
+      return Math.max(0.0, runTimeMs);
+    }
+  }
+}
@@ -1,9 +1,12 @@
 package com.example;
 
 import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubIO;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessageWithAttributesCoder;
 import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
 import org.apache.beam.sdk.transforms.ParDo;
@@ -12,6 +15,7 @@ import org.apache.beam.sdk.transforms.windowing.AfterProcessingTime;
 import org.apache.beam.sdk.transforms.windowing.AfterWatermark;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
 import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.values.PCollection;
 import org.apache.beam.sdk.values.PCollectionTuple;
 import org.apache.beam.sdk.values.TupleTag;
 import org.apache.beam.sdk.values.TupleTagList;
@@ -21,47 +25,100 @@ public class LoadJobsMonitor {
 
   public static void main(String[] args) {
 
-    Options options = PipelineOptionsFactory.fromArgs(args).withValidation().as(Options.class);
+    MonitorOptions options = PipelineOptionsFactory.fromArgs(args).withValidation().as(MonitorOptions.class);
     Pipeline p = Pipeline.create(options);
 
     final TupleTag<PubsubMessage> pushedBackForMonitoring = new TupleTag<PubsubMessage>(){};
     final TupleTag<PubsubMessage> pushedBackForRetryAfterJobFailure = new TupleTag<PubsubMessage>(){};
     final TupleTag<String> failedLoadJobRequests = new TupleTag<String>(){};
+    final TupleTag<PubsubMessage> releasedSlots = new TupleTag<PubsubMessage>(){};
     final TupleTag<Void> voidTupleTag = new TupleTag<Void>(){};
 
-    PCollectionTuple pCollectionTuple =
+    PCollection<PubsubMessage> loaderEnvelopes =
         p.apply(
-                "Consume BQ Load Jobs to be Monitored",
-                PubsubIO.readMessagesWithAttributes().withIdAttribute(options.getSourceDeDupId().get())
-                    .fromSubscription(options.getSourceSubscription()))
-            .apply(
-                "Monitor BQ Load Jobs",
-                ParDo.of(new MonitorJobDoFn(options, pushedBackForMonitoring, pushedBackForRetryAfterJobFailure, failedLoadJobRequests))
-                    .withOutputTags(voidTupleTag, TupleTagList.of(pushedBackForMonitoring).and(pushedBackForRetryAfterJobFailure).and(failedLoadJobRequests)));
+            "Consume BQ Load Jobs to be Monitored",
+            PubsubIO.readMessagesWithAttributes().withIdAttribute(options.getSourceDeDupId().get())
+                .fromSubscription(options.getSourceSubscription()));
 
-    /*
-     * Resubmit Jobs for Monitoring post Back Off Exhaustion
-     *
-     */
-    pCollectionTuple
-        .get(pushedBackForMonitoring)
-        .apply(
-            "Push Back BQ Load Jobs for Monitoring",
-            PubsubIO.writeMessages().withIdAttribute(options.getSourceDeDupId().get())
-                .to(options.getSourceTopic().get()));
+    PCollectionTuple pCollectionTuple;
+    String monitorMode = options.getMonitorMode().get();
+    if (monitorMode.equals("batched")) {
+      /*
+       * Hold the Jobs in keyed state across a few Monitor Shards, every Shard lists the DONE Jobs
+       * once per poll
+       */
+      pCollectionTuple =
+          loaderEnvelopes
+              .apply(
+                  "Key BQ Load Jobs by Monitor Shard",
+                  ParDo.of(new KeyByMonitorShardDoFn(options.getMonitorShards().get())))
+              .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()))
+              .apply(
+                  "Monitor BQ Load Jobs in Batches",
+                  ParDo.of(new BatchedMonitorJobDoFn(options, pushedBackForRetryAfterJobFailure, failedLoadJobRequests, releasedSlots))
+                      .withOutputTags(voidTupleTag, TupleTagList.of(pushedBackForRetryAfterJobFailure).and(failedLoadJobRequests).and(releasedSlots)));
+    } else if (monitorMode.equals("timers")) {
+      /*
+       * Hold every Job in keyed state with a Timer for its next check, the Loader Envelope only goes
+       * back to PubSub for a Retry after a Job Failure
+       */
+      pCollectionTuple =
+          loaderEnvelopes
+              .apply("Key BQ Load Jobs by Job Id", ParDo.of(new KeyByJobIdDoFn()))
+              .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()))
+              .apply(
+                  "Monitor BQ Load Jobs with Timers",
+                  ParDo.of(new TimerMonitorJobDoFn(options, pushedBackForRetryAfterJobFailure, failedLoadJobRequests, releasedSlots))
+                      .withOutputTags(voidTupleTag, TupleTagList.of(pushedBackForRetryAfterJobFailure).and(failedLoadJobRequests).and(releasedSlots)));
+    } else if (monitorMode.equals("blocking")) {
+      pCollectionTuple =
+          loaderEnvelopes.apply(
+              "Monitor BQ Load Jobs",
+              ParDo.of(new MonitorJobDoFn(options, pushedBackForMonitoring, pushedBackForRetryAfterJobFailure, failedLoadJobRequests, releasedSlots))
+                  .withOutputTags(voidTupleTag, TupleTagList.of(pushedBackForMonitoring).and(pushedBackForRetryAfterJobFailure).and(failedLoadJobRequests).and(releasedSlots)));
+
+      /*
+       * Resubmit Jobs for Monitoring post Back Off Exhaustion
+       *
+       */
+      pCollectionTuple
+          .get(pushedBackForMonitoring)
+          .apply(
+              "Push Back BQ Load Jobs for Monitoring",
+              PubsubIO.writeMessages().withIdAttribute(options.getSourceDeDupId().get())
+                  .to(options.getSourceTopic().get()));
+    } else {
+      throw new IllegalArgumentException(
+          "Unknown Monitor Mode " + monitorMode + ", expected blocking, batched or timers");
+    }
 
     /*
      * Resubmit Load Job Request after all the previous attempt(s) so far
      * resulted in BQ Job Failure and when number of such
-     * failed attempts < maxLoadRequestJobFailures
+     * failed attempts < maxLoadRequestJobFailures, once the BackOff of its error has passed
      *
      */
     pCollectionTuple
         .get(pushedBackForRetryAfterJobFailure)
+        .apply("Key Retried BQ Load Requests by Bundle Id", ParDo.of(new KeyByBundleIdDoFn()))
+        .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()))
+        .apply("Defer Retried BQ Load Requests for their BackOff", ParDo.of(new DeferRetryDoFn()))
+        .setCoder(PubsubMessageWithAttributesCoder.of())
         .apply(
             "Push Back BQ Load Request for Resubmission to RetryAfterJobFailureTopic post BQ Job Failure",
             PubsubIO.writeMessages().withIdAttribute(options.getRetryAfterJobFailureDeDupId().get())
                 .to(options.getRetryAfterJobFailureTopic().get()));
+    /*
+     * Publish the Slot Release of every DONE Load Job, so that the Loader submits its deferred
+     * Load Requests right away
+     */
+    if (!options.getSlotReleaseTopic().get().isEmpty()) {
+      pCollectionTuple
+          .get(releasedSlots)
+          .apply(
+              "Publish the Slot Releases of the DONE Load Jobs",
+              PubsubIO.writeMessages().to(options.getSlotReleaseTopic().get()));
+    }
     /*
      * Push Load Job Request to GCS dead letter location if we have exhausted set number of maxLoadRequestJobFailures
      * for a Load Job Request. A manual intervention/inspection/rectification is needed
@@ -0,0 +1,129 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Narrows a Load Request of a failed Load Job down to the files which failed it, instead of
+ * reloading all of its files on every Retry. When the BQ errors of the Job name some of the files
+ * of the Load Request(as the location, or inside the message), those files are dead lettered and the
+ * others retried. A Load Request none of whose files are named, while the errors name other files,
+ * is not narrowed down: the Monitor retries it(counting the failure) when a coalesced Job failed
+ * by the files of another Load Request, and dead letters it otherwise. When the errors name no
+ * file at all, the files are split in halves retried on their own, so that a bad file ends up alone
+ * in a Load Request of its own. Only a Load Request listing its bundleFiles can be narrowed down,
+ * the others are retried(or dead lettered) whole.
+ * A part of a Load Request gets the bundleId of the Load Request followed by -part<index>(and so a
+ * Job Id of its own), its share of the files, and of the bundleSize in proportion to them.
+ */
+public final class LoadRequestBisector {
+
+  private static final Pattern GCS_URI = Pattern.compile("gs://[^\\s,;'\"()\\[\\]]+");
+
+  private LoadRequestBisector() {}
+
+  /*
+   * Outcome of a Load Request of a failed Job: the parts to retry, and the parts to dead letter.
+   * Both are empty when the Load Request can not be narrowed down
+   */
+  public static class Bisection {
+
+    public final List<LoadRequest> retriedParts = new ArrayList<LoadRequest>();
+    public final List<LoadRequest> deadLetteredParts = new ArrayList<LoadRequest>();
+
+    public boolean isEmpty() {
+      return this.retriedParts.isEmpty() && this.deadLetteredParts.isEmpty();
+    }
+  }
+
+  /*
+   * GCS URIs named by the BQ errors of a Job, from their location and message
+   */
+  public static Set<String> getOffendingUris(Collection<String> errorDetails) {
+    Set<String> offendingUris = new LinkedHashSet<String>();
+    for (String errorDetail : errorDetails) {
+      if (errorDetail == null) {
+        continue;
+      }
+      Matcher matcher = GCS_URI.matcher(errorDetail);
+      while (matcher.find()) {
+        offendingUris.add(matcher.group().replaceAll("[.:]+$", ""));
+      }
+    }
+    return offendingUris;
+  }
+
+  public static Bisection bisect(LoadRequest loadRequest, Set<String> offendingUris) {
+    Bisection bisection = new Bisection();
+    List<String> bundleFiles = loadRequest.loadRequestPayload.bundleFiles;
+    if (bundleFiles == null || bundleFiles.isEmpty()) {
+      return bisection;
+    }
+    List<String> offendingFiles = new ArrayList<String>();
+    List<String> otherFiles = new ArrayList<String>();
+    for (String bundleFile : bundleFiles) {
+      if (offendingUris.contains(bundleFile)) {
+        offendingFiles.add(bundleFile);
+      } else {
+        otherFiles.add(bundleFile);
+      }
+    }
+    if (!offendingFiles.isEmpty()) {
+      bisection.deadLetteredParts.add(getPart(loadRequest, 0, offendingFiles));
+      if (!otherFiles.isEmpty()) {
+        bisection.retriedParts.add(getPart(loadRequest, 1, otherFiles));
+      }
+      return bisection;
+    }
+    if (offendingUris.isEmpty() && bundleFiles.size() > 1) {
+      int half = bundleFiles.size() / 2;
+      bisection.retriedParts.add(getPart(loadRequest, 0, bundleFiles.subList(0, half)));
+      bisection.retriedParts.add(
+          getPart(loadRequest, 1, bundleFiles.subList(half, bundleFiles.size())));
+    }
+    return bisection;
+  }
+
+  /*
+   * Copies the Load Request field by field, the part shares no mutable state with it
+   */
+  private static LoadRequest getPart(LoadRequest loadRequest, int index, List<String> files) {
+    LoadRequestPayload loadRequestPayload = loadRequest.loadRequestPayload;
+    LoadRequestPayload payload = new LoadRequestPayload();
+    payload.bundleId = loadRequestPayload.bundleId + "-part" + index;
+    payload.bundlePrefixPath = loadRequestPayload.bundlePrefixPath;
+    payload.bundleDataset = loadRequestPayload.bundleDataset;
+    payload.bundleTable = loadRequestPayload.bundleTable;
+    payload.bundleSchemaVersion = loadRequestPayload.bundleSchemaVersion;
+    payload.bundleSchemaHash = loadRequestPayload.bundleSchemaHash;
+    payload.bundleFiles = new ArrayList<String>(files);
+    payload.bundleCount = files.size();
+    if (loadRequestPayload.bundleSize != null) {
+      payload.bundleSize =
+          loadRequestPayload.bundleSize * files.size() / loadRequestPayload.bundleFiles.size();
+    }
+    LoadRequest part = new LoadRequest();
+    part.loadRequestPayload = payload;
+    LoadRequestAttributes loadRequestAttributes = loadRequest.loadRequestAttributes;
+    if (loadRequestAttributes != null) {
+      LoadRequestAttributes attributes = new LoadRequestAttributes();
+      attributes.setBundleCreatedTimestamp(loadRequestAttributes.getBundleCreatedTimestamp());
+      attributes.setLoadJobSubmissionAttempts(loadRequestAttributes.getLoadJobSubmissionAttempts());
+      attributes.setRetryAttemptsAfterJobFailures(
+          loadRequestAttributes.getRetryAttemptsAfterJobFailures());
+      if (loadRequestAttributes.getPreviousFailedJobIds() != null) {
+        attributes.setPreviousFailedJobIds(
+            new ArrayList<String>(loadRequestAttributes.getPreviousFailedJobIds()));
+      }
+      attributes.setPriorityClass(loadRequestAttributes.getPriorityClass());
+      attributes.setTraceContext(loadRequestAttributes.getTraceContext());
+      part.loadRequestAttributes = attributes;
+    }
+    return part;
+  }
+}
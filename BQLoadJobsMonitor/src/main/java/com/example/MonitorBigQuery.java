@@ -0,0 +1,60 @@
+package com.example;
+
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.BigqueryScopes;
+import com.google.auth.http.HttpCredentialsAdapter;
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+
+import java.io.IOException;
+
+/*
+ * The BQ clients the Monitor DoFns look the Load Jobs up with, shared by all the DoFn
+ * instances(threads) on the worker. They are created on first use, so that LoaderSimulator can
+ * register clients of its fake BQ Job Service before.
+ * Besides the google-cloud-bigquery client, the BQ API client lists the Jobs by their creation
+ * time(minCreationTime/maxCreationTime), which the google-cloud-bigquery client does not offer.
+ */
+final class MonitorBigQuery {
+
+  private static BigQuery bigQuery;
+  private static Bigquery bigquery;
+
+  private MonitorBigQuery() {}
+
+  static synchronized BigQuery getInstance() {
+    if (bigQuery == null) {
+      bigQuery = BigQueryOptions.getDefaultInstance().getService();
+    }
+    return bigQuery;
+  }
+
+  static synchronized Bigquery getBigquery() {
+    if (bigquery == null) {
+      try {
+        GoogleCredentials credentials =
+            GoogleCredentials.getApplicationDefault().createScoped(BigqueryScopes.all());
+        bigquery =
+            new Bigquery.Builder(
+                    Utils.getDefaultTransport(),
+                    Utils.getDefaultJsonFactory(),
+                    new HttpCredentialsAdapter(credentials))
+                .setApplicationName("BQLoadJobsMonitor")
+                .build();
+      } catch (IOException e) {
+        throw new IllegalStateException("Unable to create BQ Client for listing Load Jobs", e);
+      }
+    }
+    return bigquery;
+  }
+
+  /*
+   * Replaces the worker's BQ clients, for LoaderSimulator to monitor against a fake BQ Job Service
+   */
+  static synchronized void register(BigQuery monitorBigQuery, Bigquery monitorBigquery) {
+    bigQuery = monitorBigQuery;
+    bigquery = monitorBigquery;
+  }
+}
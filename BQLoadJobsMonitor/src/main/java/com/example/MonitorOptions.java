@@ -0,0 +1,192 @@
+package com.example;
+
+import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
+import org.apache.beam.sdk.options.Default;
+import org.apache.beam.sdk.options.Description;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.Validation;
+import org.apache.beam.sdk.options.ValueProvider;
+
+public interface MonitorOptions extends PipelineOptions, DataflowPipelineOptions {
+
+  @Description("Source PubSub Subscription for Successfully Submitted Load Requests")
+  @Validation.Required
+  ValueProvider<String> getSourceSubscription();
+
+  void setSourceSubscription(ValueProvider<String> value);
+
+  @Description("Source PubSub Topic for Successfully Submitted Load Requests")
+  @Validation.Required
+  ValueProvider<String> getSourceTopic();
+
+  void setSourceTopic(ValueProvider<String> value);
+
+  @Description("Source PubSub DeDup ID Attribute for Successfully Submitted Load Requests")
+
+  @Default.String("uniqueMessageId")
+  ValueProvider<String> getSourceDeDupId();
+
+  void setSourceDeDupId(ValueProvider<String> value);
+
+  @Description("Target PubSub DeDup ID Attribute for pushing the Retry of Jobs which were submitted and ended in Failed State")
+  @Default.String("uniqueMessageId")
+  ValueProvider<String> getRetryAfterJobFailureDeDupId();
+
+  void setRetryAfterJobFailureDeDupId(ValueProvider<String> value);
+
+  @Description("Target PubSub Topic for pushing the Retry of Jobs which were submitted and ended in Failed State")
+  @Validation.Required
+  ValueProvider<String> getRetryAfterJobFailureTopic();
+
+  void setRetryAfterJobFailureTopic(ValueProvider<String> value);
+
+  @Description("Initial BackOff in Seconds for checking BQ Job Queue")
+  @Validation.Required
+  ValueProvider<Integer> getInitialBackOffSeconds();
+
+  void setInitialBackOffSeconds(ValueProvider<Integer> value);
+
+  @Description("BackOff Exponential in Seconds for checking BQ Job Queue")
+  @Validation.Required
+  ValueProvider<Float> getBackOffExponential();
+
+  void setBackOffExponential(ValueProvider<Float> value);
+
+  @Description("Maximum Retries for checking BQ Job Queue")
+  @Validation.Required
+  ValueProvider<Integer> getMaxRetries();
+
+  void setMaxRetries(ValueProvider<Integer> value);
+
+  @Description("Maximum Retries for BQ Load Request to be considered unrecoverable so that we can divert the Load Request for manual inspection. Defaults to 3 Job Failures after successful BQ Job Submission")
+  @Default.Integer(3)
+  ValueProvider<Integer> getMaxLoadRequestJobFailures();
+
+  void setMaxLoadRequestJobFailures(ValueProvider<Integer> value);
+
+  @Description(
+      "Handling of the Load Requests of a failed Job: retry(retry every Load Request whole) or bisect(for a data error, dead letter only the files named by the BQ errors, or split the files in halves retried on their own). Only a Load Request listing its bundleFiles can be bisected: FileBySize lists the files of a Bundle as bundledFiles, which the producer of the Load Requests has to carry over as bundleFiles, the other Load Requests are handled as by retry. Defaults to retry")
+  @Default.String("retry")
+  ValueProvider<String> getJobFailureHandling();
+
+  void setJobFailureHandling(ValueProvider<String> value);
+
+  @Description(
+      "Classifier of the BQ errors of the failed Jobs: reasons(by BQ reason code, fatal errors like invalid, notFound or accessDenied go to the Dead Letter without Retry), none(retry every error) or class:<LoadJobErrorClassifier class name>. Defaults to reasons")
+  @Default.String("reasons")
+  ValueProvider<String> getJobErrorClassifier();
+
+  void setJobErrorClassifier(ValueProvider<String> value);
+
+  @Description(
+      "BackOff in seconds before the Retry of a Load Request failed by a transient BQ error, doubled on every further failure of the Load Request. Defaults to 30 seconds")
+  @Default.Integer(30)
+  ValueProvider<Integer> getTransientJobErrorBackOffSeconds();
+
+  void setTransientJobErrorBackOffSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "BackOff in seconds before the Retry of a Load Request failed by a BQ Quota or Rate Limit error, doubled on every further failure of the Load Request. Defaults to 300 seconds")
+  @Default.Integer(300)
+  ValueProvider<Integer> getQuotaJobErrorBackOffSeconds();
+
+  void setQuotaJobErrorBackOffSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "Maximum BackOff in seconds before the Retry of a Load Request after a Job failure, the cap of the doubled transient and quota BackOffs. Defaults to 3600 seconds")
+  @Default.Integer(3600)
+  ValueProvider<Integer> getMaxJobErrorBackOffSeconds();
+
+  void setMaxJobErrorBackOffSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "Dead Letter GCS Bucket Name without gs:// for Saving Failed Load Requests after specified maximum job submission attempts")
+  @Validation.Required
+  ValueProvider<String> getDeadLetterGCSBucket();
+
+  void setDeadLetterGCSBucket(ValueProvider<String> value);
+
+  @Description(
+      "Dead Letter GCS File Prefix for Saving Failed Load Requests after specified maximum job submission attempts")
+  @Validation.Required
+  ValueProvider<String> getDeadLetterGCSPrefix();
+
+  void setDeadLetterGCSPrefix(ValueProvider<String> value);
+
+  @Description(
+      "Fixed Window Duration in minutes for the writing Dead Letter Files within GCS. Defaults to 5 minutes")
+  @Default.Integer(5)
+  ValueProvider<Integer> getDeadLetterGCSWindowDuration();
+
+  void setDeadLetterGCSWindowDuration(ValueProvider<Integer> value);
+
+  @Description(
+      "Allowed Lateness Duration in minutes for the writing Dead Letter Files within GCS. Defaults to 2 minutes")
+  @Default.Integer(2)
+  ValueProvider<Integer> getDeadLetterGCSAllowedLateness();
+
+  void setDeadLetterGCSAllowedLateness(ValueProvider<Integer> value);
+
+  @Description(
+      "Early Firing Element Count for writing the Dead Letter Files within GCS to handle surge. Defaults to 10000")
+  @Default.Integer(10000)
+  ValueProvider<Integer> getDeadLetterMaxElementCount();
+
+  void setDeadLetterMaxElementCount(ValueProvider<Integer> value);
+
+  @Description(
+      "How the Load Jobs are monitored until DONE: blocking(one jobs.get per Job with BackOff sleeps, pushed back through the Source Topic once the BackOff is exhausted), batched(Jobs held in keyed state across monitorShards, resolved by one jobs.list per Shard every monitorPollSeconds) or timers(every Job held in keyed state with a Timer for its next jobs.get, the BackOff steps capped at monitorPollSeconds). Defaults to blocking")
+  @Default.String("blocking")
+  ValueProvider<String> getMonitorMode();
+
+  void setMonitorMode(ValueProvider<String> value);
+
+  @Description(
+      "Number of Monitor Shards the Load Jobs are held across in the batched Monitor Mode. Defaults to 4")
+  @Default.Integer(4)
+  ValueProvider<Integer> getMonitorShards();
+
+  void setMonitorShards(ValueProvider<Integer> value);
+
+  @Description(
+      "Interval in seconds at which every Monitor Shard lists the DONE Jobs in the batched Monitor Mode. Defaults to 10 seconds")
+  @Default.Integer(10)
+  ValueProvider<Integer> getMonitorPollSeconds();
+
+  void setMonitorPollSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "How the batched and timers Monitor Modes schedule the polls of a Load Job: fixed(every monitorPollSeconds, or the BackOff steps in the timers Mode) or predictive(just after the completion time predicted from the bytes, files and destination table of the Job by a model learned from the DONE Jobs, then spaced by the prediction error up to monitorPollSeconds). Defaults to fixed")
+  @Default.String("fixed")
+  ValueProvider<String> getMonitorPollScheduling();
+
+  void setMonitorPollScheduling(ValueProvider<String> value);
+
+  @Description(
+      "Minimum interval in seconds between two polls of a Monitor Shard(or of a Job in the timers Monitor Mode) in the predictive Poll Scheduling. Defaults to 2 seconds")
+  @Default.Integer(2)
+  ValueProvider<Integer> getMonitorMinPollSeconds();
+
+  void setMonitorMinPollSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "PubSub Topic for the Slot Release event of every DONE Load Job, consumed by BQLoader to submit its deferred Load Requests right away. Defaults to none(empty)")
+  @Default.String("")
+  ValueProvider<String> getSlotReleaseTopic();
+
+  void setSlotReleaseTopic(ValueProvider<String> value);
+
+  @Description(
+      "Sink of the Spans tracing the Load Jobs: none, jsonl:<local file> or class:<SpanSink class name>. Defaults to none")
+  @Default.String("none")
+  ValueProvider<String> getSpanSink();
+
+  void setSpanSink(ValueProvider<String> value);
+
+  @Description(
+      "Format of the Load Requests and Loader Envelopes published to PubSub: json, or the binary schema version v1 to v3. The BQLoader reading them may run an older release during a rolling deploy, so switch to v3 only once both pipelines run a release reading it. Defaults to json")
+  @Default.String("json")
+  ValueProvider<String> getMessageFormat();
+
+  void setMessageFormat(ValueProvider<String> value);
+}
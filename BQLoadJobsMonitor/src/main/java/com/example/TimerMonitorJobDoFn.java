@@ -0,0 +1,255 @@
+package com.example;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobStatus;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessageWithAttributesCoder;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.TupleTag;
+import org.joda.time.Duration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/*
+ * Monitors every Load Job keyed by its Job Id with a Processing Time Timer for its next check,
+ * instead of the BackOff sleeps of MonitorJobDoFn. Every check is a jobs.get. A Job not DONE yet is
+ * checked again after the next step of the BackOff(initialBackOffSeconds growing by
+ * backOffExponential), or with the predictive Poll Scheduling after the step given by the
+ * LoadJobRunTimeModel of the worker, with its first check just after its predicted completion time.
+ * The steps are capped at monitorPollSeconds. The worker threads never sleep, and the Loader
+ * Envelope stays in State until the Job is DONE instead of going back through the Source Topic.
+ * A Job BQ no longer knows is dead lettered. A Job still not DONE after the maximum Load Job
+ * execution time keeps being checked, and every such check is counted as overdue.
+ * A Job done with leaves its completion time in State for as long as PubSub may redeliver its
+ * Loader Envelope, so that a redelivery is not taken to its outcome a second time.
+ */
+public class TimerMonitorJobDoFn extends DoFn<KV<String, PubsubMessage>, Void> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TimerMonitorJobDoFn.class);
+  private static final long MAX_LOAD_JOB_EXECUTION_MS = Duration.standardHours(6).getMillis();
+  /*
+   * Delay of the first check after the predicted completion time, for the Job to be reported DONE
+   */
+  private static final long COMPLETION_SLACK_MS = 1000L;
+  /*
+   * Time a completed Job is remembered for: the default PubSub message retention
+   */
+  private static final long COMPLETED_JOB_TTL_MS = Duration.standardDays(7).getMillis();
+  private final long initialBackOffMs;
+  private final double backOffExponential;
+  private final long maxCheckIntervalMs;
+  private final long minCheckIntervalMs;
+  private final boolean predictivePollScheduling;
+  private final CompletedLoadJobHandler completedLoadJobHandler;
+  private Counter checkCount = Metrics.counter(TimerMonitorJobDoFn.class, "job-checks");
+  private Counter checkErrorCount = Metrics.counter(TimerMonitorJobDoFn.class, "job-check-errors");
+  private Counter missingJobCount = Metrics.counter(TimerMonitorJobDoFn.class, "missing-jobs");
+  private Counter overdueJobCheckCount =
+      Metrics.counter(TimerMonitorJobDoFn.class, "overdue-job-checks");
+  private Counter duplicateEnvelopeCount =
+      Metrics.counter(TimerMonitorJobDoFn.class, "duplicate-loader-envelopes");
+  private Counter unpredictedJobCount =
+      Metrics.counter(TimerMonitorJobDoFn.class, "unpredicted-jobs");
+  private Distribution pollsPerJob = Metrics.distribution(TimerMonitorJobDoFn.class, "polls-per-job");
+
+  @StateId("loaderEnvelope")
+  private final StateSpec<ValueState<PubsubMessage>> loaderEnvelopeSpec =
+      StateSpecs.value(PubsubMessageWithAttributesCoder.of());
+
+  /*
+   * Time(ms) the Monitor first held the Job, and the checks of the Job so far
+   */
+  @StateId("monitoredSince")
+  private final StateSpec<ValueState<Long>> monitoredSinceSpec = StateSpecs.value(VarLongCoder.of());
+
+  @StateId("checks")
+  private final StateSpec<ValueState<Integer>> checksSpec = StateSpecs.value(VarIntCoder.of());
+
+  /*
+   * Time(ms) the Job was done with, until the checkJob Timer expires it
+   */
+  @StateId("completed")
+  private final StateSpec<ValueState<Long>> completedSpec = StateSpecs.value(VarLongCoder.of());
+
+  @TimerId("checkJob")
+  private final TimerSpec checkJobSpec = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
+  TimerMonitorJobDoFn(
+      MonitorOptions options,
+      TupleTag<PubsubMessage> pushedBackForRetryAfterJobFailure,
+      TupleTag<String> failedLoadJobRequests,
+      TupleTag<PubsubMessage> releasedSlots) {
+    this.initialBackOffMs =
+        Duration.standardSeconds(options.getInitialBackOffSeconds().get()).getMillis();
+    this.backOffExponential = options.getBackOffExponential().get();
+    this.maxCheckIntervalMs =
+        Duration.standardSeconds(options.getMonitorPollSeconds().get()).getMillis();
+    this.minCheckIntervalMs =
+        Duration.standardSeconds(options.getMonitorMinPollSeconds().get()).getMillis();
+    String pollScheduling = options.getMonitorPollScheduling().get();
+    if (!pollScheduling.equals("fixed") && !pollScheduling.equals("predictive")) {
+      throw new IllegalArgumentException(
+          "Unknown Monitor Poll Scheduling " + pollScheduling + ", expected fixed or predictive");
+    }
+    this.predictivePollScheduling = pollScheduling.equals("predictive");
+    this.completedLoadJobHandler =
+        new CompletedLoadJobHandler(
+            options, pushedBackForRetryAfterJobFailure, failedLoadJobRequests, releasedSlots);
+  }
+
+  /*
+   * Interval(ms) until the first check of the Job: just after its predicted completion time, or
+   * the initial BackOff when the Scheduling is fixed or the model cannot predict it yet
+   */
+  private long getFirstCheckIntervalMs(
+      LoaderEnvelope loaderEnvelope, long jobCreatedTimeMs, long nowMs) {
+    if (!this.predictivePollScheduling) {
+      return this.initialBackOffMs;
+    }
+    Long predictedCompletionTimeMs =
+        LoadJobRunTimeModel.getInstance().predictCompletionTimeMs(loaderEnvelope, jobCreatedTimeMs);
+    if (predictedCompletionTimeMs == null) {
+      this.unpredictedJobCount.inc();
+      return this.initialBackOffMs;
+    }
+    return Math.max(
+        this.minCheckIntervalMs, predictedCompletionTimeMs + COMPLETION_SLACK_MS - nowMs);
+  }
+
+  /*
+   * Interval(ms) until the next check of a Job found not DONE by the given number of checks
+   */
+  private long getNextCheckIntervalMs(int checks) {
+    if (this.predictivePollScheduling) {
+      return LoadJobRunTimeModel.getInstance()
+          .getRetryIntervalMs(checks, this.minCheckIntervalMs, this.maxCheckIntervalMs);
+    }
+    double checkIntervalMs = this.initialBackOffMs * Math.pow(this.backOffExponential, checks);
+    return (long) Math.min(checkIntervalMs, this.maxCheckIntervalMs);
+  }
+
+  @ProcessElement
+  public void processElement(
+      ProcessContext context,
+      @StateId("loaderEnvelope") ValueState<PubsubMessage> loaderEnvelopeState,
+      @StateId("monitoredSince") ValueState<Long> monitoredSinceState,
+      @StateId("checks") ValueState<Integer> checksState,
+      @StateId("completed") ValueState<Long> completedState,
+      @TimerId("checkJob") Timer checkJobTimer) {
+    if (loaderEnvelopeState.read() != null || completedState.read() != null) {
+      /*
+       * A redelivery of the Loader Envelope of a Job already monitored, or already done with
+       */
+      this.duplicateEnvelopeCount.inc();
+      return;
+    }
+    long nowMs = LoaderClock.currentTimeMillis();
+    PubsubMessage loaderEnvelopeMessage = context.element().getValue();
+    LoaderEnvelope loaderEnvelope =
+        LoaderMessageCodec.decodeLoaderEnvelope(loaderEnvelopeMessage.getPayload());
+    Long jobCreatedTimestamp = loaderEnvelope.loaderEnvelopeAttributes.getJobCreatedTimestamp();
+    long jobCreatedTimeMs = jobCreatedTimestamp == null ? nowMs : jobCreatedTimestamp;
+    loaderEnvelopeState.write(loaderEnvelopeMessage);
+    monitoredSinceState.write(nowMs);
+    checksState.write(0);
+    checkJobTimer
+        .offset(Duration.millis(getFirstCheckIntervalMs(loaderEnvelope, jobCreatedTimeMs, nowMs)))
+        .setRelative();
+  }
+
+  @OnTimer("checkJob")
+  public void onCheckJob(
+      OnTimerContext context,
+      @StateId("loaderEnvelope") ValueState<PubsubMessage> loaderEnvelopeState,
+      @StateId("monitoredSince") ValueState<Long> monitoredSinceState,
+      @StateId("checks") ValueState<Integer> checksState,
+      @StateId("completed") ValueState<Long> completedState,
+      @TimerId("checkJob") Timer checkJobTimer) {
+    PubsubMessage loaderEnvelopeMessage = loaderEnvelopeState.read();
+    if (loaderEnvelopeMessage == null) {
+      /*
+       * The completed Job is no longer remembered
+       */
+      completedState.clear();
+      return;
+    }
+    LoaderEnvelope loaderEnvelope =
+        LoaderMessageCodec.decodeLoaderEnvelope(loaderEnvelopeMessage.getPayload());
+    String jobId = loaderEnvelope.loaderEnvelopeAttributes.getJobId();
+    int checks = checksState.read() + 1;
+    this.checkCount.inc();
+    try {
+      Job job =
+          MonitorBigQuery.getInstance().getJob(
+              jobId,
+              BigQuery.JobOption.fields(
+                  BigQuery.JobField.ID,
+                  BigQuery.JobField.STATUS,
+                  BigQuery.JobField.CONFIGURATION,
+                  BigQuery.JobField.STATISTICS));
+      if (job == null) {
+        LOG.warn("BQ Job {} is no longer found, dead lettering its Load Requests", jobId);
+        this.missingJobCount.inc();
+        this.completedLoadJobHandler.deadLetter(context, loaderEnvelope);
+        complete(
+            loaderEnvelopeState, monitoredSinceState, checksState, completedState, checkJobTimer);
+        return;
+      }
+      if (job.getStatus().getState() == JobStatus.State.DONE) {
+        this.pollsPerJob.update(checks);
+        this.completedLoadJobHandler.handle(context, loaderEnvelopeMessage, loaderEnvelope, job);
+        complete(
+            loaderEnvelopeState, monitoredSinceState, checksState, completedState, checkJobTimer);
+        return;
+      }
+    } catch (BigQueryException e) {
+      /*
+       * The Job stays monitored, the next check looks it up again
+       */
+      LOG.warn("Unable to check the BQ Job {}: {}", jobId, e.getMessage());
+      this.checkErrorCount.inc();
+    }
+    /*
+     * A Job still Pending/Running in BQ may yet load its files, so it stays monitored however long
+     * it takes. Dead lettering it would have its Load Requests loaded twice once replayed
+     */
+    if (LoaderClock.currentTimeMillis() - monitoredSinceState.read() > MAX_LOAD_JOB_EXECUTION_MS) {
+      LOG.warn("BQ Job {} is not DONE after the maximum Load Job execution time", jobId);
+      this.overdueJobCheckCount.inc();
+    }
+    checksState.write(checks);
+    checkJobTimer.offset(Duration.millis(getNextCheckIntervalMs(checks))).setRelative();
+  }
+
+  /*
+   * Keeps only the completion time of the Job, which the checkJob Timer expires
+   */
+  private static void complete(
+      ValueState<PubsubMessage> loaderEnvelopeState,
+      ValueState<Long> monitoredSinceState,
+      ValueState<Integer> checksState,
+      ValueState<Long> completedState,
+      Timer checkJobTimer) {
+    loaderEnvelopeState.clear();
+    monitoredSinceState.clear();
+    checksState.clear();
+    completedState.write(LoaderClock.currentTimeMillis());
+    checkJobTimer.offset(Duration.millis(COMPLETED_JOB_TTL_MS)).setRelative();
+  }
+}
@@ -0,0 +1,578 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.Job;
+import com.google.api.services.bigquery.model.JobConfiguration;
+import com.google.api.services.bigquery.model.JobConfigurationLoad;
+import com.google.api.services.bigquery.model.JobReference;
+import com.google.api.services.bigquery.model.JobStatistics;
+import com.google.api.services.bigquery.model.JobStatistics3;
+import com.google.api.services.bigquery.model.JobStatus;
+import com.google.api.services.bigquery.model.TableReference;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.http.HttpTransportOptions;
+import org.apache.beam.runners.direct.DirectOptions;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.PipelineResult;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessageWithAttributesCoder;
+import org.apache.beam.sdk.metrics.MetricNameFilter;
+import org.apache.beam.sdk.metrics.MetricResult;
+import org.apache.beam.sdk.metrics.MetricsFilter;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.testing.TestStream;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TupleTagList;
+import org.joda.time.Duration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+class Testing {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final JacksonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+  private static final String PROJECT_ID = "project";
+  /*
+   * Output of the test Pipelines, by the id of the run
+   */
+  private static final Map<String, Queue<String>> COLLECTED =
+      new ConcurrentHashMap<String, Queue<String>>();
+
+  /*
+   * The Options go through the same JSON round trip as on the workers, so that the ValueProviders
+   * left to their defaults are accessible
+   */
+  private static MonitorOptions getOptions(String... args) throws IOException {
+    MonitorOptions options = PipelineOptionsFactory.fromArgs(args).as(MonitorOptions.class);
+    return OBJECT_MAPPER
+        .readValue(OBJECT_MAPPER.writeValueAsString(options), PipelineOptions.class)
+        .as(MonitorOptions.class);
+  }
+
+  private static LoadRequest getLoadRequest(String bundleId) {
+    LoadRequestAttributes attributes = new LoadRequestAttributes();
+    attributes.setBundleCreatedTimestamp(1571400000000L);
+    attributes.setLoadJobSubmissionAttempts(2);
+    attributes.setRetryAttemptsAfterJobFailures(1);
+    attributes.setPreviousFailedJobIds(Arrays.asList("job-1", "job-2"));
+    attributes.setPriorityClass("CRITICAL");
+    attributes.setTraceContext("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+    LoadRequestPayload payload = new LoadRequestPayload();
+    payload.bundleId = bundleId;
+    payload.bundlePrefixPath = "gs://bucket/events/" + bundleId;
+    payload.bundleSize = 4096L;
+    payload.bundleCount = 2;
+    payload.bundleDataset = "dataset";
+    payload.bundleTable = "events";
+    payload.bundleSchemaVersion = "7";
+    payload.bundleSchemaHash = "5f2b";
+    payload.bundleFiles =
+        Arrays.asList(
+            "gs://bucket/events/" + bundleId + "/0.avro",
+            "gs://bucket/events/" + bundleId + "/1.avro");
+    LoadRequest loadRequest = new LoadRequest();
+    loadRequest.setLoadRequestAttributes(attributes);
+    loadRequest.setLoadRequestPayload(payload);
+    return loadRequest;
+  }
+
+  private static KV<String, PubsubMessage> getLoaderEnvelopeMessage(String jobId) {
+    LoaderEnvelopeAttributes attributes = new LoaderEnvelopeAttributes();
+    attributes.setJobId(jobId);
+    attributes.setJobCreatedTimestamp(LoaderClock.currentTimeMillis());
+    LoaderEnvelope loaderEnvelope = new LoaderEnvelope();
+    loaderEnvelope.setLoaderEnvelopeAttributes(attributes);
+    loaderEnvelope.setLoadRequest(getLoadRequest(jobId));
+    return KV.of(
+        jobId,
+        new PubsubMessage(
+            LoaderMessageCodec.encodeLoaderEnvelope(loaderEnvelope),
+            new HashMap<String, String>()));
+  }
+
+  /*
+   * BQ Job Service answering jobs.get of every Job with its given sequence of states, the last one
+   * for good. Every jobs.get takes the given time on the clock of the Monitor
+   */
+  private static class FakeJobsGetTransport extends MockHttpTransport {
+
+    private final Map<String, Queue<String>> jobStates =
+        new ConcurrentHashMap<String, Queue<String>>();
+    private final AtomicLong clockMs;
+    private final long getJobMs;
+    private final AtomicLong getJobCount = new AtomicLong();
+
+    FakeJobsGetTransport(AtomicLong clockMs, long getJobMs) {
+      this.clockMs = clockMs;
+      this.getJobMs = getJobMs;
+    }
+
+    void addJob(String jobId, String... states) {
+      this.jobStates.put(jobId, new ConcurrentLinkedQueue<String>(Arrays.asList(states)));
+    }
+
+    long getJobCount() {
+      return this.getJobCount.get();
+    }
+
+    @Override
+    public LowLevelHttpRequest buildRequest(String method, String url) {
+      return new MockLowLevelHttpRequest(url) {
+        @Override
+        public LowLevelHttpResponse execute() throws IOException {
+          List<String> pathParts = new GenericUrl(url).getPathParts();
+          return getJob(pathParts.get(pathParts.size() - 1));
+        }
+      };
+    }
+
+    private MockLowLevelHttpResponse getJob(String jobId) throws IOException {
+      this.getJobCount.incrementAndGet();
+      long nowMs = this.clockMs.addAndGet(this.getJobMs);
+      Queue<String> states = this.jobStates.get(jobId);
+      if (states == null) {
+        return new MockLowLevelHttpResponse()
+            .setStatusCode(404)
+            .setContentType("application/json; charset=UTF-8")
+            .setContent("{\"error\":{\"code\":404,\"message\":\"Not found: Job " + jobId + "\"}}");
+      }
+      String state = states.size() > 1 ? states.poll() : states.peek();
+      JobStatistics statistics =
+          new JobStatistics()
+              .setCreationTime(nowMs - this.getJobMs)
+              .setStartTime(nowMs - this.getJobMs)
+              .setLoad(new JobStatistics3());
+      if (state.equals("DONE")) {
+        statistics.setEndTime(nowMs);
+      }
+      Job job =
+          new Job()
+              .setId(PROJECT_ID + ":" + jobId)
+              .setJobReference(new JobReference().setProjectId(PROJECT_ID).setJobId(jobId))
+              .setConfiguration(
+                  new JobConfiguration()
+                      .setLoad(
+                          new JobConfigurationLoad()
+                              .setSourceUris(
+                                  Collections.singletonList("gs://bucket/events/" + jobId))
+                              .setDestinationTable(
+                                  new TableReference()
+                                      .setProjectId(PROJECT_ID)
+                                      .setDatasetId("dataset")
+                                      .setTableId("table"))))
+              .setStatistics(statistics)
+              .setStatus(new JobStatus().setState(state));
+      return new MockLowLevelHttpResponse()
+          .setStatusCode(200)
+          .setContentType("application/json; charset=UTF-8")
+          .setContent(JSON_FACTORY.toString(job));
+    }
+  }
+
+  /*
+   * Has the Monitor look the Jobs up in the fake BQ Job Service
+   */
+  private static void registerMonitorBigQuery(MockHttpTransport transport) {
+    MonitorBigQuery.register(
+        BigQueryOptions.newBuilder()
+            .setProjectId(PROJECT_ID)
+            .setCredentials(NoCredentials.getInstance())
+            .setRetrySettings(ServiceOptions.getNoRetrySettings())
+            .setTransportOptions(
+                HttpTransportOptions.newBuilder().setHttpTransportFactory(() -> transport).build())
+            .build()
+            .getService(),
+        new Bigquery.Builder(transport, JSON_FACTORY, null).build());
+  }
+
+  private static class CollectDoFn extends DoFn<PubsubMessage, Void> {
+
+    private final String runId;
+    private final SerializableFunction<PubsubMessage, String> measure;
+
+    CollectDoFn(String runId, SerializableFunction<PubsubMessage, String> measure) {
+      this.runId = runId;
+      this.measure = measure;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      COLLECTED.get(this.runId).add(this.measure.apply(context.element()));
+    }
+  }
+
+  /*
+   * Sets the clock of the Monitor to the time(ms) in the payload of the messages keyed "tick", so
+   * that it moves along with the processing time of the TestStream, and passes on the others
+   */
+  private static class TickDoFn extends DoFn<KV<String, PubsubMessage>, KV<String, PubsubMessage>> {
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      if (!context.element().getKey().equals("tick")) {
+        context.output(context.element());
+        return;
+      }
+      long nowMs =
+          Long.parseLong(
+              new String(context.element().getValue().getPayload(), StandardCharsets.UTF_8));
+      LoaderClock.setClock(
+          Clock.fixed(Instant.ofEpochMilli(nowMs), ZoneId.of("UTC")), Thread::sleep);
+    }
+  }
+
+  private static KV<String, PubsubMessage> getTick(long nowMs) {
+    return KV.of(
+        "tick",
+        new PubsubMessage(
+            String.valueOf(nowMs).getBytes(StandardCharsets.UTF_8), new HashMap<String, String>()));
+  }
+
+  private static KV<String, PubsubMessage> getRetriedMessage(String name, Long retryNotBeforeMs) {
+    Map<String, String> attributes = new HashMap<String, String>();
+    if (retryNotBeforeMs != null) {
+      attributes.put(DeferRetryDoFn.RETRY_NOT_BEFORE_ATTRIBUTE, String.valueOf(retryNotBeforeMs));
+    }
+    return KV.of("bundle-1", new PubsubMessage(name.getBytes(StandardCharsets.UTF_8), attributes));
+  }
+
+  private static long getCounter(PipelineResult result, Class<?> namespace, String name) {
+    long count = 0L;
+    for (MetricResult<Long> counter :
+        result
+            .metrics()
+            .queryMetrics(
+                MetricsFilter.builder()
+                    .addNameFilter(MetricNameFilter.named(namespace, name))
+                    .build())
+            .getCounters()) {
+      count += counter.getAttempted();
+    }
+    return count;
+  }
+
+  /*
+   * Runs the Loader Envelopes through TimerMonitorJobDoFn in a DirectRunner Pipeline on a single
+   * thread(see the Loader tests), and returns the Jobs of the Slot Releases along with the result
+   */
+  private static PipelineResult monitor(
+      MonitorOptions options,
+      TestStream<KV<String, PubsubMessage>> loaderEnvelopes,
+      List<String> releasedJobs) {
+    String runId = UUID.randomUUID().toString();
+    COLLECTED.put(runId, new ConcurrentLinkedQueue<String>());
+    try {
+      TupleTag<PubsubMessage> pushedBackForRetryAfterJobFailure = new TupleTag<PubsubMessage>(){};
+      TupleTag<String> failedLoadJobRequests = new TupleTag<String>(){};
+      TupleTag<PubsubMessage> releasedSlots = new TupleTag<PubsubMessage>(){};
+      TupleTag<Void> voidTupleTag = new TupleTag<Void>(){};
+      DirectOptions directOptions = PipelineOptionsFactory.as(DirectOptions.class);
+      directOptions.setTargetParallelism(1);
+      Pipeline pipeline = Pipeline.create(directOptions);
+      PCollectionTuple pCollectionTuple =
+          pipeline
+              .apply(loaderEnvelopes)
+              .apply(
+                  ParDo.of(
+                          new TimerMonitorJobDoFn(
+                              options,
+                              pushedBackForRetryAfterJobFailure,
+                              failedLoadJobRequests,
+                              releasedSlots))
+                      .withOutputTags(
+                          voidTupleTag,
+                          TupleTagList.of(pushedBackForRetryAfterJobFailure)
+                              .and(failedLoadJobRequests)
+                              .and(releasedSlots)));
+      pCollectionTuple
+          .get(pushedBackForRetryAfterJobFailure)
+          .setCoder(PubsubMessageWithAttributesCoder.of());
+      pCollectionTuple.get(failedLoadJobRequests).setCoder(StringUtf8Coder.of());
+      pCollectionTuple
+          .get(releasedSlots)
+          .setCoder(PubsubMessageWithAttributesCoder.of())
+          .apply(
+              ParDo.of(
+                  new CollectDoFn(
+                      runId,
+                      slotRelease -> slotRelease.getAttribute(SlotRelease.JOB_ID_ATTRIBUTE))));
+      PipelineResult result = pipeline.run();
+      result.waitUntilFinish();
+      releasedJobs.addAll(COLLECTED.get(runId));
+      return result;
+    } finally {
+      COLLECTED.remove(runId);
+    }
+  }
+
+  /*
+   * Runs the retried Load Requests through DeferRetryDoFn in a DirectRunner Pipeline on a single
+   * thread, and returns every released message as <payload>@<clock of the Monitor>
+   */
+  private static List<String> deferRetries(TestStream<KV<String, PubsubMessage>> retries) {
+    String runId = UUID.randomUUID().toString();
+    COLLECTED.put(runId, new ConcurrentLinkedQueue<String>());
+    try {
+      DirectOptions directOptions = PipelineOptionsFactory.as(DirectOptions.class);
+      directOptions.setTargetParallelism(1);
+      Pipeline pipeline = Pipeline.create(directOptions);
+      pipeline
+          .apply(retries)
+          .apply(ParDo.of(new TickDoFn()))
+          .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()))
+          .apply(ParDo.of(new DeferRetryDoFn()))
+          .setCoder(PubsubMessageWithAttributesCoder.of())
+          .apply(
+              ParDo.of(
+                  new CollectDoFn(
+                      runId,
+                      retry ->
+                          new String(retry.getPayload(), StandardCharsets.UTF_8)
+                              + "@"
+                              + LoaderClock.currentTimeMillis())));
+      pipeline.run().waitUntilFinish();
+      return new ArrayList<String>(COLLECTED.get(runId));
+    } finally {
+      COLLECTED.remove(runId);
+    }
+  }
+
+  /*
+   * A Job still Running past the maximum Load Job execution time stays monitored until DONE, and a
+   * redelivery of its Loader Envelope once it is done with does not release its Slot again
+   */
+  @Test
+  void testTimerMonitorOutlivesMaxExecutionTimeAndIgnoresRedelivery() throws IOException {
+    AtomicLong clockMs = new AtomicLong(System.currentTimeMillis());
+    LoaderClock.setClock(
+        new Clock() {
+          @Override
+          public ZoneId getZone() {
+            return ZoneId.of("UTC");
+          }
+
+          @Override
+          public Clock withZone(ZoneId zone) {
+            return this;
+          }
+
+          @Override
+          public Instant instant() {
+            return Instant.ofEpochMilli(clockMs.get());
+          }
+        },
+        Thread::sleep);
+    try {
+      FakeJobsGetTransport transport =
+          new FakeJobsGetTransport(clockMs, Duration.standardHours(4).getMillis());
+      transport.addJob("job-1", "RUNNING", "RUNNING", "DONE");
+      registerMonitorBigQuery(transport);
+      MonitorOptions options =
+          getOptions(
+              "--initialBackOffSeconds=1",
+              "--backOffExponential=1.5",
+              "--monitorPollSeconds=1",
+              "--slotReleaseTopic=projects/project/topics/slot-release");
+      KV<String, PubsubMessage> loaderEnvelope = getLoaderEnvelopeMessage("job-1");
+      TestStream<KV<String, PubsubMessage>> loaderEnvelopes =
+          TestStream.create(
+                  KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()))
+              .addElements(loaderEnvelope)
+              .advanceProcessingTime(Duration.standardSeconds(10))
+              .advanceProcessingTime(Duration.standardSeconds(10))
+              .advanceProcessingTime(Duration.standardSeconds(10))
+              .addElements(loaderEnvelope)
+              .advanceProcessingTime(Duration.standardSeconds(10))
+              .advanceWatermarkToInfinity();
+      List<String> releasedJobs = new ArrayList<String>();
+      PipelineResult result = monitor(options, loaderEnvelopes, releasedJobs);
+      Assertions.assertEquals(Collections.singletonList("job-1"), releasedJobs);
+      Assertions.assertEquals(3L, transport.getJobCount());
+      Assertions.assertEquals(
+          1L, getCounter(result, TimerMonitorJobDoFn.class, "overdue-job-checks"));
+      Assertions.assertEquals(
+          1L, getCounter(result, TimerMonitorJobDoFn.class, "duplicate-loader-envelopes"));
+      Assertions.assertEquals(1L, getCounter(result, MonitorJobDoFn.class, "successful-load-jobs"));
+    } finally {
+      LoaderClock.setClock(Clock.systemUTC(), Thread::sleep);
+    }
+  }
+
+  @Test
+  void testOffendingUrisFromErrorDetails() {
+    Set<String> offendingUris =
+        LoadRequestBisector.getOffendingUris(
+            Arrays.asList(
+                "gs://bucket/events/bundle-1/1.avro",
+                "Error while reading data, error message: Invalid sync! File: gs://bucket/events/bundle-1/1.avro.",
+                null,
+                "Provided Schema does not match Table project:dataset.events"));
+    Assertions.assertEquals(
+        Collections.singleton("gs://bucket/events/bundle-1/1.avro"), offendingUris);
+  }
+
+  @Test
+  void testBisectNamedFiles() {
+    LoadRequest loadRequest = getLoadRequest("bundle-1");
+    LoadRequestBisector.Bisection bisection =
+        LoadRequestBisector.bisect(
+            loadRequest, Collections.singleton("gs://bucket/events/bundle-1/1.avro"));
+    Assertions.assertEquals(1, bisection.deadLetteredParts.size());
+    LoadRequestPayload deadLettered = bisection.deadLetteredParts.get(0).loadRequestPayload;
+    Assertions.assertEquals("bundle-1-part0", deadLettered.bundleId);
+    Assertions.assertEquals(
+        Collections.singletonList("gs://bucket/events/bundle-1/1.avro"), deadLettered.bundleFiles);
+    Assertions.assertEquals(1, (int) deadLettered.bundleCount);
+    Assertions.assertEquals(2048L, (long) deadLettered.bundleSize);
+    Assertions.assertEquals(1, bisection.retriedParts.size());
+    LoadRequestPayload retried = bisection.retriedParts.get(0).loadRequestPayload;
+    Assertions.assertEquals("bundle-1-part1", retried.bundleId);
+    Assertions.assertEquals(
+        Collections.singletonList("gs://bucket/events/bundle-1/0.avro"), retried.bundleFiles);
+    Assertions.assertEquals(
+        getLoadRequest("bundle-1").loadRequestAttributes.getRetryAttemptsAfterJobFailures(),
+        bisection.retriedParts.get(0).loadRequestAttributes.getRetryAttemptsAfterJobFailures());
+    /*
+     * The parts keep the attributes of the Load Request without sharing its lists
+     */
+    LoadRequestAttributes attributes = bisection.deadLetteredParts.get(0).loadRequestAttributes;
+    Assertions.assertEquals(loadRequest.loadRequestAttributes, attributes);
+    Assertions.assertNotSame(
+        loadRequest.loadRequestAttributes.getPreviousFailedJobIds(),
+        attributes.getPreviousFailedJobIds());
+  }
+
+  @Test
+  void testBisectOtherFilesNamed() {
+    Assertions.assertTrue(
+        LoadRequestBisector.bisect(
+                getLoadRequest("bundle-1"),
+                Collections.singleton("gs://bucket/events/bundle-2/0.avro"))
+            .isEmpty());
+  }
+
+  @Test
+  void testBisectInHalvesWhenNoFileNamed() {
+    LoadRequestBisector.Bisection bisection =
+        LoadRequestBisector.bisect(getLoadRequest("bundle-1"), new LinkedHashSet<String>());
+    Assertions.assertTrue(bisection.deadLetteredParts.isEmpty());
+    Assertions.assertEquals(2, bisection.retriedParts.size());
+    for (int index = 0; index < 2; index++) {
+      LoadRequestPayload part = bisection.retriedParts.get(index).loadRequestPayload;
+      Assertions.assertEquals("bundle-1-part" + index, part.bundleId);
+      Assertions.assertEquals(
+          Collections.singletonList("gs://bucket/events/bundle-1/" + index + ".avro"),
+          part.bundleFiles);
+    }
+    /*
+     * A single file, or a Load Request without bundleFiles, can not be narrowed down any further
+     */
+    LoadRequest singleFile = bisection.retriedParts.get(0);
+    Assertions.assertTrue(
+        LoadRequestBisector.bisect(singleFile, new LinkedHashSet<String>()).isEmpty());
+    LoadRequest withoutBundleFiles = getLoadRequest("bundle-1");
+    withoutBundleFiles.loadRequestPayload.bundleFiles = null;
+    Assertions.assertTrue(
+        LoadRequestBisector.bisect(withoutBundleFiles, new LinkedHashSet<String>()).isEmpty());
+  }
+
+  @Test
+  void testReasonCodesErrorClassifier() {
+    LoadJobErrorClassifier classifier = LoadJobErrorClassifier.forSpec("reasons");
+    Assertions.assertEquals(
+        LoadJobErrorClassifier.ErrorClass.FATAL, classifier.classify("invalid", "Invalid sync!"));
+    Assertions.assertEquals(
+        LoadJobErrorClassifier.ErrorClass.FATAL, classifier.classify("notFound", null));
+    Assertions.assertEquals(
+        LoadJobErrorClassifier.ErrorClass.QUOTA, classifier.classify("quotaExceeded", null));
+    Assertions.assertEquals(
+        LoadJobErrorClassifier.ErrorClass.QUOTA, classifier.classify("rateLimitExceeded", null));
+    Assertions.assertEquals(
+        LoadJobErrorClassifier.ErrorClass.TRANSIENT, classifier.classify("backendError", null));
+    Assertions.assertEquals(
+        LoadJobErrorClassifier.ErrorClass.TRANSIENT, classifier.classify("someNewReason", null));
+    Assertions.assertEquals(
+        LoadJobErrorClassifier.ErrorClass.FATAL,
+        LoadJobErrorClassifier.forSpec(null).classify("invalid", null));
+  }
+
+  @Test
+  void testErrorClassifierSpecs() {
+    Assertions.assertEquals(
+        LoadJobErrorClassifier.ErrorClass.TRANSIENT,
+        LoadJobErrorClassifier.forSpec("none").classify("invalid", null));
+    Assertions.assertTrue(
+        LoadJobErrorClassifier.forSpec("class:com.example.LoadJobErrorClassifier$ReasonCodes")
+            instanceof LoadJobErrorClassifier.ReasonCodes);
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> LoadJobErrorClassifier.forSpec("class:com.example.MissingClassifier"));
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> LoadJobErrorClassifier.forSpec("fatal"));
+  }
+
+  /*
+   * A Load Request due before the ones already deferred for its bundleId pulls the Release Timer
+   * in, and a Load Request without a BackOff is not deferred at all
+   */
+  @Test
+  void testDeferRetryReleasesAtTheEarliestBackOff() {
+    long nowMs = 1571400000000L;
+    LoaderClock.setClock(Clock.fixed(Instant.ofEpochMilli(nowMs), ZoneId.of("UTC")), Thread::sleep);
+    try {
+      TestStream<KV<String, PubsubMessage>> retries =
+          TestStream.create(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()))
+              .addElements(getRetriedMessage("late", nowMs + 60000L))
+              .addElements(getRetriedMessage("early", nowMs + 10000L))
+              .addElements(getRetriedMessage("now", null))
+              .addElements(getTick(nowMs + 20000L))
+              .advanceProcessingTime(Duration.standardSeconds(20))
+              .addElements(getTick(nowMs + 70000L))
+              .advanceProcessingTime(Duration.standardSeconds(50))
+              .advanceWatermarkToInfinity();
+      Assertions.assertEquals(
+          Arrays.asList(
+              "now@" + nowMs, "early@" + (nowMs + 20000L), "late@" + (nowMs + 70000L)),
+          deferRetries(retries));
+    } finally {
+      LoaderClock.setClock(Clock.systemUTC(), Thread::sleep);
+    }
+  }
+}
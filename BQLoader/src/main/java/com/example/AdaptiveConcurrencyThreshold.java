@@ -0,0 +1,70 @@
+package com.example;
+
+import org.joda.time.Duration;
+
+/*
+ * Additive Increase/Multiplicative Decrease of the effective Concurrent Load Jobs Threshold.
+ * After every Running Jobs refresh, the threshold grows by the additive step while the observed
+ * Pending to Running latency of the BQ Jobs stays under the target, and is cut by the decrease
+ * factor when the latency exceeds the target or Job Submissions were rate limited since the last
+ * refresh. The configured Concurrent Load Jobs Threshold is the hard ceiling.
+ */
+class AdaptiveConcurrencyThreshold {
+
+  private final int ceiling;
+  private final int floor;
+  private final double additiveIncrease;
+  private final double multiplicativeDecrease;
+  private final long targetPendingLatencyMs;
+  private volatile double threshold;
+  private volatile boolean rateLimited = false;
+
+  AdaptiveConcurrencyThreshold(
+      int ceiling,
+      int floor,
+      double additiveIncrease,
+      double multiplicativeDecrease,
+      long targetPendingLatencyMs) {
+    this.ceiling = ceiling;
+    this.floor = Math.max(1, Math.min(floor, ceiling));
+    this.additiveIncrease = additiveIncrease;
+    this.multiplicativeDecrease = multiplicativeDecrease;
+    this.targetPendingLatencyMs = targetPendingLatencyMs;
+    /*
+     * Start at the configured threshold, it only comes down once BQ shows congestion
+     */
+    this.threshold = ceiling;
+  }
+
+  /*
+   * The configured Concurrent Load Jobs Threshold is the ceiling of the adaptive one
+   */
+  static AdaptiveConcurrencyThreshold fromOptions(Options options) {
+    return new AdaptiveConcurrencyThreshold(
+        options.getConcurrentLoadJobsThreshold().get(),
+        options.getMinConcurrentLoadJobsThreshold().get(),
+        options.getThresholdAdditiveIncrease().get(),
+        options.getThresholdMultiplicativeDecrease().get(),
+        Duration.standardSeconds(options.getTargetPendingLatencySeconds().get()).getMillis());
+  }
+
+  int getEffectiveThreshold() {
+    return (int) Math.floor(this.threshold);
+  }
+
+  void recordRateLimitExceeded() {
+    this.rateLimited = true;
+  }
+
+  /*
+   * Applied once per refresh, so a burst of congestion signals counts as a single decrease
+   */
+  synchronized void update(long observedPendingLatencyMs) {
+    if (this.rateLimited || observedPendingLatencyMs > this.targetPendingLatencyMs) {
+      this.threshold = Math.max(this.floor, this.threshold * this.multiplicativeDecrease);
+    } else {
+      this.threshold = Math.min(this.ceiling, this.threshold + this.additiveIncrease);
+    }
+    this.rateLimited = false;
+  }
+}
@@ -1,16 +1,23 @@
 package com.example;
 
 import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.io.TextIO;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubIO;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessageWithAttributesCoder;
 import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.Flatten;
 import org.apache.beam.sdk.transforms.ParDo;
 import org.apache.beam.sdk.transforms.windowing.AfterPane;
 import org.apache.beam.sdk.transforms.windowing.AfterProcessingTime;
 import org.apache.beam.sdk.transforms.windowing.AfterWatermark;
 import org.apache.beam.sdk.transforms.windowing.FixedWindows;
 import org.apache.beam.sdk.transforms.windowing.Window;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
 import org.apache.beam.sdk.values.PCollectionTuple;
 import org.apache.beam.sdk.values.TupleTag;
 import org.apache.beam.sdk.values.TupleTagList;
@@ -28,12 +35,93 @@ public class BQLoader {
     final TupleTag<String> failedSubmissionLoadJobs = new TupleTag<String>();
     final TupleTag<Void> voidTupleTag = new TupleTag<Void>();
 
-    PCollectionTuple pCollectionTuple =
+    PCollection<KV<String, PubsubMessage>> loadRequests =
         p.apply(
                 "Consume Load Requests",
                 PubsubIO.readMessagesWithAttributes()
                     .withIdAttribute(options.getSourceDeDupAttribute().get())
                     .fromSubscription(options.getSourceSubscription()))
+            .apply(
+                "Key Load Requests by Destination Table",
+                ParDo.of(new KeyByDestinationTableDoFn()))
+            .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()));
+
+    /*
+     * Load Requests which can never succeed go straight to the Dead Letter
+     */
+    PCollectionList<String> failedLoadRequests = PCollectionList.empty(p);
+    if (options.getPreflightValidation().get()) {
+      final TupleTag<KV<String, PubsubMessage>> validLoadRequests =
+          new TupleTag<KV<String, PubsubMessage>>();
+      PCollectionTuple preflightTuple =
+          loadRequests.apply(
+              "Validate Load Requests before taking a Load Job Slot",
+              ParDo.of(new PreflightValidationDoFn(options, failedSubmissionLoadJobs))
+                  .withOutputTags(validLoadRequests, TupleTagList.of(failedSubmissionLoadJobs)));
+      loadRequests =
+          preflightTuple
+              .get(validLoadRequests)
+              .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()));
+      failedLoadRequests =
+          failedLoadRequests.and(
+              preflightTuple.get(failedSubmissionLoadJobs).setCoder(StringUtf8Coder.of()));
+    }
+
+    if (options.getCoalesceWindowSeconds().get() > 0
+        || options.getDailyLoadJobsPerTable().get() > 0) {
+      /*
+       * Coalesce Load Requests for the same Destination Table arriving within a short window
+       * into one multi URI Load Job, to save Load Job Quota and Concurrency. The windows are
+       * budgeted per Destination Table, and stretched when a Table runs through its Daily Load
+       * Job Quota too fast
+       */
+      loadRequests =
+          loadRequests
+              .apply(
+                  "Key Load Requests by Destination Table for the Load Job Quota",
+                  ParDo.of(new KeyByQuotaTableDoFn()))
+              .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()))
+              .apply(
+                  "Budget the Daily Load Job Quota by Destination Table",
+                  ParDo.of(new LoadJobQuotaDoFn(options)))
+              .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()))
+              .apply(
+                  "Coalesce Load Requests by Destination Table",
+                  ParDo.of(new CoalesceLoadRequestsDoFn()))
+              .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()));
+    }
+
+    PCollection<KV<String, PubsubMessage>> permitShardMessages =
+        loadRequests
+            .apply(
+                "Key Load Requests by Admission Permit Shard",
+                ParDo.of(new KeyByPermitShardDoFn(options.getAdmissionPermitShards().get())))
+            .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()));
+
+    if (!options.getSlotReleaseSubscription().get().isEmpty()) {
+      /*
+       * The Slot Release events of the Jobs Monitor wake the deferred Load Requests of the
+       * Permit Shard whose Job is DONE
+       */
+      PCollection<KV<String, PubsubMessage>> slotReleases =
+          p.apply(
+                  "Consume Slot Releases",
+                  PubsubIO.readMessagesWithAttributes()
+                      .fromSubscription(options.getSlotReleaseSubscription()))
+              .apply(
+                  "Key Slot Releases by Admission Permit Shard",
+                  ParDo.of(
+                      new KeySlotReleaseByPermitShardDoFn(
+                          options.getAdmissionPermitShards().get())))
+              .setCoder(KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()));
+      permitShardMessages =
+          PCollectionList.of(permitShardMessages)
+              .and(slotReleases)
+              .apply("Merge the Load Requests and the Slot Releases", Flatten.pCollections());
+    }
+
+    PCollectionTuple pCollectionTuple =
+        permitShardMessages
             .apply(
                 "Submit BQ Load Jobs",
                 ParDo.of(
@@ -44,7 +132,9 @@ public class BQLoader {
                             failedSubmissionLoadJobs))
                     .withOutputTags(
                         voidTupleTag,
-                        TupleTagList.of(submittedLoadJobs).and(submittedForRetryLoadJobs)));
+                        TupleTagList.of(submittedLoadJobs)
+                            .and(submittedForRetryLoadJobs)
+                            .and(failedSubmissionLoadJobs)));
 
     /*
      * Extract JobId from PCollection<KV<String, String>> for
@@ -75,8 +165,9 @@ public class BQLoader {
      * Store the Failed Load Requests into Dead Letter GCS after Allowed Max Retries
      * for Manual Inspection
      */
-    pCollectionTuple
-        .get(failedSubmissionLoadJobs)
+    failedLoadRequests
+        .and(pCollectionTuple.get(failedSubmissionLoadJobs))
+        .apply("Merge the Failed Load Requests", Flatten.pCollections())
         .apply(
             "Window the Failed Load Requests into Fixed Windows",
             Window.<String>into(
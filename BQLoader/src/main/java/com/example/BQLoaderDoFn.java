@@ -1,28 +1,38 @@
 package com.example;
 
-import com.google.api.gax.paging.Page;
-import com.google.cloud.bigquery.BigQuery;
 import com.google.cloud.bigquery.BigQueryException;
-import com.google.cloud.bigquery.BigQueryOptions;
 import com.google.cloud.bigquery.FormatOptions;
 import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobId;
 import com.google.cloud.bigquery.JobInfo;
-import com.google.cloud.bigquery.JobStatus;
 import com.google.cloud.bigquery.LoadJobConfiguration;
 import com.google.cloud.bigquery.TableId;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.hash.Hashing;
 import com.google.gson.Gson;
+import org.apache.beam.sdk.coders.DoubleCoder;
+import org.apache.beam.sdk.coders.MapCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
 import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessageWithAttributesCoder;
 import org.apache.beam.sdk.metrics.Counter;
 import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Gauge;
 import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.state.ValueState;
 import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
 import org.apache.beam.sdk.util.BackOff;
-import org.apache.beam.sdk.util.BackOffUtils;
 import org.apache.beam.sdk.util.FluentBackoff;
-import org.apache.beam.sdk.util.Sleeper;
+import org.apache.beam.sdk.values.KV;
 import org.apache.beam.sdk.values.TupleTag;
 import org.apache.commons.lang3.ObjectUtils;
 import org.joda.time.Duration;
@@ -31,33 +41,67 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedHashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
 
-public class BQLoaderDoFn extends DoFn<PubsubMessage, Void> {
+/*
+ * Submits the Load Requests keyed by Admission Permit Shard as BQ Load Jobs, a coalesced Load
+ * Request as one Load Job with multiple Source URIs.
+ * Every Permit Shard hands out its share of the Concurrent Load Jobs Threshold as Submission
+ * Permits in keyed State. Load Requests without a free Permit are held in State and dispatched by
+ * a Processing Time Timer with an exponential BackOff, or as soon as a Slot Release event frees a
+ * Permit. Load Requests which are not submitted in time go back through the Source PubSub.
+ */
+public class BQLoaderDoFn extends DoFn<KV<String, PubsubMessage>, Void> {
 
   private static final Logger LOG = LoggerFactory.getLogger(BQLoaderDoFn.class);
 
-  private static final BigQuery.JobListOption JOB_LIST_RUNNING_FILTER =
-      BigQuery.JobListOption.stateFilter(JobStatus.State.RUNNING);
-  private static final BigQuery.JobListOption JOB_LIST_ALL_USERS_FILTER =
-      BigQuery.JobListOption.allUsers();
   private static final Gson GSON = new Gson();
-  private static final BigQuery bigQuery = BigQueryOptions.getDefaultInstance().getService();
+  /*
+   * Attribute carrying the time(ms) the Load Request was first seen, for measuring the
+   * Job Submission Latency of deferred Load Requests
+   */
+  static final String RECEIVED_TIMESTAMP_ATTRIBUTE = "loaderReceivedTimestamp";
+  private static final String LOAD_JOB_ID_PREFIX = "bqloader_";
+  private static final String PRIORITY_CLASS_ATTRIBUTE = "loaderPriorityClass";
+  private static final String FINISH_TAG_ATTRIBUTE = "loaderSchedulerFinishTag";
+  private static final String IN_PIPELINE_RETRY_CYCLES_ATTRIBUTE = "loaderInPipelineRetryCycles";
+  private static final String SUBMITTED_TIMESTAMP_ATTRIBUTE = "loaderSubmittedTimestamp";
+  /*
+   * A Job creation without an outcome on this worker after this long is looked up in BQ
+   */
+  private static final long UNCONFIRMED_SUBMISSION_TIMEOUT_MS = 300000L;
   private final String targetBQProject;
-  private final int concurrentLoadJobsThreshold;
-  private final int loadJobsCacheTTLMinutes;
+  private final int runningLoadJobsRefreshSeconds;
   private final int MaxLoadJobRetryCycles;
+  private final int inPipelineRetryCycles;
+  private final int admissionPermitShards;
+  private final int concurrentLoadJobsThreshold;
+  private final int minConcurrentLoadJobsThreshold;
+  private final double thresholdAdditiveIncrease;
+  private final double thresholdMultiplicativeDecrease;
+  private final long targetPendingLatencyMs;
+  private final int messageWriterFormat;
+  private final long permitLeaseMs;
+  private final FairLoadRequestScheduler fairLoadRequestScheduler;
   private final FluentBackoff fluentBackoff;
   private final TupleTag<PubsubMessage> submittedLoadJobs;
   private final TupleTag<PubsubMessage> submittedForRetryLoadJobs;
   private final TupleTag<String> failedSubmissionLoadJobs;
+  private final int maxInFlightSubmissions;
+  private final Tracer tracer;
+  private transient RunningLoadJobsTracker runningLoadJobsTracker;
+  private transient LoadJobSubmitter loadJobSubmitter;
+  private transient List<PendingSubmission> pendingSubmissions;
   private Counter submittedCount = Metrics.counter(BQLoaderDoFn.class, "submittedCount");
   private Counter backOffExhaustedCount =
       Metrics.counter(BQLoaderDoFn.class, "backoff-exhausted");
@@ -67,9 +111,60 @@ public class BQLoaderDoFn extends DoFn<PubsubMessage, Void> {
       Metrics.counter(BQLoaderDoFn.class, "backoff-interrupted");
   private Counter submittedForRetryCount =
       Metrics.counter(BQLoaderDoFn.class, "submitted-for-retry-cycles");
+  private Counter inPipelineRetryCount =
+      Metrics.counter(BQLoaderDoFn.class, "in-pipeline-retry-cycles");
+  private Counter deferredCount = Metrics.counter(BQLoaderDoFn.class, "deferred-load-requests");
+  private Counter permitDeniedCount =
+      Metrics.counter(BQLoaderDoFn.class, "admission-permit-denied");
+  private Counter permitReclaimedCount =
+      Metrics.counter(BQLoaderDoFn.class, "admission-permit-reclaimed");
+  private Counter slotReleasedCount = Metrics.counter(BQLoaderDoFn.class, "slot-released");
+  private Counter rateLimitExceededCount =
+      Metrics.counter(BQLoaderDoFn.class, "rate-limit-exceeded");
+  private Gauge effectiveThresholdGauge =
+      Metrics.gauge(BQLoaderDoFn.class, "effective-concurrent-load-jobs-threshold");
   private Distribution jobSubmissionLatencyMs =
       Metrics.distribution(BQLoaderDoFn.class, "load-job-submission-latency-ms");
 
+  @StateId("pendingLoadRequests")
+  private final StateSpec<BagState<PubsubMessage>> pendingLoadRequestsSpec =
+      StateSpecs.bag(PubsubMessageWithAttributesCoder.of());
+
+  @StateId("deferredAttempts")
+  private final StateSpec<ValueState<Integer>> deferredAttemptsSpec =
+      StateSpecs.value(VarIntCoder.of());
+
+  /*
+   * jobId -> submission time(ms) of the Load Jobs holding a Submission Permit of this Shard
+   */
+  @StateId("inFlightJobs")
+  private final StateSpec<ValueState<Map<String, Long>>> inFlightJobsSpec =
+      StateSpecs.value(MapCoder.of(StringUtf8Coder.of(), VarLongCoder.of()));
+
+  /*
+   * Destination Table -> virtual finish time of its last enqueued Load Request
+   */
+  @StateId("flowFinishTags")
+  private final StateSpec<ValueState<Map<String, Double>>> flowFinishTagsSpec =
+      StateSpecs.value(MapCoder.of(StringUtf8Coder.of(), DoubleCoder.of()));
+
+  @StateId("virtualTime")
+  private final StateSpec<ValueState<Double>> virtualTimeSpec =
+      StateSpecs.value(DoubleCoder.of());
+
+  /*
+   * jobId -> held Load Request(s) of the Job creations not confirmed yet(in-pipeline Retry Cycles)
+   */
+  @StateId("unconfirmedSubmissions")
+  private final StateSpec<ValueState<Map<String, PubsubMessage>>> unconfirmedSubmissionsSpec =
+      StateSpecs.value(MapCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of()));
+
+  @TimerId("retrySubmission")
+  private final TimerSpec retrySubmissionSpec = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
+  @TimerId("slotReleased")
+  private final TimerSpec slotReleasedSpec = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
   BQLoaderDoFn(
       Options options,
       TupleTag<PubsubMessage> submittedLoadJobs,
@@ -84,59 +179,121 @@ public class BQLoaderDoFn extends DoFn<PubsubMessage, Void> {
             .withExponent(options.getBackOffExponential().get())
             .withMaxRetries(options.getMaxRetries().get())
             .withInitialBackoff(Duration.standardSeconds(options.getInitialBackOffSeconds().get()));
-    this.concurrentLoadJobsThreshold = options.getConcurrentLoadJobsThreshold().get();
-    this.loadJobsCacheTTLMinutes = options.getConcurrentLoadJobsCacheTTLMinutes().get();
+    this.runningLoadJobsRefreshSeconds = options.getRunningLoadJobsRefreshSeconds().get();
     this.MaxLoadJobRetryCycles = options.getMaxLoadJobRetryCycles().get();
+    this.inPipelineRetryCycles = options.getInPipelineRetryCycles().get();
+    this.maxInFlightSubmissions = options.getMaxInFlightSubmissions().get();
+    this.admissionPermitShards = options.getAdmissionPermitShards().get();
+    this.concurrentLoadJobsThreshold = options.getConcurrentLoadJobsThreshold().get();
+    this.minConcurrentLoadJobsThreshold = options.getMinConcurrentLoadJobsThreshold().get();
+    this.thresholdAdditiveIncrease = options.getThresholdAdditiveIncrease().get();
+    this.thresholdMultiplicativeDecrease = options.getThresholdMultiplicativeDecrease().get();
+    this.targetPendingLatencyMs =
+        Duration.standardSeconds(options.getTargetPendingLatencySeconds().get()).getMillis();
+    this.messageWriterFormat = LoaderMessageCodec.getWriterFormat(options.getMessageFormat().get());
+    this.permitLeaseMs =
+        Duration.standardMinutes(options.getAdmissionPermitLeaseMinutes().get()).getMillis();
+    this.fairLoadRequestScheduler =
+        new FairLoadRequestScheduler(
+            options.getPriorityClassWeights().get(), options.getPriorityClassByDataset().get());
     this.targetBQProject = options.getBQProject().get();
     this.submittedLoadJobs = submittedLoadJobs;
     this.submittedForRetryLoadJobs = submittedForRetryLoadJobs;
     this.failedSubmissionLoadJobs = failedSubmissionLoadJobs;
+    this.tracer = new Tracer("BQLoader", options.getSpanSink().get());
   }
 
-  private LinkedHashSet<Job> getRunningLoadJobs(int queueSize, int queueTTLMinutes)
-      throws ExecutionException {
-    /**
-     * We are using Guava LoadingCache to reduce spamming BQ for getting the list of Running
-     * Jobs(Concurrent). TTL is configurable. Size of the LinkedHashSet to store Running Jobs is
-     * same as Threshold for Concurrent Jobs.
-     */
+  @Setup
+  public void setup() {
+    this.loadJobSubmitter = LoadJobSubmitter.getInstance(this.maxInFlightSubmissions);
     /*
-     * Using Single Fixed Key for storing the Running Jobs List in a Set
+     * One Tracker per worker JVM, shared by all the DoFn instances. It refreshes the Running Jobs
+     * in the background instead of listing them for every Load Request. The Jobs are listed in the
+     * BQ Project they are created in, which is not necessarily the BQProject of the tables.
+     * The Tracker adapts the effective threshold of the worker, created along with it
      */
-    String cacheKey = "runningLoadJobs";
-    LoadingCache<String, LinkedHashSet<Job>> linkedHashSetLoadingCache =
-        CacheBuilder.newBuilder()
-            .maximumSize(queueSize)
-            .expireAfterWrite(queueTTLMinutes, TimeUnit.MINUTES)
-            .build(
-                new CacheLoader<String, LinkedHashSet<Job>>() {
-                  @Override
-                  public LinkedHashSet<Job> load(String cacheKey) throws Exception {
-                    LinkedHashSet<Job> concurrentLoadJobs = new LinkedHashSet<Job>();
-                    Page<Job> jobs =
-                        bigQuery.listJobs(JOB_LIST_RUNNING_FILTER, JOB_LIST_ALL_USERS_FILTER);
-                    for (Job job : jobs.iterateAll()) {
-                      concurrentLoadJobs.add(job);
-                    }
-                    return concurrentLoadJobs;
-                  }
-                });
-    return linkedHashSetLoadingCache.get(cacheKey);
+    this.runningLoadJobsTracker =
+        RunningLoadJobsTracker.getInstance(
+            this.loadJobSubmitter.getJobProjectId(),
+            this.runningLoadJobsRefreshSeconds,
+            () ->
+                new AdaptiveConcurrencyThreshold(
+                    this.concurrentLoadJobsThreshold,
+                    this.minConcurrentLoadJobsThreshold,
+                    this.thresholdAdditiveIncrease,
+                    this.thresholdMultiplicativeDecrease,
+                    this.targetPendingLatencyMs));
+  }
+
+  private int getEffectiveThreshold() {
+    int effectiveThreshold =
+        this.runningLoadJobsTracker.getAdaptiveConcurrencyThreshold().getEffectiveThreshold();
+    this.effectiveThresholdGauge.set(effectiveThreshold);
+    return effectiveThreshold;
   }
 
-  private void isQueueUnderThreshold(int queueSize, int queueTTLMinutes)
-      throws ExecutionException, JobsThresholdException {
-    if (!(getRunningLoadJobs(queueSize, queueTTLMinutes).size()
-        < this.concurrentLoadJobsThreshold)) {
-      throw new JobsThresholdException(
-          "BQ Job Queue is beyond the set threshold of " + this.concurrentLoadJobsThreshold);
+  private boolean isQueueUnderThreshold(int effectiveThreshold) {
+    return this.runningLoadJobsTracker.getRunningJobCount() < effectiveThreshold;
+  }
+
+  /*
+   * Releases the Permits of the Jobs which are DONE, or whose lease has expired
+   */
+  private Map<String, Long> reclaimPermits(ValueState<Map<String, Long>> inFlightJobsState) {
+    Map<String, Long> inFlightJobs =
+        new HashMap<String, Long>(
+            ObjectUtils.firstNonNull(inFlightJobsState.read(), new HashMap<String, Long>()));
+    long nowMs = LoaderClock.currentTimeMillis();
+    int inFlightBefore = inFlightJobs.size();
+    inFlightJobs
+        .entrySet()
+        .removeIf(
+            inFlightJob ->
+                nowMs - inFlightJob.getValue() >= this.permitLeaseMs
+                    || !this.runningLoadJobsTracker.isJobRunning(
+                        inFlightJob.getKey(), inFlightJob.getValue()));
+    this.permitReclaimedCount.inc(inFlightBefore - inFlightJobs.size());
+    return inFlightJobs;
+  }
+
+  /*
+   * A Permit of this Shard must be free, and the BQ Project must be under the effective threshold
+   * as well, since it may run Jobs submitted outside of this pipeline.
+   * The Permits are shares of the configured threshold, the same on every worker. The effective
+   * threshold adapts on each worker separately and only throttles through the Running Jobs of the
+   * BQ Project
+   */
+  private boolean hasPermit(String permitShard, Map<String, Long> inFlightJobs) {
+    int effectiveThreshold = getEffectiveThreshold();
+    if (inFlightJobs.size()
+            < getShardPermits(
+                permitShard, this.concurrentLoadJobsThreshold, this.admissionPermitShards)
+        && isQueueUnderThreshold(effectiveThreshold)) {
+      return true;
     }
+    this.permitDeniedCount.inc();
+    return false;
+  }
+
+  /*
+   * The threshold is split exactly across the Permit Shards: each gets Threshold/Shards Permits,
+   * and the first Threshold%Shards Shards one more, so that the pipeline wide total is the
+   * threshold. A Shard gets no Permit at all while the threshold is below the number of Shards
+   */
+  static int getShardPermits(String permitShard, int threshold, int admissionPermitShards) {
+    int shardIndex =
+        Integer.parseInt(permitShard.substring(KeyByPermitShardDoFn.PERMIT_SHARD_PREFIX.length()));
+    int shardPermits = threshold / admissionPermitShards;
+    if (shardIndex < threshold % admissionPermitShards) {
+      shardPermits++;
+    }
+    return shardPermits;
   }
 
   private LoadJobConfiguration getLoadJobConfiguration(
-      TableId destinationTableId, String sourceUri) {
+      TableId destinationTableId, List<String> sourceUris) {
     LoadJobConfiguration.Builder loadJobConfigurationBuilder =
-        LoadJobConfiguration.newBuilder(destinationTableId, sourceUri);
+        LoadJobConfiguration.newBuilder(destinationTableId, sourceUris);
     loadJobConfigurationBuilder
         .setFormatOptions(FormatOptions.avro())
         .setUseAvroLogicalTypes(true)
@@ -148,167 +305,796 @@ public class BQLoaderDoFn extends DoFn<PubsubMessage, Void> {
     return loadJobConfigurationBuilder.build();
   }
 
-  private Job submitJob(TableId destinationTableId, String sourceUri)
-      throws BigQueryException, IOException, InterruptedException, BackOffExhaustedException {
-    Job job = null;
-    LoadJobConfiguration loadJobConfiguration =
-        getLoadJobConfiguration(destinationTableId, sourceUri);
-    Sleeper sleeper = Sleeper.DEFAULT;
+  private static boolean isRateLimitExceeded(BigQueryException bigQueryException) {
+    String reason = bigQueryException.getReason();
+    return reason != null && reason.toLowerCase().contains("ratelimitexceeded");
+  }
+
+  private static double getFinishTag(PubsubMessage pubsubMessage) {
+    String finishTag = pubsubMessage.getAttribute(FINISH_TAG_ATTRIBUTE);
+    return finishTag == null ? 0.0 : Double.parseDouble(finishTag);
+  }
+
+  private static String getPriorityClass(PubsubMessage pubsubMessage) {
+    return ObjectUtils.firstNonNull(
+        pubsubMessage.getAttribute(PRIORITY_CLASS_ATTRIBUTE),
+        FairLoadRequestScheduler.DEFAULT_PRIORITY_CLASS);
+  }
+
+  private static long getReceivedTimestamp(PubsubMessage pubsubMessage) {
+    String receivedTimestamp = pubsubMessage.getAttribute(RECEIVED_TIMESTAMP_ATTRIBUTE);
+    return receivedTimestamp == null
+        ? LoaderClock.currentTimeMillis()
+        : Long.parseLong(receivedTimestamp);
+  }
+
+  private static int getInPipelineRetryCycles(PubsubMessage pubsubMessage) {
+    String inPipelineRetryCycles = pubsubMessage.getAttribute(IN_PIPELINE_RETRY_CYCLES_ATTRIBUTE);
+    return inPipelineRetryCycles == null ? 0 : Integer.parseInt(inPipelineRetryCycles);
+  }
+
+  /*
+   * Returns a copy of the PubSub Message with the Attribute set, or removed when the value is null
+   */
+  static PubsubMessage withAttribute(PubsubMessage pubsubMessage, String name, String value) {
+    Map<String, String> attributesMap = new HashMap<String, String>();
+    if (pubsubMessage.getAttributeMap() != null) {
+      attributesMap.putAll(pubsubMessage.getAttributeMap());
+    }
+    if (value == null) {
+      attributesMap.remove(name);
+    } else {
+      attributesMap.put(name, value);
+    }
+    return new PubsubMessage(pubsubMessage.getPayload(), attributesMap);
+  }
+
+  /*
+   * Returns the BackOff in ms before the given deferred attempt, or BackOff.STOP once the
+   * Maximum Retries are exhausted
+   */
+  private long getDeferredBackOffMillis(int deferredAttempts) throws IOException {
     BackOff backOff = this.fluentBackoff.backoff();
-    while (true) {
-      try {
-        isQueueUnderThreshold(this.concurrentLoadJobsThreshold, this.loadJobsCacheTTLMinutes);
-        job = bigQuery.create(JobInfo.of(loadJobConfiguration));
-        return job;
-      } catch (JobsThresholdException | ExecutionException q) {
-        if (!BackOffUtils.next(sleeper, backOff)) {
-          /*
-           * Failed to get the Open Spot in the Load Job Queue.
-           * Right now ExecutionException arising out of LoadingCache is also handled
-           * the same way as JobsThresholdException.
-           * BackOff Exhausted(Max Retries Reached)
-           * Throw BackOffExhaustedException so we can take action on it.
-           */
-          throw new BackOffExhaustedException(q.getMessage());
-        }
+    long backOffMillis = BackOff.STOP;
+    for (int attempt = 0; attempt <= deferredAttempts; attempt++) {
+      backOffMillis = backOff.nextBackOffMillis();
+      if (backOffMillis == BackOff.STOP) {
+        break;
       }
     }
+    return backOffMillis;
   }
 
-  @ProcessElement
-  public void processElement(ProcessContext context) {
+  private void setRetrySubmissionTimer(Timer retrySubmissionTimer, int deferredAttempts) {
+    try {
+      retrySubmissionTimer
+          .offset(Duration.millis(Math.max(0L, getDeferredBackOffMillis(deferredAttempts))))
+          .setRelative();
+    } catch (IOException e) {
+      this.backOffInterruptedCount.inc();
+      retrySubmissionTimer.offset(Duration.ZERO).setRelative();
+    }
+  }
+
+  /*
+   * A Load Job of this Shard is DONE as of the Jobs Monitor. Its Permit is reclaimed now, and the
+   * held Load Requests are dispatched by the Slot Released Timer without waiting for their BackOff
+   */
+  private void releaseSlot(
+      String jobId,
+      ValueState<Integer> deferredAttemptsState,
+      ValueState<Map<String, Long>> inFlightJobsState,
+      Timer slotReleasedTimer) {
+    this.slotReleasedCount.inc();
+    this.runningLoadJobsTracker.recordCompletedJob(jobId);
+    Map<String, Long> inFlightJobs =
+        new HashMap<String, Long>(
+            ObjectUtils.firstNonNull(inFlightJobsState.read(), new HashMap<String, Long>()));
+    if (inFlightJobs.remove(jobId) != null) {
+      this.permitReclaimedCount.inc();
+      inFlightJobsState.write(inFlightJobs);
+    }
+    if (deferredAttemptsState.read() != null) {
+      slotReleasedTimer.offset(Duration.ZERO).setRelative();
+    }
+  }
+
+  /*
+   * Another Retry Cycle for the held Load Request(s). Within the in-pipeline budget they are held
+   * in State again, beyond it they go through the Source PubSub
+   */
+  private void retryInPipelineOrFallBack(
+      OnTimerContext context, PubsubMessage pubsubMessage, List<PubsubMessage> retriedLoadRequests) {
+    int inPipelineRetryCycles = getInPipelineRetryCycles(pubsubMessage) + 1;
+    if (inPipelineRetryCycles <= this.inPipelineRetryCycles) {
+      this.inPipelineRetryCount.inc();
+      retriedLoadRequests.add(
+          withAttribute(
+              pubsubMessage,
+              IN_PIPELINE_RETRY_CYCLES_ATTRIBUTE,
+              String.valueOf(inPipelineRetryCycles)));
+      return;
+    }
+    for (LoadRequest loadRequest : CoalesceLoadRequestsDoFn.getLoadRequests(pubsubMessage)) {
+      context.output(
+          this.submittedForRetryLoadJobs,
+          getRetryMessage(loadRequest, getReceivedTimestamp(pubsubMessage)));
+    }
+  }
+
+  /*
+   * Drops the confirmed Job creations and retries the failed ones, which free their Permit and are
+   * held until the next BackOff step. The ones still in flight stay unconfirmed
+   */
+  private void confirmSubmissions(
+      OnTimerContext context,
+      Map<String, PubsubMessage> unconfirmedSubmissions,
+      List<PubsubMessage> failedSubmissions) {
+    Iterator<Map.Entry<String, PubsubMessage>> unconfirmedSubmissionsIterator =
+        unconfirmedSubmissions.entrySet().iterator();
+    while (unconfirmedSubmissionsIterator.hasNext()) {
+      Map.Entry<String, PubsubMessage> unconfirmedSubmission = unconfirmedSubmissionsIterator.next();
+      Boolean submissionOutcome =
+          this.loadJobSubmitter.getSubmissionOutcome(
+              unconfirmedSubmission.getKey(),
+              Long.parseLong(
+                  unconfirmedSubmission.getValue().getAttribute(SUBMITTED_TIMESTAMP_ATTRIBUTE)),
+              UNCONFIRMED_SUBMISSION_TIMEOUT_MS);
+      if (submissionOutcome == null) {
+        continue;
+      }
+      unconfirmedSubmissionsIterator.remove();
+      if (!submissionOutcome) {
+        this.runningLoadJobsTracker.recordCompletedJob(unconfirmedSubmission.getKey());
+        retryInPipelineOrFallBack(
+            context,
+            withAttribute(unconfirmedSubmission.getValue(), SUBMITTED_TIMESTAMP_ATTRIBUTE, null),
+            failedSubmissions);
+      }
+    }
+  }
+
+  /*
+   * The Load Job will be attempted for submission later. It will be back for Submission(Retry Cycle).
+   * Increment the loadJobSubmissionRetries PubSub Message Attribute for tracking
+   */
+  private PubsubMessage getRetryMessage(LoadRequest loadRequest, long loadStartTimeMs) {
+    this.submittedForRetryCount.inc();
+    if (this.tracer.isEnabled()) {
+      Map<String, String> spanAttributes = new HashMap<String, String>();
+      spanAttributes.put("bundleId", loadRequest.loadRequestPayload.bundleId);
+      spanAttributes.put("outcome", "retry-cycle");
+      Tracer.setTraceContext(
+          loadRequest,
+          this.tracer.record(
+              Tracer.getTraceContext(loadRequest, null),
+              "loader-queue",
+              loadStartTimeMs,
+              LoaderClock.currentTimeMillis(),
+              spanAttributes));
+    }
+    LoadRequestAttributes loadRequestAttributes = loadRequest.loadRequestAttributes;
+    Integer loadJobSubmissionAttempts = ObjectUtils.firstNonNull(loadRequestAttributes.getLoadJobSubmissionAttempts(), 0);
+    loadRequestAttributes.setLoadJobSubmissionAttempts(loadJobSubmissionAttempts + 1);
+    loadRequest.setLoadRequestAttributes(loadRequestAttributes);
+    Map<String, String> loadRequestAttributesMap = new HashMap<String, String>();
+    loadRequestAttributesMap.put("uniqueMessageId", UUID.randomUUID().toString());
+    if (loadRequestAttributes.getTraceContext() != null) {
+      loadRequestAttributesMap.put(
+          TraceContext.TRACEPARENT_ATTRIBUTE, loadRequestAttributes.getTraceContext());
+    }
+    return new PubsubMessage(
+        LoaderMessageCodec.encodeLoadRequest(loadRequest, this.messageWriterFormat),
+        loadRequestAttributesMap);
+  }
+
+  /*
+   * Derives the Job Id from the bundleId and the number of Job Failures of the Load Request, so
+   * resubmitting a Load Request(PubSub redelivery or Retry Cycle) creates the same Job, and BQ
+   * rejects the duplicate instead of loading the Bundle twice. A Load Request retried after a Job
+   * Failure gets a new Job Id. Coalesced Load Requests use a hash of all of their bundleIds.
+   */
+  static String getLoadJobId(List<LoadRequest> loadRequests) {
+    List<String> bundleAttempts = new ArrayList<String>();
+    for (LoadRequest loadRequest : loadRequests) {
+      if (loadRequest.loadRequestPayload.bundleId == null) {
+        /*
+         * Load Requests without a bundleId can not be made idempotent
+         */
+        return LOAD_JOB_ID_PREFIX + UUID.randomUUID().toString();
+      }
+      Integer jobFailures =
+          loadRequest.loadRequestAttributes == null
+              ? null
+              : loadRequest.loadRequestAttributes.getRetryAttemptsAfterJobFailures();
+      bundleAttempts.add(
+          loadRequest.loadRequestPayload.bundleId + "_" + ObjectUtils.firstNonNull(jobFailures, 0));
+    }
+    if (bundleAttempts.size() == 1) {
+      return LOAD_JOB_ID_PREFIX + bundleAttempts.get(0).replaceAll("[^a-zA-Z0-9_-]", "_");
+    }
+    Collections.sort(bundleAttempts);
+    return LOAD_JOB_ID_PREFIX
+        + "coalesced_"
+        + Hashing.sha256().hashString(String.join(",", bundleAttempts), StandardCharsets.UTF_8);
+  }
+
+  /*
+   * Issues the Load Job creation asynchronously. The Job Id is assigned up front, so the Job takes
+   * its Submission Permit right away, and the outcome is emitted in FinishBundle.
+   * With in-pipeline Retry Cycles, the held Load Request(s) are kept until the creation is confirmed
+   */
+  private void submitLoadRequests(
+      PubsubMessage heldMessage,
+      Map<String, PubsubMessage> unconfirmedSubmissions,
+      List<LoadRequest> loadRequests,
+      long loadStartTimeMs,
+      Map<String, Long> inFlightJobs,
+      String priorityClass,
+      org.joda.time.Instant timestamp,
+      BoundedWindow window) {
     /*
-     * Take note of Time for measuring the Job Submission Latency(ms)
+     * Coalesced Load Requests share the Destination Table and the Schema Hash
      */
-    long loadStartTimeMs = Instant.now().toEpochMilli();
-    LoadRequest loadRequest =
-        GSON.fromJson(
-            new String(context.element().getPayload(), StandardCharsets.UTF_8), LoadRequest.class);
-    LoadRequestAttributes loadRequestAttributes = loadRequest.loadRequestAttributes;
-    String bundlePrefixPath = loadRequest.loadRequestPayload.bundlePrefixPath;
-    String bundleDataset = loadRequest.loadRequestPayload.bundleDataset;
-    String bundleTable = loadRequest.loadRequestPayload.bundleTable;
+    String bundleDataset = loadRequests.get(0).loadRequestPayload.bundleDataset;
+    String bundleTable = loadRequests.get(0).loadRequestPayload.bundleTable;
+    List<String> bundlePrefixPaths = new ArrayList<String>();
+    for (LoadRequest loadRequest : loadRequests) {
+      /*
+       * A Load Request listing its files(a part of a bisected Load Request) loads only those files
+       */
+      List<String> bundleFiles = loadRequest.loadRequestPayload.bundleFiles;
+      if (bundleFiles != null && !bundleFiles.isEmpty()) {
+        bundlePrefixPaths.addAll(bundleFiles);
+      } else {
+        bundlePrefixPaths.add(loadRequest.loadRequestPayload.bundlePrefixPath);
+      }
+    }
+    JobId jobId = JobId.of(this.loadJobSubmitter.getJobProjectId(), getLoadJobId(loadRequests));
     /*
-     * Set submissionRetriesUntilNow attribute to 0 if not present
-     * This indicates that the LoadRequest is not attempted for submission yet as opposed to the ones
-     * going through the Retry loop
+     * The Job holds the Permit until it is no longer Pending/Running
      */
-    Integer submissionRetriesUntilNow = ObjectUtils.firstNonNull(loadRequestAttributes.getLoadJobSubmissionAttempts(), 0);
+    long submittedTimeMs = LoaderClock.currentTimeMillis();
+    inFlightJobs.put(jobId.getJob(), submittedTimeMs);
+    if (this.inPipelineRetryCycles > 0) {
+      unconfirmedSubmissions.put(
+          jobId.getJob(),
+          withAttribute(heldMessage, SUBMITTED_TIMESTAMP_ATTRIBUTE, String.valueOf(submittedTimeMs)));
+    }
+    this.runningLoadJobsTracker.recordSubmittedJob(jobId.getJob());
+    CompletableFuture<Job> submission;
+    try {
+      submission =
+          this.loadJobSubmitter.submit(
+              JobInfo.newBuilder(
+                      getLoadJobConfiguration(
+                          TableId.of(this.targetBQProject, bundleDataset, bundleTable),
+                          bundlePrefixPaths))
+                  .setJobId(jobId)
+                  .build());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while waiting for an in-flight Submission slot", e);
+    }
+    this.pendingSubmissions.add(
+        new PendingSubmission(
+            submission,
+            jobId.getJob(),
+            loadRequests,
+            loadStartTimeMs,
+            priorityClass,
+            heldMessage.getAttribute(SlotRelease.PERMIT_SHARD_ATTRIBUTE),
+            timestamp,
+            window));
+  }
+
+  /*
+   * Records the hand off from the producer(first attempt only) and the time spent in the Loader
+   * until the Load Job was created as Spans, and moves the Trace Context of every Load Request on
+   * to the last of them so that the Monitor records the Job under it
+   */
+  private void recordSubmittedSpans(PendingSubmission pendingSubmission, String jobId) {
+    for (LoadRequest loadRequest : pendingSubmission.loadRequests) {
+      TraceContext traceContext = Tracer.getTraceContext(loadRequest, null);
+      LoadRequestAttributes loadRequestAttributes = loadRequest.loadRequestAttributes;
+      Map<String, String> spanAttributes = new HashMap<String, String>();
+      spanAttributes.put("bundleId", loadRequest.loadRequestPayload.bundleId);
+      if (loadRequestAttributes != null
+          && loadRequestAttributes.getBundleCreatedTimestamp() != null
+          && ObjectUtils.firstNonNull(loadRequestAttributes.getLoadJobSubmissionAttempts(), 0) == 0
+          && ObjectUtils.firstNonNull(loadRequestAttributes.getRetryAttemptsAfterJobFailures(), 0)
+              == 0) {
+        traceContext =
+            this.tracer.record(
+                traceContext,
+                "handoff",
+                loadRequestAttributes.getBundleCreatedTimestamp(),
+                pendingSubmission.loadStartTimeMs,
+                spanAttributes);
+      }
+      spanAttributes = new HashMap<String, String>(spanAttributes);
+      spanAttributes.put("outcome", "submitted");
+      spanAttributes.put("jobId", jobId);
+      spanAttributes.put("priorityClass", pendingSubmission.priorityClass);
+      spanAttributes.put(
+          "coalescedLoadRequests", String.valueOf(pendingSubmission.loadRequests.size()));
+      if (loadRequestAttributes != null) {
+        spanAttributes.put(
+            "loadJobSubmissionAttempts",
+            String.valueOf(
+                ObjectUtils.firstNonNull(loadRequestAttributes.getLoadJobSubmissionAttempts(), 0)));
+      }
+      traceContext =
+          this.tracer.record(
+              traceContext,
+              "loader-queue",
+              pendingSubmission.loadStartTimeMs,
+              pendingSubmission.submittedTimeMs,
+              spanAttributes);
+      Tracer.setTraceContext(loadRequest, traceContext);
+    }
+  }
+
+  private void emitSubmittedLoadJob(
+      FinishBundleContext context, PendingSubmission pendingSubmission, Job job) {
+    this.submittedCount.inc();
     /*
-     * MaxLoadJobRetryCycles is a pressure valve. MaxLoadJobRetryCycles needs to be set to a higher value(>= 10000) to avoid
-     * triggering False Negatives. If we are unable to submit a job after passing
-     * through the Source PubSub Queue for MaxLoadJobRetryCycles times with an
-     * exponential BackOff every cycle,
-     * then either something is wrong with BQ Service, Current running jobs have not finished, or
-     * BQ Concurrent Job count has not dropped to provide a free spot for this
-     * job in question. We need to then take action like offloading the LoadRequest
-     * to GCS deadLetter for manual intervention than to endlessly attempt submission.
+     * Create a LoaderEnvelope Attributes and add jobId, jobCreatedTimestamp as an attribute
      */
-    if (submissionRetriesUntilNow < this.MaxLoadJobRetryCycles) {
-      try {
-        Job job =
-            submitJob(
-                TableId.of(this.targetBQProject, bundleDataset, bundleTable), bundlePrefixPath);
-        long jobSubmittedTimeMs = Instant.now().toEpochMilli();
-        this.submittedCount.inc();
-        /*
-         * Create a LoaderEnvelope Attributes and add jobId, jobCreatedTimestamp as an attribute
-         */
 
-        LoaderEnvelopeAttributes loaderEnvelopeAttributes = new LoaderEnvelopeAttributes();
-        loaderEnvelopeAttributes.setJobId(job.getJobId().toString());
-        loaderEnvelopeAttributes.setJobCreatedTimestamp(job.getStatistics().getCreationTime());
-        /*
-         * Update the Metrics to record the Job Submission Latency(ms)
-         */
-        this.jobSubmissionLatencyMs.update(jobSubmittedTimeMs - loadStartTimeMs);
-        /*
-         * Load Job Submitted Successfully hence
-         * embed loadRequest inside loaderEnvelope along with loaderEnvelopeAttributes
-         * Send the LoaderEnvelope as a PubSub Payload for monitoring and state updates downstream
-         */
-        LoaderEnvelope loaderEnvelope = new LoaderEnvelope();
-        loaderEnvelope.setLoadRequest(loadRequest);
-        loaderEnvelope.setLoaderEnvelopeAttributes(loaderEnvelopeAttributes);
-        Map<String, String> loaderEnvelopeAttributesMap = new HashMap<String, String>();
-        loaderEnvelopeAttributesMap.put("uniqueMessageId", UUID.randomUUID().toString());
-        context.output(
-            this.submittedLoadJobs,
-            new PubsubMessage(GSON.toJson(loaderEnvelope).getBytes(StandardCharsets.UTF_8), loaderEnvelopeAttributesMap));
-      } catch (BigQueryException e) {
+    LoaderEnvelopeAttributes loaderEnvelopeAttributes = new LoaderEnvelopeAttributes();
+    loaderEnvelopeAttributes.setJobId(job.getJobId().getJob());
+    loaderEnvelopeAttributes.setJobCreatedTimestamp(job.getStatistics().getCreationTime());
+    /*
+     * Update the Metrics to record the Job Submission Latency(ms)
+     */
+    long jobSubmissionLatencyMs =
+        pendingSubmission.submittedTimeMs - pendingSubmission.loadStartTimeMs;
+    this.jobSubmissionLatencyMs.update(jobSubmissionLatencyMs);
+    Metrics.distribution(BQLoaderDoFn.class, "queueing-latency-ms-" + pendingSubmission.priorityClass)
+        .update(jobSubmissionLatencyMs);
+    /*
+     * Load Job Submitted Successfully hence
+     * embed loadRequest inside loaderEnvelope along with loaderEnvelopeAttributes
+     * The Monitor fans a coalesced Load Job back out to its Load Requests
+     * Send the LoaderEnvelope as a PubSub Payload for monitoring and state updates downstream
+     */
+    if (this.tracer.isEnabled()) {
+      recordSubmittedSpans(pendingSubmission, job.getJobId().getJob());
+    }
+    LoaderEnvelope loaderEnvelope = new LoaderEnvelope();
+    loaderEnvelope.setLoadRequest(pendingSubmission.loadRequests.get(0));
+    if (pendingSubmission.loadRequests.size() > 1) {
+      loaderEnvelope.setCoalescedLoadRequests(pendingSubmission.loadRequests);
+    }
+    loaderEnvelope.setLoaderEnvelopeAttributes(loaderEnvelopeAttributes);
+    Map<String, String> loaderEnvelopeAttributesMap = new HashMap<String, String>();
+    loaderEnvelopeAttributesMap.put("uniqueMessageId", UUID.randomUUID().toString());
+    /*
+     * The Jobs Monitor addresses the Slot Release of the Job to the Permit Shard holding its Permit
+     */
+    if (pendingSubmission.permitShard != null) {
+      loaderEnvelopeAttributesMap.put(
+          SlotRelease.PERMIT_SHARD_ATTRIBUTE, pendingSubmission.permitShard);
+    }
+    LoadRequestAttributes loadRequestAttributes =
+        pendingSubmission.loadRequests.get(0).loadRequestAttributes;
+    if (pendingSubmission.loadRequests.size() == 1
+        && loadRequestAttributes != null
+        && loadRequestAttributes.getTraceContext() != null) {
+      loaderEnvelopeAttributesMap.put(
+          TraceContext.TRACEPARENT_ATTRIBUTE, loadRequestAttributes.getTraceContext());
+    }
+    context.output(
+        this.submittedLoadJobs,
+        new PubsubMessage(
+            LoaderMessageCodec.encodeLoaderEnvelope(loaderEnvelope, this.messageWriterFormat),
+            loaderEnvelopeAttributesMap),
+        pendingSubmission.timestamp,
+        pendingSubmission.window);
+  }
+
+  @StartBundle
+  public void startBundle() {
+    this.pendingSubmissions = new ArrayList<PendingSubmission>();
+  }
+
+  /*
+   * Waits for the Load Job creations issued within the Bundle and emits their outcome in the
+   * Window of the element(or Timer) which issued them
+   */
+  @FinishBundle
+  public void finishBundle(FinishBundleContext context) throws InterruptedException {
+    for (PendingSubmission pendingSubmission : this.pendingSubmissions) {
+      try {
+        emitSubmittedLoadJob(context, pendingSubmission, pendingSubmission.submission.get());
+      } catch (ExecutionException e) {
+        if (!(e.getCause() instanceof BigQueryException)) {
+          throw new RuntimeException(e.getCause());
+        }
         /*
          * Something bad happened while submitting Load job to BQ
          * Perhaps a service error
-         * Divert the Incoming PubSub to Source PubSub for retry later
+         * Divert the Incoming PubSub(s) to Source PubSub for retry later
          * Use TupleTag with submittedForRetryLoadJobs Tag
          * Increment Counters
          */
-        this.submittedForRetryCount.inc();
         this.bigQueryExceptionCount.inc();
+        if (isRateLimitExceeded((BigQueryException) e.getCause())) {
+          this.rateLimitExceededCount.inc();
+          this.runningLoadJobsTracker.getAdaptiveConcurrencyThreshold().recordRateLimitExceeded();
+        }
+        if (this.inPipelineRetryCycles > 0) {
+          /*
+           * The Load Request(s) are still held in State, the Retry Submission Timer retries them
+           */
+          continue;
+        }
         /*
-         * The Load Job will be attempted for submission later. It will be back for Submission(Retry Cycle).
-         * Increment the loadJobSubmissionRetries PubSub Message Attribute for tracking
-         */
-        Integer loadJobSubmissionAttempts = ObjectUtils.firstNonNull(loadRequestAttributes.getLoadJobSubmissionAttempts(), 0);
-        loadRequestAttributes.setLoadJobSubmissionAttempts(loadJobSubmissionAttempts + 1);
-        loadRequest.setLoadRequestAttributes(loadRequestAttributes);
-        Map<String, String> loadRequestAttributesMap = new HashMap<String, String>();
-        loadRequestAttributesMap.put("uniqueMessageId", UUID.randomUUID().toString());
-        context.output(
-            this.submittedForRetryLoadJobs,
-            new PubsubMessage(GSON.toJson(loadRequest).getBytes(StandardCharsets.UTF_8), loadRequestAttributesMap));
-      } catch (BackOffExhaustedException e) {
-        /*
-         * Concurrent Jobs in the BQ Load Queue is beyond the threshold
-         * Divert the Incoming PubSub to Source PubSub for retry later
-         * Use TupleTag with submittedForRetryLoadJobs Tag
-         * Increment Counters
+         * No Job was created, so it stops counting as Running right away, and the next Permit
+         * reclaim of its Shard frees its Permit instead of waiting for the Tracker to refresh
          */
-        this.backOffExhaustedCount.inc();
-        this.submittedForRetryCount.inc();
+        this.runningLoadJobsTracker.recordCompletedJob(pendingSubmission.jobId);
+        for (LoadRequest loadRequest : pendingSubmission.loadRequests) {
+          context.output(
+              this.submittedForRetryLoadJobs,
+              getRetryMessage(loadRequest, pendingSubmission.loadStartTimeMs),
+              pendingSubmission.timestamp,
+              pendingSubmission.window);
+        }
+      }
+    }
+    this.pendingSubmissions.clear();
+  }
+
+  @ProcessElement
+  public void processElement(
+      ProcessContext context,
+      BoundedWindow window,
+      @StateId("pendingLoadRequests") BagState<PubsubMessage> pendingLoadRequestsState,
+      @StateId("deferredAttempts") ValueState<Integer> deferredAttemptsState,
+      @StateId("inFlightJobs") ValueState<Map<String, Long>> inFlightJobsState,
+      @StateId("flowFinishTags") ValueState<Map<String, Double>> flowFinishTagsState,
+      @StateId("virtualTime") ValueState<Double> virtualTimeState,
+      @StateId("unconfirmedSubmissions")
+          ValueState<Map<String, PubsubMessage>> unconfirmedSubmissionsState,
+      @TimerId("retrySubmission") Timer retrySubmissionTimer,
+      @TimerId("slotReleased") Timer slotReleasedTimer) {
+    /*
+     * Take note of Time for measuring the Job Submission Latency(ms)
+     */
+    long loadStartTimeMs = LoaderClock.currentTimeMillis();
+    PubsubMessage pubsubMessage = context.element().getValue();
+    String releasedJobId = pubsubMessage.getAttribute(SlotRelease.JOB_ID_ATTRIBUTE);
+    if (releasedJobId != null) {
+      releaseSlot(releasedJobId, deferredAttemptsState, inFlightJobsState, slotReleasedTimer);
+      return;
+    }
+    List<LoadRequest> loadRequests = new ArrayList<LoadRequest>();
+    for (LoadRequest loadRequest : CoalesceLoadRequestsDoFn.getLoadRequests(pubsubMessage)) {
+      LoadRequestAttributes loadRequestAttributes = loadRequest.loadRequestAttributes;
+      /*
+       * Set submissionRetriesUntilNow attribute to 0 if not present
+       * This indicates that the LoadRequest is not attempted for submission yet as opposed to the ones
+       * going through the Retry loop
+       */
+      Integer submissionRetriesUntilNow = ObjectUtils.firstNonNull(loadRequestAttributes.getLoadJobSubmissionAttempts(), 0);
+      /*
+       * MaxLoadJobRetryCycles is a pressure valve. MaxLoadJobRetryCycles needs to be set to a higher value(>= 10000) to avoid
+       * triggering False Negatives. If we are unable to submit a job after passing
+       * through the Source PubSub Queue for MaxLoadJobRetryCycles times with an
+       * exponential BackOff every cycle,
+       * then either something is wrong with BQ Service, Current running jobs have not finished, or
+       * BQ Concurrent Job count has not dropped to provide a free spot for this
+       * job in question. We need to then take action like offloading the LoadRequest
+       * to GCS deadLetter for manual intervention than to endlessly attempt submission.
+       */
+      if (submissionRetriesUntilNow >= this.MaxLoadJobRetryCycles) {
         /*
-         * The Load Job will be attempted for submission later. It will be back for Submission(Retry Cycle).
-         * Increment the loadJobSubmissionRetries PubSub Message Attribute for tracking
+         * We are done looping Load Job Request through the Retry Loop
+         * Capture the LoadRequest and any attributes set so far
+         * Send the output to failedSubmissionLoadJobs TupleTag
+         * so that it can be stored in a Persistent Store(for eg: GCS)
+         * for manual inspection
+         *
          */
-        Integer loadJobSubmissionAttempts = ObjectUtils.firstNonNull(loadRequestAttributes.getLoadJobSubmissionAttempts(), 0);
-        loadRequestAttributes.setLoadJobSubmissionAttempts(loadJobSubmissionAttempts + 1);
-        loadRequest.setLoadRequestAttributes(loadRequestAttributes);
-        Map<String, String> loadRequestAttributesMap = new HashMap<String, String>();
-        loadRequestAttributesMap.put("uniqueMessageId", UUID.randomUUID().toString());
-        context.output(
-            this.submittedForRetryLoadJobs,
-            new PubsubMessage(GSON.toJson(loadRequest).getBytes(StandardCharsets.UTF_8), loadRequestAttributesMap));
-      } catch (IOException | InterruptedException e) {
+        context.output(failedSubmissionLoadJobs, GSON.toJson(loadRequest));
+      } else {
+        loadRequests.add(loadRequest);
+      }
+    }
+    if (loadRequests.isEmpty()) {
+      return;
+    }
+    /*
+     * Tag the Load Request with its virtual finish time within its Destination Table flow
+     */
+    String priorityClass = this.fairLoadRequestScheduler.getPriorityClass(loadRequests.get(0));
+    double virtualTime = ObjectUtils.firstNonNull(virtualTimeState.read(), 0.0);
+    Map<String, Double> flowFinishTags =
+        new HashMap<String, Double>(
+            ObjectUtils.firstNonNull(flowFinishTagsState.read(), new HashMap<String, Double>()));
+    double finishTag =
+        this.fairLoadRequestScheduler.enqueue(
+            flowFinishTags,
+            virtualTime,
+            loadRequests.get(0).loadRequestPayload.bundleDataset
+                + "."
+                + loadRequests.get(0).loadRequestPayload.bundleTable,
+            priorityClass);
+    /*
+     * The Load Request as held in State while it is deferred, or while its Job creation is not
+     * confirmed yet
+     */
+    Map<String, String> pendingAttributesMap = new HashMap<String, String>();
+    if (pubsubMessage.getAttributeMap() != null) {
+      pendingAttributesMap.putAll(pubsubMessage.getAttributeMap());
+    }
+    pendingAttributesMap.putIfAbsent(RECEIVED_TIMESTAMP_ATTRIBUTE, String.valueOf(loadStartTimeMs));
+    pendingAttributesMap.put(PRIORITY_CLASS_ATTRIBUTE, priorityClass);
+    pendingAttributesMap.put(FINISH_TAG_ATTRIBUTE, String.valueOf(finishTag));
+    pendingAttributesMap.put(SlotRelease.PERMIT_SHARD_ATTRIBUTE, context.element().getKey());
+    PubsubMessage heldMessage;
+    if (pendingAttributesMap.containsKey(CoalesceLoadRequestsDoFn.COALESCED_LOAD_REQUESTS_ATTRIBUTE)) {
+      /*
+       * Hold only the Load Requests still within the Retry Cycles
+       */
+      pendingAttributesMap.put(
+          CoalesceLoadRequestsDoFn.COALESCED_LOAD_REQUESTS_ATTRIBUTE,
+          String.valueOf(loadRequests.size()));
+      heldMessage =
+          new PubsubMessage(LoaderMessageCodec.encodeLoadRequests(loadRequests), pendingAttributesMap);
+    } else {
+      heldMessage = new PubsubMessage(pubsubMessage.getPayload(), pendingAttributesMap);
+    }
+    /*
+     * Submit right away only if nothing is waiting ahead on this Permit Shard
+     */
+    boolean hasPendingLoadRequests = deferredAttemptsState.read() != null;
+    if (!hasPendingLoadRequests) {
+      Map<String, Long> inFlightJobs = reclaimPermits(inFlightJobsState);
+      if (hasPermit(context.element().getKey(), inFlightJobs)) {
+        Map<String, PubsubMessage> unconfirmedSubmissions =
+            new HashMap<String, PubsubMessage>(
+                ObjectUtils.firstNonNull(
+                    unconfirmedSubmissionsState.read(), new HashMap<String, PubsubMessage>()));
+        boolean hasUnconfirmedSubmissions = !unconfirmedSubmissions.isEmpty();
+        submitLoadRequests(
+            heldMessage,
+            unconfirmedSubmissions,
+            loadRequests,
+            getReceivedTimestamp(pubsubMessage),
+            inFlightJobs,
+            priorityClass,
+            context.timestamp(),
+            window);
+        inFlightJobsState.write(inFlightJobs);
+        if (!unconfirmedSubmissions.isEmpty()) {
+          unconfirmedSubmissionsState.write(unconfirmedSubmissions);
+          if (!hasUnconfirmedSubmissions) {
+            /*
+             * The Retry Submission Timer confirms the Job creation
+             */
+            setRetrySubmissionTimer(retrySubmissionTimer, 0);
+          }
+        }
+        virtualTime = this.fairLoadRequestScheduler.dispatch(virtualTime, finishTag, priorityClass);
+        FairLoadRequestScheduler.pruneIdleFlows(flowFinishTags, virtualTime);
+        flowFinishTagsState.write(flowFinishTags);
+        virtualTimeState.write(virtualTime);
+        return;
+      }
+      inFlightJobsState.write(inFlightJobs);
+    }
+    flowFinishTagsState.write(flowFinishTags);
+    /*
+     * No Submission Permit is free, or the BQ Load Queue is beyond the threshold
+     * Hold the Load Request in State and let the Timer re-attempt the submission
+     */
+    pendingLoadRequestsState.add(heldMessage);
+    this.deferredCount.inc();
+    if (!hasPendingLoadRequests) {
+      deferredAttemptsState.write(0);
+      setRetrySubmissionTimer(retrySubmissionTimer, 0);
+    }
+  }
+
+  @OnTimer("retrySubmission")
+  public void onRetrySubmission(
+      OnTimerContext context,
+      @StateId("pendingLoadRequests") BagState<PubsubMessage> pendingLoadRequestsState,
+      @StateId("deferredAttempts") ValueState<Integer> deferredAttemptsState,
+      @StateId("inFlightJobs") ValueState<Map<String, Long>> inFlightJobsState,
+      @StateId("flowFinishTags") ValueState<Map<String, Double>> flowFinishTagsState,
+      @StateId("virtualTime") ValueState<Double> virtualTimeState,
+      @StateId("unconfirmedSubmissions")
+          ValueState<Map<String, PubsubMessage>> unconfirmedSubmissionsState,
+      @TimerId("retrySubmission") Timer retrySubmissionTimer) {
+    dispatchPendingLoadRequests(
+        context,
+        pendingLoadRequestsState,
+        deferredAttemptsState,
+        inFlightJobsState,
+        flowFinishTagsState,
+        virtualTimeState,
+        unconfirmedSubmissionsState,
+        retrySubmissionTimer,
+        true);
+  }
+
+  /*
+   * A Slot Release freed a Permit of this Shard. The held Load Requests are dispatched right away,
+   * without taking a BackOff step, and the Retry Submission Timer keeps its schedule
+   */
+  @OnTimer("slotReleased")
+  public void onSlotReleased(
+      OnTimerContext context,
+      @StateId("pendingLoadRequests") BagState<PubsubMessage> pendingLoadRequestsState,
+      @StateId("deferredAttempts") ValueState<Integer> deferredAttemptsState,
+      @StateId("inFlightJobs") ValueState<Map<String, Long>> inFlightJobsState,
+      @StateId("flowFinishTags") ValueState<Map<String, Double>> flowFinishTagsState,
+      @StateId("virtualTime") ValueState<Double> virtualTimeState,
+      @StateId("unconfirmedSubmissions")
+          ValueState<Map<String, PubsubMessage>> unconfirmedSubmissionsState,
+      @TimerId("retrySubmission") Timer retrySubmissionTimer) {
+    dispatchPendingLoadRequests(
+        context,
+        pendingLoadRequestsState,
+        deferredAttemptsState,
+        inFlightJobsState,
+        flowFinishTagsState,
+        virtualTimeState,
+        unconfirmedSubmissionsState,
+        retrySubmissionTimer,
+        false);
+  }
+
+  private void dispatchPendingLoadRequests(
+      OnTimerContext context,
+      BagState<PubsubMessage> pendingLoadRequestsState,
+      ValueState<Integer> deferredAttemptsState,
+      ValueState<Map<String, Long>> inFlightJobsState,
+      ValueState<Map<String, Double>> flowFinishTagsState,
+      ValueState<Double> virtualTimeState,
+      ValueState<Map<String, PubsubMessage>> unconfirmedSubmissionsState,
+      Timer retrySubmissionTimer,
+      boolean backOff) {
+    List<PubsubMessage> pendingLoadRequests = new ArrayList<PubsubMessage>();
+    pendingLoadRequestsState.read().forEach(pendingLoadRequests::add);
+    Map<String, PubsubMessage> unconfirmedSubmissions =
+        new HashMap<String, PubsubMessage>(
+            ObjectUtils.firstNonNull(
+                unconfirmedSubmissionsState.read(), new HashMap<String, PubsubMessage>()));
+    List<PubsubMessage> failedSubmissions = new ArrayList<PubsubMessage>();
+    confirmSubmissions(context, unconfirmedSubmissions, failedSubmissions);
+    /*
+     * Submit the held Load Requests in the order of their virtual finish times(arrival order
+     * within a Destination Table) for as long as Submission Permits are free
+     */
+    Map<String, Long> inFlightJobs = reclaimPermits(inFlightJobsState);
+    double virtualTime = ObjectUtils.firstNonNull(virtualTimeState.read(), 0.0);
+    pendingLoadRequests.sort(Comparator.comparingDouble(BQLoaderDoFn::getFinishTag));
+    List<PubsubMessage> stillPendingLoadRequests = new ArrayList<PubsubMessage>();
+    for (PubsubMessage pubsubMessage : pendingLoadRequests) {
+      if (stillPendingLoadRequests.isEmpty()
+          && hasPermit(
+              pubsubMessage.getAttribute(SlotRelease.PERMIT_SHARD_ATTRIBUTE), inFlightJobs)) {
+        submitLoadRequests(
+            pubsubMessage,
+            unconfirmedSubmissions,
+            CoalesceLoadRequestsDoFn.getLoadRequests(pubsubMessage),
+            getReceivedTimestamp(pubsubMessage),
+            inFlightJobs,
+            getPriorityClass(pubsubMessage),
+            context.timestamp(),
+            context.window());
+        virtualTime =
+            this.fairLoadRequestScheduler.dispatch(
+                virtualTime, getFinishTag(pubsubMessage), getPriorityClass(pubsubMessage));
+      } else {
+        stillPendingLoadRequests.add(pubsubMessage);
+      }
+    }
+    inFlightJobsState.write(inFlightJobs);
+    if (unconfirmedSubmissions.isEmpty()) {
+      unconfirmedSubmissionsState.clear();
+    } else {
+      unconfirmedSubmissionsState.write(unconfirmedSubmissions);
+    }
+    Map<String, Double> flowFinishTags =
+        new HashMap<String, Double>(
+            ObjectUtils.firstNonNull(flowFinishTagsState.read(), new HashMap<String, Double>()));
+    FairLoadRequestScheduler.pruneIdleFlows(flowFinishTags, virtualTime);
+    flowFinishTagsState.write(flowFinishTags);
+    virtualTimeState.write(virtualTime);
+    pendingLoadRequestsState.clear();
+    int deferredAttempts = ObjectUtils.firstNonNull(deferredAttemptsState.read(), 0) + 1;
+    long backOffMillis = BackOff.STOP;
+    if (!backOff && (!stillPendingLoadRequests.isEmpty() || !failedSubmissions.isEmpty())) {
+      stillPendingLoadRequests.addAll(failedSubmissions);
+      for (PubsubMessage pubsubMessage : stillPendingLoadRequests) {
+        pendingLoadRequestsState.add(pubsubMessage);
+      }
+      if (deferredAttemptsState.read() == null) {
+        deferredAttemptsState.write(0);
+      }
+      return;
+    }
+    if (!stillPendingLoadRequests.isEmpty()) {
+      try {
+        backOffMillis = getDeferredBackOffMillis(deferredAttempts);
+      } catch (IOException e) {
+        this.backOffInterruptedCount.inc();
+      }
+      if (backOffMillis == BackOff.STOP) {
         /*
-         * Something bad happened during BackOff(Perhaps BackOff was interrupted)
-         * Divert the incoming PubSub to Source PubSub for retry later
-         * Use TupleTag with submittedForRetryLoadJobs Tag
+         * Failed to get the Open Spot in the Load Job Queue.
+         * BackOff Exhausted(Max Retries Reached)
+         * Start another Retry Cycle for the held Load Requests, in State or through Source PubSub
          */
-        this.backOffInterruptedCount.inc();
-        this.submittedForRetryCount.inc();
+        List<PubsubMessage> retriedLoadRequests = new ArrayList<PubsubMessage>();
+        for (PubsubMessage pubsubMessage : stillPendingLoadRequests) {
+          this.backOffExhaustedCount.inc();
+          retryInPipelineOrFallBack(context, pubsubMessage, retriedLoadRequests);
+        }
+        stillPendingLoadRequests = retriedLoadRequests;
+        deferredAttempts = 0;
+      }
+    }
+    /*
+     * The failed Job creations are not submitted again within the same pass, they wait for the
+     * Retry Submission Timer of the next BackOff step
+     */
+    stillPendingLoadRequests.addAll(failedSubmissions);
+    if (stillPendingLoadRequests.isEmpty()) {
+      deferredAttemptsState.clear();
+      if (!unconfirmedSubmissions.isEmpty()) {
         /*
-         * The Load Job will be attempted for submission later. It will be back for Submission(Retry Cycle).
-         * Increment the loadJobSubmissionRetries PubSub Message Attribute for tracking
+         * Come back to confirm the Job creations still in flight
          */
-        Integer loadJobSubmissionAttempts = ObjectUtils.firstNonNull(loadRequestAttributes.getLoadJobSubmissionAttempts(), 0);
-        loadRequestAttributes.setLoadJobSubmissionAttempts(loadJobSubmissionAttempts + 1);
-        loadRequest.setLoadRequestAttributes(loadRequestAttributes);
-        Map<String, String> loadRequestAttributesMap = new HashMap<String, String>();
-        loadRequestAttributesMap.put("uniqueMessageId", UUID.randomUUID().toString());
-        context.output(
-            this.submittedForRetryLoadJobs,
-            new PubsubMessage(GSON.toJson(loadRequest).getBytes(StandardCharsets.UTF_8), loadRequestAttributesMap));
+        setRetrySubmissionTimer(retrySubmissionTimer, 0);
       }
-    } else {
-      /*
-       * We are done looping Load Job Request through the Retry Loop
-       * Capture the LoadRequest and any attributes set so far
-       * Send the output to failedSubmissionLoadJobs TupleTag
-       * so that it can be stored in a Persistent Store(for eg: GCS)
-       * for manual inspection
-       *
-       */
-      context.output(failedSubmissionLoadJobs, GSON.toJson(loadRequest));
+      return;
+    }
+    for (PubsubMessage pubsubMessage : stillPendingLoadRequests) {
+      pendingLoadRequestsState.add(pubsubMessage);
+    }
+    deferredAttemptsState.write(deferredAttempts);
+    setRetrySubmissionTimer(retrySubmissionTimer, deferredAttempts);
+  }
+
+  /*
+   * A Load Job creation issued within the current Bundle
+   */
+  private static class PendingSubmission {
+    private final CompletableFuture<Job> submission;
+    private final String jobId;
+    private final List<LoadRequest> loadRequests;
+    private final long loadStartTimeMs;
+    private final String priorityClass;
+    private final String permitShard;
+    private final org.joda.time.Instant timestamp;
+    private final BoundedWindow window;
+    private volatile long submittedTimeMs;
+
+    PendingSubmission(
+        CompletableFuture<Job> submission,
+        String jobId,
+        List<LoadRequest> loadRequests,
+        long loadStartTimeMs,
+        String priorityClass,
+        String permitShard,
+        org.joda.time.Instant timestamp,
+        BoundedWindow window) {
+      this.jobId = jobId;
+      this.loadRequests = loadRequests;
+      this.loadStartTimeMs = loadStartTimeMs;
+      this.priorityClass = priorityClass;
+      this.permitShard = permitShard;
+      this.timestamp = timestamp;
+      this.window = window;
+      this.submission =
+          submission.whenComplete((job, throwable) -> this.submittedTimeMs = LoaderClock.currentTimeMillis());
     }
   }
 }
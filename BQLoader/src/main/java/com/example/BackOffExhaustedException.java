@@ -1,7 +0,0 @@
-package com.example;
-
-class BackOffExhaustedException extends Exception {
-  BackOffExhaustedException(String errorMessage) {
-    super(errorMessage);
-  }
-}
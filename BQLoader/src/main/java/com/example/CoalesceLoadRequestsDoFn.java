@@ -0,0 +1,203 @@
+package com.example;
+
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessageWithAttributesCoder;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Distribution;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.TimerSpec;
+import org.apache.beam.sdk.state.TimerSpecs;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+import org.apache.commons.lang3.ObjectUtils;
+import org.joda.time.Duration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/*
+ * Coalesces the Load Requests keyed by Destination Table and Schema Hash, which arrive within a
+ * short window, into a single PubSub Message so that BQLoaderDoFn submits them as one Load Job
+ * with multiple Source URIs.
+ * The windows are decided by LoadJobQuotaDoFn, which budgets the Daily Load Job Quota of the
+ * Destination Table and hands the window over in the Attributes of every Load Request: a window
+ * opens with the first Load Request of a new window end to arrive, whichever it is, and sets the
+ * timer to that end. It is flushed early when a Load Request closes it(the maximum number of
+ * Source URIs or Bytes is reached) or a Load Request of the next window arrives, and otherwise
+ * when its timer fires.
+ * A Load Request marked as a Load Job of its own(retried after a Job failure) is passed through.
+ * A coalesced message carries its Load Requests encoded together by LoaderMessageCodec as the
+ * Payload, and the number of Load Requests in the coalescedLoadRequests Attribute.
+ */
+public class CoalesceLoadRequestsDoFn
+    extends DoFn<KV<String, PubsubMessage>, KV<String, PubsubMessage>> {
+
+  static final String COALESCED_LOAD_REQUESTS_ATTRIBUTE = "coalescedLoadRequests";
+  private Counter coalescedLoadJobCount =
+      Metrics.counter(CoalesceLoadRequestsDoFn.class, "coalesced-load-jobs");
+  private Distribution coalescedLoadRequestsPerJob =
+      Metrics.distribution(CoalesceLoadRequestsDoFn.class, "coalesced-load-requests-per-job");
+
+  @StateId("destination")
+  private final StateSpec<ValueState<String>> destinationSpec =
+      StateSpecs.value(StringUtf8Coder.of());
+
+  @StateId("coalesceBuffer")
+  private final StateSpec<BagState<PubsubMessage>> coalesceBufferSpec =
+      StateSpecs.bag(PubsubMessageWithAttributesCoder.of());
+
+  @StateId("coalesceWindowId")
+  private final StateSpec<ValueState<String>> coalesceWindowIdSpec =
+      StateSpecs.value(StringUtf8Coder.of());
+
+  @StateId("coalesceStartTimestamp")
+  private final StateSpec<ValueState<Long>> coalesceStartTimestampSpec =
+      StateSpecs.value(VarLongCoder.of());
+
+  @TimerId("coalesceWindow")
+  private final TimerSpec coalesceWindowSpec = TimerSpecs.timer(TimeDomain.PROCESSING_TIME);
+
+  /*
+   * Returns the Load Requests of a coalesced or of a single Load Request PubSub Message
+   */
+  static List<LoadRequest> getLoadRequests(PubsubMessage pubsubMessage) {
+    return LoaderMessageCodec.decodeLoadRequests(pubsubMessage.getPayload());
+  }
+
+  private void flush(
+      WindowedContext context,
+      ValueState<String> destinationState,
+      BagState<PubsubMessage> coalesceBufferState,
+      ValueState<String> coalesceWindowIdState,
+      ValueState<Long> coalesceStartTimestampState) {
+    List<LoadRequest> loadRequests = new ArrayList<LoadRequest>();
+    PubsubMessage firstPubsubMessage = null;
+    int bufferedMessages = 0;
+    for (PubsubMessage pubsubMessage : coalesceBufferState.read()) {
+      if (firstPubsubMessage == null) {
+        firstPubsubMessage = pubsubMessage;
+      }
+      bufferedMessages++;
+      loadRequests.addAll(getLoadRequests(pubsubMessage));
+    }
+    if (firstPubsubMessage != null) {
+      if (bufferedMessages == 1) {
+        /*
+         * Nothing to coalesce with, pass the Load Request through, received when the window opened
+         * like the coalesced ones
+         */
+        if (firstPubsubMessage.getAttribute(BQLoaderDoFn.RECEIVED_TIMESTAMP_ATTRIBUTE) == null) {
+          firstPubsubMessage =
+              BQLoaderDoFn.withAttribute(
+                  firstPubsubMessage,
+                  BQLoaderDoFn.RECEIVED_TIMESTAMP_ATTRIBUTE,
+                  String.valueOf(coalesceStartTimestampState.read()));
+        }
+        context.output(KV.of(destinationState.read(), firstPubsubMessage));
+      } else {
+        Map<String, String> coalescedAttributesMap = new HashMap<String, String>();
+        coalescedAttributesMap.put("uniqueMessageId", UUID.randomUUID().toString());
+        coalescedAttributesMap.put(
+            COALESCED_LOAD_REQUESTS_ATTRIBUTE, String.valueOf(loadRequests.size()));
+        coalescedAttributesMap.put(
+            BQLoaderDoFn.RECEIVED_TIMESTAMP_ATTRIBUTE,
+            String.valueOf(coalesceStartTimestampState.read()));
+        context.output(
+            KV.of(
+                destinationState.read(),
+                new PubsubMessage(
+                    LoaderMessageCodec.encodeLoadRequests(loadRequests), coalescedAttributesMap)));
+      }
+      this.coalescedLoadJobCount.inc();
+      this.coalescedLoadRequestsPerJob.update(loadRequests.size());
+    }
+    /*
+     * Clear State
+     */
+    coalesceBufferState.clear();
+    coalesceWindowIdState.clear();
+    coalesceStartTimestampState.clear();
+  }
+
+  @ProcessElement
+  public void processElement(
+      ProcessContext context,
+      @StateId("destination") ValueState<String> destinationState,
+      @StateId("coalesceBuffer") BagState<PubsubMessage> coalesceBufferState,
+      @StateId("coalesceWindowId") ValueState<String> coalesceWindowIdState,
+      @StateId("coalesceStartTimestamp") ValueState<Long> coalesceStartTimestampState,
+      @TimerId("coalesceWindow") Timer coalesceWindowTimer) {
+    PubsubMessage pubsubMessage = context.element().getValue();
+    if ("true".equals(pubsubMessage.getAttribute(LoadJobQuotaDoFn.ISOLATED_LOAD_JOB_ATTRIBUTE))) {
+      this.coalescedLoadJobCount.inc();
+      this.coalescedLoadRequestsPerJob.update(getLoadRequests(pubsubMessage).size());
+      context.output(
+          KV.of(
+              context.element().getKey(),
+              LoadJobQuotaDoFn.withoutWindowAttributes(pubsubMessage)));
+      return;
+    }
+    String windowId = pubsubMessage.getAttribute(LoadJobQuotaDoFn.COALESCE_WINDOW_END_ATTRIBUTE);
+    String bufferedWindowId = coalesceWindowIdState.read();
+    if (bufferedWindowId != null && !bufferedWindowId.equals(windowId)) {
+      /*
+       * A Load Request of the next window, the buffered window is over
+       */
+      flush(
+          context,
+          destinationState,
+          coalesceBufferState,
+          coalesceWindowIdState,
+          coalesceStartTimestampState);
+      bufferedWindowId = null;
+    }
+    if (bufferedWindowId == null) {
+      /*
+       * The window opens with the first Load Request of the window seen for the Destination, and is
+       * flushed at its end whichever Load Request of the window that is
+       */
+      destinationState.write(context.element().getKey());
+      coalesceWindowIdState.write(windowId);
+      long nowMs = LoaderClock.currentTimeMillis();
+      coalesceStartTimestampState.write(nowMs);
+      long windowEndMs = Long.parseLong(ObjectUtils.firstNonNull(windowId, String.valueOf(nowMs)));
+      coalesceWindowTimer.offset(Duration.millis(Math.max(0L, windowEndMs - nowMs))).setRelative();
+    }
+    coalesceBufferState.add(LoadJobQuotaDoFn.withoutWindowAttributes(pubsubMessage));
+    if ("true".equals(
+        pubsubMessage.getAttribute(LoadJobQuotaDoFn.COALESCE_WINDOW_CLOSED_ATTRIBUTE))) {
+      flush(
+          context,
+          destinationState,
+          coalesceBufferState,
+          coalesceWindowIdState,
+          coalesceStartTimestampState);
+    }
+  }
+
+  @OnTimer("coalesceWindow")
+  public void onCoalesceWindow(
+      OnTimerContext context,
+      @StateId("destination") ValueState<String> destinationState,
+      @StateId("coalesceBuffer") BagState<PubsubMessage> coalesceBufferState,
+      @StateId("coalesceWindowId") ValueState<String> coalesceWindowIdState,
+      @StateId("coalesceStartTimestamp") ValueState<Long> coalesceStartTimestampState) {
+    flush(
+        context,
+        destinationState,
+        coalesceBufferState,
+        coalesceWindowIdState,
+        coalesceStartTimestampState);
+  }
+}
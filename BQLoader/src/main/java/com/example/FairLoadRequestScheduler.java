@@ -0,0 +1,100 @@
+package com.example;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Weighted Fair Queuing(Start Time Fair Queuing) of the Load Requests held by BQLoaderDoFn.
+ * Every Destination Table is a flow weighted by its Priority Class. A Load Request is tagged with
+ * a virtual finish time when it is enqueued, and the held Load Requests are dispatched in the order
+ * of their finish tags, so a table dumping thousands of bundles only gets its weighted share of
+ * the Submission Permits, while the other tables keep loading.
+ * The fairness holds within one Admission Permit Shard only: the virtual time and the finish tags
+ * are keyed state of the Shard, and a Shard only hands out its own Permits. Tables hashed to
+ * different Shards do not share Permits, so a CRITICAL table does not take Permits from a busy
+ * BATCH table of another Shard. With admissionPermitShards=1 the fairness is pipeline wide, at the
+ * cost of a single key holding all the Permits.
+ * The Priority Class comes from the priorityClass Load Request Attribute, otherwise from the
+ * per Dataset configuration, otherwise it is STANDARD.
+ */
+class FairLoadRequestScheduler implements Serializable {
+
+  static final String DEFAULT_PRIORITY_CLASS = "STANDARD";
+  private final Map<String, Integer> priorityClassWeights;
+  private final Map<String, String> priorityClassByDataset;
+
+  FairLoadRequestScheduler(String priorityClassWeights, String priorityClassByDataset) {
+    this.priorityClassWeights = new HashMap<String, Integer>();
+    for (Map.Entry<String, String> classWeight : parseMapping(priorityClassWeights).entrySet()) {
+      this.priorityClassWeights.put(
+          classWeight.getKey(), Math.max(1, Integer.parseInt(classWeight.getValue())));
+    }
+    this.priorityClassByDataset = parseMapping(priorityClassByDataset);
+  }
+
+  /*
+   * Parses comma separated key:value pairs, eg: CRITICAL:16,STANDARD:4,BATCH:1
+   */
+  static Map<String, String> parseMapping(String mapping) {
+    Map<String, String> parsed = new HashMap<String, String>();
+    if (mapping == null || mapping.trim().isEmpty()) {
+      return parsed;
+    }
+    for (String pair : mapping.split(",")) {
+      String[] keyValue = pair.split(":");
+      if (keyValue.length != 2) {
+        throw new IllegalArgumentException("Expected key:value pairs, got " + pair);
+      }
+      parsed.put(keyValue[0].trim(), keyValue[1].trim());
+    }
+    return parsed;
+  }
+
+  String getPriorityClass(LoadRequest loadRequest) {
+    String priorityClass = null;
+    if (loadRequest.loadRequestAttributes != null) {
+      priorityClass = loadRequest.loadRequestAttributes.getPriorityClass();
+    }
+    if (priorityClass == null) {
+      priorityClass = this.priorityClassByDataset.get(loadRequest.loadRequestPayload.bundleDataset);
+    }
+    if (priorityClass == null || !this.priorityClassWeights.containsKey(priorityClass)) {
+      return DEFAULT_PRIORITY_CLASS;
+    }
+    return priorityClass;
+  }
+
+  /*
+   * Every Load Job costs the same, so a flow's virtual time advances inversely to its weight
+   */
+  double getCost(String priorityClass) {
+    return 1.0 / this.priorityClassWeights.getOrDefault(priorityClass, 1);
+  }
+
+  /*
+   * Tags the Load Request of the flow with its virtual finish time. A flow which has been idle
+   * starts at the current virtual time and does not get credit for the time it was idle
+   */
+  double enqueue(
+      Map<String, Double> flowFinishTags, double virtualTime, String flow, String priorityClass) {
+    double startTag = Math.max(virtualTime, flowFinishTags.getOrDefault(flow, virtualTime));
+    double finishTag = startTag + getCost(priorityClass);
+    flowFinishTags.put(flow, finishTag);
+    return finishTag;
+  }
+
+  /*
+   * The virtual time follows the start tag of the Load Request dispatched last
+   */
+  double dispatch(double virtualTime, double finishTag, String priorityClass) {
+    return Math.max(virtualTime, finishTag - getCost(priorityClass));
+  }
+
+  /*
+   * Flows behind the virtual time have nothing held, dropping them keeps the State bounded
+   */
+  static void pruneIdleFlows(Map<String, Double> flowFinishTags, double virtualTime) {
+    flowFinishTags.values().removeIf(finishTag -> finishTag <= virtualTime);
+  }
+}
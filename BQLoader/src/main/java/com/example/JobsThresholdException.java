@@ -1,7 +0,0 @@
-package com.example;
-
-class JobsThresholdException extends Exception {
-  JobsThresholdException(String errorMessage) {
-    super(errorMessage);
-  }
-}
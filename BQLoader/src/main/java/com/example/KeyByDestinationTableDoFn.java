@@ -0,0 +1,54 @@
+package com.example;
+
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+
+import java.util.List;
+
+/*
+ * Keys the Load Requests by their Destination Table and Schema
+ * (bundleDataset.bundleTable#bundleSchemaHash), so that Load Requests are coalesced and deferred
+ * in per Destination Table State. Only Load Requests with the same Schema can share a Load Job.
+ * A Trace Context the producer sets as the traceparent Attribute only is moved into the Load
+ * Request, the Attributes do not survive coalescing and Retry Cycles
+ */
+public class KeyByDestinationTableDoFn extends DoFn<PubsubMessage, KV<String, PubsubMessage>> {
+
+  static String getDestination(LoadRequest loadRequest) {
+    return loadRequest.loadRequestPayload.bundleDataset
+        + "."
+        + loadRequest.loadRequestPayload.bundleTable
+        + "#"
+        + loadRequest.loadRequestPayload.bundleSchemaHash;
+  }
+
+  /*
+   * Destination Table(bundleDataset.bundleTable) of a bundleDataset.bundleTable#bundleSchemaHash key
+   */
+  static String getDestinationTable(String destination) {
+    int schemaHashIndex = destination.lastIndexOf('#');
+    return schemaHashIndex < 0 ? destination : destination.substring(0, schemaHashIndex);
+  }
+
+  @ProcessElement
+  public void processElement(ProcessContext context) {
+    PubsubMessage pubsubMessage = context.element();
+    List<LoadRequest> loadRequests =
+        LoaderMessageCodec.decodeLoadRequests(pubsubMessage.getPayload());
+    LoadRequest loadRequest = loadRequests.get(0);
+    TraceContext traceContext =
+        TraceContext.fromTraceparent(pubsubMessage.getAttribute(TraceContext.TRACEPARENT_ATTRIBUTE));
+    if (traceContext != null
+        && (loadRequest.loadRequestAttributes == null
+            || loadRequest.loadRequestAttributes.getTraceContext() == null)) {
+      for (LoadRequest tracedLoadRequest : loadRequests) {
+        Tracer.setTraceContext(tracedLoadRequest, traceContext);
+      }
+      pubsubMessage =
+          new PubsubMessage(
+              LoaderMessageCodec.encodeLoadRequests(loadRequests), pubsubMessage.getAttributeMap());
+    }
+    context.output(KV.of(getDestination(loadRequest), pubsubMessage));
+  }
+}
@@ -0,0 +1,35 @@
+package com.example;
+
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+
+/*
+ * Re-keys the Load Requests from their Destination Table to one of the Admission Permit Shards.
+ * All Load Requests of a Destination Table land on the same Permit Shard, so their order is kept,
+ * while the small number of Shards lets the keyed state of BQLoaderDoFn hold the Submission
+ * Permits for the whole pipeline rather than per worker
+ */
+public class KeyByPermitShardDoFn
+    extends DoFn<KV<String, PubsubMessage>, KV<String, PubsubMessage>> {
+
+  static final String PERMIT_SHARD_PREFIX = "permit-shard-";
+
+  private final int permitShards;
+
+  KeyByPermitShardDoFn(int permitShards) {
+    this.permitShards = permitShards;
+  }
+
+  static String getPermitShard(String destination, int permitShards) {
+    return PERMIT_SHARD_PREFIX + Math.floorMod(destination.hashCode(), permitShards);
+  }
+
+  @ProcessElement
+  public void processElement(ProcessContext context) {
+    context.output(
+        KV.of(
+            getPermitShard(context.element().getKey(), this.permitShards),
+            context.element().getValue()));
+  }
+}
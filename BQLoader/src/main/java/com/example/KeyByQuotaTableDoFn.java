@@ -0,0 +1,21 @@
+package com.example;
+
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+
+/*
+ * Re-keys the Load Requests from their Destination Table and Schema to their Destination Table
+ * only, since the Daily Load Job Quota is per Table whatever the Schema of the Load Requests
+ */
+public class KeyByQuotaTableDoFn
+    extends DoFn<KV<String, PubsubMessage>, KV<String, PubsubMessage>> {
+
+  @ProcessElement
+  public void processElement(ProcessContext context) {
+    context.output(
+        KV.of(
+            KeyByDestinationTableDoFn.getDestinationTable(context.element().getKey()),
+            context.element().getValue()));
+  }
+}
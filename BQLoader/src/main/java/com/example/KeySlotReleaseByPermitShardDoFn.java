@@ -0,0 +1,42 @@
+package com.example;
+
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+
+/*
+ * Keys the Slot Release events of the Jobs Monitor by the Admission Permit Shard holding the
+ * Permit of their Job, so that they reach the same keyed state of BQLoaderDoFn as the Load
+ * Requests. An event without a Permit Shard(a Job submitted before the Loader tagged its Loader
+ * Envelopes) goes to every Shard
+ */
+public class KeySlotReleaseByPermitShardDoFn
+    extends DoFn<PubsubMessage, KV<String, PubsubMessage>> {
+
+  private final int permitShards;
+  private Counter broadcastCount =
+      Metrics.counter(KeySlotReleaseByPermitShardDoFn.class, "slot-release-broadcast");
+
+  KeySlotReleaseByPermitShardDoFn(int permitShards) {
+    this.permitShards = permitShards;
+  }
+
+  @ProcessElement
+  public void processElement(ProcessContext context) {
+    PubsubMessage slotRelease = context.element();
+    if (slotRelease.getAttribute(SlotRelease.JOB_ID_ATTRIBUTE) == null) {
+      return;
+    }
+    String permitShard = slotRelease.getAttribute(SlotRelease.PERMIT_SHARD_ATTRIBUTE);
+    if (permitShard != null) {
+      context.output(KV.of(permitShard, slotRelease));
+      return;
+    }
+    this.broadcastCount.inc();
+    for (int shard = 0; shard < this.permitShards; shard++) {
+      context.output(KV.of(KeyByPermitShardDoFn.PERMIT_SHARD_PREFIX + shard, slotRelease));
+    }
+  }
+}
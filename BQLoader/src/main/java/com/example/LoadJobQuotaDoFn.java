@@ -0,0 +1,280 @@
+package com.example;
+
+import org.apache.beam.sdk.coders.MapCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+import org.apache.commons.lang3.ObjectUtils;
+import org.joda.time.Duration;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Budgets the Daily Load Job Quota of each Destination Table ahead of CoalesceLoadRequestsDoFn. It
+ * is keyed by the Destination Table only(see KeyByQuotaTableDoFn), so the Load Jobs of all the
+ * Schemas of a Table count against the one Quota the Table has.
+ * It decides the coalesce windows of the Table's Destinations(Table and Schema Hash) itself, and
+ * counts every window it opens as one Load Job: the configured window while the Table uses its
+ * Quota no faster than an even pace over the rest of the day, a window stretched to spread the
+ * remaining Quota across the rest of the day otherwise, and the rest of the day once the Quota is
+ * exhausted. A window closes once it reaches the maximum number of Source URIs or Bytes, or at its
+ * end. Every Load Request carries the end(ms) of its window, which also identifies the window, so
+ * that the coalescer can open the window with whichever of them arrives first. The Load Request
+ * closing a window is marked so that the coalescer flushes it right away.
+ * A Load Request retried after a Job failure is marked as a Load Job of its own while the Table has
+ * Quota left: a corrupt file would otherwise fail the Load Requests it is coalesced with again.
+ * Load Requests are re-keyed by their Destination on the way out.
+ */
+public class LoadJobQuotaDoFn extends DoFn<KV<String, PubsubMessage>, KV<String, PubsubMessage>> {
+
+  static final String COALESCE_WINDOW_END_ATTRIBUTE = "coalesceWindowEnd";
+  static final String COALESCE_WINDOW_CLOSED_ATTRIBUTE = "coalesceWindowClosed";
+  static final String ISOLATED_LOAD_JOB_ATTRIBUTE = "isolatedLoadJob";
+  private final Duration coalesceWindow;
+  private final int maxUris;
+  private final long maxBytes;
+  private final int dailyLoadJobsPerTable;
+  private final String loadJobQuotaTimeZone;
+  private Counter pacedWindowCount =
+      Metrics.counter(LoadJobQuotaDoFn.class, "load-job-quota-paced-windows");
+  private Counter quotaExhaustedCount =
+      Metrics.counter(LoadJobQuotaDoFn.class, "load-job-quota-exhausted-windows");
+  private Counter isolatedRetryCount =
+      Metrics.counter(LoadJobQuotaDoFn.class, "isolated-retried-load-requests");
+
+  @StateId("quotaDay")
+  private final StateSpec<ValueState<Long>> quotaDaySpec = StateSpecs.value(VarLongCoder.of());
+
+  @StateId("quotaJobsUsed")
+  private final StateSpec<ValueState<Integer>> quotaJobsUsedSpec =
+      StateSpecs.value(VarIntCoder.of());
+
+  /*
+   * Destination -> end(ms) of its open window, which is also the id of the window
+   */
+  @StateId("windowEnds")
+  private final StateSpec<ValueState<Map<String, Long>>> windowEndsSpec =
+      StateSpecs.value(MapCoder.of(StringUtf8Coder.of(), VarLongCoder.of()));
+
+  /*
+   * Destination -> Source URIs(Load Requests) in its open window
+   */
+  @StateId("windowUris")
+  private final StateSpec<ValueState<Map<String, Long>>> windowUrisSpec =
+      StateSpecs.value(MapCoder.of(StringUtf8Coder.of(), VarLongCoder.of()));
+
+  /*
+   * Destination -> Bundle Bytes in its open window
+   */
+  @StateId("windowBytes")
+  private final StateSpec<ValueState<Map<String, Long>>> windowBytesSpec =
+      StateSpecs.value(MapCoder.of(StringUtf8Coder.of(), VarLongCoder.of()));
+
+  LoadJobQuotaDoFn(Options options) {
+    this.coalesceWindow = Duration.standardSeconds(options.getCoalesceWindowSeconds().get());
+    this.maxUris = options.getCoalesceMaxUris().get();
+    this.maxBytes = options.getCoalesceMaxBytes().get();
+    this.dailyLoadJobsPerTable = options.getDailyLoadJobsPerTable().get();
+    this.loadJobQuotaTimeZone = options.getLoadJobQuotaTimeZone().get();
+  }
+
+  private ZonedDateTime now() {
+    return Instant.ofEpochMilli(LoaderClock.currentTimeMillis())
+        .atZone(ZoneId.of(this.loadJobQuotaTimeZone));
+  }
+
+  /*
+   * Returns the Load Jobs used today by the Destination Table, starting over once the Quota Day
+   * has changed
+   */
+  private static int getQuotaJobsUsed(
+      long quotaDay, ValueState<Long> quotaDayState, ValueState<Integer> quotaJobsUsedState) {
+    Long storedQuotaDay = quotaDayState.read();
+    if (storedQuotaDay == null || storedQuotaDay != quotaDay) {
+      return 0;
+    }
+    return ObjectUtils.firstNonNull(quotaJobsUsedState.read(), 0);
+  }
+
+  /*
+   * Returns the window of a Destination of the Table. The configured window while the Table uses
+   * its Quota no faster than an even pace over the rest of the day, the rest of the day divided by
+   * the remaining Quota otherwise, and the rest of the day once the Quota is exhausted
+   */
+  private Duration getCoalesceWindow(ZonedDateTime now, int quotaJobsUsed) {
+    if (this.dailyLoadJobsPerTable <= 0) {
+      return this.coalesceWindow;
+    }
+    ZonedDateTime startOfDay = now.toLocalDate().atStartOfDay(now.getZone());
+    ZonedDateTime startOfNextDay = now.toLocalDate().plusDays(1).atStartOfDay(now.getZone());
+    long dayMs = java.time.Duration.between(startOfDay, startOfNextDay).toMillis();
+    long restOfDayMs = java.time.Duration.between(now, startOfNextDay).toMillis();
+    int remainingQuota = this.dailyLoadJobsPerTable - quotaJobsUsed;
+    if (remainingQuota <= 0) {
+      this.quotaExhaustedCount.inc();
+      return Duration.millis(restOfDayMs);
+    }
+    if ((double) remainingQuota / this.dailyLoadJobsPerTable >= (double) restOfDayMs / dayMs) {
+      return this.coalesceWindow;
+    }
+    this.pacedWindowCount.inc();
+    Duration pacedWindow = Duration.millis(restOfDayMs / remainingQuota);
+    return pacedWindow.isLongerThan(this.coalesceWindow) ? pacedWindow : this.coalesceWindow;
+  }
+
+  /*
+   * Counts a Load Job against the Daily Load Job Quota of the Destination Table
+   */
+  private int useQuota(
+      String destinationTable,
+      long quotaDay,
+      int quotaJobsUsed,
+      ValueState<Long> quotaDayState,
+      ValueState<Integer> quotaJobsUsedState) {
+    quotaJobsUsed++;
+    if (this.dailyLoadJobsPerTable > 0) {
+      quotaDayState.write(quotaDay);
+      quotaJobsUsedState.write(quotaJobsUsed);
+      Metrics.gauge(LoadJobQuotaDoFn.class, "load-job-quota-used-" + destinationTable)
+          .set(quotaJobsUsed);
+    }
+    return quotaJobsUsed;
+  }
+
+  /*
+   * Whether the Load Requests come back after a failed Load Job
+   */
+  private static boolean isRetriedAfterJobFailure(List<LoadRequest> loadRequests) {
+    for (LoadRequest loadRequest : loadRequests) {
+      if (loadRequest.loadRequestAttributes != null
+          && loadRequest.loadRequestAttributes.getPreviousFailedJobIds() != null
+          && !loadRequest.loadRequestAttributes.getPreviousFailedJobIds().isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static PubsubMessage withAttributes(
+      PubsubMessage pubsubMessage, Map<String, String> attributes) {
+    Map<String, String> attributesMap =
+        new HashMap<String, String>(
+            ObjectUtils.firstNonNull(
+                pubsubMessage.getAttributeMap(), new HashMap<String, String>()));
+    attributesMap.putAll(attributes);
+    return new PubsubMessage(pubsubMessage.getPayload(), attributesMap);
+  }
+
+  /*
+   * Drops the Attributes meant for the coalescer only
+   */
+  static PubsubMessage withoutWindowAttributes(PubsubMessage pubsubMessage) {
+    if (pubsubMessage.getAttributeMap() == null) {
+      return pubsubMessage;
+    }
+    Map<String, String> attributesMap = new HashMap<String, String>(pubsubMessage.getAttributeMap());
+    attributesMap.remove(COALESCE_WINDOW_END_ATTRIBUTE);
+    attributesMap.remove(COALESCE_WINDOW_CLOSED_ATTRIBUTE);
+    attributesMap.remove(ISOLATED_LOAD_JOB_ATTRIBUTE);
+    return new PubsubMessage(pubsubMessage.getPayload(), attributesMap);
+  }
+
+  @ProcessElement
+  public void processElement(
+      ProcessContext context,
+      @StateId("quotaDay") ValueState<Long> quotaDayState,
+      @StateId("quotaJobsUsed") ValueState<Integer> quotaJobsUsedState,
+      @StateId("windowEnds") ValueState<Map<String, Long>> windowEndsState,
+      @StateId("windowUris") ValueState<Map<String, Long>> windowUrisState,
+      @StateId("windowBytes") ValueState<Map<String, Long>> windowBytesState) {
+    String destinationTable = context.element().getKey();
+    PubsubMessage pubsubMessage = context.element().getValue();
+    List<LoadRequest> loadRequests = CoalesceLoadRequestsDoFn.getLoadRequests(pubsubMessage);
+    String destination = KeyByDestinationTableDoFn.getDestination(loadRequests.get(0));
+    ZonedDateTime now = now();
+    long nowMs = now.toInstant().toEpochMilli();
+    long quotaDay = now.toLocalDate().toEpochDay();
+    int quotaJobsUsed = getQuotaJobsUsed(quotaDay, quotaDayState, quotaJobsUsedState);
+    if (this.dailyLoadJobsPerTable > 0) {
+      Metrics.gauge(LoadJobQuotaDoFn.class, "load-job-quota-used-" + destinationTable)
+          .set(quotaJobsUsed);
+    }
+
+    if (isRetriedAfterJobFailure(loadRequests)
+        && (this.dailyLoadJobsPerTable <= 0 || quotaJobsUsed < this.dailyLoadJobsPerTable)) {
+      this.isolatedRetryCount.inc();
+      useQuota(destinationTable, quotaDay, quotaJobsUsed, quotaDayState, quotaJobsUsedState);
+      Map<String, String> attributes = new HashMap<String, String>();
+      attributes.put(ISOLATED_LOAD_JOB_ATTRIBUTE, "true");
+      context.output(KV.of(destination, withAttributes(pubsubMessage, attributes)));
+      return;
+    }
+
+    Map<String, Long> windowEnds =
+        new HashMap<String, Long>(
+            ObjectUtils.firstNonNull(windowEndsState.read(), new HashMap<String, Long>()));
+    Map<String, Long> windowUris =
+        new HashMap<String, Long>(
+            ObjectUtils.firstNonNull(windowUrisState.read(), new HashMap<String, Long>()));
+    Map<String, Long> windowBytes =
+        new HashMap<String, Long>(
+            ObjectUtils.firstNonNull(windowBytesState.read(), new HashMap<String, Long>()));
+    /*
+     * The windows which have ended were flushed by the coalescer
+     */
+    Iterator<Map.Entry<String, Long>> windowEndsIterator = windowEnds.entrySet().iterator();
+    while (windowEndsIterator.hasNext()) {
+      Map.Entry<String, Long> windowEnd = windowEndsIterator.next();
+      if (windowEnd.getValue() <= nowMs) {
+        windowEndsIterator.remove();
+        windowUris.remove(windowEnd.getKey());
+        windowBytes.remove(windowEnd.getKey());
+      }
+    }
+
+    Map<String, String> attributes = new HashMap<String, String>();
+    Long windowEnd = windowEnds.get(destination);
+    if (windowEnd == null) {
+      Duration window = getCoalesceWindow(now, quotaJobsUsed);
+      useQuota(destinationTable, quotaDay, quotaJobsUsed, quotaDayState, quotaJobsUsedState);
+      windowEnd = nowMs + window.getMillis();
+    }
+    long uris = ObjectUtils.firstNonNull(windowUris.get(destination), 0L) + loadRequests.size();
+    long bytes = ObjectUtils.firstNonNull(windowBytes.get(destination), 0L);
+    for (LoadRequest loadRequest : loadRequests) {
+      bytes += ObjectUtils.firstNonNull(loadRequest.loadRequestPayload.getBundleSize(), 0L);
+    }
+    attributes.put(COALESCE_WINDOW_END_ATTRIBUTE, String.valueOf(windowEnd));
+    if (uris >= this.maxUris || bytes >= this.maxBytes || windowEnd <= nowMs) {
+      /*
+       * The Load Job would exceed the Source URIs or Bytes limit, or the window has no length
+       */
+      attributes.put(COALESCE_WINDOW_CLOSED_ATTRIBUTE, "true");
+      windowEnds.remove(destination);
+      windowUris.remove(destination);
+      windowBytes.remove(destination);
+    } else {
+      windowEnds.put(destination, windowEnd);
+      windowUris.put(destination, uris);
+      windowBytes.put(destination, bytes);
+    }
+    windowEndsState.write(windowEnds);
+    windowUrisState.write(windowUris);
+    windowBytesState.write(windowBytes);
+    context.output(KV.of(destination, withAttributes(pubsubMessage, attributes)));
+  }
+}
@@ -0,0 +1,143 @@
+package com.example;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobInfo;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Submits the BQ Load Jobs asynchronously on a bounded executor shared by all the BQLoaderDoFn
+ * instances(threads) on the worker, so the Job Creation RPC latency no longer caps the
+ * Submission throughput of a thread.
+ * At most maxInFlightSubmissions Job Creations are outstanding per worker, a caller blocks until
+ * one of them completes once the limit is reached.
+ * The Job Ids are deterministic, so a creation rejected because the Job already exists attaches to
+ * the existing Job instead of failing.
+ * The outcome of every creation is remembered for a while, so that the Submissions held in keyed
+ * State by the in-pipeline Retry Queue are confirmed without a BQ call.
+ */
+class LoadJobSubmitter {
+
+  private static final Logger LOG = LoggerFactory.getLogger(LoadJobSubmitter.class);
+  private static final int ALREADY_EXISTS = 409;
+  private static final long SUBMISSION_OUTCOME_TTL_MINUTES = 60L;
+  private static LoadJobSubmitter instance;
+
+  private final BigQuery bigQuery;
+  private final ExecutorService submissionExecutor;
+  private final Semaphore inFlightSubmissions;
+  /*
+   * jobId -> whether the Job creation succeeded
+   */
+  private final Cache<String, Boolean> submissionOutcomes =
+      CacheBuilder.newBuilder()
+          .expireAfterWrite(SUBMISSION_OUTCOME_TTL_MINUTES, TimeUnit.MINUTES)
+          .build();
+
+  private LoadJobSubmitter(BigQuery bigQuery, int maxInFlightSubmissions) {
+    this.bigQuery = bigQuery;
+    AtomicInteger threadCount = new AtomicInteger();
+    this.submissionExecutor =
+        Executors.newFixedThreadPool(
+            maxInFlightSubmissions,
+            runnable -> {
+              Thread thread =
+                  new Thread(runnable, "load-job-submitter-" + threadCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.inFlightSubmissions = new Semaphore(maxInFlightSubmissions);
+  }
+
+  static synchronized LoadJobSubmitter getInstance(int maxInFlightSubmissions) {
+    if (instance == null) {
+      instance =
+          new LoadJobSubmitter(
+              BigQueryOptions.getDefaultInstance().getService(), maxInFlightSubmissions);
+    }
+    return instance;
+  }
+
+  /*
+   * The BQ Project the Load Jobs are created in: the default project of the BQ client, which is not
+   * necessarily the BQProject of the destination tables
+   */
+  String getJobProjectId() {
+    return this.bigQuery.getOptions().getProjectId();
+  }
+
+  /*
+   * Replaces the worker's Submitter, for LoaderSimulator to submit against a fake BQ Job Service
+   */
+  static synchronized LoadJobSubmitter register(BigQuery bigQuery, int maxInFlightSubmissions) {
+    if (instance != null) {
+      instance.submissionExecutor.shutdown();
+    }
+    instance = new LoadJobSubmitter(bigQuery, maxInFlightSubmissions);
+    return instance;
+  }
+
+  private Job create(JobInfo jobInfo) {
+    try {
+      return this.bigQuery.create(jobInfo);
+    } catch (BigQueryException e) {
+      if (e.getCode() != ALREADY_EXISTS) {
+        throw e;
+      }
+      /*
+       * The Load Request was submitted before(redelivery, or a create whose response was lost)
+       */
+      Job job = this.bigQuery.getJob(jobInfo.getJobId());
+      if (job == null) {
+        throw e;
+      }
+      LOG.info("Attached to the existing BQ Job {}", jobInfo.getJobId().getJob());
+      return job;
+    }
+  }
+
+  CompletableFuture<Job> submit(JobInfo jobInfo) throws InterruptedException {
+    this.inFlightSubmissions.acquire();
+    try {
+      return CompletableFuture.supplyAsync(() -> create(jobInfo), this.submissionExecutor)
+          .whenComplete(
+              (job, throwable) -> {
+                this.submissionOutcomes.put(jobInfo.getJobId().getJob(), throwable == null);
+                this.inFlightSubmissions.release();
+              });
+    } catch (RuntimeException e) {
+      this.inFlightSubmissions.release();
+      throw e;
+    }
+  }
+
+  /*
+   * Returns whether the Job creation succeeded, or null while it is still in flight. A creation this
+   * worker has no outcome for(the key moved to another worker, or the outcome expired) is resolved
+   * by looking the Job up in BQ once it is older than the timeout
+   */
+  Boolean getSubmissionOutcome(String jobId, long submittedTimeMs, long timeoutMs) {
+    Boolean submissionOutcome = this.submissionOutcomes.getIfPresent(jobId);
+    if (submissionOutcome != null || LoaderClock.currentTimeMillis() - submittedTimeMs < timeoutMs) {
+      return submissionOutcome;
+    }
+    try {
+      return this.bigQuery.getJob(jobId) != null;
+    } catch (BigQueryException e) {
+      LOG.warn("Unable to look up the BQ Job {}: {}", jobId, e.getMessage());
+      return null;
+    }
+  }
+}
@@ -63,19 +63,89 @@ public interface Options extends PipelineOptions, DataflowPipelineOptions {
 
   void setMaxRetries(ValueProvider<Integer> value);
 
-  @Description("Concurrent Load Jobs Threshold for the BQ Job Queue(Depends on BQ Slots)")
+  @Description(
+      "Concurrent Load Jobs Threshold for the BQ Job Queue(Depends on BQ Slots). Hard ceiling of the adaptive effective threshold")
   @Validation.Required
   ValueProvider<Integer> getConcurrentLoadJobsThreshold();
 
   void setConcurrentLoadJobsThreshold(ValueProvider<Integer> value);
 
   @Description(
-      "Concurrent Load Jobs Cache TTL in minutes. This is used to reduce number of calls to List Running BQ Jobs")
-  @Validation.Required
+      "Deprecated, superseded by RunningLoadJobsRefreshSeconds. Concurrent Load Jobs Cache TTL in minutes")
   ValueProvider<Integer> getConcurrentLoadJobsCacheTTLMinutes();
 
   void setConcurrentLoadJobsCacheTTLMinutes(ValueProvider<Integer> value);
 
+  @Description(
+      "Interval in seconds at which each worker refreshes the Pending/Running BQ Jobs in the background. Jobs submitted in between are counted locally. Defaults to 10 seconds")
+  @Default.Integer(10)
+  ValueProvider<Integer> getRunningLoadJobsRefreshSeconds();
+
+  void setRunningLoadJobsRefreshSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "Number of Permit Shards the Concurrent Load Jobs Threshold is split across. Each Permit Shard hands out Threshold/Shards Submission Permits pipeline wide, the first Threshold%Shards Shards one more. Keep it at most the Threshold, a Shard beyond it gets no Permit. Defaults to 10")
+  @Default.Integer(10)
+  ValueProvider<Integer> getAdmissionPermitShards();
+
+  void setAdmissionPermitShards(ValueProvider<Integer> value);
+
+  @Description(
+      "Minutes after which a Submission Permit is reclaimed even if its Load Job was never observed as done. Defaults to 360 minutes(the maximum Load Job execution time)")
+  @Default.Integer(360)
+  ValueProvider<Integer> getAdmissionPermitLeaseMinutes();
+
+  void setAdmissionPermitLeaseMinutes(ValueProvider<Integer> value);
+
+  @Description(
+      "Weights of the Load Request Priority Classes for Weighted Fair Queuing across the Destination Tables of one Admission Permit Shard(pipeline wide only with admissionPermitShards=1), as comma separated class:weight pairs. Defaults to CRITICAL:16,STANDARD:4,BATCH:1")
+  @Default.String("CRITICAL:16,STANDARD:4,BATCH:1")
+  ValueProvider<String> getPriorityClassWeights();
+
+  void setPriorityClassWeights(ValueProvider<String> value);
+
+  @Description(
+      "Priority Class of the Load Requests per Destination Dataset, as comma separated dataset:class pairs. The priorityClass Load Request Attribute takes precedence. Unlisted Datasets are STANDARD")
+  @Default.String("")
+  ValueProvider<String> getPriorityClassByDataset();
+
+  void setPriorityClassByDataset(ValueProvider<String> value);
+
+  @Description(
+      "Maximum number of BQ Load Job creations in flight per worker. Load Jobs are submitted asynchronously and their outcome is emitted at the end of the Bundle. Defaults to 16")
+  @Default.Integer(16)
+  ValueProvider<Integer> getMaxInFlightSubmissions();
+
+  void setMaxInFlightSubmissions(ValueProvider<Integer> value);
+
+  @Description(
+      "Target Pending to Running latency in seconds of the BQ Jobs. The effective Concurrent Load Jobs Threshold grows additively while the observed latency stays under it, and is cut multiplicatively above it. Defaults to 60 seconds")
+  @Default.Integer(60)
+  ValueProvider<Integer> getTargetPendingLatencySeconds();
+
+  void setTargetPendingLatencySeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "Additive Increase of the effective Concurrent Load Jobs Threshold per Running Jobs refresh. Defaults to 1")
+  @Default.Double(1.0)
+  ValueProvider<Double> getThresholdAdditiveIncrease();
+
+  void setThresholdAdditiveIncrease(ValueProvider<Double> value);
+
+  @Description(
+      "Multiplicative Decrease factor of the effective Concurrent Load Jobs Threshold on high latency or rateLimitExceeded errors. Defaults to 0.5")
+  @Default.Double(0.5)
+  ValueProvider<Double> getThresholdMultiplicativeDecrease();
+
+  void setThresholdMultiplicativeDecrease(ValueProvider<Double> value);
+
+  @Description(
+      "Lower bound of the effective Concurrent Load Jobs Threshold. Defaults to 1")
+  @Default.Integer(1)
+  ValueProvider<Integer> getMinConcurrentLoadJobsThreshold();
+
+  void setMinConcurrentLoadJobsThreshold(ValueProvider<Integer> value);
+
   @Description(
       "Load Job Submission Retries through the Retry Cycle. This acts as pressure valve. Set this to a higher number(like > 10000). Lower number may cause false negatives. This is used to determine the maximum amount of attempts for the Load Request to go through retry cycle(Source PubSub) before considering the Load Request for manual inspection")
   @Default.Integer(10000)
@@ -83,6 +153,13 @@ public interface Options extends PipelineOptions, DataflowPipelineOptions {
 
   void setMaxLoadJobRetryCycles(ValueProvider<Integer> value);
 
+  @Description(
+      "Retry Cycles a Load Request goes through within the pipeline, held in keyed State and re-attempted with an exponential BackOff Timer, before it falls back to the Source PubSub for a Retry Cycle. 0 sends every Retry Cycle through the Source PubSub. Defaults to 0")
+  @Default.Integer(0)
+  ValueProvider<Integer> getInPipelineRetryCycles();
+
+  void setInPipelineRetryCycles(ValueProvider<Integer> value);
+
   @Description(
       "Dead Letter GCS Bucket Name without gs:// for Saving Failed Load Requests after specified maximum job submission attempts")
   @Validation.Required
@@ -117,4 +194,74 @@ public interface Options extends PipelineOptions, DataflowPipelineOptions {
   ValueProvider<Integer> getDeadLetterMaxElementCount();
 
   void setDeadLetterMaxElementCount(ValueProvider<Integer> value);
+
+  @Description(
+      "Window in seconds during which Load Requests for the same Destination Table and Schema Hash are coalesced into one multi URI Load Job. With 0, Load Requests are still coalesced while dailyLoadJobsPerTable is set and a Destination Table uses its Daily Load Job Quota faster than an even pace over the rest of the day, set both to 0 to disable coalescing. Defaults to 0(opt-in)")
+  @Default.Integer(0)
+  ValueProvider<Integer> getCoalesceWindowSeconds();
+
+  void setCoalesceWindowSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "Maximum number of Source URIs(Load Requests) coalesced into one Load Job. Defaults to 500")
+  @Default.Integer(500)
+  ValueProvider<Integer> getCoalesceMaxUris();
+
+  void setCoalesceMaxUris(ValueProvider<Integer> value);
+
+  @Description(
+      "Maximum Bundle Bytes coalesced into one Load Job. Defaults to 1099511627776(1 TB)")
+  @Default.Long(1099511627776L)
+  ValueProvider<Long> getCoalesceMaxBytes();
+
+  void setCoalesceMaxBytes(ValueProvider<Long> value);
+
+  @Description(
+      "Daily Load Job Quota per Destination Table. Load Requests are coalesced over longer windows once a Table uses its Quota faster than an even pace over the rest of the day, even with coalesceWindowSeconds 0. 0 disables budgeting. Defaults to 1500")
+  @Default.Integer(1500)
+  ValueProvider<Integer> getDailyLoadJobsPerTable();
+
+  void setDailyLoadJobsPerTable(ValueProvider<Integer> value);
+
+  @Description(
+      "Time Zone in which the Daily Load Job Quota resets at midnight. Defaults to America/Los_Angeles")
+  @Default.String("America/Los_Angeles")
+  ValueProvider<String> getLoadJobQuotaTimeZone();
+
+  void setLoadJobQuotaTimeZone(ValueProvider<String> value);
+
+  @Description(
+      "Validate the Load Requests before they take a Load Job Slot, and Dead Letter the ones whose bundlePrefixPath does not resolve to any object. Defaults to true")
+  @Default.Boolean(true)
+  ValueProvider<Boolean> getPreflightValidation();
+
+  void setPreflightValidation(ValueProvider<Boolean> value);
+
+  @Description(
+      "Also Dead Letter the Load Requests whose bundleSchemaHash does not match the Destination Table Schema(SHA-256 of the Table fields as name:type:mode) during the Preflight Validation. Only an identical Schema matches: a Bundle written before fields were added to the Table, or before a field was relaxed to NULLABLE, is dead lettered although BQ would load it, so enable it only for Tables whose producers always write against the current Schema. Defaults to false")
+  @Default.Boolean(false)
+  ValueProvider<Boolean> getPreflightSchemaHashCheck();
+
+  void setPreflightSchemaHashCheck(ValueProvider<Boolean> value);
+
+  @Description(
+      "PubSub Subscription for the Slot Release events published by the Jobs Monitor for every DONE Load Job. The deferred Load Requests are dispatched as soon as a Job of their Permit Shard is DONE, instead of at their next BackOff step. Defaults to none(empty)")
+  @Default.String("")
+  ValueProvider<String> getSlotReleaseSubscription();
+
+  void setSlotReleaseSubscription(ValueProvider<String> value);
+
+  @Description(
+      "Sink of the Spans tracing the Load Requests: none, jsonl:<local file> or class:<SpanSink class name>. Defaults to none")
+  @Default.String("none")
+  ValueProvider<String> getSpanSink();
+
+  void setSpanSink(ValueProvider<String> value);
+
+  @Description(
+      "Format of the Load Requests and Loader Envelopes published to PubSub: json, or the binary schema version v1 to v3. The Jobs Monitor reading them may run an older release during a rolling deploy, so switch to v3 only once both pipelines run a release reading it. Defaults to json")
+  @Default.String("json")
+  ValueProvider<String> getMessageFormat();
+
+  void setMessageFormat(ValueProvider<String> value);
 }
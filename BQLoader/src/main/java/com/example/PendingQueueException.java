@@ -1,7 +0,0 @@
-package com.example;
-
-class PendingQueueException extends Exception {
-  PendingQueueException(String errorMessage) {
-    super(errorMessage);
-  }
-}
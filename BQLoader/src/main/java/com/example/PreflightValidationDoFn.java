@@ -0,0 +1,163 @@
+package com.example;
+
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.bigquery.TableId;
+import com.google.gson.Gson;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.commons.lang3.ObjectUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Validates the Load Requests before they are coalesced and take a Load Job Slot, and sends the
+ * ones which can never succeed straight to the Dead Letter:
+ * a) the bundlePrefixPath(Source URI) does not resolve to any object
+ * b) the bundleSchemaHash does not match the Schema of the Destination Table(TableSchemaHashes),
+ * when preflightSchemaHashCheck is enabled. A hash only tells whether the Schemas are identical, so
+ * this also rejects Bundles BQ would load: written before fields were added to the Table, or before
+ * a field was relaxed from REQUIRED to NULLABLE. The check is only meant for Tables whose producers
+ * always write against the current Table Schema
+ * A check which fails itself(GCS/BQ error) lets the Load Request through, BQ has the final say.
+ * Load Requests coming back through a Retry Cycle passed the validation already and are not
+ * checked again.
+ */
+public class PreflightValidationDoFn
+    extends DoFn<KV<String, PubsubMessage>, KV<String, PubsubMessage>> {
+
+  private static final Logger LOG = LoggerFactory.getLogger(PreflightValidationDoFn.class);
+  private static final Gson GSON = new Gson();
+  private final String targetBQProject;
+  private final boolean schemaHashCheck;
+  private final TupleTag<String> failedSubmissionLoadJobs;
+  private transient TableSchemaHashes tableSchemaHashes;
+  private Counter missingBundleCount =
+      Metrics.counter(PreflightValidationDoFn.class, "preflight-missing-bundle");
+  private Counter schemaHashMismatchCount =
+      Metrics.counter(PreflightValidationDoFn.class, "preflight-schema-hash-mismatch");
+  private Counter checkErrorCount =
+      Metrics.counter(PreflightValidationDoFn.class, "preflight-check-errors");
+
+  PreflightValidationDoFn(Options options, TupleTag<String> failedSubmissionLoadJobs) {
+    this.targetBQProject = options.getBQProject().get();
+    this.schemaHashCheck = options.getPreflightSchemaHashCheck().get();
+    this.failedSubmissionLoadJobs = failedSubmissionLoadJobs;
+  }
+
+  @Setup
+  public void setup() {
+    if (this.schemaHashCheck) {
+      this.tableSchemaHashes = TableSchemaHashes.getInstance();
+    }
+  }
+
+  /*
+   * The wildcard of a BQ Source URI matches across '/', as ** does in a Beam FileSystems glob
+   */
+  static String toGlob(String sourceUri) {
+    return sourceUri.replaceAll("(?<!\\*)\\*(?!\\*)", "**");
+  }
+
+  private boolean bundleExists(String bundlePrefixPath) {
+    try {
+      MatchResult matchResult = FileSystems.match(toGlob(bundlePrefixPath));
+      if (matchResult.status() == MatchResult.Status.NOT_FOUND) {
+        return false;
+      }
+      if (matchResult.status() == MatchResult.Status.ERROR) {
+        this.checkErrorCount.inc();
+      }
+    } catch (IOException e) {
+      this.checkErrorCount.inc();
+      LOG.warn("Unable to check the existence of " + bundlePrefixPath, e);
+    }
+    return true;
+  }
+
+  private boolean schemaHashMatches(LoadRequestPayload loadRequestPayload) {
+    if (!this.schemaHashCheck || loadRequestPayload.bundleSchemaHash == null) {
+      return true;
+    }
+    try {
+      return this.tableSchemaHashes.matches(
+          TableId.of(
+              this.targetBQProject,
+              loadRequestPayload.bundleDataset,
+              loadRequestPayload.bundleTable),
+          loadRequestPayload.bundleSchemaHash);
+    } catch (BigQueryException e) {
+      this.checkErrorCount.inc();
+      LOG.warn(
+          "Unable to fetch the Schema of "
+              + loadRequestPayload.bundleDataset
+              + "."
+              + loadRequestPayload.bundleTable,
+          e);
+      return true;
+    }
+  }
+
+  /*
+   * Returns why the Load Request can never succeed, null when it may
+   */
+  private String getRejectionReason(LoadRequest loadRequest) {
+    LoadRequestPayload loadRequestPayload = loadRequest.loadRequestPayload;
+    if (loadRequestPayload.bundlePrefixPath == null
+        || !bundleExists(loadRequestPayload.bundlePrefixPath)) {
+      this.missingBundleCount.inc();
+      return "bundlePrefixPath does not resolve to any object";
+    }
+    if (!schemaHashMatches(loadRequestPayload)) {
+      this.schemaHashMismatchCount.inc();
+      return "bundleSchemaHash does not match the Destination Table Schema";
+    }
+    return null;
+  }
+
+  @ProcessElement
+  public void processElement(ProcessContext context) {
+    PubsubMessage pubsubMessage = context.element().getValue();
+    List<LoadRequest> loadRequests = CoalesceLoadRequestsDoFn.getLoadRequests(pubsubMessage);
+    List<LoadRequest> validLoadRequests = new ArrayList<LoadRequest>();
+    for (LoadRequest loadRequest : loadRequests) {
+      if (loadRequest.loadRequestAttributes != null
+          && ObjectUtils.firstNonNull(
+                  loadRequest.loadRequestAttributes.getLoadJobSubmissionAttempts(), 0)
+              > 0) {
+        validLoadRequests.add(loadRequest);
+        continue;
+      }
+      String rejectionReason = getRejectionReason(loadRequest);
+      if (rejectionReason == null) {
+        validLoadRequests.add(loadRequest);
+      } else {
+        LOG.warn(
+            "Dead lettering Load Request "
+                + loadRequest.loadRequestPayload.bundleId
+                + ": "
+                + rejectionReason);
+        context.output(this.failedSubmissionLoadJobs, GSON.toJson(loadRequest));
+      }
+    }
+    if (validLoadRequests.size() == loadRequests.size()) {
+      context.output(context.element());
+    } else if (!validLoadRequests.isEmpty()) {
+      context.output(
+          KV.of(
+              context.element().getKey(),
+              new PubsubMessage(
+                  LoaderMessageCodec.encodeLoadRequests(validLoadRequests),
+                  pubsubMessage.getAttributeMap())));
+    }
+  }
+}
@@ -0,0 +1,274 @@
+package com.example;
+
+import com.google.api.client.googleapis.util.Utils;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.BigqueryScopes;
+import com.google.api.services.bigquery.model.JobList;
+import com.google.auth.http.HttpCredentialsAdapter;
+import com.google.auth.oauth2.GoogleCredentials;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/*
+ * Tracks the Pending/Running BQ Jobs of the BQ Project the Load Jobs are created in(see
+ * LoadJobSubmitter.getJobProjectId) once per worker JVM, shared by all the BQLoaderDoFn
+ * instances(threads) on the worker.
+ * The Running Jobs are refreshed in the background at a fixed interval, so the Job Submission
+ * check is an in-memory comparison instead of a List Jobs call per Load Request.
+ * Jobs submitted by this worker are counted locally right away, until a refresh observes them.
+ * Jobs reported DONE by a Slot Release event, or whose creation failed, are no longer counted
+ * right away either.
+ * Every refresh also feeds the Pending to Running latency observed for the listed Jobs into the
+ * worker's AdaptiveConcurrencyThreshold.
+ */
+class RunningLoadJobsTracker {
+
+  private static final Logger LOG = LoggerFactory.getLogger(RunningLoadJobsTracker.class);
+  private static final List<String> RUNNING_STATE_FILTER = Arrays.asList("pending", "running");
+  private static final String JOB_LIST_FIELDS =
+      "jobs(jobReference/jobId,state,statistics/creationTime,statistics/startTime),nextPageToken";
+  /*
+   * Allowance for the clock skew between the worker and BQ while listing Jobs incrementally
+   */
+  private static final long CREATION_TIME_SKEW_MS = 60000L;
+  private static final Map<String, RunningLoadJobsTracker> TRACKERS =
+      new ConcurrentHashMap<String, RunningLoadJobsTracker>();
+
+  private final Bigquery bigquery;
+  private final String projectId;
+  private final ScheduledExecutorService refreshExecutor;
+  private final AdaptiveConcurrencyThreshold adaptiveConcurrencyThreshold;
+  /*
+   * jobId -> creationTime(ms) of the Jobs Pending/Running as of the last refresh
+   */
+  private volatile Map<String, Long> runningJobs = new HashMap<String, Long>();
+  /*
+   * Jobs already observed Running, so that each Job is sampled for latency once
+   */
+  private Set<String> startedJobs = new HashSet<String>();
+  /*
+   * jobId -> local submission time(ms) of the Jobs submitted by this worker
+   */
+  private final Map<String, Long> submittedJobs = new ConcurrentHashMap<String, Long>();
+  /*
+   * jobId -> time(ms) the Jobs Monitor reported the Job DONE, until a refresh started after that
+   */
+  private final Map<String, Long> completedJobs = new ConcurrentHashMap<String, Long>();
+  private volatile Long lastRefreshStartMs = null;
+
+  private RunningLoadJobsTracker(
+      Bigquery bigquery,
+      String projectId,
+      int refreshIntervalSeconds,
+      AdaptiveConcurrencyThreshold adaptiveConcurrencyThreshold) {
+    this.bigquery = bigquery;
+    this.projectId = projectId;
+    this.adaptiveConcurrencyThreshold = adaptiveConcurrencyThreshold;
+    this.refreshExecutor =
+        Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+              Thread thread = new Thread(runnable, "running-load-jobs-tracker-" + projectId);
+              thread.setDaemon(true);
+              return thread;
+            });
+    if (refreshIntervalSeconds > 0) {
+      this.refreshExecutor.scheduleWithFixedDelay(
+          this::refreshQuietly, refreshIntervalSeconds, refreshIntervalSeconds, TimeUnit.SECONDS);
+    }
+  }
+
+  /*
+   * The first caller on the worker creates the Tracker, with the worker's
+   * AdaptiveConcurrencyThreshold, and waits for the initial full listing
+   */
+  static RunningLoadJobsTracker getInstance(
+      String projectId,
+      int refreshIntervalSeconds,
+      Supplier<AdaptiveConcurrencyThreshold> adaptiveConcurrencyThreshold) {
+    return TRACKERS.computeIfAbsent(
+        projectId,
+        project -> {
+          RunningLoadJobsTracker tracker =
+              new RunningLoadJobsTracker(
+                  createBigquery(),
+                  project,
+                  refreshIntervalSeconds,
+                  adaptiveConcurrencyThreshold.get());
+          tracker.refreshQuietly();
+          return tracker;
+        });
+  }
+
+  /*
+   * Replaces the worker's Tracker of the BQ Project with one which is refreshed only on demand, for
+   * LoaderSimulator to refresh it on the virtual clock against a fake BQ Job Service
+   */
+  static RunningLoadJobsTracker register(
+      Bigquery bigquery,
+      String projectId,
+      AdaptiveConcurrencyThreshold adaptiveConcurrencyThreshold) {
+    RunningLoadJobsTracker tracker =
+        new RunningLoadJobsTracker(bigquery, projectId, 0, adaptiveConcurrencyThreshold);
+    RunningLoadJobsTracker previousTracker = TRACKERS.put(projectId, tracker);
+    if (previousTracker != null) {
+      previousTracker.refreshExecutor.shutdown();
+    }
+    return tracker;
+  }
+
+  private static Bigquery createBigquery() {
+    try {
+      GoogleCredentials credentials =
+          GoogleCredentials.getApplicationDefault().createScoped(BigqueryScopes.all());
+      return new Bigquery.Builder(
+              Utils.getDefaultTransport(),
+              Utils.getDefaultJsonFactory(),
+              new HttpCredentialsAdapter(credentials))
+          .setApplicationName("BQLoader")
+          .build();
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to create BQ Client for tracking Running Jobs", e);
+    }
+  }
+
+  AdaptiveConcurrencyThreshold getAdaptiveConcurrencyThreshold() {
+    return this.adaptiveConcurrencyThreshold;
+  }
+
+  int getRunningJobCount() {
+    Map<String, Long> running = this.runningJobs;
+    int count = running.size();
+    for (String jobId : this.submittedJobs.keySet()) {
+      if (!running.containsKey(jobId)) {
+        count++;
+      }
+    }
+    for (String jobId : this.completedJobs.keySet()) {
+      if (running.containsKey(jobId)) {
+        count--;
+      }
+    }
+    return count;
+  }
+
+  /*
+   * A Job submitted after the last refresh started has not been observed yet and is still
+   * considered Running
+   */
+  boolean isJobRunning(String jobId, long submittedTimeMs) {
+    if (this.completedJobs.containsKey(jobId)) {
+      return false;
+    }
+    Long lastRefreshStart = this.lastRefreshStartMs;
+    return lastRefreshStart == null
+        || lastRefreshStart <= submittedTimeMs
+        || this.runningJobs.containsKey(jobId);
+  }
+
+  /*
+   * A Job Id submitted again(Retry Cycle of a failed creation) is Running again
+   */
+  void recordSubmittedJob(String jobId) {
+    this.completedJobs.remove(jobId);
+    this.submittedJobs.put(jobId, LoaderClock.currentTimeMillis());
+  }
+
+  /*
+   * The Job is DONE as of a Slot Release event, or was never created, ahead of the next refresh
+   */
+  void recordCompletedJob(String jobId) {
+    this.submittedJobs.remove(jobId);
+    this.completedJobs.put(jobId, LoaderClock.currentTimeMillis());
+  }
+
+  void refreshQuietly() {
+    try {
+      refresh();
+    } catch (IOException | RuntimeException e) {
+      /*
+       * Keep counting with the last known Running Jobs, the next scheduled refresh will retry
+       */
+      LOG.warn("Unable to refresh Running BQ Jobs for {}: {}", this.projectId, e.getMessage());
+    }
+  }
+
+  /*
+   * Lists the Jobs incrementally. Every Job still Pending/Running now was either Running at the last
+   * refresh or created after it, so the listing starts at the oldest of those creation times
+   */
+  private synchronized void refresh() throws IOException {
+    long refreshStartMs = LoaderClock.currentTimeMillis();
+    BigInteger minCreationTime = null;
+    if (this.lastRefreshStartMs != null) {
+      long minCreationTimeMs = this.lastRefreshStartMs;
+      for (Long creationTimeMs : this.runningJobs.values()) {
+        minCreationTimeMs = Math.min(minCreationTimeMs, creationTimeMs);
+      }
+      minCreationTime = BigInteger.valueOf(minCreationTimeMs - CREATION_TIME_SKEW_MS);
+    }
+    Map<String, Long> running = new HashMap<String, Long>();
+    Set<String> started = new HashSet<String>();
+    /*
+     * The latency signal is the slowest newly started Job, or the age of the oldest Job still
+     * Pending when that is larger
+     */
+    long observedPendingLatencyMs = 0L;
+    String pageToken = null;
+    do {
+      Bigquery.Jobs.List jobsList =
+          this.bigquery
+              .jobs()
+              .list(this.projectId)
+              .setAllUsers(true)
+              .setStateFilter(RUNNING_STATE_FILTER)
+              .setProjection("minimal")
+              .setFields(JOB_LIST_FIELDS)
+              .setPageToken(pageToken);
+      if (minCreationTime != null) {
+        jobsList.setMinCreationTime(minCreationTime);
+      }
+      JobList jobList = jobsList.execute();
+      if (jobList.getJobs() != null) {
+        for (JobList.Jobs job : jobList.getJobs()) {
+          String jobId = job.getJobReference().getJobId();
+          long creationTimeMs = job.getStatistics().getCreationTime();
+          running.put(jobId, creationTimeMs);
+          if (job.getStatistics().getStartTime() != null) {
+            started.add(jobId);
+            if (!this.startedJobs.contains(jobId)) {
+              observedPendingLatencyMs =
+                  Math.max(observedPendingLatencyMs, job.getStatistics().getStartTime() - creationTimeMs);
+            }
+          } else {
+            observedPendingLatencyMs =
+                Math.max(observedPendingLatencyMs, refreshStartMs - creationTimeMs);
+          }
+        }
+      }
+      pageToken = jobList.getNextPageToken();
+    } while (pageToken != null);
+    this.runningJobs = running;
+    this.startedJobs = started;
+    this.lastRefreshStartMs = refreshStartMs;
+    this.adaptiveConcurrencyThreshold.update(observedPendingLatencyMs);
+    /*
+     * Jobs submitted before this refresh started are covered by the listing from now on
+     */
+    this.submittedJobs.values().removeIf(submittedTimeMs -> submittedTimeMs < refreshStartMs);
+    this.completedJobs.values().removeIf(completedTimeMs -> completedTimeMs < refreshStartMs);
+  }
+}
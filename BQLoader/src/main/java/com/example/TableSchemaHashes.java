@@ -0,0 +1,117 @@
+package com.example;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldList;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableId;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Per worker cache of the Schema Hashes of the Destination Tables, shared by all the
+ * PreflightValidationDoFn instances(threads) on the worker.
+ * The Schema Hash of a Table is the SHA-256 of its fields as name:type:mode, nested fields
+ * enclosed in parentheses, joined by commas in the Table order. This is the bundleSchemaHash a
+ * producer is expected to set for the Table Schema its Bundle was written against.
+ * A cached Schema Hash is refreshed when a Load Request does not match it, at most once every
+ * MIN_REFRESH_INTERVAL_MS per Table so that a stream of bad Load Requests does not hammer BQ.
+ */
+class TableSchemaHashes {
+
+  private static final long SCHEMA_HASH_TTL_MINUTES = 60L;
+  private static final long MIN_REFRESH_INTERVAL_MS = 60000L;
+  private static TableSchemaHashes instance;
+
+  private final BigQuery bigQuery;
+  /*
+   * project:dataset.table -> Schema Hash, null once the Table does not exist
+   */
+  private final Cache<String, CachedSchemaHash> schemaHashes =
+      CacheBuilder.newBuilder().expireAfterWrite(SCHEMA_HASH_TTL_MINUTES, TimeUnit.MINUTES).build();
+
+  private TableSchemaHashes(BigQuery bigQuery) {
+    this.bigQuery = bigQuery;
+  }
+
+  static synchronized TableSchemaHashes getInstance() {
+    if (instance == null) {
+      instance = new TableSchemaHashes(BigQueryOptions.getDefaultInstance().getService());
+    }
+    return instance;
+  }
+
+  static String getSchemaHash(Schema schema) {
+    return Hashing.sha256()
+        .hashString(getFieldsSignature(schema.getFields()), StandardCharsets.UTF_8)
+        .toString();
+  }
+
+  private static String getFieldsSignature(FieldList fields) {
+    StringBuilder signature = new StringBuilder();
+    for (Field field : fields) {
+      if (signature.length() > 0) {
+        signature.append(',');
+      }
+      signature
+          .append(field.getName())
+          .append(':')
+          .append(field.getType().name())
+          .append(':')
+          .append(field.getMode() == null ? Field.Mode.NULLABLE.name() : field.getMode().name());
+      if (field.getSubFields() != null && !field.getSubFields().isEmpty()) {
+        signature.append('(').append(getFieldsSignature(field.getSubFields())).append(')');
+      }
+    }
+    return signature.toString();
+  }
+
+  /*
+   * Returns whether bundleSchemaHash matches the Schema of the Table. A Table which does not exist
+   * yet matches any Schema Hash, the Load Job creates it from the Bundle
+   */
+  boolean matches(TableId tableId, String bundleSchemaHash) {
+    String key = tableId.getProject() + ":" + tableId.getDataset() + "." + tableId.getTable();
+    CachedSchemaHash cachedSchemaHash = this.schemaHashes.getIfPresent(key);
+    if (cachedSchemaHash != null && cachedSchemaHash.matches(bundleSchemaHash)) {
+      return true;
+    }
+    if (cachedSchemaHash != null
+        && LoaderClock.currentTimeMillis() - cachedSchemaHash.fetchedTimeMs
+            < MIN_REFRESH_INTERVAL_MS) {
+      return false;
+    }
+    /*
+     * Not cached yet, or the Table Schema may have changed since
+     */
+    Table table = this.bigQuery.getTable(tableId);
+    cachedSchemaHash =
+        new CachedSchemaHash(
+            table == null || table.getDefinition().getSchema() == null
+                ? null
+                : getSchemaHash(table.getDefinition().getSchema()),
+            LoaderClock.currentTimeMillis());
+    this.schemaHashes.put(key, cachedSchemaHash);
+    return cachedSchemaHash.matches(bundleSchemaHash);
+  }
+
+  private static class CachedSchemaHash {
+    private final String schemaHash;
+    private final long fetchedTimeMs;
+
+    private CachedSchemaHash(String schemaHash, long fetchedTimeMs) {
+      this.schemaHash = schemaHash;
+      this.fetchedTimeMs = fetchedTimeMs;
+    }
+
+    private boolean matches(String bundleSchemaHash) {
+      return this.schemaHash == null || this.schemaHash.equals(bundleSchemaHash);
+    }
+  }
+}
@@ -0,0 +1,560 @@
+package com.example;
+
+import com.google.api.client.googleapis.json.GoogleJsonError;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.JsonFactory;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.gax.rpc.FixedHeaderProvider;
+import com.google.api.services.bigquery.Bigquery;
+import com.google.api.services.bigquery.model.ErrorProto;
+import com.google.api.services.bigquery.model.Job;
+import com.google.api.services.bigquery.model.JobList;
+import com.google.api.services.bigquery.model.JobStatistics;
+import com.google.api.services.bigquery.model.JobStatus;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.ServiceOptions;
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.http.HttpTransportOptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+ * In-process fake of the BQ Jobs API used by the Loader and the Monitor(jobs.insert, jobs.get and
+ * jobs.list). It is served at the HTTP Transport level, so both the google-cloud-bigquery client and
+ * the BQ API client of RunningLoadJobsTracker talk to it unchanged.
+ * The Jobs progress on the LoaderClock. A Job stays PENDING for a sampled Pending Delay and until one
+ * of the maxRunningJobs slots is free, is RUNNING for a sampled Run Time(plus runTimeMsPerGB for
+ * every GB of its registered source files), and ends DONE(failed at the configured Job Failure
+ * rate with one of the configured reasons, or when it loads a corrupt source). Every API call fails at its configured error rate.
+ */
+class FakeBigQueryJobService extends MockHttpTransport {
+
+  private static final JsonFactory JSON_FACTORY = JacksonFactory.getDefaultInstance();
+  /*
+   * Page size of jobs.list when maxResults is not given
+   */
+  private static final int DEFAULT_PAGE_SIZE = 1000;
+  private static final String PENDING = "PENDING";
+  private static final String RUNNING = "RUNNING";
+  private static final String DONE = "DONE";
+  /*
+   * Request header naming the simulated component(Loader or Monitor) of a google-cloud-bigquery
+   * client, for its API calls to be counted apart
+   */
+  private static final String CLIENT_HEADER = "x-simulated-client";
+
+  private final Random random;
+  private final int maxRunningJobs;
+  private final DurationDistribution pendingDelay;
+  private final DurationDistribution runTime;
+  private final long runTimeMsPerGB;
+  private final double insertErrorRate;
+  private final double rateLimitErrorRate;
+  private final double getJobErrorRate;
+  private final double listJobsErrorRate;
+  private final double jobFailureRate;
+  /*
+   * BQ reason codes of the failed Jobs, and their cumulative weights
+   */
+  private final List<String> jobFailureReasons = new ArrayList<String>();
+  private final List<Double> jobFailureReasonWeights = new ArrayList<Double>();
+  private final double corruptSourceRate;
+  private final long simulationSeed;
+  private final boolean corruptSourceNamedInErrors;
+  /*
+   * projectId:jobId -> Job, in creation order
+   */
+  private final Map<String, SimulatedJob> jobs = new LinkedHashMap<String, SimulatedJob>();
+  private final List<SimulatedJob> pendingJobs = new ArrayList<SimulatedJob>();
+  private final List<SimulatedJob> runningJobs = new ArrayList<SimulatedJob>();
+  private final Map<String, Long> apiCalls = new TreeMap<String, Long>();
+  private final Map<String, Long> clientApiCalls = new TreeMap<String, Long>();
+  /*
+   * source URI -> bytes of the source files of the Load Jobs
+   */
+  private final Map<String, Long> sourceBytes = new HashMap<String, Long>();
+  /*
+   * source URIs failing every Job loading them
+   */
+  private final Set<String> corruptSources = new HashSet<String>();
+  private long lastAdvanceMs = Long.MIN_VALUE;
+
+  FakeBigQueryJobService(SimulatorOptions options) {
+    this.random = new Random(options.getSimulationSeed().get());
+    this.maxRunningJobs = options.getMaxRunningJobs().get();
+    this.pendingDelay = DurationDistribution.parse(options.getPendingDelayMs().get());
+    this.runTime = DurationDistribution.parse(options.getRunTimeMs().get());
+    this.runTimeMsPerGB = options.getRunTimeMsPerGB().get();
+    this.insertErrorRate = options.getInsertErrorRate().get();
+    this.rateLimitErrorRate = options.getRateLimitErrorRate().get();
+    this.getJobErrorRate = options.getGetJobErrorRate().get();
+    this.listJobsErrorRate = options.getListJobsErrorRate().get();
+    this.jobFailureRate = options.getJobFailureRate().get();
+    double cumulativeWeight = 0.0;
+    for (String reasonAndWeight : options.getJobFailureReasons().get().split(",")) {
+      String[] reasonWeight = reasonAndWeight.trim().split(":", 2);
+      cumulativeWeight += reasonWeight.length == 2 ? Double.parseDouble(reasonWeight[1]) : 1.0;
+      this.jobFailureReasons.add(reasonWeight[0]);
+      this.jobFailureReasonWeights.add(cumulativeWeight);
+    }
+    this.corruptSourceRate = options.getCorruptSourceRate().get();
+    this.simulationSeed = options.getSimulationSeed().get();
+    this.corruptSourceNamedInErrors = options.getCorruptSourceNamedInErrors().get();
+  }
+
+  /*
+   * google-cloud-bigquery client of the fake. The client side retries are disabled, so the Loader
+   * handles every injected error itself
+   */
+  BigQuery getBigQuery(String projectId) {
+    return getBigQuery(projectId, "BQLoader");
+  }
+
+  /*
+   * google-cloud-bigquery client of the fake for the given simulated component
+   */
+  BigQuery getBigQuery(String projectId, String client) {
+    return BigQueryOptions.newBuilder()
+        .setProjectId(projectId)
+        .setCredentials(NoCredentials.getInstance())
+        .setHeaderProvider(FixedHeaderProvider.create(CLIENT_HEADER, client))
+        .setRetrySettings(ServiceOptions.getNoRetrySettings())
+        .setTransportOptions(
+            HttpTransportOptions.newBuilder().setHttpTransportFactory(() -> this).build())
+        .build()
+        .getService();
+  }
+
+  /*
+   * BQ API client of the fake
+   */
+  Bigquery getBigquery() {
+    return new Bigquery.Builder(this, JSON_FACTORY, null).setApplicationName("BQLoader").build();
+  }
+
+  /*
+   * BQ API client of the fake for the given simulated component
+   */
+  Bigquery getBigquery(String client) {
+    return new Bigquery.Builder(
+            this, JSON_FACTORY, request -> request.getHeaders().set(CLIENT_HEADER, client))
+        .setApplicationName(client)
+        .build();
+  }
+
+  /*
+   * Bytes of the source files behind a source URI, for the Run Time of the Jobs loading them
+   */
+  synchronized void registerSource(String sourceUri, long bytes) {
+    this.sourceBytes.put(sourceUri, bytes);
+    /*
+     * Drawn from the URI, for every Scheduling Configuration to see the same corrupt sources
+     */
+    if (this.corruptSourceRate > 0
+        && new Random(this.simulationSeed ^ sourceUri.hashCode()).nextDouble()
+            < this.corruptSourceRate) {
+      this.corruptSources.add(sourceUri);
+    }
+  }
+
+  /*
+   * Registered source URIs found corrupt
+   */
+  synchronized Set<String> getCorruptSources() {
+    return new HashSet<String>(this.corruptSources);
+  }
+
+  /*
+   * API calls(method) and injected errors(method:reason) so far
+   */
+  synchronized Map<String, Long> getApiCalls() {
+    return new TreeMap<String, Long>(this.apiCalls);
+  }
+
+  /*
+   * API calls of a simulated component so far
+   */
+  synchronized long getClientApiCalls(String client) {
+    return this.clientApiCalls.getOrDefault(client, 0L);
+  }
+
+  /*
+   * The Job as BQ reports it, without counting an API call, null for an unknown Job. The simulation
+   * reads the outcome of the Jobs the Monitor saw DONE with it
+   */
+  synchronized Job inspectJob(String projectId, String jobId) {
+    SimulatedJob simulatedJob = this.jobs.get(projectId + ":" + jobId);
+    return simulatedJob == null ? null : toJob(simulatedJob);
+  }
+
+  @Override
+  public LowLevelHttpRequest buildRequest(String method, String url) {
+    return new MockLowLevelHttpRequest(url) {
+      @Override
+      public LowLevelHttpResponse execute() throws IOException {
+        return handle(
+            method, new GenericUrl(url), getContentAsString(), getFirstHeaderValue(CLIENT_HEADER));
+      }
+    };
+  }
+
+  private synchronized MockLowLevelHttpResponse handle(
+      String method, GenericUrl url, String content, String client) throws IOException {
+    advance(LoaderClock.currentTimeMillis());
+    if (client != null) {
+      this.clientApiCalls.merge(client, 1L, Long::sum);
+    }
+    /*
+     * .../projects/{projectId}/jobs[/{jobId}]
+     */
+    List<String> pathParts = url.getPathParts();
+    int jobsIndex = pathParts.lastIndexOf("jobs");
+    if (jobsIndex > 1 && "projects".equals(pathParts.get(jobsIndex - 2))) {
+      String projectId = pathParts.get(jobsIndex - 1);
+      if ("POST".equals(method) && jobsIndex == pathParts.size() - 1) {
+        return insertJob(projectId, content);
+      }
+      if ("GET".equals(method) && jobsIndex == pathParts.size() - 1) {
+        return listJobs(projectId, url);
+      }
+      if ("GET".equals(method) && jobsIndex == pathParts.size() - 2) {
+        return getJob(projectId, pathParts.get(jobsIndex + 1));
+      }
+    }
+    return error(
+        400, "invalid", "Not supported by the fake BQ Job Service: " + method + " " + url.build());
+  }
+
+  private MockLowLevelHttpResponse insertJob(String projectId, String content) throws IOException {
+    countApiCall("jobs.insert");
+    if (this.random.nextDouble() < this.rateLimitErrorRate) {
+      return injectError(
+          "jobs.insert", 403, "rateLimitExceeded", "Exceeded rate limits: too many api requests");
+    }
+    if (this.random.nextDouble() < this.insertErrorRate) {
+      return injectError("jobs.insert", 500, "backendError", "Backend Error");
+    }
+    Job job = JSON_FACTORY.fromString(content, Job.class);
+    String jobId = job.getJobReference().getJobId();
+    if (this.jobs.containsKey(projectId + ":" + jobId)) {
+      return error(409, "duplicate", "Already Exists: Job " + projectId + ":" + jobId);
+    }
+    job.getJobReference().setProjectId(projectId);
+    SimulatedJob simulatedJob = new SimulatedJob(job, this.lastAdvanceMs);
+    this.jobs.put(projectId + ":" + jobId, simulatedJob);
+    this.pendingJobs.add(simulatedJob);
+    return ok(toJob(simulatedJob));
+  }
+
+  private MockLowLevelHttpResponse getJob(String projectId, String jobId) throws IOException {
+    countApiCall("jobs.get");
+    if (this.random.nextDouble() < this.getJobErrorRate) {
+      return injectError("jobs.get", 500, "backendError", "Backend Error");
+    }
+    SimulatedJob simulatedJob = this.jobs.get(projectId + ":" + jobId);
+    if (simulatedJob == null) {
+      return error(404, "notFound", "Not found: Job " + projectId + ":" + jobId);
+    }
+    return ok(toJob(simulatedJob));
+  }
+
+  private MockLowLevelHttpResponse listJobs(String projectId, GenericUrl url) throws IOException {
+    countApiCall("jobs.list");
+    if (this.random.nextDouble() < this.listJobsErrorRate) {
+      return injectError("jobs.list", 500, "backendError", "Backend Error");
+    }
+    List<String> stateFilter = new ArrayList<String>();
+    for (Object state : url.getAll("stateFilter")) {
+      stateFilter.add(state.toString().toUpperCase());
+    }
+    Object minCreationTime = url.getFirst("minCreationTime");
+    Object maxCreationTime = url.getFirst("maxCreationTime");
+    Object maxResults = url.getFirst("maxResults");
+    Object pageToken = url.getFirst("pageToken");
+    int pageSize = maxResults == null ? DEFAULT_PAGE_SIZE : Integer.parseInt(maxResults.toString());
+    int offset = pageToken == null ? 0 : Integer.parseInt(pageToken.toString());
+    /*
+     * Most recently created Jobs first, like BQ
+     */
+    List<SimulatedJob> matchingJobs = new ArrayList<SimulatedJob>();
+    for (SimulatedJob simulatedJob : this.jobs.values()) {
+      if (projectId.equals(simulatedJob.job.getJobReference().getProjectId())
+          && (stateFilter.isEmpty() || stateFilter.contains(simulatedJob.state))
+          && (minCreationTime == null
+              || simulatedJob.creationTimeMs >= Long.parseLong(minCreationTime.toString()))
+          && (maxCreationTime == null
+              || simulatedJob.creationTimeMs <= Long.parseLong(maxCreationTime.toString()))) {
+        matchingJobs.add(simulatedJob);
+      }
+    }
+    Collections.reverse(matchingJobs);
+    List<JobList.Jobs> page = new ArrayList<JobList.Jobs>();
+    for (SimulatedJob simulatedJob : matchingJobs.subList(
+        Math.min(offset, matchingJobs.size()), Math.min(offset + pageSize, matchingJobs.size()))) {
+      Job job = toJob(simulatedJob);
+      page.add(
+          new JobList.Jobs()
+              .setId(job.getId())
+              .setJobReference(job.getJobReference())
+              .setConfiguration(job.getConfiguration())
+              .setState(job.getStatus().getState())
+              .setStatus(job.getStatus())
+              .setStatistics(job.getStatistics())
+              .setErrorResult(job.getStatus().getErrorResult()));
+    }
+    JobList jobList = new JobList().setJobs(page);
+    if (offset + pageSize < matchingJobs.size()) {
+      jobList.setNextPageToken(String.valueOf(offset + pageSize));
+    }
+    return ok(jobList);
+  }
+
+  /*
+   * Starts and finishes the Jobs up to the given time, in the order of their events
+   */
+  private void advance(long nowMs) {
+    if (this.lastAdvanceMs == Long.MIN_VALUE) {
+      this.lastAdvanceMs = nowMs;
+    }
+    while (true) {
+      SimulatedJob finishingJob = null;
+      for (SimulatedJob runningJob : this.runningJobs) {
+        if (finishingJob == null || runningJob.endTimeMs < finishingJob.endTimeMs) {
+          finishingJob = runningJob;
+        }
+      }
+      SimulatedJob startingJob = null;
+      if (this.runningJobs.size() < this.maxRunningJobs) {
+        for (SimulatedJob pendingJob : this.pendingJobs) {
+          if (startingJob == null || pendingJob.eligibleStartTimeMs < startingJob.eligibleStartTimeMs) {
+            startingJob = pendingJob;
+          }
+        }
+      }
+      long finishTimeMs = finishingJob == null ? Long.MAX_VALUE : finishingJob.endTimeMs;
+      long startTimeMs =
+          startingJob == null
+              ? Long.MAX_VALUE
+              : Math.max(startingJob.eligibleStartTimeMs, this.lastAdvanceMs);
+      if (Math.min(finishTimeMs, startTimeMs) > nowMs) {
+        break;
+      }
+      if (finishTimeMs <= startTimeMs) {
+        this.runningJobs.remove(finishingJob);
+        finishingJob.state = DONE;
+        this.lastAdvanceMs = finishTimeMs;
+      } else {
+        this.pendingJobs.remove(startingJob);
+        startingJob.state = RUNNING;
+        startingJob.startTimeMs = startTimeMs;
+        startingJob.endTimeMs = startTimeMs + startingJob.runTimeMs;
+        this.runningJobs.add(startingJob);
+        this.lastAdvanceMs = startTimeMs;
+      }
+    }
+    this.lastAdvanceMs = Math.max(this.lastAdvanceMs, nowMs);
+  }
+
+  /*
+   * BQ reason code of a failed Job, by the weights of the jobFailureReasons
+   */
+  private String sampleFailureReason() {
+    if (this.jobFailureReasons.size() == 1) {
+      return this.jobFailureReasons.get(0);
+    }
+    double sample =
+        this.random.nextDouble()
+            * this.jobFailureReasonWeights.get(this.jobFailureReasonWeights.size() - 1);
+    for (int i = 0; i < this.jobFailureReasons.size(); i++) {
+      if (sample < this.jobFailureReasonWeights.get(i)) {
+        return this.jobFailureReasons.get(i);
+      }
+    }
+    return this.jobFailureReasons.get(this.jobFailureReasons.size() - 1);
+  }
+
+  private Job toJob(SimulatedJob simulatedJob) {
+    JobStatistics jobStatistics =
+        new JobStatistics().setCreationTime(simulatedJob.creationTimeMs);
+    JobStatus jobStatus = new JobStatus().setState(simulatedJob.state);
+    if (!PENDING.equals(simulatedJob.state)) {
+      jobStatistics.setStartTime(simulatedJob.startTimeMs);
+    }
+    if (DONE.equals(simulatedJob.state)) {
+      jobStatistics.setEndTime(simulatedJob.endTimeMs);
+      if (simulatedJob.corruptSourceUri != null) {
+        /*
+         * As BQ reports an unreadable source file: the file as the location of the error, or only
+         * the position in the file
+         */
+        ErrorProto errorResult = new ErrorProto().setReason("invalid");
+        if (this.corruptSourceNamedInErrors) {
+          errorResult
+              .setLocation(simulatedJob.corruptSourceUri)
+              .setMessage(
+                  "Error while reading data, error message: The Apache Avro library failed to read data with the following error: Invalid sync! File: "
+                      + simulatedJob.corruptSourceUri);
+        } else {
+          errorResult
+              .setLocation("offset 0")
+              .setMessage("Error while reading data, error message: Invalid sync!");
+        }
+        jobStatus.setErrorResult(errorResult).setErrors(Collections.singletonList(errorResult));
+      } else if (simulatedJob.failed) {
+        ErrorProto errorResult =
+            new ErrorProto()
+                .setReason(simulatedJob.failureReason)
+                .setMessage("Simulated Load Job failure");
+        jobStatus.setErrorResult(errorResult).setErrors(Collections.singletonList(errorResult));
+      }
+    }
+    Job job = simulatedJob.job;
+    return new Job()
+        .setKind("bigquery#job")
+        .setId(job.getJobReference().getProjectId() + ":" + job.getJobReference().getJobId())
+        .setJobReference(job.getJobReference())
+        .setConfiguration(job.getConfiguration())
+        .setStatistics(jobStatistics)
+        .setStatus(jobStatus);
+  }
+
+  private void countApiCall(String apiCall) {
+    this.apiCalls.merge(apiCall, 1L, Long::sum);
+  }
+
+  private MockLowLevelHttpResponse injectError(
+      String apiCall, int code, String reason, String message) throws IOException {
+    countApiCall(apiCall + ":" + reason);
+    return error(code, reason, message);
+  }
+
+  private static MockLowLevelHttpResponse ok(Object content) throws IOException {
+    return new MockLowLevelHttpResponse()
+        .setStatusCode(200)
+        .setContentType("application/json; charset=UTF-8")
+        .setContent(JSON_FACTORY.toString(content));
+  }
+
+  private static MockLowLevelHttpResponse error(int code, String reason, String message)
+      throws IOException {
+    GoogleJsonError.ErrorInfo errorInfo = new GoogleJsonError.ErrorInfo();
+    errorInfo.setDomain("global");
+    errorInfo.setReason(reason);
+    errorInfo.setMessage(message);
+    GoogleJsonError googleJsonError = new GoogleJsonError();
+    googleJsonError.setCode(code);
+    googleJsonError.setMessage(message);
+    googleJsonError.setErrors(Collections.singletonList(errorInfo));
+    Map<String, Object> content = new HashMap<String, Object>();
+    content.put("error", googleJsonError);
+    return new MockLowLevelHttpResponse()
+        .setStatusCode(code)
+        .setReasonPhrase(reason)
+        .setContentType("application/json; charset=UTF-8")
+        .setContent(JSON_FACTORY.toString(content));
+  }
+
+  private class SimulatedJob {
+    private final Job job;
+    private final long creationTimeMs;
+    private final long eligibleStartTimeMs;
+    private final long runTimeMs;
+    private final boolean failed;
+    private final String failureReason;
+    private final String corruptSourceUri;
+    private String state = PENDING;
+    private long startTimeMs;
+    private long endTimeMs;
+
+    SimulatedJob(Job job, long creationTimeMs) {
+      this.job = job;
+      this.creationTimeMs = creationTimeMs;
+      this.eligibleStartTimeMs = creationTimeMs + pendingDelay.sample(random);
+      long bytes = 0L;
+      String corruptSourceUri = null;
+      if (job.getConfiguration().getLoad() != null
+          && job.getConfiguration().getLoad().getSourceUris() != null) {
+        for (String sourceUri : job.getConfiguration().getLoad().getSourceUris()) {
+          bytes += sourceBytes.getOrDefault(sourceUri, 0L);
+          if (corruptSourceUri == null && corruptSources.contains(sourceUri)) {
+            corruptSourceUri = sourceUri;
+          }
+        }
+      }
+      this.corruptSourceUri = corruptSourceUri;
+      this.runTimeMs =
+          runTime.sample(random) + Math.round(bytes / (1024.0 * 1024.0 * 1024.0) * runTimeMsPerGB);
+      this.failed = random.nextDouble() < jobFailureRate;
+      this.failureReason = this.failed ? sampleFailureReason() : null;
+    }
+  }
+
+  /*
+   * Duration in ms sampled from fixed:<ms>, uniform:<min ms>,<max ms>, exponential:<mean ms> or
+   * lognormal:<median ms>,<sigma>
+   */
+  static class DurationDistribution {
+    private final String kind;
+    private final double first;
+    private final double second;
+
+    private DurationDistribution(String kind, double first, double second) {
+      this.kind = kind;
+      this.first = first;
+      this.second = second;
+    }
+
+    static DurationDistribution parse(String specification) {
+      String[] kindAndParameters = specification.trim().split(":", 2);
+      if (kindAndParameters.length != 2) {
+        throw new IllegalArgumentException("Invalid Duration Distribution " + specification);
+      }
+      String[] parameters = kindAndParameters[1].split(",");
+      String kind = kindAndParameters[0].trim().toLowerCase();
+      int expectedParameters = "uniform".equals(kind) || "lognormal".equals(kind) ? 2 : 1;
+      if (parameters.length != expectedParameters
+          || !Arrays.asList("fixed", "uniform", "exponential", "lognormal").contains(kind)) {
+        throw new IllegalArgumentException("Invalid Duration Distribution " + specification);
+      }
+      return new DurationDistribution(
+          kind,
+          Double.parseDouble(parameters[0].trim()),
+          expectedParameters == 2 ? Double.parseDouble(parameters[1].trim()) : 0.0);
+    }
+
+    long sample(Random random) {
+      double durationMs;
+      switch (this.kind) {
+        case "uniform":
+          durationMs = this.first + random.nextDouble() * (this.second - this.first);
+          break;
+        case "exponential":
+          durationMs = -this.first * Math.log(1.0 - random.nextDouble());
+          break;
+        case "lognormal":
+          durationMs = this.first * Math.exp(this.second * random.nextGaussian());
+          break;
+        default:
+          durationMs = this.first;
+      }
+      return Math.max(0L, Math.round(durationMs));
+    }
+  }
+}
@@ -0,0 +1,1358 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.bigquery.model.ErrorProto;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.gson.Gson;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.state.BagState;
+import org.apache.beam.sdk.state.ReadableState;
+import org.apache.beam.sdk.state.TimeDomain;
+import org.apache.beam.sdk.state.Timer;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.windowing.BoundedWindow;
+import org.apache.beam.sdk.transforms.windowing.GlobalWindow;
+import org.apache.beam.sdk.transforms.windowing.PaneInfo;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollectionView;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.commons.lang3.ObjectUtils;
+import org.joda.time.Duration;
+import org.joda.time.Instant;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/*
+ * Discrete event simulation of the Loader and of the Jobs Monitor on a virtual clock. A
+ * recorded(or synthetic) stream of Load Requests is replayed through the real DoFns of the BQLoader
+ * and of the BQLoadJobsMonitor pipelines against a FakeBigQueryJobService, once per Scheduling
+ * Configuration, and the throughput, queueing latency and BQ API calls of every configuration are
+ * reported.
+ * The Keyed State and the Processing Time Timers of the DoFns are kept in memory, every element and
+ * every Timer firing is a Bundle of its own, and a PubSub round trip takes pubsubRoundTripMs. The
+ * blocking Monitor sleeps through its BackOff on the LoaderClock, so every one of its elements runs
+ * on a thread of its own, taking turns with the event loop.
+ * The Monitor publishes the Slot Release of every DONE Job, which tells the simulation the outcome
+ * of the Job. With a slotReleaseSubscription given, the Slot Release also reaches the Loader a
+ * PubSub round trip later.
+ */
+public class LoaderSimulator {
+
+  private static final Gson GSON = new Gson();
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  /*
+   * Received timestamp of the first synthetic Load Request(2020-01-01T00:00:00Z)
+   */
+  private static final long SYNTHETIC_EPOCH_MS = 1577836800000L;
+  /*
+   * Simulated component the BQ API calls of the Monitor are counted for
+   */
+  private static final String MONITOR_CLIENT = "BQLoadJobsMonitor";
+
+  public static void main(String[] args) throws IOException {
+    /*
+     * Loader Options without a default
+     */
+    Map<String, String> baselineArgs = new LinkedHashMap<String, String>();
+    baselineArgs.put("BQProject", "simulated-project");
+    baselineArgs.put("initialBackOffSeconds", "5");
+    baselineArgs.put("backOffExponential", "1.5");
+    baselineArgs.put("maxRetries", "5");
+    baselineArgs.put("concurrentLoadJobsThreshold", "100");
+    baselineArgs.put("maxLoadJobRetryCycles", "10000");
+    /*
+     * The simulated Bundles do not exist, and the fake BQ Job Service has no Tables
+     */
+    baselineArgs.put("preflightValidation", "false");
+    putArgs(baselineArgs, Arrays.asList(args));
+    SimulatorOptions baselineOptions = toOptions(baselineArgs);
+    List<RecordedLoadRequest> loadRequests = readLoadRequests(baselineOptions);
+
+    Map<String, SimulatorOptions> configurations = new LinkedHashMap<String, SimulatorOptions>();
+    if (baselineOptions.getConfigurationsFile() == null
+        || baselineOptions.getConfigurationsFile().get() == null) {
+      configurations.put("baseline", baselineOptions);
+    } else {
+      for (String line :
+          Files.readAllLines(
+              Paths.get(baselineOptions.getConfigurationsFile().get()), StandardCharsets.UTF_8)) {
+        if (line.trim().isEmpty() || line.trim().startsWith("#")) {
+          continue;
+        }
+        List<String> tokens = Arrays.asList(line.trim().split("\\s+"));
+        Map<String, String> configurationArgs = new LinkedHashMap<String, String>(baselineArgs);
+        putArgs(configurationArgs, tokens.subList(1, tokens.size()));
+        configurations.put(tokens.get(0), toOptions(configurationArgs));
+      }
+    }
+    try {
+      for (Map.Entry<String, SimulatorOptions> configuration : configurations.entrySet()) {
+        System.out.println(
+            new Simulation(configuration.getKey(), configuration.getValue(), loadRequests).run());
+      }
+    } finally {
+      LoaderClock.setClock(Clock.systemUTC(), Thread::sleep);
+    }
+  }
+
+  /*
+   * --name=value arguments, the later ones override the earlier ones
+   */
+  private static void putArgs(Map<String, String> namedArgs, List<String> args) {
+    for (String arg : args) {
+      if (!arg.startsWith("--")) {
+        throw new IllegalArgumentException("Expected --name=value but was " + arg);
+      }
+      String[] nameAndValue = arg.substring(2).split("=", 2);
+      namedArgs.put(nameAndValue[0], nameAndValue.length == 2 ? nameAndValue[1] : "true");
+    }
+  }
+
+  /*
+   * The Options go through the same JSON round trip as on the workers, so that the ValueProviders
+   * left to their defaults are accessible
+   */
+  private static SimulatorOptions toOptions(Map<String, String> namedArgs) throws IOException {
+    List<String> args = new ArrayList<String>();
+    for (Map.Entry<String, String> namedArg : namedArgs.entrySet()) {
+      args.add("--" + namedArg.getKey() + "=" + namedArg.getValue());
+    }
+    SimulatorOptions options =
+        PipelineOptionsFactory.fromArgs(args.toArray(new String[0])).as(SimulatorOptions.class);
+    return OBJECT_MAPPER
+        .readValue(OBJECT_MAPPER.writeValueAsString(options), PipelineOptions.class)
+        .as(SimulatorOptions.class);
+  }
+
+  /*
+   * Options of the Jobs Monitor from the monitor* Simulator Options. The Slot Releases are always
+   * published, they tell the simulation the outcome of every DONE Job
+   */
+  private static MonitorOptions toMonitorOptions(SimulatorOptions options) throws IOException {
+    Map<String, String> namedArgs = new LinkedHashMap<String, String>();
+    namedArgs.put("initialBackOffSeconds", String.valueOf(options.getMonitorInitialBackOffSeconds().get()));
+    namedArgs.put("backOffExponential", String.valueOf(options.getMonitorBackOffExponential().get()));
+    namedArgs.put("maxRetries", String.valueOf(options.getMonitorMaxRetries().get()));
+    namedArgs.put("maxLoadRequestJobFailures", String.valueOf(options.getMaxLoadRequestJobFailures().get()));
+    namedArgs.put("jobFailureHandling", options.getMonitorJobFailureHandling().get());
+    namedArgs.put("jobErrorClassifier", options.getMonitorJobErrorClassifier().get());
+    namedArgs.put(
+        "transientJobErrorBackOffSeconds",
+        String.valueOf(options.getMonitorTransientJobErrorBackOffSeconds().get()));
+    namedArgs.put(
+        "quotaJobErrorBackOffSeconds",
+        String.valueOf(options.getMonitorQuotaJobErrorBackOffSeconds().get()));
+    namedArgs.put(
+        "maxJobErrorBackOffSeconds",
+        String.valueOf(options.getMonitorMaxJobErrorBackOffSeconds().get()));
+    namedArgs.put("monitorMode", options.getMonitorMode().get());
+    namedArgs.put("monitorShards", String.valueOf(options.getMonitorShards().get()));
+    namedArgs.put("monitorPollSeconds", String.valueOf(options.getMonitorPollSeconds().get()));
+    namedArgs.put("monitorPollScheduling", options.getMonitorPollScheduling().get());
+    namedArgs.put("monitorMinPollSeconds", String.valueOf(options.getMonitorMinPollSeconds().get()));
+    namedArgs.put("slotReleaseTopic", "simulated-slot-releases");
+    namedArgs.put("spanSink", options.getSpanSink().get());
+    namedArgs.put("messageFormat", options.getMessageFormat().get());
+    List<String> args = new ArrayList<String>();
+    for (Map.Entry<String, String> namedArg : namedArgs.entrySet()) {
+      args.add("--" + namedArg.getKey() + "=" + namedArg.getValue());
+    }
+    MonitorOptions monitorOptions =
+        PipelineOptionsFactory.fromArgs(args.toArray(new String[0])).as(MonitorOptions.class);
+    return OBJECT_MAPPER
+        .readValue(OBJECT_MAPPER.writeValueAsString(monitorOptions), PipelineOptions.class)
+        .as(MonitorOptions.class);
+  }
+
+  private static List<RecordedLoadRequest> readLoadRequests(SimulatorOptions options)
+      throws IOException {
+    List<RecordedLoadRequest> loadRequests = new ArrayList<RecordedLoadRequest>();
+    long intervalMs = options.getLoadRequestIntervalMs().get();
+    if (options.getLoadRequestsFile() == null || options.getLoadRequestsFile().get() == null) {
+      int tables = options.getSyntheticTables().get();
+      String[] bundleSizesMB = options.getSyntheticBundleSizesMB().get().split(",");
+      int filesPerBundle = options.getSyntheticFilesPerBundle().get();
+      Random random = new Random(options.getSimulationSeed().get());
+      for (int i = 0; i < options.getSyntheticLoadRequests().get(); i++) {
+        LoadRequestPayload loadRequestPayload = new LoadRequestPayload();
+        loadRequestPayload.setBundleId("synthetic-bundle-" + i);
+        loadRequestPayload.setBundleDataset("simulated_dataset");
+        loadRequestPayload.setBundleTable("table_" + (i % tables));
+        loadRequestPayload.setBundlePrefixPath(
+            "gs://simulated-bucket/table_" + (i % tables) + "/bundle-" + i + "/*.avro");
+        loadRequestPayload.setBundleSize(
+            Long.parseLong(bundleSizesMB[random.nextInt(bundleSizesMB.length)].trim()) * 1024 * 1024);
+        loadRequestPayload.setBundleCount(1);
+        if (filesPerBundle > 0) {
+          List<String> bundleFiles = new ArrayList<String>();
+          for (int file = 0; file < filesPerBundle; file++) {
+            bundleFiles.add(
+                "gs://simulated-bucket/table_" + (i % tables) + "/bundle-" + i + "/file-" + file
+                    + ".avro");
+          }
+          loadRequestPayload.setBundleFiles(bundleFiles);
+          loadRequestPayload.setBundleCount(filesPerBundle);
+        }
+        loadRequestPayload.setBundleSchemaVersion("1");
+        loadRequestPayload.setBundleSchemaHash("simulated-schema");
+        LoadRequest loadRequest = new LoadRequest();
+        loadRequest.setLoadRequestPayload(loadRequestPayload);
+        loadRequest.setLoadRequestAttributes(new LoadRequestAttributes());
+        loadRequests.add(new RecordedLoadRequest(SYNTHETIC_EPOCH_MS + i * intervalMs, loadRequest));
+      }
+      return loadRequests;
+    }
+    long receivedTimestampMs = SYNTHETIC_EPOCH_MS;
+    for (String line :
+        Files.readAllLines(Paths.get(options.getLoadRequestsFile().get()), StandardCharsets.UTF_8)) {
+      if (line.trim().isEmpty()) {
+        continue;
+      }
+      String[] timestampAndLoadRequest = line.split("\t", 2);
+      String loadRequestJson;
+      if (timestampAndLoadRequest.length == 2) {
+        receivedTimestampMs = Long.parseLong(timestampAndLoadRequest[0].trim());
+        loadRequestJson = timestampAndLoadRequest[1];
+      } else {
+        receivedTimestampMs += loadRequests.isEmpty() ? 0L : intervalMs;
+        loadRequestJson = line;
+      }
+      LoadRequest loadRequest = GSON.fromJson(loadRequestJson, LoadRequest.class);
+      if (loadRequest.loadRequestAttributes == null) {
+        loadRequest.setLoadRequestAttributes(new LoadRequestAttributes());
+      }
+      if (loadRequest.loadRequestPayload.bundleId == null) {
+        loadRequest.loadRequestPayload.setBundleId("recorded-bundle-" + loadRequests.size());
+      }
+      loadRequests.add(new RecordedLoadRequest(receivedTimestampMs, loadRequest));
+    }
+    loadRequests.sort(Comparator.comparingLong(loadRequest -> loadRequest.receivedTimestampMs));
+    return loadRequests;
+  }
+
+  private static class RecordedLoadRequest {
+    private final long receivedTimestampMs;
+    private final LoadRequest loadRequest;
+
+    RecordedLoadRequest(long receivedTimestampMs, LoadRequest loadRequest) {
+      this.receivedTimestampMs = receivedTimestampMs;
+      this.loadRequest = loadRequest;
+    }
+  }
+
+  /*
+   * One Scheduling Configuration replayed from a fresh fake BQ Job Service
+   */
+  private static class Simulation {
+
+    private final String name;
+    private final SimulatorOptions options;
+    private final List<RecordedLoadRequest> loadRequests;
+    private final VirtualClock clock = new VirtualClock();
+    private final PriorityQueue<SimulationEvent> events =
+        new PriorityQueue<SimulationEvent>(
+            Comparator.comparingLong((SimulationEvent event) -> event.timeMs)
+                .thenComparingLong(event -> event.sequence));
+    private final TupleTag<PubsubMessage> submittedLoadJobs = new TupleTag<PubsubMessage>();
+    private final TupleTag<PubsubMessage> submittedForRetryLoadJobs = new TupleTag<PubsubMessage>();
+    private final TupleTag<String> failedSubmissionLoadJobs = new TupleTag<String>();
+    private final Map<String, CoalesceState> coalesceStates = new HashMap<String, CoalesceState>();
+    private final Map<String, QuotaState> quotaStates = new HashMap<String, QuotaState>();
+    private final Map<String, LoaderState> loaderStates = new HashMap<String, LoaderState>();
+    private final TupleTag<PubsubMessage> pushedBackForMonitoring = new TupleTag<PubsubMessage>();
+    private final TupleTag<PubsubMessage> pushedBackForRetryAfterJobFailure =
+        new TupleTag<PubsubMessage>();
+    private final TupleTag<String> failedLoadJobRequests = new TupleTag<String>();
+    private final TupleTag<PubsubMessage> releasedSlots = new TupleTag<PubsubMessage>();
+    private final Map<String, BatchedMonitorState> batchedMonitorStates =
+        new HashMap<String, BatchedMonitorState>();
+    private final Map<String, TimerMonitorState> timerMonitorStates =
+        new HashMap<String, TimerMonitorState>();
+    private final Map<String, DeferRetryState> deferRetryStates =
+        new HashMap<String, DeferRetryState>();
+    private final MonitorOptions monitorOptions;
+    private final long pubsubRoundTripMs;
+    /*
+     * jobId -> Loader Envelope of the submitted Jobs not seen DONE by the Monitor yet
+     */
+    private final Map<String, LoaderEnvelope> monitoredLoadJobs = new HashMap<String, LoaderEnvelope>();
+    /*
+     * Turns of the event loop and of the blocking Monitor threads, one runs at a time
+     */
+    private final Semaphore eventLoopTurn = new Semaphore(0);
+    private final ThreadLocal<Semaphore> monitorTurns = new ThreadLocal<Semaphore>();
+    private RuntimeException monitorFailure;
+    private long sequence = 0L;
+    private FakeBigQueryJobService fakeBigQueryJobService;
+    private RunningLoadJobsTracker runningLoadJobsTracker;
+    private KeyByDestinationTableDoFn keyByDestinationTableDoFn;
+    private KeyByQuotaTableDoFn keyByQuotaTableDoFn;
+    private LoadJobQuotaDoFn loadJobQuotaDoFn;
+    private CoalesceLoadRequestsDoFn coalesceLoadRequestsDoFn;
+    private KeyByPermitShardDoFn keyByPermitShardDoFn;
+    private KeySlotReleaseByPermitShardDoFn keySlotReleaseByPermitShardDoFn;
+    private BQLoaderDoFn bqLoaderDoFn;
+    private KeyByMonitorShardDoFn keyByMonitorShardDoFn;
+    private BatchedMonitorJobDoFn batchedMonitorJobDoFn;
+    private KeyByJobIdDoFn keyByJobIdDoFn;
+    private TimerMonitorJobDoFn timerMonitorJobDoFn;
+    private MonitorJobDoFn monitorJobDoFn;
+    private KeyByBundleIdDoFn keyByBundleIdDoFn;
+    private DeferRetryDoFn deferRetryDoFn;
+    /*
+     * bundleId -> received timestamp(ms) of the Load Requests
+     */
+    private final Map<String, Long> receivedTimestamps = new HashMap<String, Long>();
+    private final Set<String> submittedLoadRequests = new HashSet<String>();
+    private final Set<String> loadedLoadRequests = new HashSet<String>();
+    private final Set<String> deadLetteredLoadRequests = new HashSet<String>();
+    /*
+     * bundleId of a part of a bisected Load Request -> bundleId of the received Load Request, and
+     * received bundleId -> its parts not yet loaded or dead lettered
+     */
+    private final Map<String, String> rootBundleIds = new HashMap<String, String>();
+    private final Map<String, Integer> outstandingParts = new HashMap<String, Integer>();
+    private final Set<String> completedParts = new HashSet<String>();
+    private final Set<String> partlyDeadLetteredLoadRequests = new HashSet<String>();
+    private long loadedFileCount = 0L;
+    private long deadLetteredFileCount = 0L;
+    private long wastedLoadBytes = 0L;
+    /*
+     * BQ reason code -> failed Jobs
+     */
+    private final Map<String, Long> jobErrors = new TreeMap<String, Long>();
+    private final List<Long> queueingLatenciesMs = new ArrayList<Long>();
+    private final List<Long> endToEndLatenciesMs = new ArrayList<Long>();
+    private final List<Long> detectionDelaysMs = new ArrayList<Long>();
+    private long submittedLoadJobCount = 0L;
+    private long failedLoadJobCount = 0L;
+    private long submissionRetryCycles = 0L;
+    private long monitoringRetryCycles = 0L;
+    private long lastLoadedTimestampMs;
+
+    Simulation(String name, SimulatorOptions options, List<RecordedLoadRequest> loadRequests)
+        throws IOException {
+      this.name = name;
+      this.options = options;
+      this.loadRequests = loadRequests;
+      this.monitorOptions = toMonitorOptions(options);
+      this.pubsubRoundTripMs = options.getPubsubRoundTripMs().get();
+    }
+
+    String run() {
+      long startMs =
+          this.loadRequests.isEmpty()
+              ? SYNTHETIC_EPOCH_MS
+              : this.loadRequests.get(0).receivedTimestampMs;
+      this.clock.millis = startMs;
+      LoaderClock.setClock(this.clock, this::sleep);
+      LoadJobRunTimeModel.getInstance().reset();
+      /*
+       * The worker singletons of the Loader talk to the fake BQ Job Service
+       */
+      this.fakeBigQueryJobService = new FakeBigQueryJobService(this.options);
+      String projectId = this.options.getBQProject().get();
+      LoadJobSubmitter.register(
+          this.fakeBigQueryJobService.getBigQuery(projectId),
+          this.options.getMaxInFlightSubmissions().get());
+      this.runningLoadJobsTracker =
+          RunningLoadJobsTracker.register(
+              this.fakeBigQueryJobService.getBigquery(),
+              projectId,
+              AdaptiveConcurrencyThreshold.fromOptions(this.options));
+      MonitorBigQuery.register(
+          this.fakeBigQueryJobService.getBigQuery(projectId, MONITOR_CLIENT),
+          this.fakeBigQueryJobService.getBigquery(MONITOR_CLIENT));
+      this.keyByDestinationTableDoFn = new KeyByDestinationTableDoFn();
+      if (this.options.getCoalesceWindowSeconds().get() > 0
+          || this.options.getDailyLoadJobsPerTable().get() > 0) {
+        this.keyByQuotaTableDoFn = new KeyByQuotaTableDoFn();
+        this.loadJobQuotaDoFn = new LoadJobQuotaDoFn(this.options);
+        this.coalesceLoadRequestsDoFn = new CoalesceLoadRequestsDoFn();
+      }
+      this.keyByPermitShardDoFn =
+          new KeyByPermitShardDoFn(this.options.getAdmissionPermitShards().get());
+      if (!this.options.getSlotReleaseSubscription().get().isEmpty()) {
+        this.keySlotReleaseByPermitShardDoFn =
+            new KeySlotReleaseByPermitShardDoFn(this.options.getAdmissionPermitShards().get());
+      }
+      this.bqLoaderDoFn =
+          new BQLoaderDoFn(
+              this.options,
+              this.submittedLoadJobs,
+              this.submittedForRetryLoadJobs,
+              this.failedSubmissionLoadJobs);
+      this.bqLoaderDoFn.setup();
+      String monitorMode = this.monitorOptions.getMonitorMode().get();
+      if (monitorMode.equals("batched")) {
+        this.keyByMonitorShardDoFn =
+            new KeyByMonitorShardDoFn(this.monitorOptions.getMonitorShards().get());
+        this.batchedMonitorJobDoFn =
+            new BatchedMonitorJobDoFn(
+                this.monitorOptions,
+                this.pushedBackForRetryAfterJobFailure,
+                this.failedLoadJobRequests,
+                this.releasedSlots);
+      } else if (monitorMode.equals("timers")) {
+        this.keyByJobIdDoFn = new KeyByJobIdDoFn();
+        this.timerMonitorJobDoFn =
+            new TimerMonitorJobDoFn(
+                this.monitorOptions,
+                this.pushedBackForRetryAfterJobFailure,
+                this.failedLoadJobRequests,
+                this.releasedSlots);
+      } else if (monitorMode.equals("blocking")) {
+        this.monitorJobDoFn =
+            new MonitorJobDoFn(
+                this.monitorOptions,
+                this.pushedBackForMonitoring,
+                this.pushedBackForRetryAfterJobFailure,
+                this.failedLoadJobRequests,
+                this.releasedSlots);
+      } else {
+        throw new IllegalArgumentException(
+            "Unknown Monitor Mode " + monitorMode + ", expected blocking, batched or timers");
+      }
+      this.keyByBundleIdDoFn = new KeyByBundleIdDoFn();
+      this.deferRetryDoFn = new DeferRetryDoFn();
+
+      refreshRunningLoadJobs();
+      for (RecordedLoadRequest recordedLoadRequest : this.loadRequests) {
+        at(recordedLoadRequest.receivedTimestampMs, () -> receive(recordedLoadRequest.loadRequest));
+      }
+      long horizonMs =
+          startMs
+              + Duration.standardMinutes(this.options.getSimulationHorizonMinutes().get()).getMillis();
+      Set<String> bundleIds = new HashSet<String>();
+      for (RecordedLoadRequest recordedLoadRequest : this.loadRequests) {
+        bundleIds.add(recordedLoadRequest.loadRequest.loadRequestPayload.bundleId);
+      }
+      int loadRequestCount = bundleIds.size();
+      while (!this.events.isEmpty()
+          && this.loadedLoadRequests.size() + this.deadLetteredLoadRequests.size()
+              < loadRequestCount) {
+        SimulationEvent event = this.events.poll();
+        if (event.timeMs > horizonMs) {
+          break;
+        }
+        this.clock.millis = Math.max(this.clock.millis, event.timeMs);
+        event.action.run();
+      }
+      return report(loadRequestCount, startMs);
+    }
+
+    private void at(long timeMs, Runnable action) {
+      this.events.add(new SimulationEvent(timeMs, this.sequence++, action));
+    }
+
+    private void after(long delayMs, Runnable action) {
+      at(this.clock.millis + delayMs, action);
+    }
+
+    private void refreshRunningLoadJobs() {
+      this.runningLoadJobsTracker.refreshQuietly();
+      after(
+          Duration.standardSeconds(this.options.getRunningLoadJobsRefreshSeconds().get()).getMillis(),
+          this::refreshRunningLoadJobs);
+    }
+
+    private void receive(LoadRequest loadRequest) {
+      this.receivedTimestamps.putIfAbsent(loadRequest.loadRequestPayload.bundleId, this.clock.millis);
+      if (loadRequest.loadRequestPayload.bundleSize != null) {
+        List<String> bundleFiles = loadRequest.loadRequestPayload.bundleFiles;
+        if (bundleFiles != null && !bundleFiles.isEmpty()) {
+          for (String bundleFile : bundleFiles) {
+            this.fakeBigQueryJobService.registerSource(
+                bundleFile, loadRequest.loadRequestPayload.bundleSize / bundleFiles.size());
+          }
+        } else {
+          this.fakeBigQueryJobService.registerSource(
+              loadRequest.loadRequestPayload.bundlePrefixPath,
+              loadRequest.loadRequestPayload.bundleSize);
+        }
+      }
+      publish(loadRequest);
+    }
+
+    private void publish(LoadRequest loadRequest) {
+      Map<String, String> loadRequestAttributesMap = new HashMap<String, String>();
+      loadRequestAttributesMap.put("uniqueMessageId", UUID.randomUUID().toString());
+      deliver(
+          new PubsubMessage(
+              LoaderMessageCodec.encodeLoadRequest(loadRequest), loadRequestAttributesMap));
+    }
+
+    /*
+     * Consume Load Requests -> Key by Destination Table -> [Key by Quota Table -> Budget the Load
+     * Job Quota -> Coalesce] -> Key by Permit Shard -> Submit BQ Load Jobs
+     */
+    private void deliver(PubsubMessage pubsubMessage) {
+      this.keyByDestinationTableDoFn.processElement(
+          processContext(this.keyByDestinationTableDoFn, pubsubMessage, this::keyByQuotaTable));
+    }
+
+    private void keyByQuotaTable(KV<String, PubsubMessage> loadRequest) {
+      if (this.coalesceLoadRequestsDoFn == null) {
+        keyByPermitShard(loadRequest);
+        return;
+      }
+      this.keyByQuotaTableDoFn.processElement(
+          processContext(this.keyByQuotaTableDoFn, loadRequest, this::budgetQuota));
+    }
+
+    private void budgetQuota(KV<String, PubsubMessage> loadRequest) {
+      QuotaState state =
+          this.quotaStates.computeIfAbsent(loadRequest.getKey(), key -> new QuotaState());
+      this.loadJobQuotaDoFn.processElement(
+          processContext(this.loadJobQuotaDoFn, loadRequest, this::coalesce),
+          state.quotaDay,
+          state.quotaJobsUsed,
+          state.windowEnds,
+          state.windowUris,
+          state.windowBytes);
+    }
+
+    private void coalesce(KV<String, PubsubMessage> loadRequest) {
+      CoalesceState state =
+          this.coalesceStates.computeIfAbsent(loadRequest.getKey(), key -> new CoalesceState());
+      this.coalesceLoadRequestsDoFn.processElement(
+          processContext(this.coalesceLoadRequestsDoFn, loadRequest, this::keyByPermitShard),
+          state.destination,
+          state.coalesceBuffer,
+          state.coalesceWindowId,
+          state.coalesceStartTimestamp,
+          state.coalesceWindow);
+    }
+
+    private void keyByPermitShard(KV<String, PubsubMessage> loadRequest) {
+      this.keyByPermitShardDoFn.processElement(
+          processContext(this.keyByPermitShardDoFn, loadRequest, this::submit));
+    }
+
+    private void submit(KV<String, PubsubMessage> loadRequest) {
+      LoaderState state =
+          this.loaderStates.computeIfAbsent(loadRequest.getKey(), key -> new LoaderState());
+      bundle(
+          () ->
+              this.bqLoaderDoFn.processElement(
+                  processContext(this.bqLoaderDoFn, loadRequest, output -> {}),
+                  GlobalWindow.INSTANCE,
+                  state.pendingLoadRequests,
+                  state.deferredAttempts,
+                  state.inFlightJobs,
+                  state.flowFinishTags,
+                  state.virtualTime,
+                  state.unconfirmedSubmissions,
+                  state.retrySubmission,
+                  state.slotReleased));
+    }
+
+    private void releaseSlot(PubsubMessage slotReleaseMessage) {
+      this.keySlotReleaseByPermitShardDoFn.processElement(
+          processContext(this.keySlotReleaseByPermitShardDoFn, slotReleaseMessage, this::submit));
+    }
+
+    private void bundle(Runnable bundle) {
+      this.bqLoaderDoFn.startBundle();
+      bundle.run();
+      try {
+        this.bqLoaderDoFn.finishBundle(finishBundleContext(this.bqLoaderDoFn));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while finishing a simulated Bundle", e);
+      }
+    }
+
+    private void output(TupleTag<?> tag, Object output) {
+      if (this.submittedLoadJobs.equals(tag)) {
+        PubsubMessage loaderEnvelopeMessage = (PubsubMessage) output;
+        recordSubmission(loaderEnvelopeMessage);
+        after(this.pubsubRoundTripMs, () -> monitor(loaderEnvelopeMessage));
+      } else if (this.submittedForRetryLoadJobs.equals(tag)) {
+        this.submissionRetryCycles++;
+        after(this.pubsubRoundTripMs, () -> deliver((PubsubMessage) output));
+      } else if (this.failedSubmissionLoadJobs.equals(tag)
+          || this.failedLoadJobRequests.equals(tag)) {
+        deadLetter(GSON.fromJson((String) output, LoadRequest.class));
+      } else if (this.pushedBackForMonitoring.equals(tag)) {
+        this.monitoringRetryCycles++;
+        after(this.pubsubRoundTripMs, () -> monitor((PubsubMessage) output));
+      } else if (this.pushedBackForRetryAfterJobFailure.equals(tag)) {
+        deferRetry((PubsubMessage) output);
+      } else if (this.releasedSlots.equals(tag)) {
+        completeLoadJob((PubsubMessage) output);
+      }
+    }
+
+    private void recordSubmission(PubsubMessage loaderEnvelopeMessage) {
+      LoaderEnvelope loaderEnvelope =
+          LoaderMessageCodec.decodeLoaderEnvelope(loaderEnvelopeMessage.getPayload());
+      this.submittedLoadJobCount++;
+      this.monitoredLoadJobs.put(loaderEnvelope.loaderEnvelopeAttributes.getJobId(), loaderEnvelope);
+      for (LoadRequest loadRequest : loaderEnvelope.getSubmittedLoadRequests()) {
+        String bundleId = getRootBundleId(loadRequest.loadRequestPayload.bundleId);
+        if (this.submittedLoadRequests.add(bundleId)) {
+          this.queueingLatenciesMs.add(this.clock.millis - this.receivedTimestamps.get(bundleId));
+        }
+      }
+    }
+
+    /*
+     * Consume BQ Load Jobs to be Monitored -> the Monitor of the Monitor Mode, as in LoadJobsMonitor
+     */
+    private void monitor(PubsubMessage loaderEnvelopeMessage) {
+      if (this.batchedMonitorJobDoFn != null) {
+        this.keyByMonitorShardDoFn.processElement(
+            processContext(
+                this.keyByMonitorShardDoFn, loaderEnvelopeMessage, this::monitorInBatches));
+      } else if (this.timerMonitorJobDoFn != null) {
+        this.keyByJobIdDoFn.processElement(
+            processContext(this.keyByJobIdDoFn, loaderEnvelopeMessage, this::monitorWithTimers));
+      } else {
+        monitorBlocking(loaderEnvelopeMessage);
+      }
+    }
+
+    private void monitorInBatches(KV<String, PubsubMessage> loaderEnvelope) {
+      BatchedMonitorState state =
+          this.batchedMonitorStates.computeIfAbsent(
+              loaderEnvelope.getKey(), key -> new BatchedMonitorState());
+      this.batchedMonitorJobDoFn.processElement(
+          processContext(this.batchedMonitorJobDoFn, loaderEnvelope, output -> {}),
+          state.monitoredJobs,
+          state.nextPoll,
+          state.pollJobs);
+    }
+
+    private void monitorWithTimers(KV<String, PubsubMessage> loaderEnvelope) {
+      TimerMonitorState state =
+          this.timerMonitorStates.computeIfAbsent(
+              loaderEnvelope.getKey(), key -> new TimerMonitorState());
+      this.timerMonitorJobDoFn.processElement(
+          processContext(this.timerMonitorJobDoFn, loaderEnvelope, output -> {}),
+          state.loaderEnvelope,
+          state.monitoredSince,
+          state.checks,
+          state.completed,
+          state.checkJob);
+    }
+
+    /*
+     * MonitorJobDoFn blocks its thread through the BackOff, so every element runs on a thread of
+     * its own. The event loop and the Monitor threads take turns: a Monitor thread runs until it
+     * sleeps on the LoaderClock or finishes, while the event loop waits
+     */
+    private void monitorBlocking(PubsubMessage loaderEnvelopeMessage) {
+      Semaphore monitorTurn = new Semaphore(0);
+      Thread monitorThread =
+          new Thread(
+              () -> {
+                this.monitorTurns.set(monitorTurn);
+                monitorTurn.acquireUninterruptibly();
+                try {
+                  this.monitorJobDoFn.processElement(
+                      processContext(this.monitorJobDoFn, loaderEnvelopeMessage, output -> {}));
+                } catch (BigQueryException e) {
+                  /*
+                   * The Monitor Bundle fails and PubSub redelivers the Loader Envelope
+                   */
+                  this.monitoringRetryCycles++;
+                  after(this.pubsubRoundTripMs, () -> monitor(loaderEnvelopeMessage));
+                } catch (RuntimeException e) {
+                  this.monitorFailure = e;
+                } finally {
+                  this.eventLoopTurn.release();
+                }
+              },
+              "simulated-monitor-" + this.name);
+      monitorThread.setDaemon(true);
+      monitorThread.start();
+      resume(monitorTurn);
+    }
+
+    /*
+     * Hands the turn to a Monitor thread, and waits for it to sleep or finish
+     */
+    private void resume(Semaphore monitorTurn) {
+      monitorTurn.release();
+      this.eventLoopTurn.acquireUninterruptibly();
+      if (this.monitorFailure != null) {
+        RuntimeException monitorFailure = this.monitorFailure;
+        this.monitorFailure = null;
+        throw monitorFailure;
+      }
+    }
+
+    /*
+     * LoaderClock sleep of a Monitor thread: it wakes up once the event loop reaches the end of the
+     * sleep on the virtual clock
+     */
+    private void sleep(long millis) {
+      Semaphore monitorTurn = this.monitorTurns.get();
+      if (monitorTurn == null) {
+        throw new IllegalStateException("Only the blocking Monitor sleeps on the simulated clock");
+      }
+      after(millis, () -> resume(monitorTurn));
+      this.eventLoopTurn.release();
+      monitorTurn.acquireUninterruptibly();
+    }
+
+    /*
+     * Key Retried BQ Load Requests by Bundle Id -> Defer them for their BackOff -> PubSub -> Loader
+     */
+    private void deferRetry(PubsubMessage loadRequestMessage) {
+      for (LoadRequest loadRequest :
+          LoaderMessageCodec.decodeLoadRequests(loadRequestMessage.getPayload())) {
+        getRootBundleId(loadRequest.loadRequestPayload.bundleId);
+      }
+      this.keyByBundleIdDoFn.processElement(
+          processContext(this.keyByBundleIdDoFn, loadRequestMessage, this::holdRetry));
+    }
+
+    private void holdRetry(KV<String, PubsubMessage> loadRequest) {
+      DeferRetryState state =
+          this.deferRetryStates.computeIfAbsent(
+              loadRequest.getKey(), key -> new DeferRetryState());
+      this.deferRetryDoFn.processElement(
+          processContext(this.deferRetryDoFn, loadRequest, this::resubmit),
+          state.deferredRetries,
+          state.releaseAt,
+          state.release);
+    }
+
+    private void resubmit(PubsubMessage loadRequestMessage) {
+      after(this.pubsubRoundTripMs, () -> deliver(loadRequestMessage));
+    }
+
+    /*
+     * The Slot Release of a DONE Job tells the outcome of the Job, read back from the fake BQ Job
+     * Service. The Monitor outputs the Retries and the Dead Letters of a failed Job itself
+     */
+    private void completeLoadJob(PubsubMessage slotReleaseMessage) {
+      if (this.keySlotReleaseByPermitShardDoFn != null) {
+        after(this.pubsubRoundTripMs, () -> releaseSlot(slotReleaseMessage));
+      }
+      String jobId = slotReleaseMessage.getAttribute(SlotRelease.JOB_ID_ATTRIBUTE);
+      LoaderEnvelope loaderEnvelope = this.monitoredLoadJobs.remove(jobId);
+      if (loaderEnvelope == null) {
+        return;
+      }
+      com.google.api.services.bigquery.model.Job job =
+          this.fakeBigQueryJobService.inspectJob(this.options.getBQProject().get(), jobId);
+      this.detectionDelaysMs.add(Math.max(0L, this.clock.millis - job.getStatistics().getEndTime()));
+      ErrorProto error = job.getStatus().getErrorResult();
+      if (error == null) {
+        for (LoadRequest loadRequest : loaderEnvelope.getSubmittedLoadRequests()) {
+          complete(loadRequest, false);
+        }
+        return;
+      }
+      this.failedLoadJobCount++;
+      this.jobErrors.merge(ObjectUtils.firstNonNull(error.getReason(), "unknown"), 1L, Long::sum);
+      for (LoadRequest loadRequest : loaderEnvelope.getSubmittedLoadRequests()) {
+        if (loadRequest.loadRequestPayload.bundleSize != null) {
+          this.wastedLoadBytes += loadRequest.loadRequestPayload.bundleSize;
+        }
+      }
+    }
+
+    /*
+     * bundleId of the received Load Request a Load Request stems from. A part of a bisected Load
+     * Request(<bundleId of its parent>-part<index>) seen for the first time replaces its parent in
+     * the parts of the received Load Request outstanding
+     */
+    private String getRootBundleId(String bundleId) {
+      if (this.receivedTimestamps.containsKey(bundleId)) {
+        return bundleId;
+      }
+      String rootBundleId = this.rootBundleIds.get(bundleId);
+      if (rootBundleId != null) {
+        return rootBundleId;
+      }
+      int partIndex = bundleId.lastIndexOf("-part");
+      if (partIndex < 0) {
+        return bundleId;
+      }
+      String parentBundleId = bundleId.substring(0, partIndex);
+      rootBundleId = getRootBundleId(parentBundleId);
+      this.rootBundleIds.put(bundleId, rootBundleId);
+      int outstandingParts = this.outstandingParts.getOrDefault(rootBundleId, 1) + 1;
+      if (this.completedParts.add(parentBundleId)) {
+        outstandingParts--;
+      }
+      this.outstandingParts.put(rootBundleId, outstandingParts);
+      return rootBundleId;
+    }
+
+    private static int getFileCount(LoadRequest loadRequest) {
+      List<String> bundleFiles = loadRequest.loadRequestPayload.bundleFiles;
+      if (bundleFiles != null && !bundleFiles.isEmpty()) {
+        return bundleFiles.size();
+      }
+      return ObjectUtils.firstNonNull(loadRequest.loadRequestPayload.bundleCount, 1);
+    }
+
+    /*
+     * A received Load Request is loaded once all its parts are, and dead lettered once all its
+     * parts are loaded or dead lettered with at least one of them dead lettered
+     */
+    private void complete(LoadRequest loadRequest, boolean deadLettered) {
+      String rootBundleId = getRootBundleId(loadRequest.loadRequestPayload.bundleId);
+      if (!this.completedParts.add(loadRequest.loadRequestPayload.bundleId)) {
+        return;
+      }
+      if (deadLettered) {
+        this.deadLetteredFileCount += getFileCount(loadRequest);
+      } else {
+        this.loadedFileCount += getFileCount(loadRequest);
+      }
+      if (deadLettered) {
+        this.partlyDeadLetteredLoadRequests.add(rootBundleId);
+      }
+      int outstandingParts = this.outstandingParts.getOrDefault(rootBundleId, 1) - 1;
+      if (outstandingParts > 0) {
+        this.outstandingParts.put(rootBundleId, outstandingParts);
+        return;
+      }
+      this.outstandingParts.remove(rootBundleId);
+      if (this.partlyDeadLetteredLoadRequests.contains(rootBundleId)) {
+        this.deadLetteredLoadRequests.add(rootBundleId);
+      } else if (this.loadedLoadRequests.add(rootBundleId)) {
+        this.endToEndLatenciesMs.add(this.clock.millis - this.receivedTimestamps.get(rootBundleId));
+        this.lastLoadedTimestampMs = this.clock.millis;
+      }
+    }
+
+    private void deadLetter(LoadRequest loadRequest) {
+      complete(loadRequest, true);
+    }
+
+    private String report(int loadRequestCount, long startMs) {
+      double simulatedMinutes = (this.clock.millis - startMs) / 60000.0;
+      double loadingMinutes = (this.lastLoadedTimestampMs - startMs) / 60000.0;
+      StringBuilder report = new StringBuilder();
+      report.append("== ").append(this.name).append(" ==\n");
+      report.append(
+          String.format(
+              "Load Requests: %d received, %d loaded, %d dead lettered, %d outstanding%n",
+              loadRequestCount,
+              this.loadedLoadRequests.size(),
+              this.deadLetteredLoadRequests.size(),
+              loadRequestCount
+                  - this.loadedLoadRequests.size()
+                  - this.deadLetteredLoadRequests.size()));
+      report.append(
+          String.format(
+              "Load Jobs: %d submitted, %d failed%n",
+              this.submittedLoadJobCount, this.failedLoadJobCount));
+      report.append(
+          String.format(
+              "Files: %d loaded, %d dead lettered(%d corrupt), %.2f GB wasted on failed Load Jobs%n",
+              this.loadedFileCount,
+              this.deadLetteredFileCount,
+              this.fakeBigQueryJobService.getCorruptSources().size(),
+              this.wastedLoadBytes / (1024.0 * 1024.0 * 1024.0)));
+      report.append("Job Errors: ").append(this.jobErrors).append("\n");
+      report.append(
+          String.format(
+              "Throughput: %.2f Load Requests/min, %.1f simulated minutes%n",
+              loadingMinutes > 0 ? this.loadedLoadRequests.size() / loadingMinutes : 0.0,
+              simulatedMinutes));
+      report.append(
+          "Queueing Latency(received to Load Job created): "
+              + describeLatencies(this.queueingLatenciesMs)
+              + "\n");
+      report.append(
+          "End to End Latency(received to loaded): "
+              + describeLatencies(this.endToEndLatenciesMs)
+              + "\n");
+      report.append(
+          String.format(
+              "PubSub Retry Cycles: %d submission, %d monitoring%n",
+              this.submissionRetryCycles, this.monitoringRetryCycles));
+      report.append(
+          String.format(
+              "Monitor BQ API Calls per Job: %s%n",
+              this.submittedLoadJobCount == 0
+                  ? "n/a"
+                  : String.format(
+                      "%.2f",
+                      this.fakeBigQueryJobService.getClientApiCalls(MONITOR_CLIENT)
+                          / (double) this.submittedLoadJobCount)));
+      report.append(
+          "Detection Delay(DONE in BQ to seen DONE by the Monitor): "
+              + describeLatencies(this.detectionDelaysMs)
+              + "\n");
+      report.append("BQ API Calls: ").append(this.fakeBigQueryJobService.getApiCalls());
+      return report.toString();
+    }
+
+    private static String describeLatencies(List<Long> latenciesMs) {
+      if (latenciesMs.isEmpty()) {
+        return "n/a";
+      }
+      List<Long> sortedLatenciesMs = new ArrayList<Long>(latenciesMs);
+      Collections.sort(sortedLatenciesMs);
+      return String.format(
+          "p50 %.1fs, p95 %.1fs, p99 %.1fs, max %.1fs",
+          percentile(sortedLatenciesMs, 0.50) / 1000.0,
+          percentile(sortedLatenciesMs, 0.95) / 1000.0,
+          percentile(sortedLatenciesMs, 0.99) / 1000.0,
+          sortedLatenciesMs.get(sortedLatenciesMs.size() - 1) / 1000.0);
+    }
+
+    private static List<Long> sorted(List<Long> values) {
+      List<Long> sortedValues = new ArrayList<Long>(values);
+      Collections.sort(sortedValues);
+      return sortedValues;
+    }
+
+    private static long percentile(List<Long> sortedValues, double quantile) {
+      int index = (int) Math.ceil(quantile * sortedValues.size()) - 1;
+      return sortedValues.get(Math.max(0, index));
+    }
+
+    private <InputT, OutputT> DoFn<InputT, OutputT>.ProcessContext processContext(
+        DoFn<InputT, OutputT> doFn, InputT element, Consumer<OutputT> mainOutput) {
+      return doFn.new ProcessContext() {
+        @Override
+        public PipelineOptions getPipelineOptions() {
+          return options;
+        }
+
+        @Override
+        public void output(OutputT output) {
+          mainOutput.accept(output);
+        }
+
+        @Override
+        public void outputWithTimestamp(OutputT output, Instant timestamp) {
+          mainOutput.accept(output);
+        }
+
+        @Override
+        public <T> void output(TupleTag<T> tag, T output) {
+          Simulation.this.output(tag, output);
+        }
+
+        @Override
+        public <T> void outputWithTimestamp(TupleTag<T> tag, T output, Instant timestamp) {
+          Simulation.this.output(tag, output);
+        }
+
+        @Override
+        public InputT element() {
+          return element;
+        }
+
+        @Override
+        public <T> T sideInput(PCollectionView<T> view) {
+          throw new IllegalArgumentException(
+              "The simulated pipeline has no Side Inputs, calling sideInput() with unknown view "
+                  + view);
+        }
+
+        @Override
+        public Instant timestamp() {
+          return new Instant(clock.millis);
+        }
+
+        @Override
+        public PaneInfo pane() {
+          return PaneInfo.NO_FIRING;
+        }
+
+        @Override
+        public void updateWatermark(Instant watermark) {
+          /*
+           * The simulated pipeline runs on Processing Time alone, there is no Watermark to hold
+           */
+        }
+      };
+    }
+
+    private <InputT, OutputT> DoFn<InputT, OutputT>.OnTimerContext onTimerContext(
+        DoFn<InputT, OutputT> doFn, Consumer<OutputT> mainOutput) {
+      return doFn.new OnTimerContext() {
+        @Override
+        public PipelineOptions getPipelineOptions() {
+          return options;
+        }
+
+        @Override
+        public void output(OutputT output) {
+          mainOutput.accept(output);
+        }
+
+        @Override
+        public void outputWithTimestamp(OutputT output, Instant timestamp) {
+          mainOutput.accept(output);
+        }
+
+        @Override
+        public <T> void output(TupleTag<T> tag, T output) {
+          Simulation.this.output(tag, output);
+        }
+
+        @Override
+        public <T> void outputWithTimestamp(TupleTag<T> tag, T output, Instant timestamp) {
+          Simulation.this.output(tag, output);
+        }
+
+        @Override
+        public Instant timestamp() {
+          return new Instant(clock.millis);
+        }
+
+        @Override
+        public BoundedWindow window() {
+          return GlobalWindow.INSTANCE;
+        }
+
+        @Override
+        public TimeDomain timeDomain() {
+          return TimeDomain.PROCESSING_TIME;
+        }
+      };
+    }
+
+    private <InputT, OutputT> DoFn<InputT, OutputT>.FinishBundleContext finishBundleContext(
+        DoFn<InputT, OutputT> doFn) {
+      return doFn.new FinishBundleContext() {
+        @Override
+        public PipelineOptions getPipelineOptions() {
+          return options;
+        }
+
+        @Override
+        public void output(OutputT output, Instant timestamp, BoundedWindow window) {}
+
+        @Override
+        public <T> void output(TupleTag<T> tag, T output, Instant timestamp, BoundedWindow window) {
+          Simulation.this.output(tag, output);
+        }
+      };
+    }
+
+    /*
+     * Keyed State of LoadJobQuotaDoFn
+     */
+    private class QuotaState {
+      private final SimulatedValueState<Long> quotaDay = new SimulatedValueState<Long>();
+      private final SimulatedValueState<Integer> quotaJobsUsed =
+          new SimulatedValueState<Integer>();
+      private final SimulatedValueState<Map<String, Long>> windowEnds =
+          new SimulatedValueState<Map<String, Long>>();
+      private final SimulatedValueState<Map<String, Long>> windowUris =
+          new SimulatedValueState<Map<String, Long>>();
+      private final SimulatedValueState<Map<String, Long>> windowBytes =
+          new SimulatedValueState<Map<String, Long>>();
+    }
+
+    /*
+     * Keyed State of CoalesceLoadRequestsDoFn
+     */
+    private class CoalesceState {
+      private final SimulatedValueState<String> destination = new SimulatedValueState<String>();
+      private final SimulatedBagState<PubsubMessage> coalesceBuffer =
+          new SimulatedBagState<PubsubMessage>();
+      private final SimulatedValueState<String> coalesceWindowId = new SimulatedValueState<String>();
+      private final SimulatedValueState<Long> coalesceStartTimestamp =
+          new SimulatedValueState<Long>();
+      private final SimulatedTimer coalesceWindow =
+          new SimulatedTimer(
+              () ->
+                  coalesceLoadRequestsDoFn.onCoalesceWindow(
+                      onTimerContext(coalesceLoadRequestsDoFn, Simulation.this::keyByPermitShard),
+                      this.destination,
+                      this.coalesceBuffer,
+                      this.coalesceWindowId,
+                      this.coalesceStartTimestamp));
+    }
+
+    /*
+     * Keyed State of BatchedMonitorJobDoFn
+     */
+    private class BatchedMonitorState {
+      private final SimulatedBagState<PubsubMessage> monitoredJobs =
+          new SimulatedBagState<PubsubMessage>();
+      private final SimulatedValueState<Long> nextPoll = new SimulatedValueState<Long>();
+      private final SimulatedTimer pollJobs =
+          new SimulatedTimer(
+              () ->
+                  batchedMonitorJobDoFn.onPollJobs(
+                      onTimerContext(batchedMonitorJobDoFn, output -> {}),
+                      this.monitoredJobs,
+                      this.nextPoll,
+                      this.pollJobs));
+    }
+
+    /*
+     * Keyed State of TimerMonitorJobDoFn
+     */
+    private class TimerMonitorState {
+      private final SimulatedValueState<PubsubMessage> loaderEnvelope =
+          new SimulatedValueState<PubsubMessage>();
+      private final SimulatedValueState<Long> monitoredSince = new SimulatedValueState<Long>();
+      private final SimulatedValueState<Integer> checks = new SimulatedValueState<Integer>();
+      private final SimulatedValueState<Long> completed = new SimulatedValueState<Long>();
+      private final SimulatedTimer checkJob =
+          new SimulatedTimer(
+              () ->
+                  timerMonitorJobDoFn.onCheckJob(
+                      onTimerContext(timerMonitorJobDoFn, output -> {}),
+                      this.loaderEnvelope,
+                      this.monitoredSince,
+                      this.checks,
+                      this.completed,
+                      this.checkJob));
+    }
+
+    /*
+     * Keyed State of DeferRetryDoFn
+     */
+    private class DeferRetryState {
+      private final SimulatedBagState<PubsubMessage> deferredRetries =
+          new SimulatedBagState<PubsubMessage>();
+      private final SimulatedValueState<Long> releaseAt = new SimulatedValueState<Long>();
+      private final SimulatedTimer release =
+          new SimulatedTimer(
+              () ->
+                  deferRetryDoFn.onRelease(
+                      onTimerContext(deferRetryDoFn, Simulation.this::resubmit),
+                      this.deferredRetries,
+                      this.releaseAt,
+                      this.release));
+    }
+
+    /*
+     * Keyed State of BQLoaderDoFn
+     */
+    private class LoaderState {
+      private final SimulatedBagState<PubsubMessage> pendingLoadRequests =
+          new SimulatedBagState<PubsubMessage>();
+      private final SimulatedValueState<Integer> deferredAttempts =
+          new SimulatedValueState<Integer>();
+      private final SimulatedValueState<Map<String, Long>> inFlightJobs =
+          new SimulatedValueState<Map<String, Long>>();
+      private final SimulatedValueState<Map<String, Double>> flowFinishTags =
+          new SimulatedValueState<Map<String, Double>>();
+      private final SimulatedValueState<Double> virtualTime = new SimulatedValueState<Double>();
+      private final SimulatedValueState<Map<String, PubsubMessage>> unconfirmedSubmissions =
+          new SimulatedValueState<Map<String, PubsubMessage>>();
+      private final SimulatedTimer retrySubmission =
+          new SimulatedTimer(
+              () ->
+                  bundle(
+                      () ->
+                          bqLoaderDoFn.onRetrySubmission(
+                              onTimerContext(bqLoaderDoFn, output -> {}),
+                              this.pendingLoadRequests,
+                              this.deferredAttempts,
+                              this.inFlightJobs,
+                              this.flowFinishTags,
+                              this.virtualTime,
+                              this.unconfirmedSubmissions,
+                              this.retrySubmission)));
+      private final SimulatedTimer slotReleased =
+          new SimulatedTimer(
+              () ->
+                  bundle(
+                      () ->
+                          bqLoaderDoFn.onSlotReleased(
+                              onTimerContext(bqLoaderDoFn, output -> {}),
+                              this.pendingLoadRequests,
+                              this.deferredAttempts,
+                              this.inFlightJobs,
+                              this.flowFinishTags,
+                              this.virtualTime,
+                              this.unconfirmedSubmissions,
+                              this.retrySubmission)));
+    }
+
+    /*
+     * Processing Time Timer on the virtual clock. Setting it again replaces the earlier firing
+     */
+    private class SimulatedTimer implements Timer {
+      private final Runnable onTimer;
+      private Duration offset = Duration.ZERO;
+      private Duration period = Duration.ZERO;
+      private long generation = 0L;
+
+      SimulatedTimer(Runnable onTimer) {
+        this.onTimer = onTimer;
+      }
+
+      @Override
+      public void set(Instant target) {
+        schedule(target.getMillis());
+      }
+
+      @Override
+      public void setRelative() {
+        long targetMs = clock.millis + this.offset.getMillis();
+        if (this.period.getMillis() > 0) {
+          /*
+           * Up to the next multiple of the period, as the Beam runners align
+           */
+          long millisSinceStart = targetMs % this.period.getMillis();
+          targetMs =
+              millisSinceStart == 0
+                  ? clock.millis
+                  : clock.millis + this.period.getMillis() - millisSinceStart;
+        }
+        schedule(targetMs);
+      }
+
+      @Override
+      public Timer offset(Duration offset) {
+        this.offset = offset;
+        return this;
+      }
+
+      @Override
+      public Timer align(Duration period) {
+        this.period = period;
+        return this;
+      }
+
+      private void schedule(long timeMs) {
+        long scheduledGeneration = ++this.generation;
+        this.offset = Duration.ZERO;
+        this.period = Duration.ZERO;
+        at(
+            timeMs,
+            () -> {
+              if (this.generation == scheduledGeneration) {
+                this.onTimer.run();
+              }
+            });
+      }
+    }
+  }
+
+  private static class SimulationEvent {
+    private final long timeMs;
+    private final long sequence;
+    private final Runnable action;
+
+    SimulationEvent(long timeMs, long sequence, Runnable action) {
+      this.timeMs = timeMs;
+      this.sequence = sequence;
+      this.action = action;
+    }
+  }
+
+  private static class VirtualClock extends Clock {
+    private volatile long millis;
+
+    @Override
+    public ZoneId getZone() {
+      return ZoneOffset.UTC;
+    }
+
+    @Override
+    public Clock withZone(ZoneId zone) {
+      return this;
+    }
+
+    @Override
+    public long millis() {
+      return this.millis;
+    }
+
+    @Override
+    public java.time.Instant instant() {
+      return java.time.Instant.ofEpochMilli(this.millis);
+    }
+  }
+
+  private static class SimulatedValueState<T> implements ValueState<T> {
+    private T value;
+
+    @Override
+    public void write(T input) {
+      this.value = input;
+    }
+
+    @Override
+    public T read() {
+      return this.value;
+    }
+
+    @Override
+    public SimulatedValueState<T> readLater() {
+      return this;
+    }
+
+    @Override
+    public void clear() {
+      this.value = null;
+    }
+  }
+
+  private static class SimulatedBagState<T> implements BagState<T> {
+    private final List<T> values = new ArrayList<T>();
+
+    @Override
+    public void add(T value) {
+      this.values.add(value);
+    }
+
+    @Override
+    public Iterable<T> read() {
+      return new ArrayList<T>(this.values);
+    }
+
+    @Override
+    public ReadableState<Boolean> isEmpty() {
+      boolean empty = this.values.isEmpty();
+      return new ReadableState<Boolean>() {
+        @Override
+        public Boolean read() {
+          return empty;
+        }
+
+        @Override
+        public ReadableState<Boolean> readLater() {
+          return this;
+        }
+      };
+    }
+
+    @Override
+    public SimulatedBagState<T> readLater() {
+      return this;
+    }
+
+    @Override
+    public void clear() {
+      this.values.clear();
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package com.example;
+
+import org.apache.beam.sdk.options.Default;
+import org.apache.beam.sdk.options.Description;
+import org.apache.beam.sdk.options.ValueProvider;
+
+/*
+ * Options of LoaderSimulator. The Loader Options given on the command line are the baseline every
+ * Scheduling Configuration starts from
+ */
+public interface SimulatorOptions extends Options {
+
+  @Description(
+      "Recorded Load Requests to replay, one per line as <received timestamp ms><TAB><Load Request JSON>, or as the Load Request JSON alone(received every loadRequestIntervalMs). Synthetic Load Requests are replayed when not given")
+  ValueProvider<String> getLoadRequestsFile();
+
+  void setLoadRequestsFile(ValueProvider<String> value);
+
+  @Description("Number of synthetic Load Requests when no Load Requests File is given. Defaults to 1000")
+  @Default.Integer(1000)
+  ValueProvider<Integer> getSyntheticLoadRequests();
+
+  void setSyntheticLoadRequests(ValueProvider<Integer> value);
+
+  @Description("Number of Destination Tables of the synthetic Load Requests. Defaults to 20")
+  @Default.Integer(20)
+  ValueProvider<Integer> getSyntheticTables();
+
+  void setSyntheticTables(ValueProvider<Integer> value);
+
+  @Description(
+      "Sizes in MB the synthetic Load Requests are sampled from, comma separated(for eg: 10,100,5000). Defaults to 100")
+  @Default.String("100")
+  ValueProvider<String> getSyntheticBundleSizesMB();
+
+  void setSyntheticBundleSizesMB(ValueProvider<String> value);
+
+  @Description(
+      "Files listed(as bundleFiles) by every synthetic Load Request, 0 for Load Requests loading their bundlePrefixPath. Defaults to 0")
+  @Default.Integer(0)
+  ValueProvider<Integer> getSyntheticFilesPerBundle();
+
+  void setSyntheticFilesPerBundle(ValueProvider<Integer> value);
+
+  @Description(
+      "Interval in ms between the Load Requests without a received timestamp. Defaults to 1000 ms")
+  @Default.Long(1000L)
+  ValueProvider<Long> getLoadRequestIntervalMs();
+
+  void setLoadRequestIntervalMs(ValueProvider<Long> value);
+
+  @Description(
+      "Scheduling Configurations to compare, one per line as <name> followed by the Loader Options overriding the baseline(for eg: aggressive --concurrentLoadJobsThreshold=200 --maxRetries=8). Only the baseline is simulated when not given")
+  ValueProvider<String> getConfigurationsFile();
+
+  void setConfigurationsFile(ValueProvider<String> value);
+
+  @Description(
+      "Simulated latency in ms of a PubSub round trip(publish to redelivery) of the Retry Cycles. Defaults to 2000 ms")
+  @Default.Long(2000L)
+  ValueProvider<Long> getPubsubRoundTripMs();
+
+  void setPubsubRoundTripMs(ValueProvider<Long> value);
+
+  @Description("Initial BackOff in Seconds of the simulated Jobs Monitor. Defaults to 5 seconds")
+  @Default.Integer(5)
+  ValueProvider<Integer> getMonitorInitialBackOffSeconds();
+
+  void setMonitorInitialBackOffSeconds(ValueProvider<Integer> value);
+
+  @Description("BackOff Exponential of the simulated Jobs Monitor. Defaults to 1.5")
+  @Default.Float(1.5f)
+  ValueProvider<Float> getMonitorBackOffExponential();
+
+  void setMonitorBackOffExponential(ValueProvider<Float> value);
+
+  @Description("Maximum Retries of the simulated Jobs Monitor per monitoring cycle. Defaults to 5")
+  @Default.Integer(5)
+  ValueProvider<Integer> getMonitorMaxRetries();
+
+  void setMonitorMaxRetries(ValueProvider<Integer> value);
+
+  @Description(
+      "Monitor Mode of the simulated Jobs Monitor: blocking(a jobs.get per BackOff step), batched(a jobs.list per Monitor Shard every monitorPollSeconds) or timers(a jobs.get per Job when its Timer fires). Defaults to blocking")
+  @Default.String("blocking")
+  ValueProvider<String> getMonitorMode();
+
+  void setMonitorMode(ValueProvider<String> value);
+
+  @Description("Monitor Shards of the simulated Jobs Monitor in the batched Monitor Mode. Defaults to 4")
+  @Default.Integer(4)
+  ValueProvider<Integer> getMonitorShards();
+
+  void setMonitorShards(ValueProvider<Integer> value);
+
+  @Description(
+      "Poll interval in seconds of the simulated Jobs Monitor in the batched Monitor Mode. Defaults to 10 seconds")
+  @Default.Integer(10)
+  ValueProvider<Integer> getMonitorPollSeconds();
+
+  void setMonitorPollSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "Poll Scheduling of the simulated Jobs Monitor in the batched and timers Monitor Modes: fixed or predictive. Defaults to fixed")
+  @Default.String("fixed")
+  ValueProvider<String> getMonitorPollScheduling();
+
+  void setMonitorPollScheduling(ValueProvider<String> value);
+
+  @Description(
+      "Minimum interval in seconds between two polls of a Monitor Shard of the simulated Jobs Monitor in the predictive Poll Scheduling. Defaults to 2 seconds")
+  @Default.Integer(2)
+  ValueProvider<Integer> getMonitorMinPollSeconds();
+
+  void setMonitorMinPollSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "Maximum Load Job Failures of a Load Request before the simulated Jobs Monitor dead letters it. Defaults to 3")
+  @Default.Integer(3)
+  ValueProvider<Integer> getMaxLoadRequestJobFailures();
+
+  void setMaxLoadRequestJobFailures(ValueProvider<Integer> value);
+
+  @Description(
+      "Handling of the Load Requests of a failed Job by the simulated Jobs Monitor: retry or bisect. Defaults to retry")
+  @Default.String("retry")
+  ValueProvider<String> getMonitorJobFailureHandling();
+
+  void setMonitorJobFailureHandling(ValueProvider<String> value);
+
+  @Description(
+      "Classifier of the BQ errors of the failed Jobs in the simulated Jobs Monitor: reasons, none or class:<LoadJobErrorClassifier class name>. Defaults to reasons")
+  @Default.String("reasons")
+  ValueProvider<String> getMonitorJobErrorClassifier();
+
+  void setMonitorJobErrorClassifier(ValueProvider<String> value);
+
+  @Description(
+      "BackOff in seconds of the simulated Jobs Monitor before the Retry of a Load Request failed by a transient BQ error. Defaults to 30 seconds")
+  @Default.Integer(30)
+  ValueProvider<Integer> getMonitorTransientJobErrorBackOffSeconds();
+
+  void setMonitorTransientJobErrorBackOffSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "BackOff in seconds of the simulated Jobs Monitor before the Retry of a Load Request failed by a BQ Quota error. Defaults to 300 seconds")
+  @Default.Integer(300)
+  ValueProvider<Integer> getMonitorQuotaJobErrorBackOffSeconds();
+
+  void setMonitorQuotaJobErrorBackOffSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "Maximum BackOff in seconds of the simulated Jobs Monitor before the Retry of a Load Request after a Job failure. Defaults to 3600 seconds")
+  @Default.Integer(3600)
+  ValueProvider<Integer> getMonitorMaxJobErrorBackOffSeconds();
+
+  void setMonitorMaxJobErrorBackOffSeconds(ValueProvider<Integer> value);
+
+  @Description(
+      "Maximum number of RUNNING Jobs of the fake BQ Job Service, the other Jobs wait PENDING. Defaults to 100")
+  @Default.Integer(100)
+  ValueProvider<Integer> getMaxRunningJobs();
+
+  void setMaxRunningJobs(ValueProvider<Integer> value);
+
+  @Description(
+      "Pending Delay of the fake BQ Jobs, as fixed:<ms>, uniform:<min ms>,<max ms>, exponential:<mean ms> or lognormal:<median ms>,<sigma>. Defaults to exponential:5000")
+  @Default.String("exponential:5000")
+  ValueProvider<String> getPendingDelayMs();
+
+  void setPendingDelayMs(ValueProvider<String> value);
+
+  @Description(
+      "Run Time of the fake BQ Jobs, in the same format as the Pending Delay. Defaults to lognormal:60000,0.5")
+  @Default.String("lognormal:60000,0.5")
+  ValueProvider<String> getRunTimeMs();
+
+  void setRunTimeMs(ValueProvider<String> value);
+
+  @Description(
+      "Run Time in ms added to the sampled Run Time of a fake BQ Job per GB of its source files. Defaults to 0")
+  @Default.Long(0L)
+  ValueProvider<Long> getRunTimeMsPerGB();
+
+  void setRunTimeMsPerGB(ValueProvider<Long> value);
+
+  @Description("Rate of jobs.insert calls failing with backendError. Defaults to 0")
+  @Default.Double(0.0)
+  ValueProvider<Double> getInsertErrorRate();
+
+  void setInsertErrorRate(ValueProvider<Double> value);
+
+  @Description("Rate of jobs.insert calls failing with rateLimitExceeded. Defaults to 0")
+  @Default.Double(0.0)
+  ValueProvider<Double> getRateLimitErrorRate();
+
+  void setRateLimitErrorRate(ValueProvider<Double> value);
+
+  @Description("Rate of jobs.get calls failing with backendError. Defaults to 0")
+  @Default.Double(0.0)
+  ValueProvider<Double> getGetJobErrorRate();
+
+  void setGetJobErrorRate(ValueProvider<Double> value);
+
+  @Description("Rate of jobs.list calls failing with backendError. Defaults to 0")
+  @Default.Double(0.0)
+  ValueProvider<Double> getListJobsErrorRate();
+
+  void setListJobsErrorRate(ValueProvider<Double> value);
+
+  @Description("Rate of the fake BQ Jobs ending DONE with an error. Defaults to 0")
+  @Default.Double(0.0)
+  ValueProvider<Double> getJobFailureRate();
+
+  void setJobFailureRate(ValueProvider<Double> value);
+
+  @Description(
+      "BQ reason codes of the fake BQ Jobs ending DONE with an error, with their weights, comma separated(for eg: backendError:6,quotaExceeded:2,invalid:2). Defaults to backendError")
+  @Default.String("backendError")
+  ValueProvider<String> getJobFailureReasons();
+
+  void setJobFailureReasons(ValueProvider<String> value);
+
+  @Description(
+      "Rate of the source files(or bundlePrefixPaths) of the fake BQ Jobs which are corrupt and fail every Job loading them. Defaults to 0")
+  @Default.Double(0.0)
+  ValueProvider<Double> getCorruptSourceRate();
+
+  void setCorruptSourceRate(ValueProvider<Double> value);
+
+  @Description(
+      "Whether the error of a fake BQ Job failed by a corrupt source names the source URI. Defaults to true")
+  @Default.Boolean(true)
+  ValueProvider<Boolean> getCorruptSourceNamedInErrors();
+
+  void setCorruptSourceNamedInErrors(ValueProvider<Boolean> value);
+
+  @Description("Seed of the fake BQ Job Service. Defaults to 1")
+  @Default.Long(1L)
+  ValueProvider<Long> getSimulationSeed();
+
+  void setSimulationSeed(ValueProvider<Long> value);
+
+  @Description(
+      "Simulated minutes after which a Scheduling Configuration is cut off, even with Load Requests outstanding. Defaults to 1440 minutes")
+  @Default.Integer(1440)
+  ValueProvider<Integer> getSimulationHorizonMinutes();
+
+  void setSimulationHorizonMinutes(ValueProvider<Integer> value);
+}
@@ -0,0 +1,409 @@
+package com.example;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.beam.runners.direct.DirectOptions;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessage;
+import org.apache.beam.sdk.io.gcp.pubsub.PubsubMessageWithAttributesCoder;
+import org.apache.beam.sdk.options.PipelineOptions;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.testing.TestStream;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.SerializableFunction;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.joda.time.Duration;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+class Testing {
+
+  private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+  private static final KvCoder<String, PubsubMessage> KEYED_MESSAGE_CODER =
+      KvCoder.of(StringUtf8Coder.of(), PubsubMessageWithAttributesCoder.of());
+  /*
+   * Output of the test Pipelines, by the id of the run
+   */
+  private static final Map<String, Queue<Long>> COLLECTED = new ConcurrentHashMap<String, Queue<Long>>();
+
+  /*
+   * The Options go through the same JSON round trip as on the workers, so that the ValueProviders
+   * left to their defaults are accessible
+   */
+  private static Options getOptions(String... args) throws IOException {
+    Options options = PipelineOptionsFactory.fromArgs(args).as(Options.class);
+    return OBJECT_MAPPER
+        .readValue(OBJECT_MAPPER.writeValueAsString(options), PipelineOptions.class)
+        .as(Options.class);
+  }
+
+  private static LoadRequest getLoadRequest(String bundleId, Integer jobFailures) {
+    LoadRequestAttributes attributes = new LoadRequestAttributes();
+    attributes.setRetryAttemptsAfterJobFailures(jobFailures);
+    LoadRequestPayload payload = new LoadRequestPayload();
+    payload.bundleId = bundleId;
+    payload.bundlePrefixPath = "gs://bucket/events/" + bundleId;
+    LoadRequest loadRequest = new LoadRequest();
+    loadRequest.setLoadRequestAttributes(attributes);
+    loadRequest.setLoadRequestPayload(payload);
+    return loadRequest;
+  }
+
+  private static KV<String, PubsubMessage> getLoadRequestMessage(String bundleId, long bundleSize) {
+    LoadRequest loadRequest = getLoadRequest(bundleId, null);
+    loadRequest.loadRequestPayload.bundleDataset = "dataset";
+    loadRequest.loadRequestPayload.bundleTable = "table";
+    loadRequest.loadRequestPayload.bundleSchemaHash = "schemaHash";
+    loadRequest.loadRequestPayload.bundleSize = bundleSize;
+    return KV.of(
+        "dataset.table",
+        new PubsubMessage(
+            LoaderMessageCodec.encodeLoadRequest(loadRequest), new HashMap<String, String>()));
+  }
+
+  private static class CollectDoFn extends DoFn<KV<String, PubsubMessage>, Void> {
+
+    private final String runId;
+    private final SerializableFunction<PubsubMessage, Long> measure;
+
+    CollectDoFn(String runId, SerializableFunction<PubsubMessage, Long> measure) {
+      this.runId = runId;
+      this.measure = measure;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      COLLECTED.get(this.runId).add(this.measure.apply(context.element().getValue()));
+    }
+  }
+
+  private static long getLoadRequestCount(PubsubMessage pubsubMessage) {
+    return CoalesceLoadRequestsDoFn.getLoadRequests(pubsubMessage).size();
+  }
+
+  /*
+   * Runs the Load Requests through the DoFns in a DirectRunner Pipeline, and returns the measure of
+   * every message coming out of the last one, in ascending order.
+   * The DoFns run on a single thread, so that every bundle goes to the same DoFn instance: the
+   * DirectRunner finds the State of a bundle by its StateSpec, which compares the Coders, and
+   * PubsubMessageWithAttributesCoder instances are not equal to each other
+   */
+  @SafeVarargs
+  private static List<Long> run(
+      TestStream<KV<String, PubsubMessage>> loadRequests,
+      SerializableFunction<PubsubMessage, Long> measure,
+      DoFn<KV<String, PubsubMessage>, KV<String, PubsubMessage>>... doFns) {
+    String runId = UUID.randomUUID().toString();
+    COLLECTED.put(runId, new ConcurrentLinkedQueue<Long>());
+    try {
+      DirectOptions options = PipelineOptionsFactory.as(DirectOptions.class);
+      options.setTargetParallelism(1);
+      Pipeline pipeline = Pipeline.create(options);
+      PCollection<KV<String, PubsubMessage>> messages = pipeline.apply(loadRequests);
+      for (DoFn<KV<String, PubsubMessage>, KV<String, PubsubMessage>> doFn : doFns) {
+        messages = messages.apply(ParDo.of(doFn)).setCoder(KEYED_MESSAGE_CODER);
+      }
+      messages.apply(ParDo.of(new CollectDoFn(runId, measure)));
+      pipeline.run().waitUntilFinish();
+      List<Long> collected = new ArrayList<Long>(COLLECTED.get(runId));
+      Collections.sort(collected);
+      return collected;
+    } finally {
+      COLLECTED.remove(runId);
+    }
+  }
+
+  /*
+   * Returns the number of Load Requests of every Load Job coming out of the coalescer
+   */
+  private static List<Long> coalesce(
+      Options options, TestStream<KV<String, PubsubMessage>> loadRequests) {
+    return run(
+        loadRequests,
+        Testing::getLoadRequestCount,
+        new LoadJobQuotaDoFn(options),
+        new CoalesceLoadRequestsDoFn());
+  }
+
+  @Test
+  void testLoadJobIdOfResubmittedLoadRequest() {
+    String jobId =
+        BQLoaderDoFn.getLoadJobId(Collections.singletonList(getLoadRequest("bundle-1", null)));
+    Assertions.assertEquals("bqloader_bundle-1_0", jobId);
+    Assertions.assertEquals(
+        jobId,
+        BQLoaderDoFn.getLoadJobId(Collections.singletonList(getLoadRequest("bundle-1", 0))));
+  }
+
+  @Test
+  void testLoadJobIdAfterJobFailure() {
+    Assertions.assertEquals(
+        "bqloader_bundle-1_2",
+        BQLoaderDoFn.getLoadJobId(Collections.singletonList(getLoadRequest("bundle-1", 2))));
+  }
+
+  @Test
+  void testLoadJobIdReplacesCharactersBQRejects() {
+    Assertions.assertEquals(
+        "bqloader_events_2019_10_18_bundle_1_0",
+        BQLoaderDoFn.getLoadJobId(
+            Collections.singletonList(getLoadRequest("events/2019.10.18:bundle 1", 0))));
+  }
+
+  @Test
+  void testLoadJobIdOfCoalescedLoadRequests() {
+    String jobId =
+        BQLoaderDoFn.getLoadJobId(
+            Arrays.asList(getLoadRequest("bundle-1", 0), getLoadRequest("bundle-2", 1)));
+    Assertions.assertTrue(jobId.matches("bqloader_coalesced_[0-9a-f]{64}"), jobId);
+    Assertions.assertEquals(
+        jobId,
+        BQLoaderDoFn.getLoadJobId(
+            Arrays.asList(getLoadRequest("bundle-2", 1), getLoadRequest("bundle-1", 0))));
+    Assertions.assertNotEquals(
+        jobId,
+        BQLoaderDoFn.getLoadJobId(
+            Arrays.asList(getLoadRequest("bundle-1", 1), getLoadRequest("bundle-2", 1))));
+  }
+
+  @Test
+  void testLoadJobIdWithoutBundleId() {
+    String jobId =
+        BQLoaderDoFn.getLoadJobId(
+            Arrays.asList(getLoadRequest("bundle-1", 0), getLoadRequest(null, 0)));
+    Assertions.assertTrue(jobId.startsWith("bqloader_"), jobId);
+    Assertions.assertNotEquals(
+        jobId,
+        BQLoaderDoFn.getLoadJobId(
+            Arrays.asList(getLoadRequest("bundle-1", 0), getLoadRequest(null, 0))));
+  }
+
+  @Test
+  void testLoadJobQuotaPacesWindows() throws IOException {
+    /*
+     * Noon, with half of the day left: the configured window while at least half of the Quota is
+     * left, the rest of the day spread over the remaining Quota after, and the rest of the day
+     * once the Quota is exhausted
+     */
+    long nowMs =
+        ZonedDateTime.of(2020, 1, 15, 12, 0, 0, 0, ZoneId.of("America/Los_Angeles"))
+            .toInstant()
+            .toEpochMilli();
+    Options options =
+        getOptions("--coalesceWindowSeconds=60", "--coalesceMaxUris=1", "--dailyLoadJobsPerTable=8");
+    TestStream.Builder<KV<String, PubsubMessage>> loadRequests =
+        TestStream.create(KEYED_MESSAGE_CODER);
+    for (int bundle = 0; bundle < 9; bundle++) {
+      loadRequests = loadRequests.addElements(getLoadRequestMessage("bundle-" + bundle, 1L));
+    }
+    LoaderClock.setClock(Clock.fixed(java.time.Instant.ofEpochMilli(nowMs), ZoneId.of("UTC")), Thread::sleep);
+    try {
+      long minuteMs = Duration.standardMinutes(1).getMillis();
+      long hourMs = Duration.standardHours(1).getMillis();
+      Assertions.assertEquals(
+          Arrays.asList(
+              minuteMs, minuteMs, minuteMs, minuteMs, minuteMs,
+              4 * hourMs, 6 * hourMs, 12 * hourMs, 12 * hourMs),
+          run(
+              loadRequests.advanceWatermarkToInfinity(),
+              pubsubMessage ->
+                  Long.parseLong(
+                          pubsubMessage.getAttribute(LoadJobQuotaDoFn.COALESCE_WINDOW_END_ATTRIBUTE))
+                      - nowMs,
+              new LoadJobQuotaDoFn(options)));
+    } finally {
+      LoaderClock.setClock(Clock.systemUTC(), Thread::sleep);
+    }
+  }
+
+  @Test
+  void testCoalesceWindowOpensWithAnyOfItsLoadRequests() throws IOException {
+    /*
+     * All the Load Requests of the window carry its end, so the one arriving first opens it
+     */
+    String windowEnd = String.valueOf(LoaderClock.currentTimeMillis() + 60000L);
+    TestStream.Builder<KV<String, PubsubMessage>> loadRequests =
+        TestStream.create(KEYED_MESSAGE_CODER);
+    for (int bundle = 0; bundle < 3; bundle++) {
+      KV<String, PubsubMessage> loadRequest = getLoadRequestMessage("bundle-" + bundle, 1L);
+      loadRequests =
+          loadRequests.addElements(
+              KV.of(
+                  "dataset.table#schemaHash",
+                  BQLoaderDoFn.withAttribute(
+                      loadRequest.getValue(),
+                      LoadJobQuotaDoFn.COALESCE_WINDOW_END_ATTRIBUTE,
+                      windowEnd)));
+    }
+    Assertions.assertEquals(
+        Collections.singletonList(3L),
+        run(
+            loadRequests
+                .advanceProcessingTime(Duration.standardSeconds(61))
+                .advanceWatermarkToInfinity(),
+            Testing::getLoadRequestCount,
+            new CoalesceLoadRequestsDoFn()));
+  }
+
+  @Test
+  void testCoalesceFlushesAtMaxUris() throws IOException {
+    Options options =
+        getOptions("--coalesceWindowSeconds=60", "--coalesceMaxUris=2", "--dailyLoadJobsPerTable=0");
+    TestStream<KV<String, PubsubMessage>> loadRequests =
+        TestStream.create(KEYED_MESSAGE_CODER)
+            .addElements(
+                getLoadRequestMessage("bundle-1", 1L),
+                getLoadRequestMessage("bundle-2", 1L),
+                getLoadRequestMessage("bundle-3", 1L))
+            .advanceProcessingTime(Duration.standardMinutes(2))
+            .advanceWatermarkToInfinity();
+    Assertions.assertEquals(Arrays.asList(1L, 2L), coalesce(options, loadRequests));
+  }
+
+  @Test
+  void testCoalesceFlushesAtMaxBytes() throws IOException {
+    Options options =
+        getOptions("--coalesceWindowSeconds=60", "--coalesceMaxBytes=100", "--dailyLoadJobsPerTable=0");
+    TestStream<KV<String, PubsubMessage>> loadRequests =
+        TestStream.create(KEYED_MESSAGE_CODER)
+            .addElements(
+                getLoadRequestMessage("bundle-1", 50L),
+                getLoadRequestMessage("bundle-2", 50L),
+                getLoadRequestMessage("bundle-3", 50L))
+            .advanceProcessingTime(Duration.standardMinutes(2))
+            .advanceWatermarkToInfinity();
+    Assertions.assertEquals(Arrays.asList(1L, 2L), coalesce(options, loadRequests));
+  }
+
+  @Test
+  void testCoalesceFlushesAtWindowEnd() throws IOException {
+    Options options = getOptions("--coalesceWindowSeconds=60", "--dailyLoadJobsPerTable=0");
+    TestStream<KV<String, PubsubMessage>> loadRequests =
+        TestStream.create(KEYED_MESSAGE_CODER)
+            .addElements(getLoadRequestMessage("bundle-1", 1L), getLoadRequestMessage("bundle-2", 1L))
+            .advanceProcessingTime(Duration.standardSeconds(30))
+            .addElements(getLoadRequestMessage("bundle-3", 1L))
+            .advanceProcessingTime(Duration.standardSeconds(31))
+            .advanceWatermarkToInfinity();
+    Assertions.assertEquals(Collections.singletonList(3L), coalesce(options, loadRequests));
+  }
+
+  @Test
+  void testShardPermitsAddUpToThreshold() {
+    for (int shards : new int[] {1, 3, 10, 16}) {
+      for (int threshold : new int[] {0, 1, 7, 10, 100}) {
+        int permits = 0;
+        for (int shard = 0; shard < shards; shard++) {
+          int shardPermits =
+              BQLoaderDoFn.getShardPermits(
+                  KeyByPermitShardDoFn.PERMIT_SHARD_PREFIX + shard, threshold, shards);
+          Assertions.assertTrue(
+              shardPermits == threshold / shards || shardPermits == threshold / shards + 1);
+          permits += shardPermits;
+        }
+        Assertions.assertEquals(threshold, permits, shards + " Shards");
+      }
+    }
+  }
+
+  @Test
+  void testFairLoadRequestSchedulerWeightsFlows() {
+    FairLoadRequestScheduler scheduler =
+        new FairLoadRequestScheduler("CRITICAL:16,STANDARD:4,BATCH:1", "events:BATCH");
+    LoadRequest batchLoadRequest = getLoadRequest("bundle-1", null);
+    batchLoadRequest.loadRequestPayload.bundleDataset = "events";
+    Assertions.assertEquals("BATCH", scheduler.getPriorityClass(batchLoadRequest));
+    Assertions.assertEquals(
+        FairLoadRequestScheduler.DEFAULT_PRIORITY_CLASS,
+        scheduler.getPriorityClass(getLoadRequest("bundle-2", null)));
+    /*
+     * A BATCH table enqueues its backlog first, the CRITICAL table still gets 16 Load Jobs
+     * dispatched for every one of the BATCH table
+     */
+    Map<String, Double> flowFinishTags = new HashMap<String, Double>();
+    List<KV<Double, String>> finishTags = new ArrayList<KV<Double, String>>();
+    for (int loadRequest = 0; loadRequest < 100; loadRequest++) {
+      finishTags.add(
+          KV.of(scheduler.enqueue(flowFinishTags, 0.0, "events.batch", "BATCH"), "BATCH"));
+    }
+    for (int loadRequest = 0; loadRequest < 100; loadRequest++) {
+      finishTags.add(
+          KV.of(scheduler.enqueue(flowFinishTags, 0.0, "sales.critical", "CRITICAL"), "CRITICAL"));
+    }
+    finishTags.sort((first, second) -> Double.compare(first.getKey(), second.getKey()));
+    int batchDispatched = 0;
+    double virtualTime = 0.0;
+    for (KV<Double, String> finishTag : finishTags.subList(0, 34)) {
+      if ("BATCH".equals(finishTag.getValue())) {
+        batchDispatched++;
+      }
+      virtualTime = scheduler.dispatch(virtualTime, finishTag.getKey(), finishTag.getValue());
+    }
+    Assertions.assertEquals(2, batchDispatched);
+    /*
+     * A table idle so far starts at the current virtual time, without credit for the idle time
+     */
+    Assertions.assertEquals(
+        virtualTime + 0.25,
+        scheduler.enqueue(flowFinishTags, virtualTime, "ads.standard", "STANDARD"));
+    flowFinishTags.put("logs.standard", virtualTime);
+    FairLoadRequestScheduler.pruneIdleFlows(flowFinishTags, virtualTime);
+    Assertions.assertEquals(
+        new HashSet<String>(Arrays.asList("events.batch", "sales.critical", "ads.standard")),
+        flowFinishTags.keySet());
+  }
+
+  @Test
+  void testAdaptiveConcurrencyThresholdSteps() {
+    AdaptiveConcurrencyThreshold threshold =
+        new AdaptiveConcurrencyThreshold(10, 2, 1.0, 0.5, 60000L);
+    Assertions.assertEquals(10, threshold.getEffectiveThreshold());
+    /*
+     * Cut by the decrease factor above the target latency or after a rate limited Submission, down
+     * to the floor
+     */
+    threshold.update(60001L);
+    Assertions.assertEquals(5, threshold.getEffectiveThreshold());
+    threshold.recordRateLimitExceeded();
+    threshold.update(0L);
+    Assertions.assertEquals(2, threshold.getEffectiveThreshold());
+    threshold.update(120000L);
+    Assertions.assertEquals(2, threshold.getEffectiveThreshold());
+    /*
+     * A rate limited Submission counts once, then grows by the additive step up to the ceiling
+     */
+    threshold.update(60000L);
+    Assertions.assertEquals(3, threshold.getEffectiveThreshold());
+    for (int refresh = 0; refresh < 20; refresh++) {
+      threshold.update(0L);
+    }
+    Assertions.assertEquals(10, threshold.getEffectiveThreshold());
+    /*
+     * The floor is at least one Load Job
+     */
+    AdaptiveConcurrencyThreshold noFloorThreshold =
+        new AdaptiveConcurrencyThreshold(10, 0, 1.0, 0.1, 60000L);
+    noFloorThreshold.update(120000L);
+    noFloorThreshold.update(120000L);
+    Assertions.assertEquals(1, noFloorThreshold.getEffectiveThreshold());
+  }
+}
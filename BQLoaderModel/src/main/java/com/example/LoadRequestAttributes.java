@@ -9,7 +9,7 @@ import java.io.Serializable;
 import java.util.List;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
-@JsonPropertyOrder({"bundleCreatedTimestamp", "loadJobSubmissionAttempts", "retryAttemptsAfterJobFailures", "previousFailedJobIds"})
+@JsonPropertyOrder({"bundleCreatedTimestamp", "loadJobSubmissionAttempts", "retryAttemptsAfterJobFailures", "previousFailedJobIds", "priorityClass", "traceContext"})
 public class LoadRequestAttributes implements Serializable {
   @JsonProperty("bundleCreatedTimestamp")
   private Long bundleCreatedTimestamp;
@@ -23,6 +23,12 @@ public class LoadRequestAttributes implements Serializable {
   @JsonProperty("previousFailedJobIds")
   private List<String> previousFailedJobIds;
 
+  @JsonProperty("priorityClass")
+  private String priorityClass;
+
+  @JsonProperty("traceContext")
+  private String traceContext;
+
   public Long getBundleCreatedTimestamp() {
     return bundleCreatedTimestamp;
   }
@@ -55,6 +61,22 @@ public class LoadRequestAttributes implements Serializable {
     this.previousFailedJobIds = previousFailedJobIds;
   }
 
+  public String getPriorityClass() {
+    return priorityClass;
+  }
+
+  public void setPriorityClass(String priorityClass) {
+    this.priorityClass = priorityClass;
+  }
+
+  public String getTraceContext() {
+    return traceContext;
+  }
+
+  public void setTraceContext(String traceContext) {
+    this.traceContext = traceContext;
+  }
+
   @Override public boolean equals(Object o) {
     if (this == o)
       return true;
@@ -63,17 +85,21 @@ public class LoadRequestAttributes implements Serializable {
     LoadRequestAttributes that = (LoadRequestAttributes) o;
     return Objects.equal(getBundleCreatedTimestamp(), that.getBundleCreatedTimestamp()) && Objects
         .equal(getLoadJobSubmissionAttempts(), that.getLoadJobSubmissionAttempts()) && Objects
-        .equal(getRetryAttemptsAfterJobFailures(), that.getRetryAttemptsAfterJobFailures());
+        .equal(getRetryAttemptsAfterJobFailures(), that.getRetryAttemptsAfterJobFailures()) && Objects
+        .equal(getPriorityClass(), that.getPriorityClass()) && Objects
+        .equal(getTraceContext(), that.getTraceContext());
   }
 
   @Override public int hashCode() {
     return Objects.hashCode(getBundleCreatedTimestamp(), getLoadJobSubmissionAttempts(),
-        getRetryAttemptsAfterJobFailures());
+        getRetryAttemptsAfterJobFailures(), getPriorityClass(), getTraceContext());
   }
 
   @Override public String toString() {
     return "LoadRequestAttributes{" + "bundleCreatedTimestamp='" + bundleCreatedTimestamp + '\''
         + ", loadJobSubmissionAttempts='" + loadJobSubmissionAttempts + '\''
-        + ", retryAttemptsAfterJobFailures='" + retryAttemptsAfterJobFailures + '\'' + '}';
+        + ", retryAttemptsAfterJobFailures='" + retryAttemptsAfterJobFailures + '\''
+        + ", priorityClass='" + priorityClass + '\''
+        + ", traceContext='" + traceContext + '\'' + '}';
   }
 }
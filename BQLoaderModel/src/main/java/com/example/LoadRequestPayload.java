@@ -6,6 +6,7 @@ import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.google.common.base.Objects;
 
 import java.io.Serializable;
+import java.util.List;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
 @JsonPropertyOrder({
@@ -17,7 +18,8 @@ import java.io.Serializable;
   "bundleDataset",
   "bundleTable",
   "bundleSchemaVersion",
-  "bundleSchemaHash"
+  "bundleSchemaHash",
+  "bundleFiles"
 })
 public class LoadRequestPayload implements Serializable {
 
@@ -45,6 +47,13 @@ public class LoadRequestPayload implements Serializable {
   @JsonProperty("bundleSchemaHash")
   public String bundleSchemaHash;
 
+  /*
+   * Source URIs of the files of the Bundle. When given, the Load Job loads them instead of the
+   * bundlePrefixPath, and a failed Job can be narrowed down to some of them
+   */
+  @JsonProperty("bundleFiles")
+  public List<String> bundleFiles;
+
   public String getBundleId() {
     return bundleId;
   }
@@ -109,6 +118,14 @@ public class LoadRequestPayload implements Serializable {
     this.bundleSchemaHash = bundleSchemaHash;
   }
 
+  public List<String> getBundleFiles() {
+    return bundleFiles;
+  }
+
+  public void setBundleFiles(List<String> bundleFiles) {
+    this.bundleFiles = bundleFiles;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
@@ -121,7 +138,8 @@ public class LoadRequestPayload implements Serializable {
         && Objects.equal(getBundleDataset(), loadRequestPayload.getBundleDataset())
         && Objects.equal(getBundleTable(), loadRequestPayload.getBundleTable())
         && Objects.equal(getBundleSchemaVersion(), loadRequestPayload.getBundleSchemaVersion())
-        && Objects.equal(getBundleSchemaHash(), loadRequestPayload.getBundleSchemaHash());
+        && Objects.equal(getBundleSchemaHash(), loadRequestPayload.getBundleSchemaHash())
+        && Objects.equal(getBundleFiles(), loadRequestPayload.getBundleFiles());
   }
 
   @Override
@@ -134,7 +152,8 @@ public class LoadRequestPayload implements Serializable {
         getBundleDataset(),
         getBundleTable(),
         getBundleSchemaVersion(),
-        getBundleSchemaHash());
+        getBundleSchemaHash(),
+        getBundleFiles());
   }
 
   @Override
@@ -164,6 +183,8 @@ public class LoadRequestPayload implements Serializable {
         + ", bundleSchemaHash='"
         + bundleSchemaHash
         + '\''
+        + ", bundleFiles="
+        + bundleFiles
         + '}';
   }
 }
@@ -0,0 +1,36 @@
+package com.example;
+
+import java.time.Clock;
+
+/*
+ * The time source of the Loader and of the Jobs Monitor, and the sleeps of the Monitor BackOff.
+ * They are the system clock and Thread.sleep on the workers, LoaderSimulator replaces them with a
+ * virtual clock so that the real DoFns run on simulated time.
+ */
+public final class LoaderClock {
+
+  /*
+   * Blocks the calling thread for the given time(ms)
+   */
+  public interface Sleeper {
+    void sleep(long millis) throws InterruptedException;
+  }
+
+  private static volatile Clock clock = Clock.systemUTC();
+  private static volatile Sleeper sleeper = Thread::sleep;
+
+  private LoaderClock() {}
+
+  public static long currentTimeMillis() {
+    return clock.millis();
+  }
+
+  public static void sleep(long millis) throws InterruptedException {
+    sleeper.sleep(millis);
+  }
+
+  public static void setClock(Clock loaderClock, Sleeper loaderSleeper) {
+    clock = loaderClock;
+    sleeper = loaderSleeper;
+  }
+}
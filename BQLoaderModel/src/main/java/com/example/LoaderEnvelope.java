@@ -1,14 +1,17 @@
 package com.example;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonPropertyOrder;
 import com.google.common.base.Objects;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
 
 @JsonInclude(JsonInclude.Include.NON_NULL)
-@JsonPropertyOrder({"attributes", "payload"})
+@JsonPropertyOrder({"attributes", "payload", "coalescedPayloads"})
 public class LoaderEnvelope implements Serializable {
 
   @JsonProperty("attributes")
@@ -17,6 +20,9 @@ public class LoaderEnvelope implements Serializable {
   @JsonProperty("payload")
   public LoadRequest loadRequest;
 
+  @JsonProperty("coalescedPayloads")
+  public List<LoadRequest> coalescedLoadRequests;
+
   public LoaderEnvelopeAttributes getLoaderEnvelopeAttributes() {
     return loaderEnvelopeAttributes;
   }
@@ -33,6 +39,24 @@ public class LoaderEnvelope implements Serializable {
     this.loadRequest = loadRequest;
   }
 
+  public List<LoadRequest> getCoalescedLoadRequests() {
+    return coalescedLoadRequests;
+  }
+
+  public void setCoalescedLoadRequests(List<LoadRequest> coalescedLoadRequests) {
+    this.coalescedLoadRequests = coalescedLoadRequests;
+  }
+
+  /*
+   * All the Load Requests submitted in the Load Job of this Envelope
+   */
+  @JsonIgnore
+  public List<LoadRequest> getSubmittedLoadRequests() {
+    return coalescedLoadRequests == null
+        ? Collections.singletonList(loadRequest)
+        : coalescedLoadRequests;
+  }
+
   @Override public boolean equals(Object o) {
     if (this == o)
       return true;
@@ -40,15 +64,17 @@ public class LoaderEnvelope implements Serializable {
       return false;
     LoaderEnvelope that = (LoaderEnvelope) o;
     return Objects.equal(getLoaderEnvelopeAttributes(), that.getLoaderEnvelopeAttributes())
-        && Objects.equal(getLoadRequest(), that.getLoadRequest());
+        && Objects.equal(getLoadRequest(), that.getLoadRequest())
+        && Objects.equal(getCoalescedLoadRequests(), that.getCoalescedLoadRequests());
   }
 
   @Override public int hashCode() {
-    return Objects.hashCode(getLoaderEnvelopeAttributes(), getLoadRequest());
+    return Objects.hashCode(
+        getLoaderEnvelopeAttributes(), getLoadRequest(), getCoalescedLoadRequests());
   }
 
   @Override public String toString() {
     return "LoaderEnvelope{" + "loaderEnvelopeAttributes=" + loaderEnvelopeAttributes
-        + ", loadRequest=" + loadRequest + '}';
+        + ", loadRequest=" + loadRequest + ", coalescedLoadRequests=" + coalescedLoadRequests + '}';
   }
 }
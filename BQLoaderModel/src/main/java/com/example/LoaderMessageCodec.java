@@ -0,0 +1,719 @@
+package com.example;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Binary encoding of the Load Requests and Loader Envelopes exchanged over PubSub by BQLoader and
+ * BQLoadJobsMonitor. A message is a 3 byte header(magic byte, message type, schema version)
+ * followed by the Avro binary encoding of the record, written with the Avro Schemas under
+ * resources/com/example(<Record>.v<version>.avsc).
+ * The current schema version is written and read field by field straight from the models, the
+ * way generated Avro code does, without reflection or intermediate records. Messages written with
+ * an older schema version are resolved against the current schema by Avro, so fields can be
+ * added(with a default) without breaking the readers.
+ * Messages which do not start with the magic byte are read as JSON, as written by the producers
+ * and by the previous releases.
+ * The messages published to PubSub are read by the other pipeline, which may still run an older
+ * release during a rolling deploy. Their writer format(json, or the binary schema version v1, v2,
+ * v3) is therefore set by the messageFormat Option of the pipelines, and only raised once every
+ * reader understands it. The messages kept within a pipeline always use the current version.
+ */
+public final class LoaderMessageCodec {
+
+  static final int CURRENT_SCHEMA_VERSION = 3;
+  /*
+   * Writer format of the JSON messages, as written by the releases before the binary encoding
+   */
+  public static final int JSON_FORMAT = 0;
+  private static final byte MAGIC = (byte) 0xB1;
+  private static final byte LOAD_REQUESTS = 1;
+  private static final byte LOADER_ENVELOPE = 2;
+  private static final int HEADER_LENGTH = 3;
+  private static final Gson GSON = new Gson();
+  private static final Type LOAD_REQUEST_LIST_TYPE =
+      new TypeToken<List<LoadRequest>>() {}.getType();
+  /*
+   * schema version -> message type -> Schema
+   */
+  private static final Map<Integer, Map<Byte, Schema>> SCHEMAS =
+      new HashMap<Integer, Map<Byte, Schema>>();
+
+  static {
+    for (int version = 1; version <= CURRENT_SCHEMA_VERSION; version++) {
+      Schema.Parser parser = new Schema.Parser();
+      parseSchema(parser, "LoadRequest", version);
+      Map<Byte, Schema> schemas = new HashMap<Byte, Schema>();
+      schemas.put(LOAD_REQUESTS, parseSchema(parser, "LoadRequests", version));
+      schemas.put(LOADER_ENVELOPE, parseSchema(parser, "LoaderEnvelope", version));
+      SCHEMAS.put(version, schemas);
+    }
+  }
+
+  private static final Schema LOAD_REQUESTS_SCHEMA =
+      SCHEMAS.get(CURRENT_SCHEMA_VERSION).get(LOAD_REQUESTS);
+  private static final Schema LOADER_ENVELOPE_SCHEMA =
+      SCHEMAS.get(CURRENT_SCHEMA_VERSION).get(LOADER_ENVELOPE);
+  private static final ThreadLocal<BinaryEncoder> ENCODER = new ThreadLocal<BinaryEncoder>();
+  private static final ThreadLocal<BinaryDecoder> DECODER = new ThreadLocal<BinaryDecoder>();
+
+  private LoaderMessageCodec() {}
+
+  private static Schema parseSchema(Schema.Parser parser, String record, int version) {
+    String resource = record + ".v" + version + ".avsc";
+    try (InputStream schemaStream = LoaderMessageCodec.class.getResourceAsStream(resource)) {
+      if (schemaStream == null) {
+        throw new IllegalStateException("Missing Avro Schema " + resource);
+      }
+      return parser.parse(schemaStream);
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to read Avro Schema " + resource, e);
+    }
+  }
+
+  static boolean isBinary(byte[] message) {
+    return message.length >= HEADER_LENGTH && message[0] == MAGIC;
+  }
+
+  /*
+   * Parses the messageFormat Option: json, or v<schema version>
+   */
+  public static int getWriterFormat(String messageFormat) {
+    if (messageFormat.equals("json")) {
+      return JSON_FORMAT;
+    }
+    if (messageFormat.matches("v[0-9]+")) {
+      int schemaVersion = Integer.parseInt(messageFormat.substring(1));
+      if (SCHEMAS.containsKey(schemaVersion)) {
+        return schemaVersion;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Unknown message format "
+            + messageFormat
+            + ", expected json or v1 to v"
+            + CURRENT_SCHEMA_VERSION);
+  }
+
+  public static byte[] encodeLoadRequest(LoadRequest loadRequest) {
+    return encodeLoadRequest(loadRequest, CURRENT_SCHEMA_VERSION);
+  }
+
+  public static byte[] encodeLoadRequest(LoadRequest loadRequest, int writerFormat) {
+    if (writerFormat == JSON_FORMAT) {
+      return GSON.toJson(loadRequest).getBytes(StandardCharsets.UTF_8);
+    }
+    return encodeLoadRequests(Collections.singletonList(loadRequest), writerFormat);
+  }
+
+  public static byte[] encodeLoadRequests(List<LoadRequest> loadRequests) {
+    return encodeLoadRequests(loadRequests, CURRENT_SCHEMA_VERSION);
+  }
+
+  public static byte[] encodeLoadRequests(List<LoadRequest> loadRequests, int writerFormat) {
+    if (writerFormat == JSON_FORMAT) {
+      return GSON.toJson(loadRequests).getBytes(StandardCharsets.UTF_8);
+    }
+    if (writerFormat != CURRENT_SCHEMA_VERSION) {
+      Schema schema = getWriterSchema(writerFormat, LOAD_REQUESTS);
+      GenericRecord record = new GenericData.Record(schema);
+      record.put(
+          "loadRequests",
+          toLoadRequestRecords(loadRequests, schema.getField("loadRequests").schema()));
+      return encode(LOAD_REQUESTS, writerFormat, record);
+    }
+    return encode(
+        LOAD_REQUESTS,
+        encoder -> {
+          writeLoadRequests(encoder, loadRequests);
+        });
+  }
+
+  public static byte[] encodeLoaderEnvelope(LoaderEnvelope loaderEnvelope) {
+    return encodeLoaderEnvelope(loaderEnvelope, CURRENT_SCHEMA_VERSION);
+  }
+
+  public static byte[] encodeLoaderEnvelope(LoaderEnvelope loaderEnvelope, int writerFormat) {
+    if (writerFormat == JSON_FORMAT) {
+      return GSON.toJson(loaderEnvelope).getBytes(StandardCharsets.UTF_8);
+    }
+    if (writerFormat != CURRENT_SCHEMA_VERSION) {
+      Schema schema = getWriterSchema(writerFormat, LOADER_ENVELOPE);
+      GenericRecord record = new GenericData.Record(schema);
+      record.put(
+          "attributes",
+          toLoaderEnvelopeAttributesRecord(
+              loaderEnvelope.loaderEnvelopeAttributes, schema.getField("attributes").schema()));
+      record.put(
+          "payload",
+          toLoadRequestRecord(loaderEnvelope.loadRequest, schema.getField("payload").schema()));
+      if (loaderEnvelope.coalescedLoadRequests != null) {
+        record.put(
+            "coalescedPayloads",
+            toLoadRequestRecords(
+                loaderEnvelope.coalescedLoadRequests,
+                getNonNullType(schema.getField("coalescedPayloads").schema())));
+      }
+      return encode(LOADER_ENVELOPE, writerFormat, record);
+    }
+    return encode(
+        LOADER_ENVELOPE,
+        encoder -> {
+          writeLoaderEnvelopeAttributes(encoder, loaderEnvelope.loaderEnvelopeAttributes);
+          writeNullableLoadRequest(encoder, loaderEnvelope.loadRequest);
+          if (loaderEnvelope.coalescedLoadRequests == null) {
+            encoder.writeIndex(0);
+          } else {
+            encoder.writeIndex(1);
+            writeLoadRequests(encoder, loaderEnvelope.coalescedLoadRequests);
+          }
+        });
+  }
+
+  /*
+   * Reads a single Load Request, or the Load Requests coalesced into one message
+   */
+  public static List<LoadRequest> decodeLoadRequests(byte[] message) {
+    if (!isBinary(message)) {
+      String json = new String(message, StandardCharsets.UTF_8).trim();
+      if (json.startsWith("[")) {
+        return GSON.fromJson(json, LOAD_REQUEST_LIST_TYPE);
+      }
+      return Collections.singletonList(GSON.fromJson(json, LoadRequest.class));
+    }
+    try {
+      if (isCurrentVersion(message, LOAD_REQUESTS)) {
+        return readLoadRequests(getDecoder(message));
+      }
+      GenericRecord record = decode(message, LOAD_REQUESTS, LOAD_REQUESTS_SCHEMA);
+      List<LoadRequest> loadRequests = new ArrayList<LoadRequest>();
+      for (Object loadRequestRecord : (List<?>) record.get("loadRequests")) {
+        loadRequests.add(toLoadRequest((GenericRecord) loadRequestRecord));
+      }
+      return loadRequests;
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to decode Load Requests", e);
+    }
+  }
+
+  public static LoaderEnvelope decodeLoaderEnvelope(byte[] message) {
+    if (!isBinary(message)) {
+      return GSON.fromJson(new String(message, StandardCharsets.UTF_8), LoaderEnvelope.class);
+    }
+    LoaderEnvelope loaderEnvelope = new LoaderEnvelope();
+    if (isCurrentVersion(message, LOADER_ENVELOPE)) {
+      try {
+        BinaryDecoder decoder = getDecoder(message);
+        loaderEnvelope.setLoaderEnvelopeAttributes(readLoaderEnvelopeAttributes(decoder));
+        loaderEnvelope.setLoadRequest(readNullableLoadRequest(decoder));
+        if (decoder.readIndex() == 1) {
+          loaderEnvelope.setCoalescedLoadRequests(readLoadRequests(decoder));
+        }
+        return loaderEnvelope;
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to decode Loader Envelope", e);
+      }
+    }
+    GenericRecord record = decode(message, LOADER_ENVELOPE, LOADER_ENVELOPE_SCHEMA);
+    loaderEnvelope.setLoaderEnvelopeAttributes(
+        toLoaderEnvelopeAttributes((GenericRecord) record.get("attributes")));
+    loaderEnvelope.setLoadRequest(toLoadRequest((GenericRecord) record.get("payload")));
+    Object coalescedRecords = record.get("coalescedPayloads");
+    if (coalescedRecords != null) {
+      List<LoadRequest> coalescedLoadRequests = new ArrayList<LoadRequest>();
+      for (Object loadRequestRecord : (List<?>) coalescedRecords) {
+        coalescedLoadRequests.add(toLoadRequest((GenericRecord) loadRequestRecord));
+      }
+      loaderEnvelope.setCoalescedLoadRequests(coalescedLoadRequests);
+    }
+    return loaderEnvelope;
+  }
+
+  private interface RecordWriter {
+    void write(BinaryEncoder encoder) throws IOException;
+  }
+
+  private static byte[] encode(byte messageType, RecordWriter recordWriter) {
+    return encode(messageType, CURRENT_SCHEMA_VERSION, recordWriter);
+  }
+
+  /*
+   * Writes a record of an older schema version
+   */
+  private static byte[] encode(byte messageType, int schemaVersion, GenericRecord record) {
+    return encode(
+        messageType,
+        schemaVersion,
+        encoder -> {
+          new GenericDatumWriter<GenericRecord>(record.getSchema()).write(record, encoder);
+        });
+  }
+
+  private static byte[] encode(byte messageType, int schemaVersion, RecordWriter recordWriter) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+    out.write(MAGIC);
+    out.write(messageType);
+    out.write(schemaVersion);
+    try {
+      BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, ENCODER.get());
+      ENCODER.set(encoder);
+      recordWriter.write(encoder);
+      encoder.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to encode message type " + messageType, e);
+    }
+    return out.toByteArray();
+  }
+
+  private static Schema getWriterSchema(int schemaVersion, byte messageType) {
+    Map<Byte, Schema> writerSchemas = SCHEMAS.get(schemaVersion);
+    if (writerSchemas == null) {
+      throw new IllegalArgumentException("Unknown schema version " + schemaVersion);
+    }
+    return writerSchemas.get(messageType);
+  }
+
+  private static boolean isCurrentVersion(byte[] message, byte messageType) {
+    if (message[1] != messageType) {
+      throw new IllegalArgumentException(
+          "Expected message type " + messageType + " but got " + message[1]);
+    }
+    return message[2] == CURRENT_SCHEMA_VERSION;
+  }
+
+  private static BinaryDecoder getDecoder(byte[] message) {
+    BinaryDecoder decoder =
+        DecoderFactory.get()
+            .binaryDecoder(message, HEADER_LENGTH, message.length - HEADER_LENGTH, DECODER.get());
+    DECODER.set(decoder);
+    return decoder;
+  }
+
+  /*
+   * Resolves a message written with an older schema version against the current one
+   */
+  private static GenericRecord decode(byte[] message, byte messageType, Schema readerSchema) {
+    Map<Byte, Schema> writerSchemas = SCHEMAS.get((int) message[2]);
+    if (writerSchemas == null) {
+      throw new IllegalArgumentException("Unknown schema version " + message[2]);
+    }
+    try {
+      return new GenericDatumReader<GenericRecord>(writerSchemas.get(messageType), readerSchema)
+          .read(null, getDecoder(message));
+    } catch (IOException e) {
+      throw new UncheckedIOException("Unable to decode " + readerSchema.getName(), e);
+    }
+  }
+
+  /*
+   * Writers and Readers of the current schema version. Nullable fields are a union of null(index 0)
+   * and the value(index 1), and the fields follow the order of the .avsc files
+   */
+  private static void writeNullableString(BinaryEncoder encoder, String value) throws IOException {
+    if (value == null) {
+      encoder.writeIndex(0);
+    } else {
+      encoder.writeIndex(1);
+      encoder.writeString(value);
+    }
+  }
+
+  private static void writeNullableLong(BinaryEncoder encoder, Long value) throws IOException {
+    if (value == null) {
+      encoder.writeIndex(0);
+    } else {
+      encoder.writeIndex(1);
+      encoder.writeLong(value);
+    }
+  }
+
+  private static void writeNullableInt(BinaryEncoder encoder, Integer value) throws IOException {
+    if (value == null) {
+      encoder.writeIndex(0);
+    } else {
+      encoder.writeIndex(1);
+      encoder.writeInt(value);
+    }
+  }
+
+  private static void writeNullableBoolean(BinaryEncoder encoder, Boolean value)
+      throws IOException {
+    if (value == null) {
+      encoder.writeIndex(0);
+    } else {
+      encoder.writeIndex(1);
+      encoder.writeBoolean(value);
+    }
+  }
+
+  private static void writeNullableStrings(BinaryEncoder encoder, List<String> values)
+      throws IOException {
+    if (values == null) {
+      encoder.writeIndex(0);
+      return;
+    }
+    encoder.writeIndex(1);
+    encoder.writeArrayStart();
+    encoder.setItemCount(values.size());
+    for (String value : values) {
+      encoder.startItem();
+      encoder.writeString(value);
+    }
+    encoder.writeArrayEnd();
+  }
+
+  private static String readNullableString(BinaryDecoder decoder) throws IOException {
+    return decoder.readIndex() == 0 ? null : decoder.readString();
+  }
+
+  private static Long readNullableLong(BinaryDecoder decoder) throws IOException {
+    return decoder.readIndex() == 0 ? null : decoder.readLong();
+  }
+
+  private static Integer readNullableInt(BinaryDecoder decoder) throws IOException {
+    return decoder.readIndex() == 0 ? null : decoder.readInt();
+  }
+
+  private static Boolean readNullableBoolean(BinaryDecoder decoder) throws IOException {
+    return decoder.readIndex() == 0 ? null : decoder.readBoolean();
+  }
+
+  private static List<String> readNullableStrings(BinaryDecoder decoder) throws IOException {
+    if (decoder.readIndex() == 0) {
+      return null;
+    }
+    List<String> values = new ArrayList<String>();
+    for (long items = decoder.readArrayStart(); items > 0; items = decoder.arrayNext()) {
+      for (long item = 0; item < items; item++) {
+        values.add(decoder.readString());
+      }
+    }
+    return values;
+  }
+
+  private static void writeLoadRequests(BinaryEncoder encoder, List<LoadRequest> loadRequests)
+      throws IOException {
+    encoder.writeArrayStart();
+    encoder.setItemCount(loadRequests.size());
+    for (LoadRequest loadRequest : loadRequests) {
+      encoder.startItem();
+      writeLoadRequest(encoder, loadRequest);
+    }
+    encoder.writeArrayEnd();
+  }
+
+  private static List<LoadRequest> readLoadRequests(BinaryDecoder decoder) throws IOException {
+    List<LoadRequest> loadRequests = new ArrayList<LoadRequest>();
+    for (long items = decoder.readArrayStart(); items > 0; items = decoder.arrayNext()) {
+      for (long item = 0; item < items; item++) {
+        loadRequests.add(readLoadRequest(decoder));
+      }
+    }
+    return loadRequests;
+  }
+
+  private static void writeNullableLoadRequest(BinaryEncoder encoder, LoadRequest loadRequest)
+      throws IOException {
+    if (loadRequest == null) {
+      encoder.writeIndex(0);
+    } else {
+      encoder.writeIndex(1);
+      writeLoadRequest(encoder, loadRequest);
+    }
+  }
+
+  private static LoadRequest readNullableLoadRequest(BinaryDecoder decoder) throws IOException {
+    return decoder.readIndex() == 0 ? null : readLoadRequest(decoder);
+  }
+
+  private static void writeLoadRequest(BinaryEncoder encoder, LoadRequest loadRequest)
+      throws IOException {
+    LoadRequestAttributes attributes = loadRequest.loadRequestAttributes;
+    if (attributes == null) {
+      encoder.writeIndex(0);
+    } else {
+      encoder.writeIndex(1);
+      writeNullableLong(encoder, attributes.getBundleCreatedTimestamp());
+      writeNullableInt(encoder, attributes.getLoadJobSubmissionAttempts());
+      writeNullableInt(encoder, attributes.getRetryAttemptsAfterJobFailures());
+      writeNullableStrings(encoder, attributes.getPreviousFailedJobIds());
+      writeNullableString(encoder, attributes.getPriorityClass());
+      writeNullableString(encoder, attributes.getTraceContext());
+    }
+    LoadRequestPayload payload = loadRequest.loadRequestPayload;
+    if (payload == null) {
+      encoder.writeIndex(0);
+    } else {
+      encoder.writeIndex(1);
+      writeNullableString(encoder, payload.bundleId);
+      writeNullableString(encoder, payload.bundlePrefixPath);
+      writeNullableLong(encoder, payload.bundleSize);
+      writeNullableInt(encoder, payload.bundleCount);
+      writeNullableString(encoder, payload.bundleDataset);
+      writeNullableString(encoder, payload.bundleTable);
+      writeNullableString(encoder, payload.bundleSchemaVersion);
+      writeNullableString(encoder, payload.bundleSchemaHash);
+      writeNullableStrings(encoder, payload.bundleFiles);
+    }
+  }
+
+  private static LoadRequest readLoadRequest(BinaryDecoder decoder) throws IOException {
+    LoadRequest loadRequest = new LoadRequest();
+    if (decoder.readIndex() == 1) {
+      LoadRequestAttributes attributes = new LoadRequestAttributes();
+      attributes.setBundleCreatedTimestamp(readNullableLong(decoder));
+      attributes.setLoadJobSubmissionAttempts(readNullableInt(decoder));
+      attributes.setRetryAttemptsAfterJobFailures(readNullableInt(decoder));
+      attributes.setPreviousFailedJobIds(readNullableStrings(decoder));
+      attributes.setPriorityClass(readNullableString(decoder));
+      attributes.setTraceContext(readNullableString(decoder));
+      loadRequest.setLoadRequestAttributes(attributes);
+    }
+    if (decoder.readIndex() == 1) {
+      LoadRequestPayload payload = new LoadRequestPayload();
+      payload.bundleId = readNullableString(decoder);
+      payload.bundlePrefixPath = readNullableString(decoder);
+      payload.bundleSize = readNullableLong(decoder);
+      payload.bundleCount = readNullableInt(decoder);
+      payload.bundleDataset = readNullableString(decoder);
+      payload.bundleTable = readNullableString(decoder);
+      payload.bundleSchemaVersion = readNullableString(decoder);
+      payload.bundleSchemaHash = readNullableString(decoder);
+      payload.bundleFiles = readNullableStrings(decoder);
+      loadRequest.setLoadRequestPayload(payload);
+    }
+    return loadRequest;
+  }
+
+  private static void writeLoaderEnvelopeAttributes(
+      BinaryEncoder encoder, LoaderEnvelopeAttributes attributes) throws IOException {
+    if (attributes == null) {
+      encoder.writeIndex(0);
+      return;
+    }
+    encoder.writeIndex(1);
+    writeNullableString(encoder, attributes.getJobId());
+    writeNullableLong(encoder, attributes.getJobCreatedTimestamp());
+    writeNullableLong(encoder, attributes.getJobMonitoringStartTimeStamp());
+    writeNullableLong(encoder, attributes.getJobMonitoringEndTimeStamp());
+    writeNullableLong(encoder, attributes.getJobMonitoringTotalTimeMs());
+    writeNullableBoolean(encoder, attributes.getJobCompleted());
+    writeNullableLong(encoder, attributes.getJobAwaitingToRunLatencyMs());
+    writeNullableLong(encoder, attributes.getJobRunLatencyMs());
+    writeNullableLong(encoder, attributes.getJobTotalLatencyMs());
+    writeNullableInt(encoder, attributes.getPushedBackForMonitoringRetries());
+  }
+
+  private static LoaderEnvelopeAttributes readLoaderEnvelopeAttributes(BinaryDecoder decoder)
+      throws IOException {
+    if (decoder.readIndex() == 0) {
+      return null;
+    }
+    LoaderEnvelopeAttributes attributes = new LoaderEnvelopeAttributes();
+    attributes.setJobId(readNullableString(decoder));
+    attributes.setJobCreatedTimestamp(readNullableLong(decoder));
+    attributes.setJobMonitoringStartTimeStamp(readNullableLong(decoder));
+    attributes.setJobMonitoringEndTimeStamp(readNullableLong(decoder));
+    attributes.setJobMonitoringTotalTimeMs(readNullableLong(decoder));
+    attributes.setJobCompleted(readNullableBoolean(decoder));
+    attributes.setJobAwaitingToRunLatencyMs(readNullableLong(decoder));
+    attributes.setJobRunLatencyMs(readNullableLong(decoder));
+    attributes.setJobTotalLatencyMs(readNullableLong(decoder));
+    attributes.setPushedBackForMonitoringRetries(readNullableInt(decoder));
+    return attributes;
+  }
+
+  /*
+   * Mapping of the records resolved from older schema versions
+   */
+  private static String toString(Object value) {
+    return value == null ? null : value.toString();
+  }
+
+  private static List<String> toStrings(Object values) {
+    if (values == null) {
+      return null;
+    }
+    List<String> strings = new ArrayList<String>();
+    for (Object value : (List<?>) values) {
+      strings.add(value.toString());
+    }
+    return strings;
+  }
+
+  private static LoadRequest toLoadRequest(GenericRecord record) {
+    if (record == null) {
+      return null;
+    }
+    LoadRequest loadRequest = new LoadRequest();
+    loadRequest.setLoadRequestAttributes(
+        toLoadRequestAttributes((GenericRecord) record.get("attributes")));
+    loadRequest.setLoadRequestPayload(toLoadRequestPayload((GenericRecord) record.get("payload")));
+    return loadRequest;
+  }
+
+  private static LoadRequestAttributes toLoadRequestAttributes(GenericRecord record) {
+    if (record == null) {
+      return null;
+    }
+    LoadRequestAttributes attributes = new LoadRequestAttributes();
+    attributes.setBundleCreatedTimestamp((Long) record.get("bundleCreatedTimestamp"));
+    attributes.setLoadJobSubmissionAttempts((Integer) record.get("loadJobSubmissionAttempts"));
+    attributes.setRetryAttemptsAfterJobFailures(
+        (Integer) record.get("retryAttemptsAfterJobFailures"));
+    attributes.setPreviousFailedJobIds(toStrings(record.get("previousFailedJobIds")));
+    attributes.setPriorityClass(toString(record.get("priorityClass")));
+    attributes.setTraceContext(toString(record.get("traceContext")));
+    return attributes;
+  }
+
+  private static LoadRequestPayload toLoadRequestPayload(GenericRecord record) {
+    if (record == null) {
+      return null;
+    }
+    LoadRequestPayload payload = new LoadRequestPayload();
+    payload.bundleId = toString(record.get("bundleId"));
+    payload.bundlePrefixPath = toString(record.get("bundlePrefixPath"));
+    payload.bundleSize = (Long) record.get("bundleSize");
+    payload.bundleCount = (Integer) record.get("bundleCount");
+    payload.bundleDataset = toString(record.get("bundleDataset"));
+    payload.bundleTable = toString(record.get("bundleTable"));
+    payload.bundleSchemaVersion = toString(record.get("bundleSchemaVersion"));
+    payload.bundleSchemaHash = toString(record.get("bundleSchemaHash"));
+    payload.bundleFiles = toStrings(record.get("bundleFiles"));
+    return payload;
+  }
+
+  private static LoaderEnvelopeAttributes toLoaderEnvelopeAttributes(GenericRecord record) {
+    if (record == null) {
+      return null;
+    }
+    LoaderEnvelopeAttributes attributes = new LoaderEnvelopeAttributes();
+    attributes.setJobId(toString(record.get("jobId")));
+    attributes.setJobCreatedTimestamp((Long) record.get("jobCreatedTimestamp"));
+    attributes.setJobMonitoringStartTimeStamp((Long) record.get("jobMonitoringStartTimeStamp"));
+    attributes.setJobMonitoringEndTimeStamp((Long) record.get("jobMonitoringEndTimeStamp"));
+    attributes.setJobMonitoringTotalTimeMs((Long) record.get("jobMonitoringTotalTimeMs"));
+    attributes.setJobCompleted((Boolean) record.get("jobCompleted"));
+    attributes.setJobAwaitingToRunLatencyMs((Long) record.get("jobAwaitingToRunLatencyMs"));
+    attributes.setJobRunLatencyMs((Long) record.get("jobRunLatencyMs"));
+    attributes.setJobTotalLatencyMs((Long) record.get("jobTotalLatencyMs"));
+    attributes.setPushedBackForMonitoringRetries(
+        (Integer) record.get("pushedBackForMonitoringRetries"));
+    return attributes;
+  }
+
+  /*
+   * Mapping of the models to the records of an older schema version. A field the schema version
+   * does not have is left out, as an older reader would not know it either
+   */
+  private static Schema getNonNullType(Schema schema) {
+    if (schema.getType() != Schema.Type.UNION) {
+      return schema;
+    }
+    for (Schema type : schema.getTypes()) {
+      if (type.getType() != Schema.Type.NULL) {
+        return type;
+      }
+    }
+    throw new IllegalArgumentException("Union without a non null type " + schema);
+  }
+
+  private static void putIfPresent(GenericRecord record, String field, Object value) {
+    if (record.getSchema().getField(field) != null) {
+      record.put(field, value);
+    }
+  }
+
+  private static List<GenericRecord> toLoadRequestRecords(
+      List<LoadRequest> loadRequests, Schema arraySchema) {
+    List<GenericRecord> records = new ArrayList<GenericRecord>();
+    for (LoadRequest loadRequest : loadRequests) {
+      records.add(toLoadRequestRecord(loadRequest, arraySchema.getElementType()));
+    }
+    return records;
+  }
+
+  private static GenericRecord toLoadRequestRecord(LoadRequest loadRequest, Schema schema) {
+    if (loadRequest == null) {
+      return null;
+    }
+    GenericRecord record = new GenericData.Record(getNonNullType(schema));
+    LoadRequestAttributes attributes = loadRequest.loadRequestAttributes;
+    if (attributes != null) {
+      GenericRecord attributesRecord =
+          new GenericData.Record(
+              getNonNullType(record.getSchema().getField("attributes").schema()));
+      putIfPresent(
+          attributesRecord, "bundleCreatedTimestamp", attributes.getBundleCreatedTimestamp());
+      putIfPresent(
+          attributesRecord, "loadJobSubmissionAttempts", attributes.getLoadJobSubmissionAttempts());
+      putIfPresent(
+          attributesRecord,
+          "retryAttemptsAfterJobFailures",
+          attributes.getRetryAttemptsAfterJobFailures());
+      putIfPresent(attributesRecord, "previousFailedJobIds", attributes.getPreviousFailedJobIds());
+      putIfPresent(attributesRecord, "priorityClass", attributes.getPriorityClass());
+      putIfPresent(attributesRecord, "traceContext", attributes.getTraceContext());
+      record.put("attributes", attributesRecord);
+    }
+    LoadRequestPayload payload = loadRequest.loadRequestPayload;
+    if (payload != null) {
+      GenericRecord payloadRecord =
+          new GenericData.Record(getNonNullType(record.getSchema().getField("payload").schema()));
+      putIfPresent(payloadRecord, "bundleId", payload.bundleId);
+      putIfPresent(payloadRecord, "bundlePrefixPath", payload.bundlePrefixPath);
+      putIfPresent(payloadRecord, "bundleSize", payload.bundleSize);
+      putIfPresent(payloadRecord, "bundleCount", payload.bundleCount);
+      putIfPresent(payloadRecord, "bundleDataset", payload.bundleDataset);
+      putIfPresent(payloadRecord, "bundleTable", payload.bundleTable);
+      putIfPresent(payloadRecord, "bundleSchemaVersion", payload.bundleSchemaVersion);
+      putIfPresent(payloadRecord, "bundleSchemaHash", payload.bundleSchemaHash);
+      putIfPresent(payloadRecord, "bundleFiles", payload.bundleFiles);
+      record.put("payload", payloadRecord);
+    }
+    return record;
+  }
+
+  private static GenericRecord toLoaderEnvelopeAttributesRecord(
+      LoaderEnvelopeAttributes attributes, Schema schema) {
+    if (attributes == null) {
+      return null;
+    }
+    GenericRecord record = new GenericData.Record(getNonNullType(schema));
+    putIfPresent(record, "jobId", attributes.getJobId());
+    putIfPresent(record, "jobCreatedTimestamp", attributes.getJobCreatedTimestamp());
+    putIfPresent(
+        record, "jobMonitoringStartTimeStamp", attributes.getJobMonitoringStartTimeStamp());
+    putIfPresent(record, "jobMonitoringEndTimeStamp", attributes.getJobMonitoringEndTimeStamp());
+    putIfPresent(record, "jobMonitoringTotalTimeMs", attributes.getJobMonitoringTotalTimeMs());
+    putIfPresent(record, "jobCompleted", attributes.getJobCompleted());
+    putIfPresent(record, "jobAwaitingToRunLatencyMs", attributes.getJobAwaitingToRunLatencyMs());
+    putIfPresent(record, "jobRunLatencyMs", attributes.getJobRunLatencyMs());
+    putIfPresent(record, "jobTotalLatencyMs", attributes.getJobTotalLatencyMs());
+    putIfPresent(
+        record, "pushedBackForMonitoringRetries", attributes.getPushedBackForMonitoringRetries());
+    return record;
+  }
+}
@@ -0,0 +1,19 @@
+package com.example;
+
+/*
+ * Slot Release event published by BQLoadJobsMonitor for every Load Job it sees DONE, so that
+ * BQLoader hands the Submission Permit of the Job to its deferred Load Requests right away instead
+ * of waiting for the next Running Jobs refresh or BackOff step. The event is a PubSub message with
+ * the Job Id as its payload and the Attributes:
+ * a) loaderSlotReleaseJobId: the Job Id
+ * b) loaderPermitShard: the Admission Permit Shard holding the Permit of the Job. BQLoader sets it
+ * on the Loader Envelope message, and the Monitor carries it along its Retry Cycles. An event
+ * without it is delivered to every Permit Shard.
+ */
+public final class SlotRelease {
+
+  public static final String JOB_ID_ATTRIBUTE = "loaderSlotReleaseJobId";
+  public static final String PERMIT_SHARD_ATTRIBUTE = "loaderPermitShard";
+
+  private SlotRelease() {}
+}
@@ -0,0 +1,40 @@
+package com.example;
+
+import com.google.gson.Gson;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/*
+ * A Stage of a Bundle on its way to a completed Load, exported by a SpanSink as one JSON line
+ */
+public class Span implements Serializable {
+
+  private static final Gson GSON = new Gson();
+
+  public String traceId;
+  public String spanId;
+  public String parentSpanId;
+  public String pipeline;
+  public String stage;
+  public long startTimeMs;
+  public long endTimeMs;
+  public Map<String, String> attributes;
+
+  public long getDurationMs() {
+    return endTimeMs - startTimeMs;
+  }
+
+  public String toJson() {
+    return GSON.toJson(this);
+  }
+
+  public static Span fromJson(String json) {
+    return GSON.fromJson(json, Span.class);
+  }
+
+  @Override
+  public String toString() {
+    return toJson();
+  }
+}
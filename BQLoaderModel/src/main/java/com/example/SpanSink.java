@@ -0,0 +1,94 @@
+package com.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Exports the Spans recorded by a Tracer. The Sink is chosen by the spanSink Option of the
+ * pipelines:
+ * a) none(default) drops the Spans
+ * b) jsonl:<path> appends the Spans as JSON lines to a local file, for testing and TraceReport
+ * c) class:<fully qualified class name> instantiates a SpanSink with a no-arg constructor, to
+ * export the Spans to a tracing backend
+ * One Sink is created per spanSink per worker and shared by all the threads.
+ */
+public interface SpanSink {
+
+  void export(Span span);
+
+  static SpanSink forSpec(String spanSink) {
+    return SpanSinks.get(spanSink);
+  }
+
+  final class SpanSinks {
+
+    private static final SpanSink NONE = span -> {};
+    private static final Map<String, SpanSink> SINKS = new HashMap<String, SpanSink>();
+
+    private SpanSinks() {}
+
+    private static synchronized SpanSink get(String spanSink) {
+      if (spanSink == null || spanSink.isEmpty() || spanSink.equals("none")) {
+        return NONE;
+      }
+      SpanSink sink = SINKS.get(spanSink);
+      if (sink == null) {
+        sink = create(spanSink);
+        SINKS.put(spanSink, sink);
+      }
+      return sink;
+    }
+
+    private static SpanSink create(String spanSink) {
+      if (spanSink.startsWith("jsonl:")) {
+        return new JsonLinesSpanSink(spanSink.substring("jsonl:".length()));
+      }
+      if (spanSink.startsWith("class:")) {
+        try {
+          return (SpanSink)
+              Class.forName(spanSink.substring("class:".length())).getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+          throw new IllegalArgumentException("Unable to create Span Sink " + spanSink, e);
+        }
+      }
+      throw new IllegalArgumentException(
+          "Unknown Span Sink " + spanSink + ", expected none, jsonl:<path> or class:<class name>");
+    }
+  }
+
+  final class JsonLinesSpanSink implements SpanSink {
+
+    private final BufferedWriter writer;
+
+    JsonLinesSpanSink(String path) {
+      try {
+        this.writer =
+            Files.newBufferedWriter(
+                Paths.get(path),
+                StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to open Span file " + path, e);
+      }
+    }
+
+    @Override
+    public synchronized void export(Span span) {
+      try {
+        this.writer.write(span.toJson());
+        this.writer.newLine();
+        this.writer.flush();
+      } catch (IOException e) {
+        throw new UncheckedIOException("Unable to write Span " + span.spanId, e);
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package com.example;
+
+import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+ * Trace Context of a Bundle, followed from FileBySize through BQLoader to BQLoadJobsMonitor.
+ * It travels in the traceContext field of LoadRequestAttributes and in the traceparent PubSub
+ * Attribute, in the W3C Trace Context format(00-<32 hex traceId>-<16 hex spanId>-01), where the
+ * spanId is the last Span recorded for the Bundle so that the next Stage is recorded as its child.
+ */
+public final class TraceContext implements Serializable {
+
+  public static final String TRACEPARENT_ATTRIBUTE = "traceparent";
+  private static final String VERSION = "00";
+  private static final String SAMPLED = "01";
+
+  private final String traceId;
+  private final String spanId;
+
+  private TraceContext(String traceId, String spanId) {
+    this.traceId = traceId;
+    this.spanId = spanId;
+  }
+
+  public static TraceContext newTrace() {
+    return new TraceContext(randomHex(2), randomHex(1));
+  }
+
+  /*
+   * Returns the Trace Context of a Span recorded as a child of this one
+   */
+  public TraceContext newChild() {
+    return new TraceContext(this.traceId, randomHex(1));
+  }
+
+  public String getTraceId() {
+    return traceId;
+  }
+
+  public String getSpanId() {
+    return spanId;
+  }
+
+  public String toTraceparent() {
+    return VERSION + "-" + traceId + "-" + spanId + "-" + SAMPLED;
+  }
+
+  /*
+   * Returns null when traceparent is missing or malformed, so that a bad Trace Context never fails
+   * a Load Request
+   */
+  public static TraceContext fromTraceparent(String traceparent) {
+    if (traceparent == null) {
+      return null;
+    }
+    String[] parts = traceparent.trim().split("-");
+    if (parts.length != 4
+        || parts[1].length() != 32
+        || parts[2].length() != 16
+        || !isHex(parts[1])
+        || !isHex(parts[2])) {
+      return null;
+    }
+    return new TraceContext(parts[1], parts[2]);
+  }
+
+  private static String randomHex(int longs) {
+    StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < longs; i++) {
+      hex.append(String.format("%016x", ThreadLocalRandom.current().nextLong()));
+    }
+    return hex.toString();
+  }
+
+  private static boolean isHex(String value) {
+    for (char c : value.toCharArray()) {
+      if (Character.digit(c, 16) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return toTraceparent();
+  }
+}
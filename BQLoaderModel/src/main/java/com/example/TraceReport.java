@@ -0,0 +1,113 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Breaks the end to end Load latency of the Bundles down by Stage, from the Spans exported by the
+ * jsonl Span Sinks of FileBySize, BQLoader and BQLoadJobsMonitor:
+ * java -cp BQLoaderModel.jar com.example.TraceReport <spans.jsonl> [<spans.jsonl> ...]
+ * The time of a Stage is summed per Trace(a Load Request goes through a Stage again on every
+ * Retry Cycle). The end to end latency of a Trace is from the start of its first Span to the end of
+ * its last one, and the time not covered by any Stage(PubSub hops, Retry Cycles) is reported as
+ * untraced.
+ */
+public class TraceReport {
+
+  private static final String END_TO_END = "end-to-end";
+  private static final String UNTRACED = "untraced";
+
+  public static void main(String[] args) throws IOException {
+    if (args.length == 0) {
+      System.err.println("Usage: TraceReport <spans.jsonl> [<spans.jsonl> ...]");
+      System.exit(1);
+    }
+    /*
+     * traceId -> Spans
+     */
+    Map<String, List<Span>> traces = new HashMap<String, List<Span>>();
+    for (String spansFile : args) {
+      for (String line : Files.readAllLines(Paths.get(spansFile), StandardCharsets.UTF_8)) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        Span span = Span.fromJson(line);
+        traces.computeIfAbsent(span.traceId, traceId -> new ArrayList<Span>()).add(span);
+      }
+    }
+    /*
+     * Stage -> time(ms) per Trace, in the order the Stages are first seen along the Traces
+     */
+    Map<String, List<Long>> stageLatencies = new LinkedHashMap<String, List<Long>>();
+    List<Long> endToEndLatencies = new ArrayList<Long>();
+    List<Long> untracedLatencies = new ArrayList<Long>();
+    for (List<Span> spans : traces.values()) {
+      spans.sort((left, right) -> Long.compare(left.startTimeMs, right.startTimeMs));
+      Map<String, Long> stageTotals = new LinkedHashMap<String, Long>();
+      long traceStartMs = Long.MAX_VALUE;
+      long traceEndMs = Long.MIN_VALUE;
+      long tracedMs = 0L;
+      for (Span span : spans) {
+        stageTotals.merge(span.stage, span.getDurationMs(), Long::sum);
+        traceStartMs = Math.min(traceStartMs, span.startTimeMs);
+        traceEndMs = Math.max(traceEndMs, span.endTimeMs);
+        tracedMs += span.getDurationMs();
+      }
+      for (Map.Entry<String, Long> stageTotal : stageTotals.entrySet()) {
+        stageLatencies
+            .computeIfAbsent(stageTotal.getKey(), stage -> new ArrayList<Long>())
+            .add(stageTotal.getValue());
+      }
+      endToEndLatencies.add(traceEndMs - traceStartMs);
+      untracedLatencies.add(Math.max(0L, traceEndMs - traceStartMs - tracedMs));
+    }
+    stageLatencies.put(UNTRACED, untracedLatencies);
+    stageLatencies.put(END_TO_END, endToEndLatencies);
+
+    System.out.println(traces.size() + " Traces");
+    System.out.println(
+        String.format(
+            "%-24s %8s %12s %12s %12s %8s", "Stage", "Traces", "p50(s)", "p99(s)", "max(s)", "share"));
+    long endToEndTotalMs = sum(endToEndLatencies);
+    for (Map.Entry<String, List<Long>> stage : stageLatencies.entrySet()) {
+      List<Long> latencies = stage.getValue();
+      Collections.sort(latencies);
+      System.out.println(
+          String.format(
+              "%-24s %8d %12.1f %12.1f %12.1f %7.1f%%",
+              stage.getKey(),
+              latencies.size(),
+              percentile(latencies, 50) / 1000.0,
+              percentile(latencies, 99) / 1000.0,
+              latencies.isEmpty() ? 0.0 : latencies.get(latencies.size() - 1) / 1000.0,
+              endToEndTotalMs == 0 ? 0.0 : 100.0 * sum(latencies) / endToEndTotalMs));
+    }
+  }
+
+  private static long sum(List<Long> values) {
+    long sum = 0L;
+    for (long value : values) {
+      sum += value;
+    }
+    return sum;
+  }
+
+  /*
+   * Nearest rank percentile of sorted values
+   */
+  private static long percentile(List<Long> sortedValues, int percentile) {
+    if (sortedValues.isEmpty()) {
+      return 0L;
+    }
+    int rank = (int) Math.ceil(percentile / 100.0 * sortedValues.size());
+    return sortedValues.get(Math.max(0, rank - 1));
+  }
+}
@@ -0,0 +1,75 @@
+package com.example;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/*
+ * Records the Stages of the Bundles processed by a pipeline as Spans, and exports them to the
+ * SpanSink of the spanSink Option. It is created with the DoFn and serialized with it, the Sink
+ * is looked up on the worker.
+ */
+public class Tracer implements Serializable {
+
+  private final String pipeline;
+  private final String spanSink;
+  private transient SpanSink sink;
+
+  public Tracer(String pipeline, String spanSink) {
+    this.pipeline = pipeline;
+    this.spanSink = spanSink;
+  }
+
+  public boolean isEnabled() {
+    return this.spanSink != null && !this.spanSink.isEmpty() && !this.spanSink.equals("none");
+  }
+
+  /*
+   * Records a Stage as a child Span of parent, or as the root Span of a new Trace when parent is
+   * null, and returns its Trace Context for the next Stage to be recorded under it
+   */
+  public TraceContext record(
+      TraceContext parent,
+      String stage,
+      long startTimeMs,
+      long endTimeMs,
+      Map<String, String> attributes) {
+    TraceContext traceContext = parent == null ? TraceContext.newTrace() : parent.newChild();
+    if (!isEnabled()) {
+      return traceContext;
+    }
+    if (this.sink == null) {
+      this.sink = SpanSink.forSpec(this.spanSink);
+    }
+    Span span = new Span();
+    span.traceId = traceContext.getTraceId();
+    span.spanId = traceContext.getSpanId();
+    span.parentSpanId = parent == null ? null : parent.getSpanId();
+    span.pipeline = this.pipeline;
+    span.stage = stage;
+    span.startTimeMs = startTimeMs;
+    span.endTimeMs = Math.max(startTimeMs, endTimeMs);
+    span.attributes = attributes;
+    this.sink.export(span);
+    return traceContext;
+  }
+
+  /*
+   * Returns the Trace Context carried by a Load Request, falling back on the traceparent PubSub
+   * Attribute of its message
+   */
+  public static TraceContext getTraceContext(LoadRequest loadRequest, String traceparent) {
+    TraceContext traceContext = null;
+    if (loadRequest.loadRequestAttributes != null) {
+      traceContext =
+          TraceContext.fromTraceparent(loadRequest.loadRequestAttributes.getTraceContext());
+    }
+    return traceContext == null ? TraceContext.fromTraceparent(traceparent) : traceContext;
+  }
+
+  public static void setTraceContext(LoadRequest loadRequest, TraceContext traceContext) {
+    if (loadRequest.loadRequestAttributes == null) {
+      loadRequest.setLoadRequestAttributes(new LoadRequestAttributes());
+    }
+    loadRequest.loadRequestAttributes.setTraceContext(traceContext.toTraceparent());
+  }
+}
@@ -0,0 +1,170 @@
+package com.example;
+
+import com.google.gson.Gson;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumReader;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.DecoderFactory;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+
+class Testing {
+
+  private static final Gson GSON = new Gson();
+
+  private static LoadRequest getLoadRequest(String bundleId) {
+    LoadRequestAttributes attributes = new LoadRequestAttributes();
+    attributes.setBundleCreatedTimestamp(1571400000000L);
+    attributes.setLoadJobSubmissionAttempts(2);
+    attributes.setRetryAttemptsAfterJobFailures(1);
+    attributes.setPreviousFailedJobIds(Arrays.asList("job-1", "job-2"));
+    attributes.setPriorityClass("CRITICAL");
+    attributes.setTraceContext("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+    LoadRequestPayload payload = new LoadRequestPayload();
+    payload.bundleId = bundleId;
+    payload.bundlePrefixPath = "gs://bucket/events/" + bundleId;
+    payload.bundleSize = 4096L;
+    payload.bundleCount = 2;
+    payload.bundleDataset = "dataset";
+    payload.bundleTable = "events";
+    payload.bundleSchemaVersion = "7";
+    payload.bundleSchemaHash = "5f2b";
+    payload.bundleFiles =
+        Arrays.asList(
+            "gs://bucket/events/" + bundleId + "/0.avro",
+            "gs://bucket/events/" + bundleId + "/1.avro");
+    LoadRequest loadRequest = new LoadRequest();
+    loadRequest.setLoadRequestAttributes(attributes);
+    loadRequest.setLoadRequestPayload(payload);
+    return loadRequest;
+  }
+
+  private static LoaderEnvelope getLoaderEnvelope() {
+    LoaderEnvelopeAttributes attributes = new LoaderEnvelopeAttributes();
+    attributes.setJobId("project:US.bundle-1_0");
+    attributes.setJobCreatedTimestamp(1571400001000L);
+    attributes.setJobCompleted(false);
+    attributes.setPushedBackForMonitoringRetries(3);
+    LoaderEnvelope loaderEnvelope = new LoaderEnvelope();
+    loaderEnvelope.setLoaderEnvelopeAttributes(attributes);
+    loaderEnvelope.setLoadRequest(getLoadRequest("bundle-1"));
+    loaderEnvelope.setCoalescedLoadRequests(
+        Arrays.asList(getLoadRequest("bundle-1"), getLoadRequest("bundle-2")));
+    return loaderEnvelope;
+  }
+
+  /*
+   * The Load Request as read back from a schema version without some of its fields
+   */
+  private static LoadRequest withoutNewerFields(LoadRequest loadRequest, int schemaVersion) {
+    if (schemaVersion < 2) {
+      loadRequest.loadRequestAttributes.setTraceContext(null);
+    }
+    if (schemaVersion < 3) {
+      loadRequest.loadRequestPayload.bundleFiles = null;
+    }
+    return loadRequest;
+  }
+
+  private static Schema parseSchema(String record, int schemaVersion) throws IOException {
+    Schema.Parser parser = new Schema.Parser();
+    for (String schemaRecord : Arrays.asList("LoadRequest", record)) {
+      try (InputStream schemaStream =
+          Testing.class.getResourceAsStream(schemaRecord + ".v" + schemaVersion + ".avsc")) {
+        Schema schema = parser.parse(schemaStream);
+        if (schemaRecord.equals(record)) {
+          return schema;
+        }
+      }
+    }
+    throw new IllegalStateException("Missing Avro Schema " + record);
+  }
+
+  /*
+   * Reads the message with the .avsc of its schema version alone, as a reader of that version would
+   */
+  private static GenericRecord readWithSchema(byte[] message, Schema schema) throws IOException {
+    return new GenericDatumReader<GenericRecord>(schema)
+        .read(null, DecoderFactory.get().binaryDecoder(message, 3, message.length - 3, null));
+  }
+
+  @Test
+  void testLoadRequestsRoundTripPerSchemaVersion() throws IOException {
+    List<LoadRequest> loadRequests =
+        Arrays.asList(getLoadRequest("bundle-1"), getLoadRequest("bundle-2"));
+    for (int schemaVersion = 1;
+        schemaVersion <= LoaderMessageCodec.CURRENT_SCHEMA_VERSION;
+        schemaVersion++) {
+      byte[] message = LoaderMessageCodec.encodeLoadRequests(loadRequests, schemaVersion);
+      Assertions.assertTrue(LoaderMessageCodec.isBinary(message));
+      Assertions.assertEquals(schemaVersion, message[2]);
+      GenericRecord record = readWithSchema(message, parseSchema("LoadRequests", schemaVersion));
+      Assertions.assertEquals(2, ((List<?>) record.get("loadRequests")).size());
+      List<LoadRequest> decoded = LoaderMessageCodec.decodeLoadRequests(message);
+      Assertions.assertEquals(
+          GSON.toJson(
+              Arrays.asList(
+                  withoutNewerFields(getLoadRequest("bundle-1"), schemaVersion),
+                  withoutNewerFields(getLoadRequest("bundle-2"), schemaVersion))),
+          GSON.toJson(decoded),
+          "schema version " + schemaVersion);
+    }
+  }
+
+  @Test
+  void testLoaderEnvelopeRoundTripPerSchemaVersion() throws IOException {
+    for (int schemaVersion = 1;
+        schemaVersion <= LoaderMessageCodec.CURRENT_SCHEMA_VERSION;
+        schemaVersion++) {
+      byte[] message = LoaderMessageCodec.encodeLoaderEnvelope(getLoaderEnvelope(), schemaVersion);
+      Assertions.assertEquals(schemaVersion, message[2]);
+      GenericRecord record = readWithSchema(message, parseSchema("LoaderEnvelope", schemaVersion));
+      GenericRecord attributesRecord = (GenericRecord) record.get("attributes");
+      Assertions.assertEquals("project:US.bundle-1_0", attributesRecord.get("jobId").toString());
+      LoaderEnvelope expected = getLoaderEnvelope();
+      withoutNewerFields(expected.loadRequest, schemaVersion);
+      for (LoadRequest coalescedLoadRequest : expected.coalescedLoadRequests) {
+        withoutNewerFields(coalescedLoadRequest, schemaVersion);
+      }
+      Assertions.assertEquals(
+          GSON.toJson(expected),
+          GSON.toJson(LoaderMessageCodec.decodeLoaderEnvelope(message)),
+          "schema version " + schemaVersion);
+    }
+  }
+
+  @Test
+  void testJsonWriterFormat() {
+    int writerFormat = LoaderMessageCodec.getWriterFormat("json");
+    byte[] message = LoaderMessageCodec.encodeLoadRequest(getLoadRequest("bundle-1"), writerFormat);
+    Assertions.assertFalse(LoaderMessageCodec.isBinary(message));
+    Assertions.assertEquals(
+        GSON.toJson(getLoadRequest("bundle-1")),
+        GSON.toJson(LoaderMessageCodec.decodeLoadRequests(message).get(0)));
+    byte[] envelopeMessage =
+        LoaderMessageCodec.encodeLoaderEnvelope(getLoaderEnvelope(), writerFormat);
+    Assertions.assertEquals(
+        GSON.toJson(getLoaderEnvelope()),
+        GSON.toJson(LoaderMessageCodec.decodeLoaderEnvelope(envelopeMessage)));
+  }
+
+  @Test
+  void testWriterFormatOption() {
+    Assertions.assertEquals(
+        LoaderMessageCodec.JSON_FORMAT, LoaderMessageCodec.getWriterFormat("json"));
+    Assertions.assertEquals(1, LoaderMessageCodec.getWriterFormat("v1"));
+    Assertions.assertEquals(
+        LoaderMessageCodec.CURRENT_SCHEMA_VERSION,
+        LoaderMessageCodec.getWriterFormat("v" + LoaderMessageCodec.CURRENT_SCHEMA_VERSION));
+    Assertions.assertThrows(
+        IllegalArgumentException.class,
+        () -> LoaderMessageCodec.getWriterFormat("v0"));
+    Assertions.assertThrows(
+        IllegalArgumentException.class, () -> LoaderMessageCodec.getWriterFormat("avro"));
+  }
+}
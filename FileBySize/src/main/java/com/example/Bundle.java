@@ -18,6 +18,8 @@ public class Bundle implements Serializable {
   private LinkedHashSet<String> bundledFiles;
   @Nullable
   private String bundlePrefix;
+  @Nullable
+  private String traceContext;
 
   Bundle() {
     this.bundleSize = 0L;
@@ -51,6 +53,17 @@ public class Bundle implements Serializable {
     this.bundlePrefix = StringUtils.getCommonPrefix(this.bundledFiles.toArray(new String[0]));
   }
 
+  public String getTraceContext() {
+    return this.traceContext;
+  }
+
+  /*
+   * Trace Context(traceparent) the Load Request of the Bundle carries on to BQLoader
+   */
+  public void setTraceContext(String traceContext) {
+    this.traceContext = traceContext;
+  }
+
   @Override
   public String toString() {
     HashMap<String, Object> bundleMap = new HashMap<>();
@@ -60,6 +73,9 @@ public class Bundle implements Serializable {
     if (isBundlePrefixAvailable()) {
       bundleMap.put("bundlePrefix", this.getBundlePrefix());
     }
+    if (this.traceContext != null) {
+      bundleMap.put("traceContext", this.getTraceContext());
+    }
     return gson.toJson(bundleMap);
   }
 }
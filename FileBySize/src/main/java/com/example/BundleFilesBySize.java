@@ -22,6 +22,10 @@ import org.joda.time.Instant;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
 public class BundleFilesBySize extends DoFn<KV<String, String>, Bundle> {
 
   private static final Logger LOG = LoggerFactory.getLogger(BundleFilesBySize.class);
@@ -48,6 +52,7 @@ public class BundleFilesBySize extends DoFn<KV<String, String>, Bundle> {
   private Duration ON_TIME_EXPIRY_TIMER_MINUTES;
   private Duration LATE_EXPIRY_TIMER_MINUTES;
   private ObjectMapper objectMapper;
+  private final Tracer tracer;
 
 
   BundleFilesBySize(Options options) {
@@ -60,6 +65,7 @@ public class BundleFilesBySize extends DoFn<KV<String, String>, Bundle> {
     BUNDLE_ELEMENTS_THRESHOLD = options.getBundleElementsThreshold().get();
     ON_TIME_EXPIRY_TIMER_MINUTES = Duration.standardMinutes(options.getOnTimePaneExpiryTimerMinutes().get());
     LATE_EXPIRY_TIMER_MINUTES = Duration.standardMinutes(options.getLatePaneExpiryTimerMinutes().get());
+    this.tracer = new Tracer("FileBySize", options.getSpanSink().get());
   }
 
   private void flush(
@@ -69,15 +75,40 @@ public class BundleFilesBySize extends DoFn<KV<String, String>, Bundle> {
       ValueState<Integer> fileCountState) {
 
     Bundle bundle = new Bundle();
+    long flushTimeMs = System.currentTimeMillis();
+    long firstFileCreatedMs = flushTimeMs;
 
     for (FileNotification fileNotification: batchBufferState.read()) {
       bundle.add(
           "gs://" + fileNotification.bucket() + "/" + fileNotification.name(),
           fileNotification.size());
+      try {
+        firstFileCreatedMs =
+            Math.min(
+                firstFileCreatedMs,
+                java.time.Instant.parse(fileNotification.timeCreated()).toEpochMilli());
+      } catch (DateTimeParseException e) {
+        LOG.debug("Unparseable timeCreated {}", fileNotification.timeCreated());
+      }
     }
 
     bundle.setBundlePrefix();
 
+    /*
+     * The Trace of the Bundle starts with the time from its first file being created until it is
+     * flushed
+     */
+    if (this.tracer.isEnabled()) {
+      Map<String, String> spanAttributes = new HashMap<>();
+      spanAttributes.put("bundlePrefix", bundle.getBundlePrefix());
+      spanAttributes.put("filesCount", String.valueOf(bundle.getBundledFiles().size()));
+      spanAttributes.put("bundleSizeBytes", String.valueOf(bundle.getBundleSize()));
+      bundle.setTraceContext(
+          this.tracer
+              .record(null, "bundling", firstFileCreatedMs, flushTimeMs, spanAttributes)
+              .toTraceparent());
+    }
+
     LOG.info(bundle.toString());
 
     /*
@@ -1,6 +1,7 @@
 package com.example;
 
 import org.apache.beam.runners.dataflow.options.DataflowPipelineOptions;
+import org.apache.beam.sdk.options.Default;
 import org.apache.beam.sdk.options.Description;
 import org.apache.beam.sdk.options.PipelineOptions;
 import org.apache.beam.sdk.options.Validation;
@@ -85,4 +86,11 @@ public interface Options extends PipelineOptions, DataflowPipelineOptions {
   ValueProvider<String> getErrorOutputPrefix();
 
   void setErrorOutputPrefix(ValueProvider<String> value);
+
+  @Description(
+      "Sink of the Spans tracing the Bundles: none, jsonl:<local file> or class:<SpanSink class name>. Defaults to none")
+  @Default.String("none")
+  ValueProvider<String> getSpanSink();
+
+  void setSpanSink(ValueProvider<String> value);
 }
@@ -0,0 +1,235 @@
+/*
+#
+# Copyright (C) 2018 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+ */
+package com.example;
+
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.common.hash.Hashing;
+import org.apache.beam.sdk.io.gcp.bigquery.TableRowJsonCoder;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.GroupByKey;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Orders the TableRows by the Clustering Fields before they are written to Load Files, so that
+ * freshly loaded data is already well clustered.
+ * Rows are grouped by Partition Column value and by the hash of the first Clustering Field, so all
+ * rows sharing a leading Clustering value end up in the same group. Each group is sorted in runs of
+ * at most the configured buffer size to keep worker memory bounded, and the runs are emitted in order
+ * into the Load Files of the same bundle.
+ */
+public class ClusteringSortTransform extends PTransform<PCollection<TableRow>, PCollection<TableRow>> {
+
+  private final List<String> clusteringFields;
+  private final List<String> clusteringFieldTypes;
+  private final String partitionColumn;
+  private final int shards;
+  private final int bufferRows;
+
+  public ClusteringSortTransform(
+          List<String> clusteringFields,
+          String bqSchema,
+          String partitionColumn,
+          int shards,
+          int bufferRows) {
+    this.clusteringFields = clusteringFields;
+    this.clusteringFieldTypes = getClusteringFieldTypes(bqSchema, clusteringFields);
+    this.partitionColumn = partitionColumn;
+    this.shards = shards;
+    this.bufferRows = bufferRows;
+  }
+
+  /*
+   * The BQ type of each Clustering Field, STRING for a field missing from the BQ Schema
+   */
+  static List<String> getClusteringFieldTypes(String bqSchema, List<String> clusteringFields) {
+    Map<String, String> fieldTypes = new HashMap<String, String>();
+    for (TableFieldSchema field : SchemaUtils.getTableSchema(bqSchema).getFields()) {
+      fieldTypes.put(field.getName(), field.getType());
+    }
+    List<String> clusteringFieldTypes = new ArrayList<String>();
+    for (String clusteringField : clusteringFields) {
+      clusteringFieldTypes.add(fieldTypes.getOrDefault(clusteringField, "STRING"));
+    }
+    return clusteringFieldTypes;
+  }
+
+  /*
+   * Compares two values of a Clustering Field by its BQ type: INTEGER and NUMERIC values as exact
+   * numbers, FLOAT values as doubles, everything else as text. Missing values sort first, matching how
+   * BigQuery orders NULLs within a clustered block, and values of a numeric field which do not parse
+   * sort after the numbers, so that the order stays total whatever the rows hold
+   */
+  static int compareClusteringValues(String type, Object left, Object right) {
+    if (left == null || right == null) {
+      return left == null ? (right == null ? 0 : -1) : 1;
+    }
+    switch (type == null ? "STRING" : type.toUpperCase()) {
+      case "INTEGER":
+      case "INT64":
+      case "NUMERIC":
+        return compareNumbers(toBigDecimal(left), toBigDecimal(right), left, right);
+      case "FLOAT":
+      case "FLOAT64":
+        return compareNumbers(toDouble(left), toDouble(right), left, right);
+      default:
+        return left.toString().compareTo(right.toString());
+    }
+  }
+
+  private static <T extends Comparable<T>> int compareNumbers(T leftNumber, T rightNumber, Object left, Object right) {
+    if (leftNumber == null || rightNumber == null) {
+      if (leftNumber == null && rightNumber == null) {
+        return left.toString().compareTo(right.toString());
+      }
+      return leftNumber == null ? 1 : -1;
+    }
+    return leftNumber.compareTo(rightNumber);
+  }
+
+  private static BigDecimal toBigDecimal(Object value) {
+    try {
+      return new BigDecimal(value.toString().trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static Double toDouble(Object value) {
+    try {
+      return Double.valueOf(value.toString().trim());
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  static Comparator<TableRow> getClusteringOrder(List<String> clusteringFields, List<String> clusteringFieldTypes) {
+    return (left, right) -> {
+      for (int i = 0; i < clusteringFields.size(); i++) {
+        String clusteringField = clusteringFields.get(i);
+        int compared = compareClusteringValues(
+                clusteringFieldTypes.get(i), left.get(clusteringField), right.get(clusteringField));
+        if (compared != 0) {
+          return compared;
+        }
+      }
+      return 0;
+    };
+  }
+
+  @Override
+  public PCollection<TableRow> expand(PCollection<TableRow> input) {
+    return input
+            .apply(
+                    "Key Rows by Partition and Clustering Shard",
+                    ParDo.of(new KeyByClusteringShardDoFn(
+                            this.clusteringFields.get(0), this.partitionColumn, this.shards)))
+            .apply("Group Rows by Clustering Shard", GroupByKey.<KV<String, Integer>, TableRow>create())
+            .apply(
+                    "Sort Rows by Clustering Fields",
+                    ParDo.of(new SortByClusteringFieldsDoFn(
+                            this.clusteringFields, this.clusteringFieldTypes, this.bufferRows)))
+            .setCoder(TableRowJsonCoder.of());
+  }
+
+  static class KeyByClusteringShardDoFn extends DoFn<TableRow, KV<KV<String, Integer>, TableRow>> {
+
+    private final String leadingClusteringField;
+    private final String partitionColumn;
+    private final int shards;
+
+    KeyByClusteringShardDoFn(String leadingClusteringField, String partitionColumn, int shards) {
+      this.leadingClusteringField = leadingClusteringField;
+      this.partitionColumn = partitionColumn;
+      this.shards = shards;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      Object partitionValue = context.element().get(this.partitionColumn);
+      Object leadingValue = context.element().get(this.leadingClusteringField);
+      int shard = Math.floorMod(
+              Hashing.murmur3_32()
+                      .hashString(String.valueOf(leadingValue), StandardCharsets.UTF_8)
+                      .asInt(),
+              this.shards);
+      context.output(KV.of(KV.of(String.valueOf(partitionValue), shard), context.element()));
+    }
+  }
+
+  static class SortByClusteringFieldsDoFn
+          extends DoFn<KV<KV<String, Integer>, Iterable<TableRow>>, TableRow> {
+
+    private final List<String> clusteringFields;
+    private final List<String> clusteringFieldTypes;
+    private final int bufferRows;
+    private final Counter sortedRows;
+    private final Counter sortedRuns;
+    private transient Comparator<TableRow> clusteringOrder;
+
+    SortByClusteringFieldsDoFn(List<String> clusteringFields, List<String> clusteringFieldTypes, int bufferRows) {
+      this.clusteringFields = clusteringFields;
+      this.clusteringFieldTypes = clusteringFieldTypes;
+      this.bufferRows = bufferRows;
+      this.sortedRows = Metrics.counter(ClusteringSortTransform.class, "clustering-sorted-row-counts");
+      this.sortedRuns = Metrics.counter(ClusteringSortTransform.class, "clustering-sorted-run-counts");
+    }
+
+    @Setup
+    public void doSetup() {
+      this.clusteringOrder = getClusteringOrder(this.clusteringFields, this.clusteringFieldTypes);
+    }
+
+    private void emitSortedRun(ProcessContext context, List<TableRow> buffer) {
+      buffer.sort(this.clusteringOrder);
+      for (TableRow tableRow : buffer) {
+        context.output(tableRow);
+      }
+      this.sortedRows.inc(buffer.size());
+      this.sortedRuns.inc();
+      buffer.clear();
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      List<TableRow> buffer = new ArrayList<TableRow>();
+      for (TableRow tableRow : context.element().getValue()) {
+        buffer.add(tableRow);
+        if (buffer.size() >= this.bufferRows) {
+          emitSortedRun(context, buffer);
+        }
+      }
+      if (!buffer.isEmpty()) {
+        emitSortedRun(context, buffer);
+      }
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+#
+# Copyright (C) 2018 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+ */
+package com.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hashing;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.Flatten;
+import org.apache.beam.sdk.transforms.GroupByKey;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionList;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TupleTagList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/*
+ * Drops duplicate JSON rows using one Bloom Filter per Partition Column value(day).
+ * Every day is split into a fixed number of shards by the hash of the DeDup Key, so that
+ * the filters are spread across workers and each shard holds a filter of bounded size.
+ * Being probabilistic, a unique row is dropped with at most the configured False Positive Rate
+ * as long as a shard does not receive more than the expected number of rows.
+ * Rows without a DeDup Key cannot be deduplicated and bypass the GroupByKey.
+ * Only the rows of the input are compared, JsonToBQ applies it per Input Prefix, so a row repeated
+ * under another Input Prefix is not dropped.
+ */
+public class DeDuplicateTransform extends PTransform<PCollection<String>, PCollectionTuple> {
+
+  public static final TupleTag<String> DEDUP_ROWS = new TupleTag<String>() {
+  };
+  public static final TupleTag<KV<String, String>> DEDUP_FAILED
+          = new TupleTag<KV<String, String>>() {
+  };
+  private static final TupleTag<KV<String, KV<String, String>>> KEYED_ROWS
+          = new TupleTag<KV<String, KV<String, String>>>() {
+  };
+  private static final TupleTag<String> UNKEYED_ROWS = new TupleTag<String>() {
+  };
+
+  private final String deDupKeyFields;
+  private final String partitionColumn;
+  private final int shards;
+  private final long expectedRowsPerShard;
+  private final double falsePositiveRate;
+
+  public DeDuplicateTransform(
+          String deDupKeyFields,
+          String partitionColumn,
+          int shards,
+          long expectedRowsPerShard,
+          double falsePositiveRate) {
+    this.deDupKeyFields = deDupKeyFields;
+    this.partitionColumn = partitionColumn;
+    this.shards = shards;
+    this.expectedRowsPerShard = expectedRowsPerShard;
+    this.falsePositiveRate = falsePositiveRate;
+  }
+
+  /*
+   * Concatenates the values of the DeDup Key Fields. Nested fields are addressed as parent.child.
+   * Returns null if none of the fields are present, since such rows cannot be deduplicated
+   */
+  static String getDeDupKey(JsonNode jsonNode, List<String> keyFields) {
+    StringBuilder deDupKey = new StringBuilder();
+    boolean hasKeyField = false;
+    for (String keyField : keyFields) {
+      JsonNode keyNode = jsonNode.at("/" + keyField.replace('.', '/'));
+      if (!keyNode.isMissingNode() && !keyNode.isNull()) {
+        hasKeyField = true;
+        deDupKey.append(keyNode.toString());
+      }
+      deDupKey.append('\u0000');
+    }
+    return hasKeyField ? deDupKey.toString() : null;
+  }
+
+  @Override
+  public PCollectionTuple expand(PCollection<String> input) {
+    PCollectionTuple keyedRows = input
+            .apply(
+                    "Key Rows by Partition and DeDup Shard",
+                    ParDo.of(new KeyByDeDupShardDoFn(this.deDupKeyFields, this.partitionColumn, this.shards))
+                            .withOutputTags(KEYED_ROWS, TupleTagList.of(UNKEYED_ROWS).and(DEDUP_FAILED)));
+    PCollection<String> uniqueRows = keyedRows
+            .get(KEYED_ROWS)
+            .apply("Group Rows by DeDup Shard", GroupByKey.<String, KV<String, String>>create())
+            .apply(
+                    "Drop Duplicate Rows",
+                    ParDo.of(new BloomFilterDeDupDoFn(this.expectedRowsPerShard, this.falsePositiveRate)));
+    PCollection<String> deDupRows = PCollectionList.of(uniqueRows)
+            .and(keyedRows.get(UNKEYED_ROWS))
+            .apply("Merge Unique and UnKeyed Rows", Flatten.<String>pCollections());
+    return PCollectionTuple.of(DEDUP_ROWS, deDupRows).and(DEDUP_FAILED, keyedRows.get(DEDUP_FAILED));
+  }
+
+  /*
+   * Emits KV(partition#shard, KV(deDupKey, row)). Rows without a DeDup Key go to UNKEYED_ROWS
+   * as they are, since giving them all the same key would send them to a single shard.
+   * Rows which do not parse go to the Error Table
+   */
+  static class KeyByDeDupShardDoFn extends DoFn<String, KV<String, KV<String, String>>> {
+
+    private final String deDupKeyFields;
+    private final String partitionColumn;
+    private final int shards;
+    private final Counter unKeyedRows;
+    private final Counter failedRows;
+    private transient ObjectMapper objectMapper;
+    private transient List<String> keyFields;
+
+    KeyByDeDupShardDoFn(String deDupKeyFields, String partitionColumn, int shards) {
+      this.deDupKeyFields = deDupKeyFields;
+      this.partitionColumn = partitionColumn;
+      this.shards = shards;
+      this.unKeyedRows = Metrics.counter(DeDuplicateTransform.class, "dedup-unkeyed-row-counts");
+      this.failedRows = Metrics.counter(DeDuplicateTransform.class, "dedup-failed-row-counts");
+    }
+
+    @Setup
+    public void doSetup() {
+      this.objectMapper = new ObjectMapper();
+      this.keyFields = Arrays.asList(this.deDupKeyFields.split(","))
+              .stream().map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      try {
+        JsonNode jsonNode = this.objectMapper.readTree(context.element());
+        String partitionValue = jsonNode.path(this.partitionColumn).asText();
+        String deDupKey = getDeDupKey(jsonNode, this.keyFields);
+        if (deDupKey == null) {
+          context.output(UNKEYED_ROWS, context.element());
+          this.unKeyedRows.inc();
+          return;
+        }
+        int shard = Math.floorMod(
+                Hashing.murmur3_32().hashString(deDupKey, StandardCharsets.UTF_8).asInt(), this.shards);
+        context.output(KEYED_ROWS, KV.of(partitionValue + '#' + shard, KV.of(deDupKey, context.element())));
+      } catch (IOException e) {
+        KV<String, String> errorData = KV.of(
+                context.element(),
+                this.objectMapper.createObjectNode()
+                        .put("message", "unable to parse JSON for DeDup: " + e.getMessage())
+                        .toString());
+        context.output(DEDUP_FAILED, errorData);
+        this.failedRows.inc();
+      }
+    }
+  }
+
+  static class BloomFilterDeDupDoFn
+          extends DoFn<KV<String, Iterable<KV<String, String>>>, String> {
+
+    private final long expectedRowsPerShard;
+    private final double falsePositiveRate;
+    private final Counter uniqueRows;
+    private final Counter duplicateRows;
+    private final Counter saturatedShards;
+
+    BloomFilterDeDupDoFn(long expectedRowsPerShard, double falsePositiveRate) {
+      this.expectedRowsPerShard = expectedRowsPerShard;
+      this.falsePositiveRate = falsePositiveRate;
+      this.uniqueRows = Metrics.counter(DeDuplicateTransform.class, "dedup-unique-row-counts");
+      this.duplicateRows = Metrics.counter(DeDuplicateTransform.class, "dedup-dropped-duplicate-row-counts");
+      this.saturatedShards = Metrics.counter(DeDuplicateTransform.class, "dedup-saturated-shard-counts");
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      /*
+       * The filter is sized once per shard, so memory stays bounded regardless of the shard size.
+       * The rows are streamed from the GroupByKey iterable and never held in memory
+       */
+      BloomFilter<CharSequence> bloomFilter = BloomFilter.create(
+              Funnels.stringFunnel(StandardCharsets.UTF_8), this.expectedRowsPerShard, this.falsePositiveRate);
+      long insertedRows = 0L;
+      for (KV<String, String> keyedRow : context.element().getValue()) {
+        if (bloomFilter.put(keyedRow.getKey())) {
+          context.output(keyedRow.getValue());
+          this.uniqueRows.inc();
+          insertedRows++;
+        } else {
+          this.duplicateRows.inc();
+        }
+      }
+      if (insertedRows > this.expectedRowsPerShard) {
+        /* False Positive Rate is no longer guaranteed for this shard. Increase the shards */
+        this.saturatedShards.inc();
+      }
+    }
+  }
+}
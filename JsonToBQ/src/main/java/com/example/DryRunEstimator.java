@@ -0,0 +1,450 @@
+/*
+#
+# Copyright (C) 2018 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+ */
+package com.example;
+
+import com.google.api.services.bigquery.model.TableRow;
+import com.sun.management.OperatingSystemMXBean;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.runners.direct.DirectOptions;
+import org.apache.beam.runners.direct.DirectRunner;
+import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.coders.AvroCoder;
+import org.apache.beam.sdk.coders.Coder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.io.Compression;
+import org.apache.beam.sdk.io.FileSystems;
+import org.apache.beam.sdk.io.fs.EmptyMatchTreatment;
+import org.apache.beam.sdk.io.fs.MatchResult;
+import org.apache.beam.sdk.io.gcp.bigquery.TableRowJsonCoder;
+import org.apache.beam.sdk.options.PipelineOptionsFactory;
+import org.apache.beam.sdk.transforms.Create;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.util.CoderUtils;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.beam.sdk.values.PCollectionTuple;
+import org.apache.beam.sdk.values.TupleTag;
+import org.apache.beam.sdk.values.TupleTagList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/*
+ * Sizes a JsonToBQ job before launching it. Matches the input patterns and sums the file sizes,
+ * then reads a random subset of the files locally and pushes a sampled fraction of their rows
+ * through the same stages as the Pipeline(including the DeDup, Parquet Archive and Clustering
+ * Sort stages when enabled), measuring the CPU time per row and the output expansion ratio.
+ * Every stage runs in its own local DirectRunner Pipeline, so that its CPU time can be told apart.
+ * The sample is extrapolated to the total input size and logged.
+ */
+public class DryRunEstimator {
+
+  /* Dataflow Batch Jobs default to n1-standard-1 Workers */
+  private static final String DEFAULT_WORKER_MACHINE_TYPE = "n1-standard-1";
+  private static final Pattern MACHINE_TYPE_CPUS = Pattern.compile("-(\\d+)$");
+  private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+  private static final OperatingSystemMXBean OPERATING_SYSTEM_MX_BEAN
+          = (OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+  /* Output of the stage Pipelines, by the id of the run */
+  private static final Map<String, List<Object>> COLLECTED_ELEMENTS = new ConcurrentHashMap<String, List<Object>>();
+  private static final Logger LOG = LoggerFactory.getLogger(DryRunEstimator.class);
+  private final Options options;
+  private final String jsonSchema;
+  private final String bqSchema;
+  private final DirectOptions stageOptions;
+  private final Random random = new Random();
+  private final Map<String, Long> stageCpuNanos = new LinkedHashMap<String, Long>();
+
+  public DryRunEstimator(Options options, String jsonSchema, String bqSchema) {
+    this.options = options;
+    this.jsonSchema = jsonSchema;
+    this.bqSchema = bqSchema;
+    this.stageOptions = PipelineOptionsFactory.as(DirectOptions.class);
+    this.stageOptions.setRunner(DirectRunner.class);
+    this.stageOptions.setBlockOnRun(true);
+    /* The checks would add their own CPU time to every stage */
+    this.stageOptions.setEnforceImmutability(false);
+    this.stageOptions.setEnforceEncodability(false);
+  }
+
+  static int getWorkerCpus(String workerMachineType) {
+    Matcher matcher = MACHINE_TYPE_CPUS.matcher(
+            workerMachineType == null ? DEFAULT_WORKER_MACHINE_TYPE : workerMachineType);
+    return matcher.find() ? Integer.parseInt(matcher.group(1)) : 1;
+  }
+
+  static int getRecommendedWorkers(double cpuHours, int workerCpus, double targetHours, int maxNumWorkers) {
+    int workers = (int) Math.max(1L, (long) Math.ceil(cpuHours / (workerCpus * targetHours)));
+    return maxNumWorkers > 0 ? Math.min(workers, maxNumWorkers) : workers;
+  }
+
+  private static long cpuTimeNanos() {
+    return THREAD_MX_BEAN.getCurrentThreadCpuTime();
+  }
+
+  /*
+   * The DirectRunner runs the stage Pipelines on its own threads, so they are measured by the CPU
+   * time of the whole process
+   */
+  private static long processCpuTimeNanos() {
+    return OPERATING_SYSTEM_MX_BEAN.getProcessCpuTime();
+  }
+
+  /*
+   * Runs the input through the stage in a DirectRunner Pipeline and returns the stage output,
+   * collected by the id of the run
+   */
+  @SuppressWarnings("unchecked")
+  private <InputT, OutputT> List<OutputT> runPipeline(
+          List<InputT> input, Coder<InputT> inputCoder, PTransform<PCollection<InputT>, PCollection<OutputT>> stage) {
+    String runId = UUID.randomUUID().toString();
+    COLLECTED_ELEMENTS.put(runId, Collections.synchronizedList(new ArrayList<Object>()));
+    try {
+      Pipeline pipeline = Pipeline.create(this.stageOptions);
+      pipeline
+              .apply("Read Sampled Input", Create.of(input).withCoder(inputCoder))
+              .apply("Run Stage", stage)
+              .apply("Collect Stage Output", ParDo.of(new CollectElementsDoFn<OutputT>(runId)));
+      pipeline.run().waitUntilFinish();
+      List<OutputT> output = new ArrayList<OutputT>();
+      for (Object element : COLLECTED_ELEMENTS.get(runId)) {
+        output.add((OutputT) element);
+      }
+      return output;
+    } finally {
+      COLLECTED_ELEMENTS.remove(runId);
+    }
+  }
+
+  /*
+   * Runs the sampled rows through a single stage of the chain and records its CPU time, less the
+   * CPU time of passing the same input through a Pipeline without the stage
+   */
+  private <InputT, OutputT> List<OutputT> runStage(
+          String stageName,
+          List<InputT> input,
+          Coder<InputT> inputCoder,
+          PTransform<PCollection<InputT>, PCollection<OutputT>> stage) {
+    long startCpuNanos = processCpuTimeNanos();
+    runPipeline(input, inputCoder, identity(inputCoder));
+    long pipelineCpuNanos = processCpuTimeNanos() - startCpuNanos;
+    startCpuNanos = processCpuTimeNanos();
+    List<OutputT> output = runPipeline(input, inputCoder, stage);
+    addStageCpuNanos(stageName, Math.max(0L, processCpuTimeNanos() - startCpuNanos - pipelineCpuNanos));
+    return output;
+  }
+
+  private static <T> PTransform<PCollection<T>, PCollection<T>> identity(Coder<T> coder) {
+    return PTransform.compose((PCollection<T> rows) -> rows.apply(ParDo.of(new IdentityDoFn<T>())).setCoder(coder));
+  }
+
+  /*
+   * The successful output of a DoFn of the chain, with its failed output declared as in the Pipeline
+   */
+  private static <InputT, OutputT> PTransform<PCollection<InputT>, PCollection<OutputT>> parDo(
+          DoFn<InputT, OutputT> doFn, TupleTag<OutputT> successTag, TupleTag<?> failedTag) {
+    return PTransform.compose((PCollection<InputT> rows) -> rows
+            .apply(ParDo.of(doFn).withOutputTags(successTag, TupleTagList.of(failedTag)))
+            .get(successTag));
+  }
+
+  private void addStageCpuNanos(String stageName, long cpuNanos) {
+    this.stageCpuNanos.merge(stageName, cpuNanos, Long::sum);
+  }
+
+  private static class IdentityDoFn<T> extends DoFn<T, T> {
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      context.output(context.element());
+    }
+  }
+
+  private static class CollectElementsDoFn<T> extends DoFn<T, Void> {
+
+    private final String runId;
+
+    CollectElementsDoFn(String runId) {
+      this.runId = runId;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      COLLECTED_ELEMENTS.get(this.runId).add(context.element());
+    }
+  }
+
+  /*
+   * Archives the archived rows as Parquet into a local temporary directory, which is deleted after
+   */
+  private List<String> runParquetArchiveStage(List<String> rows) throws IOException {
+    Path archiveDirectory = Files.createTempDirectory("dry-run-archive");
+    try {
+      String partitionColumn = this.options.getOutputTablePartitionColumn().get();
+      String bqSchema = this.bqSchema;
+      KvCoder<String, GenericRecord> archiveRecordCoder = KvCoder.of(
+              StringUtf8Coder.of(), AvroCoder.of(ParquetSchemaUtils.getAvroSchema(bqSchema, "Row")));
+      ParquetArchiveTransform parquetArchiveTransform = new ParquetArchiveTransform(
+              archiveDirectory.toString(),
+              "dry-run",
+              partitionColumn,
+              bqSchema,
+              this.options.getParquetArchiveShards().get(),
+              this.options.getParquetRowGroupSizeBytes().get(),
+              this.options.getParquetFileSizeBytes().get());
+      return runStage(
+              "Write Parquet Archive",
+              rows,
+              StringUtf8Coder.of(),
+              PTransform.compose((PCollection<String> transformedRows) -> {
+                PCollectionTuple archiveRecords = transformedRows.apply(
+                        ParDo.of(new ToArchiveRecordDoFn(partitionColumn, bqSchema))
+                                .withOutputTags(
+                                        ToArchiveRecordDoFn.ARCHIVE_RECORDS,
+                                        TupleTagList.of(ToArchiveRecordDoFn.ARCHIVE_FAILED)
+                                                .and(ToArchiveRecordDoFn.ARCHIVED_ROWS)));
+                archiveRecords
+                        .get(ToArchiveRecordDoFn.ARCHIVE_RECORDS)
+                        .setCoder(archiveRecordCoder)
+                        .apply(parquetArchiveTransform);
+                return archiveRecords.get(ToArchiveRecordDoFn.ARCHIVED_ROWS);
+              }));
+    } finally {
+      try (Stream<Path> archiveFiles = Files.walk(archiveDirectory)) {
+        archiveFiles.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+      }
+    }
+  }
+
+  private List<TableRow> runDoFnChain(List<String> sampledRows) throws IOException {
+    /* Warm up the DirectRunner, so that its start up is not taken off the CPU time of the first stage */
+    runPipeline(sampledRows, StringUtf8Coder.of(), identity(StringUtf8Coder.of()));
+    List<String> rows = sampledRows;
+    if (!this.options.getCustomDataType().get().trim().isEmpty()) {
+      Boolean exclude = this.options.getFilterCustomFields().get().isEmpty();
+      rows = runStage(
+              "Extract Custom Data",
+              rows,
+              StringUtf8Coder.of(),
+              parDo(
+                      new ExtractCustomDoFn(
+                              exclude,
+                              this.options.getCustomDataType().get(),
+                              exclude ? this.options.getExcludedFilterCustomFields().get() : this.options.getFilterCustomFields().get(),
+                              this.options.getValidCustomDataTypes().get(),
+                              this.options.getCustomDataTypeFieldSelector().get(),
+                              this.options.getCustomDataTypeExcludingFieldSelectorValue().get()),
+                      ExtractCustomDoFn.EXTRACTCUSTOM_SUCCESS,
+                      ExtractCustomDoFn.EXTRACTCUSTOM_FAILED));
+    }
+    rows = runStage(
+            "Desensitize Data",
+            rows,
+            StringUtf8Coder.of(),
+            parDo(
+                    new DeSensitizeDoFn(this.options.getSensitiveFields(), this.options.getGeoRootFieldName()),
+                    DeSensitizeDoFn.DESENSITIZED_SUCCESS,
+                    DeSensitizeDoFn.DESENSITIZED_FAILED));
+    rows = runStage(
+            "Validate JSON",
+            rows,
+            StringUtf8Coder.of(),
+            parDo(new ValidateJsonDoFn(this.jsonSchema), ValidateJsonDoFn.VALIDATEDJSON, ValidateJsonDoFn.INVALIDATEDJSON));
+    rows = runStage(
+            "Transform JSON",
+            rows,
+            StringUtf8Coder.of(),
+            parDo(
+                    new TransformJsonDoFn(
+                            this.options.getTimestampColumn(),
+                            this.options.getOutputTablePartitionColumn(),
+                            this.options.getPartitionColumnDateFormat(),
+                            this.options.getSanitizeJson(),
+                            this.options.getStringifyCustomData(),
+                            this.options.getCustomDataField()),
+                    TransformJsonDoFn.XFORM_SUCCESS,
+                    TransformJsonDoFn.XFORM_FAILED));
+    if (!this.options.getDeDupKeyFields().get().trim().isEmpty()) {
+      DeDuplicateTransform deDuplicateTransform = new DeDuplicateTransform(
+              this.options.getDeDupKeyFields().get(),
+              this.options.getOutputTablePartitionColumn().get(),
+              this.options.getDeDupShards().get(),
+              this.options.getDeDupExpectedRowsPerShard().get(),
+              this.options.getDeDupFalsePositiveRate().get());
+      rows = runStage(
+              "DeDuplicate Rows",
+              rows,
+              StringUtf8Coder.of(),
+              PTransform.compose((PCollection<String> transformedRows) -> transformedRows
+                      .apply(deDuplicateTransform)
+                      .get(DeDuplicateTransform.DEDUP_ROWS)));
+    }
+    if (!this.options.getParquetArchivePrefix().get().trim().isEmpty()) {
+      rows = runParquetArchiveStage(rows);
+    }
+    List<TableRow> tableRows = runStage(
+            "JSON to TableRow",
+            rows,
+            StringUtf8Coder.of(),
+            parDo(new JsonToTableRowDoFn(), JsonToTableRowDoFn.VALIDTABLEROWS, JsonToTableRowDoFn.INVALIDTABLEROWS));
+    List<String> clusteringFields = JsonToBQ.getClusteringFields(this.options.getClusteringFields().get());
+    if (this.options.getSortByClusteringFields().get() && !clusteringFields.isEmpty()) {
+      tableRows = runStage(
+              "Sort by Clustering Fields",
+              tableRows,
+              TableRowJsonCoder.of(),
+              new ClusteringSortTransform(
+                      clusteringFields,
+                      this.bqSchema,
+                      this.options.getOutputTablePartitionColumn().get(),
+                      this.options.getClusteringSortShards().get(),
+                      this.options.getClusteringSortBufferRows().get()));
+    }
+    return tableRows;
+  }
+
+  public void estimate() throws Exception {
+    List<MatchResult.Metadata> inputFiles = new ArrayList<MatchResult.Metadata>();
+    long totalInputBytes = 0L;
+    for (String prefix : Arrays.asList(this.options.getInputPrefixes().get().split(","))) {
+      MatchResult matchResult = FileSystems.match(
+              JsonToBQ.getInputFilePattern(prefix), EmptyMatchTreatment.ALLOW_IF_WILDCARD);
+      for (MatchResult.Metadata metadata : matchResult.metadata()) {
+        inputFiles.add(metadata);
+        totalInputBytes += metadata.sizeBytes();
+      }
+    }
+    if (inputFiles.isEmpty()) {
+      LOG.info("Dry Run: No Input Files matched for {}", this.options.getInputPrefixes().get());
+      return;
+    }
+
+    /*
+     * Read whole files in random order so that lines per input byte can be extrapolated, and sample
+     * rows from them until the maximum sample size is reached
+     */
+    Collections.shuffle(inputFiles, this.random);
+    double sampleFraction = this.options.getDryRunSampleFraction().get();
+    int maxSampleRows = this.options.getDryRunMaxSampleRows().get();
+    List<String> sampledRows = new ArrayList<String>();
+    long readFiles = 0L;
+    long readBytes = 0L;
+    long readLines = 0L;
+    long sampledInputBytes = 0L;
+    long readStartCpuNanos = cpuTimeNanos();
+    for (MatchResult.Metadata inputFile : inputFiles) {
+      if (sampledRows.size() >= maxSampleRows) {
+        break;
+      }
+      Compression compression = Compression.detect(inputFile.resourceId().toString());
+      try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(
+              Channels.newInputStream(compression.readDecompressed(FileSystems.open(inputFile.resourceId()))),
+              StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = bufferedReader.readLine()) != null) {
+          readLines++;
+          if (sampledRows.size() < maxSampleRows && this.random.nextDouble() < sampleFraction) {
+            sampledRows.add(line);
+            sampledInputBytes += line.getBytes(StandardCharsets.UTF_8).length;
+          }
+        }
+      }
+      readFiles++;
+      readBytes += inputFile.sizeBytes();
+    }
+    long readCpuNanos = cpuTimeNanos() - readStartCpuNanos;
+    if (sampledRows.isEmpty() || readBytes == 0L) {
+      LOG.info("Dry Run: No Rows sampled. Increase dryRunSampleFraction");
+      return;
+    }
+
+    List<TableRow> outputRows = runDoFnChain(sampledRows);
+    long chainCpuNanos = 0L;
+    for (long cpuNanos : this.stageCpuNanos.values()) {
+      chainCpuNanos += cpuNanos;
+    }
+    long sampledOutputBytes = 0L;
+    for (TableRow outputRow : outputRows) {
+      sampledOutputBytes += CoderUtils.encodeToByteArray(TableRowJsonCoder.of(), outputRow).length;
+    }
+
+    double estimatedRows = (double) readLines / readBytes * totalInputBytes;
+    double cpuNanosPerRow = (double) chainCpuNanos / sampledRows.size();
+    double readCpuNanosPerByte = (double) readCpuNanos / readBytes;
+    double cpuHours = (estimatedRows * cpuNanosPerRow + totalInputBytes * readCpuNanosPerByte) / 3.6e12;
+    double expansionRatio = (double) sampledOutputBytes / sampledInputBytes;
+    double estimatedOutputBytes = estimatedRows * sampledOutputBytes / sampledRows.size();
+    /*
+     * Reading, transforming and writing load files does not shuffle. The DeDup stage, the
+     * Parquet Archive and the Clustering Sort each shuffle all the transformed rows once
+     */
+    int shuffleStages = (this.options.getDeDupKeyFields().get().trim().isEmpty() ? 0 : 1)
+            + (this.options.getParquetArchivePrefix().get().trim().isEmpty() ? 0 : 1)
+            + (this.options.getSortByClusteringFields().get()
+                    && !this.options.getClusteringFields().get().trim().isEmpty() ? 1 : 0);
+    double shuffleBytes = estimatedOutputBytes * shuffleStages;
+    String workerMachineType = this.options.getWorkerMachineType() == null
+            ? DEFAULT_WORKER_MACHINE_TYPE : this.options.getWorkerMachineType();
+    int workerCpus = getWorkerCpus(workerMachineType);
+    int recommendedWorkers = getRecommendedWorkers(
+            cpuHours, workerCpus, this.options.getDryRunTargetHours().get(), this.options.getMaxNumWorkers());
+
+    LOG.info(String.format("Dry Run for Input Prefixes: %s", this.options.getInputPrefixes().get()));
+    LOG.info(String.format("  Input Files: %d, Input Bytes: %d", inputFiles.size(), totalInputBytes));
+    LOG.info(String.format("  Sampled Files: %d, Sampled Rows: %d of %d Lines read",
+            readFiles, sampledRows.size(), readLines));
+    LOG.info(String.format("  Estimated Input Rows: %.0f", estimatedRows));
+    LOG.info(String.format("  Read CPU: %.1f ns/byte", readCpuNanosPerByte));
+    for (Map.Entry<String, Long> stage : this.stageCpuNanos.entrySet()) {
+      LOG.info(String.format("  %s CPU: %.1f us/row",
+              stage.getKey(), stage.getValue() / 1000.0 / sampledRows.size()));
+    }
+    LOG.info(String.format("  Output Expansion Ratio: %.3f (%d of %d sampled rows loaded)",
+            expansionRatio, outputRows.size(), sampledRows.size()));
+    LOG.info(String.format("  Estimated Output Bytes: %.0f", estimatedOutputBytes));
+    LOG.info(String.format("  Estimated Total CPU Hours: %.2f", cpuHours));
+    LOG.info(String.format("  Estimated Shuffle Bytes: %.0f", shuffleBytes));
+    LOG.info(String.format("  Recommended Workers: %d x %s to finish in %.1f hours",
+            recommendedWorkers, workerMachineType, this.options.getDryRunTargetHours().get()));
+  }
+}
@@ -17,12 +17,17 @@
  */
 package com.example;
 
+import com.google.api.services.bigquery.model.Clustering;
 import com.google.api.services.bigquery.model.TableFieldSchema;
 import com.google.api.services.bigquery.model.TableReference;
 import com.google.api.services.bigquery.model.TableRow;
 import com.google.api.services.bigquery.model.TableSchema;
 import com.google.api.services.bigquery.model.TimePartitioning;
+import org.apache.avro.generic.GenericRecord;
 import org.apache.beam.sdk.Pipeline;
+import org.apache.beam.sdk.coders.AvroCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
 import org.apache.beam.sdk.io.Compression;
 import org.apache.beam.sdk.io.FileIO;
 import org.apache.beam.sdk.io.fs.EmptyMatchTreatment;
@@ -53,7 +58,69 @@ public class JsonToBQ {
   private static final Logger LOG = LoggerFactory.getLogger(JsonToBQ.class);
   public static Options options;
 
-  public static void main(String[] args) {
+  static String getInputFilePattern(String prefix) {
+    List<String> prefixList = Arrays.asList(prefix.trim().split("-"));
+    /* TODO: Make these more generic prefix DATE, TIMESTAMP */
+    prefixList.set(0, "year=" + prefixList.get(0));
+    prefixList.set(1, "month=" + prefixList.get(1));
+    prefixList.set(2, "day=" + prefixList.get(2));
+    String subPrefix = prefixList.stream().collect(Collectors.joining("/"));
+    return options.getInputDirectory().get()
+            + '/'
+            + subPrefix
+            + '/'
+            + "**"
+            + options.getInputFilenameSuffix().get();
+  }
+
+  /*
+   * BigQuery clusters on at most 4 top level columns, in the given order
+   */
+  static List<String> getClusteringFields(String clusteringFields) {
+    List<String> fields = Arrays.asList(clusteringFields.split(","))
+            .stream().map(String::trim).filter(s -> !s.isEmpty()).collect(Collectors.toList());
+    if (fields.size() > 4) {
+      throw new IllegalArgumentException("At most 4 Clustering Fields are supported, got: " + clusteringFields);
+    }
+    return fields;
+  }
+
+  /*
+   * Either a single Load into the whole table, or one Load per table$YYYYMMDD Partition Decorator
+   * keyed by the Partition Column value so that Partitions are loaded(and optionally truncated)
+   * independently of each other
+   */
+  private static BigQueryIO.Write<TableRow> getValidDataWrite(
+          String bqSchema, TableReference tableReference, List<String> clusteringFields) {
+    if (options.getUsePartitionDecorators().get()) {
+      return BigQueryIO.writeTableRows()
+              .to(new PartitionDecoratorDestinations(
+                      tableReference,
+                      options.getOutputTablePartitionColumn().get(),
+                      options.getPartitionColumnDateFormat().get(),
+                      bqSchema,
+                      clusteringFields))
+              .withCreateDisposition(
+                      CreateDisposition.valueOf(options.getOutputTableCreateDisposition().get()))
+              .withWriteDisposition(
+                      WriteDisposition.valueOf(options.getPartitionWriteDisposition().get()));
+    }
+    BigQueryIO.Write<TableRow> write = BigQueryIO.writeTableRows()
+            .withSchema(SchemaUtils.getTableSchema(bqSchema))
+            .to(tableReference)
+            .withTimePartitioning(
+                    new TimePartitioning().setField(options.getOutputTablePartitionColumn().get()))
+            .withCreateDisposition(
+                    CreateDisposition.valueOf(options.getOutputTableCreateDisposition().get()))
+            .withWriteDisposition(WriteDisposition.WRITE_APPEND);
+    if (!clusteringFields.isEmpty()) {
+      /* Applied when the table is created, and must match the Clustering of an existing table */
+      write = write.withClustering(new Clustering().setFields(clusteringFields));
+    }
+    return write;
+  }
+
+  public static void main(String[] args) throws Exception {
 
     options = PipelineOptionsFactory.fromArgs(args).withValidation().as(Options.class);
 
@@ -69,6 +136,12 @@ public class JsonToBQ {
     String bqSchema = SchemaUtils.getSchema(options.getBQSchemaFile().get());
     String jsonSchema = SchemaUtils.getSchema(options.getJSONSchemaFile().get());
 
+    if (options.getDryRun().get()) {
+      /* Estimate the cost and the worker count locally without running the Pipeline */
+      new DryRunEstimator(options, jsonSchema, bqSchema).estimate();
+      return;
+    }
+
     TableReference tableReference = new TableReference();
     tableReference.setProjectId(options.getProject());
     tableReference.setDatasetId(options.getOutputDatasetName().get());
@@ -96,19 +169,14 @@ public class JsonToBQ {
     /* PCollectionList to hold Invalid Input for bulk ingestion into Error Table*/
     PCollectionList<TableRow> errorPCollectionList = PCollectionList.empty(p);
 
+    /* PCollectionList to hold the Archive Records of the Transformed Rows for the Parquet Archive */
+    PCollectionList<KV<String, GenericRecord>> archivePCollectionList = PCollectionList.empty(p);
+    boolean archiveRows = !options.getParquetArchivePrefix().get().trim().isEmpty();
+    KvCoder<String, GenericRecord> archiveRecordCoder = KvCoder.of(
+            StringUtf8Coder.of(), AvroCoder.of(ParquetSchemaUtils.getAvroSchema(bqSchema, "Row")));
+
     for (String prefix : Arrays.asList(options.getInputPrefixes().get().split(","))) {
-      List<String> prefixList = Arrays.asList(prefix.trim().split("-"));
-      /* TODO: Make these more generic prefix DATE, TIMESTAMP */
-      prefixList.set(0, "year=" + prefixList.get(0));
-      prefixList.set(1, "month=" + prefixList.get(1));
-      prefixList.set(2, "day=" + prefixList.get(2));
-      String subPrefix = prefixList.stream().collect(Collectors.joining("/"));
-      String inputFilePattern = options.getInputDirectory().get()
-              + '/'
-              + subPrefix
-              + '/'
-              + "**"
-              + options.getInputFilenameSuffix().get();
+      String inputFilePattern = getInputFilePattern(prefix);
       /* Extract Lines from the files, Handle failed files separately. */
       PCollectionTuple inputRows = p.apply(
               "Match Input Files for: " + prefix,
@@ -197,10 +265,67 @@ public class JsonToBQ {
                                       TransformJsonDoFn.XFORM_SUCCESS,
                                       TupleTagList.of(TransformJsonDoFn.XFORM_FAILED)));
 
+      PCollection<String> transformedRows = transformedJsonRows.get(TransformJsonDoFn.XFORM_SUCCESS);
+
+      if (!options.getDeDupKeyFields().get().trim().isEmpty()) {
+        /* Success Path: Drop Duplicate Rows delivered more than once upstream */
+        PCollectionTuple deDupRows = transformedRows.apply(
+                "DeDuplicate Rows for: " + prefix,
+                new DeDuplicateTransform(
+                        options.getDeDupKeyFields().get(),
+                        options.getOutputTablePartitionColumn().get(),
+                        options.getDeDupShards().get(),
+                        options.getDeDupExpectedRowsPerShard().get(),
+                        options.getDeDupFalsePositiveRate().get()));
+        transformedRows = deDupRows.get(DeDuplicateTransform.DEDUP_ROWS);
+
+        /* Error Path: Collect Unparsable Data PCollection into a List for merging */
+        errorPCollectionList = errorPCollectionList.and(
+                deDupRows
+                        .get(DeDuplicateTransform.DEDUP_FAILED)
+                        .apply(
+                                "Mutate DeDup Error Data Pair to TableRow for: " + prefix,
+                                ParDo.of(
+                                        new ErrorDataToTableRowFn(
+                                                ValueProvider.StaticValueProvider.of(prefix),
+                                                options.getErrorTablePartitionColumn()))));
+      }
+
+      if (archiveRows) {
+        /* Success Path: Convert Transformed Rows to Archive Records, Handle rows not matching the BQ Schema separately */
+        PCollectionTuple archiveRecords = transformedRows
+                .apply(
+                        "Convert Transformed Rows to Archive Records for: " + prefix,
+                        ParDo.of(
+                                new ToArchiveRecordDoFn(
+                                        options.getOutputTablePartitionColumn().get(), bqSchema))
+                                .withOutputTags(
+                                        ToArchiveRecordDoFn.ARCHIVE_RECORDS,
+                                        TupleTagList.of(ToArchiveRecordDoFn.ARCHIVE_FAILED)
+                                                .and(ToArchiveRecordDoFn.ARCHIVED_ROWS)));
+
+        /* Success Path: Collect Archive Records into a List for archiving */
+        archivePCollectionList = archivePCollectionList.and(
+                archiveRecords.get(ToArchiveRecordDoFn.ARCHIVE_RECORDS).setCoder(archiveRecordCoder));
+
+        /* Success Path: Only the archived rows are loaded, the others go to the Error Table alone */
+        transformedRows = archiveRecords.get(ToArchiveRecordDoFn.ARCHIVED_ROWS);
+
+        /* Error Path: Collect Unarchivable Data PCollection into a List for merging */
+        errorPCollectionList = errorPCollectionList.and(
+                archiveRecords
+                        .get(ToArchiveRecordDoFn.ARCHIVE_FAILED)
+                        .apply(
+                                "Mutate Unarchivable Data Pair to TableRow for: " + prefix,
+                                ParDo.of(
+                                        new ErrorDataToTableRowFn(
+                                                ValueProvider.StaticValueProvider.of(prefix),
+                                                options.getErrorTablePartitionColumn()))));
+      }
+
       /* Success Path: Mutate JSON to TableRow */
       PCollectionTuple inputTableRows
-              = transformedJsonRows
-                      .get(TransformJsonDoFn.XFORM_SUCCESS)
+              = transformedRows
                       .apply(
                               "Mutate JSON to TableRow for: " + prefix,
                               ParDo.of(new JsonToTableRowDoFn())
@@ -208,9 +333,36 @@ public class JsonToBQ {
                                               JsonToTableRowDoFn.VALIDTABLEROWS,
                                               TupleTagList.of(JsonToTableRowDoFn.INVALIDTABLEROWS)));
 
+      PCollection<TableRow> validTableRows = inputTableRows.get(JsonToTableRowDoFn.VALIDTABLEROWS);
+
+      if (options.getUsePartitionDecorators().get()) {
+        /* Partition Decorators need a Partition Column value, Handle rows without one separately */
+        PCollectionTuple partitionedTableRows = validTableRows
+                .apply(
+                        "Validate Partition Column for: " + prefix,
+                        ParDo.of(
+                                new ValidatePartitionColumnDoFn(
+                                        options.getOutputTablePartitionColumn(),
+                                        options.getPartitionColumnDateFormat()))
+                                .withOutputTags(
+                                        ValidatePartitionColumnDoFn.PARTITIONED_ROWS,
+                                        TupleTagList.of(ValidatePartitionColumnDoFn.UNPARTITIONED_ROWS)));
+        validTableRows = partitionedTableRows.get(ValidatePartitionColumnDoFn.PARTITIONED_ROWS);
+
+        /* Error Path: Collect Unpartitioned Data PCollection into a List for merging */
+        errorPCollectionList = errorPCollectionList.and(
+                partitionedTableRows
+                        .get(ValidatePartitionColumnDoFn.UNPARTITIONED_ROWS)
+                        .apply(
+                                "Mutate Unpartitioned Data Pair to TableRow for: " + prefix,
+                                ParDo.of(
+                                        new ErrorDataToTableRowFn(
+                                                ValueProvider.StaticValueProvider.of(prefix),
+                                                options.getErrorTablePartitionColumn()))));
+      }
+
       /* Success Path: Collect TableRow PCollection into a List for merging*/
-      tableRowPCollectionList
-              = tableRowPCollectionList.and(inputTableRows.get(JsonToTableRowDoFn.VALIDTABLEROWS));
+      tableRowPCollectionList = tableRowPCollectionList.and(validTableRows);
 
       /* Filter invalid/mistyped JSON */
       PCollection<KV<String, String>> invalidatedJSONCollection
@@ -241,6 +393,38 @@ public class JsonToBQ {
                     Flatten.<TableRow>pCollections())
             .setCoder(TableRowJsonCoder.of());
 
+    if (archiveRows) {
+      /* Success Path: Archive the Transformed Rows as Parquet alongside the BQ Load */
+      archivePCollectionList
+              .apply(
+                      "Merge Archive Records for: " + options.getInputPrefixes().get(),
+                      Flatten.<KV<String, GenericRecord>>pCollections())
+              .setCoder(archiveRecordCoder)
+              .apply(
+                      "Archive Transformed Rows as Parquet for: " + options.getInputPrefixes().get(),
+                      new ParquetArchiveTransform(
+                              options.getParquetArchivePrefix().get(),
+                              options.getJobName(),
+                              options.getOutputTablePartitionColumn().get(),
+                              bqSchema,
+                              options.getParquetArchiveShards().get(),
+                              options.getParquetRowGroupSizeBytes().get(),
+                              options.getParquetFileSizeBytes().get()));
+    }
+
+    List<String> clusteringFields = getClusteringFields(options.getClusteringFields().get());
+    if (options.getSortByClusteringFields().get() && !clusteringFields.isEmpty()) {
+      /* Success Path: Pre-sort Validated TableRows by the Clustering Fields within each Load File */
+      mergedValidTableRows = mergedValidTableRows.apply(
+              "Sort Validated TableRows by Clustering Fields for: " + options.getInputPrefixes().get(),
+              new ClusteringSortTransform(
+                      clusteringFields,
+                      bqSchema,
+                      options.getOutputTablePartitionColumn().get(),
+                      options.getClusteringSortShards().get(),
+                      options.getClusteringSortBufferRows().get()));
+    }
+
     /* Success Path: Load Validated TableRows to BQ */
  /* Load Valid Data into BQ */
     mergedValidTableRows.apply(
@@ -248,13 +432,7 @@ public class JsonToBQ {
             + options.getOutputTableName()
             + " for: "
             + options.getInputPrefixes().get(),
-            BigQueryIO.writeTableRows()
-                    .withSchema(SchemaUtils.getTableSchema(bqSchema))
-                    .to(tableReference)
-                    .withTimePartitioning(
-                            new TimePartitioning().setField(options.getOutputTablePartitionColumn().get()))
-                    .withCreateDisposition(CreateDisposition.CREATE_NEVER)
-                    .withWriteDisposition(WriteDisposition.WRITE_APPEND));
+            getValidDataWrite(bqSchema, tableReference, clusteringFields));
 
     /* Error Path: Load Invalidated TableRows to BQ */
  /* Load Error Data into BQ */
@@ -186,4 +186,126 @@ public interface Options
   ValueProvider<String> getCustomDataField();
 
   void setCustomDataField(ValueProvider<String> value);
+
+  @Description(
+          "Load each Partition Column value into its own table$YYYYMMDD Partition Decorator with one Load Job per Partition. Defaults to false")
+  @Default.Boolean(false)
+  ValueProvider<Boolean> getUsePartitionDecorators();
+
+  void setUsePartitionDecorators(ValueProvider<Boolean> value);
+
+  @Description(
+          "Write Disposition for each Partition Decorator. WRITE_TRUNCATE replaces only the loaded Partitions which makes reruns idempotent. Used only with Partition Decorators. Defaults to WRITE_APPEND")
+  @Default.String("WRITE_APPEND")
+  ValueProvider<String> getPartitionWriteDisposition();
+
+  void setPartitionWriteDisposition(ValueProvider<String> value);
+
+  @Description(
+          "Comma Separated List of JSON Fields(parent.child for nested fields) identifying duplicate rows. Rows are deduplicated only when this is set, and only against the rows of the same Input Prefix")
+  @Default.String("")
+  ValueProvider<String> getDeDupKeyFields();
+
+  void setDeDupKeyFields(ValueProvider<String> value);
+
+  @Description("False Positive Rate of the DeDup Bloom Filters(Probability of dropping a unique row). Defaults to 0.0001")
+  @Default.Double(0.0001)
+  ValueProvider<Double> getDeDupFalsePositiveRate();
+
+  void setDeDupFalsePositiveRate(ValueProvider<Double> value);
+
+  @Description("Number of DeDup Bloom Filter Shards per Partition Column value. Defaults to 16")
+  @Default.Integer(16)
+  ValueProvider<Integer> getDeDupShards();
+
+  void setDeDupShards(ValueProvider<Integer> value);
+
+  @Description(
+          "Expected Number of Rows per DeDup Bloom Filter Shard. This bounds the memory of each Bloom Filter. Defaults to 5000000")
+  @Default.Long(5000000L)
+  ValueProvider<Long> getDeDupExpectedRowsPerShard();
+
+  void setDeDupExpectedRowsPerShard(ValueProvider<Long> value);
+
+  @Description(
+          "Prefix(for eg: gs://bucket/archive/table) for archiving the transformed rows as Parquet files partitioned by the Partition Column. Rows are archived only when this is set")
+  @Default.String("")
+  ValueProvider<String> getParquetArchivePrefix();
+
+  void setParquetArchivePrefix(ValueProvider<String> value);
+
+  @Description("Parquet Archive Row Group Size in Bytes. Defaults to 134217728(128 MB)")
+  @Default.Integer(134217728)
+  ValueProvider<Integer> getParquetRowGroupSizeBytes();
+
+  void setParquetRowGroupSizeBytes(ValueProvider<Integer> value);
+
+  @Description("Parquet Archive File Size in Bytes after which a new file is started. Defaults to 536870912(512 MB)")
+  @Default.Long(536870912L)
+  ValueProvider<Long> getParquetFileSizeBytes();
+
+  void setParquetFileSizeBytes(ValueProvider<Long> value);
+
+  @Description("Number of parallel Parquet Archive writers per Partition Column value. Defaults to 16")
+  @Default.Integer(16)
+  ValueProvider<Integer> getParquetArchiveShards();
+
+  void setParquetArchiveShards(ValueProvider<Integer> value);
+
+  @Description(
+          "Estimate CPU Hours, Shuffle Bytes and Worker Count from a local sample of the input instead of running the Pipeline. Defaults to false")
+  @Default.Boolean(false)
+  ValueProvider<Boolean> getDryRun();
+
+  void setDryRun(ValueProvider<Boolean> value);
+
+  @Description("Fraction of the rows read during the Dry Run which are run through the DoFn chain. Defaults to 0.01")
+  @Default.Double(0.01)
+  ValueProvider<Double> getDryRunSampleFraction();
+
+  void setDryRunSampleFraction(ValueProvider<Double> value);
+
+  @Description("Maximum Number of Rows sampled during the Dry Run. Defaults to 10000")
+  @Default.Integer(10000)
+  ValueProvider<Integer> getDryRunMaxSampleRows();
+
+  void setDryRunMaxSampleRows(ValueProvider<Integer> value);
+
+  @Description("Target Job Duration in Hours used for recommending the Worker Count during the Dry Run. Defaults to 1")
+  @Default.Double(1.0)
+  ValueProvider<Double> getDryRunTargetHours();
+
+  void setDryRunTargetHours(ValueProvider<Double> value);
+
+  @Description(
+          "Comma separated list of up to 4 top level Clustering Fields(for eg: customer_id,event_type) of the Output Table. Defaults to no Clustering")
+  @Default.String("")
+  ValueProvider<String> getClusteringFields();
+
+  void setClusteringFields(ValueProvider<String> value);
+
+  @Description(
+          "Create Disposition of the Output Table(CREATE_NEVER or CREATE_IF_NEEDED). A created table is Partitioned and Clustered as configured. Defaults to CREATE_NEVER")
+  @Default.String("CREATE_NEVER")
+  ValueProvider<String> getOutputTableCreateDisposition();
+
+  void setOutputTableCreateDisposition(ValueProvider<String> value);
+
+  @Description("Sort the rows by the Clustering Fields within each Load File. Defaults to false")
+  @Default.Boolean(false)
+  ValueProvider<Boolean> getSortByClusteringFields();
+
+  void setSortByClusteringFields(ValueProvider<Boolean> value);
+
+  @Description("Number of parallel Clustering Sort groups per Partition Column value. Defaults to 16")
+  @Default.Integer(16)
+  ValueProvider<Integer> getClusteringSortShards();
+
+  void setClusteringSortShards(ValueProvider<Integer> value);
+
+  @Description("Maximum Number of Rows sorted at once in memory by the Clustering Sort. Defaults to 100000")
+  @Default.Integer(100000)
+  ValueProvider<Integer> getClusteringSortBufferRows();
+
+  void setClusteringSortBufferRows(ValueProvider<Integer> value);
 }
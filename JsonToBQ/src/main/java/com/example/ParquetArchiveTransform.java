@@ -0,0 +1,325 @@
+/*
+#
+# Copyright (C) 2018 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+ */
+package com.example;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.beam.sdk.coders.AvroCoder;
+import org.apache.beam.sdk.coders.KvCoder;
+import org.apache.beam.sdk.coders.StringUtf8Coder;
+import org.apache.beam.sdk.coders.VarIntCoder;
+import org.apache.beam.sdk.coders.VarLongCoder;
+import org.apache.beam.sdk.io.FileIO;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.state.StateSpec;
+import org.apache.beam.sdk.state.StateSpecs;
+import org.apache.beam.sdk.state.ValueState;
+import org.apache.beam.sdk.transforms.Contextful;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.transforms.PTransform;
+import org.apache.beam.sdk.transforms.ParDo;
+import org.apache.beam.sdk.transforms.Values;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.PCollection;
+import org.apache.parquet.avro.AvroParquetWriter;
+import org.apache.parquet.hadoop.ParquetFileWriter;
+import org.apache.parquet.hadoop.ParquetWriter;
+import org.apache.parquet.hadoop.metadata.CompressionCodecName;
+import org.apache.parquet.io.OutputFile;
+import org.apache.parquet.io.PositionOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/*
+ * Archives the Avro records of the transformed JSON rows(see ToArchiveRecordDoFn), keyed by their
+ * Partition Column value, as Parquet files under
+ * <archivePrefix>/<partitionColumn>=<partitionValue>/<archiveRunId>-<shard>-<fileIndex>.parquet
+ * Every Partition Column value is split into a fixed number of shards by the hash of the record, and
+ * each shard starts a new file once the records of its current one reach the configured file size.
+ * The files are written through FileIO.writeDynamic(one destination per file) with ParquetArchiveSink.
+ * The archiveRunId(the Job Name) keeps the files of every run apart, so that a later run adds to the
+ * Archive of a Partition instead of overwriting it.
+ * Emits the names of the written files.
+ */
+public class ParquetArchiveTransform
+        extends PTransform<PCollection<KV<String, GenericRecord>>, PCollection<String>> {
+
+  private final String archivePrefix;
+  private final String archiveRunId;
+  private final String partitionColumn;
+  private final String bqSchema;
+  private final int shards;
+  private final int rowGroupSizeBytes;
+  private final long fileSizeBytes;
+
+  public ParquetArchiveTransform(
+          String archivePrefix,
+          String archiveRunId,
+          String partitionColumn,
+          String bqSchema,
+          int shards,
+          int rowGroupSizeBytes,
+          long fileSizeBytes) {
+    this.archivePrefix = archivePrefix;
+    this.archiveRunId = archiveRunId;
+    this.partitionColumn = partitionColumn;
+    this.bqSchema = bqSchema;
+    this.shards = shards;
+    this.rowGroupSizeBytes = rowGroupSizeBytes;
+    this.fileSizeBytes = fileSizeBytes;
+  }
+
+  @Override
+  public PCollection<String> expand(PCollection<KV<String, GenericRecord>> input) {
+    Schema avroSchema;
+    try {
+      avroSchema = ParquetSchemaUtils.getAvroSchema(this.bqSchema, "Row");
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to derive the Parquet Archive Schema", e);
+    }
+    return input
+            .apply(
+                    "Key Records by Partition and Archive Shard",
+                    ParDo.of(new KeyByArchiveShardDoFn(this.shards)))
+            .setCoder(KvCoder.of(
+                    KvCoder.of(StringUtf8Coder.of(), VarIntCoder.of()), AvroCoder.of(avroSchema)))
+            .apply(
+                    "Assign Records to Archive Files",
+                    ParDo.of(new AssignArchiveFileDoFn(
+                            this.partitionColumn, this.archiveRunId, avroSchema.toString(), this.fileSizeBytes)))
+            .setCoder(KvCoder.of(StringUtf8Coder.of(), AvroCoder.of(avroSchema)))
+            .apply(
+                    "Write Parquet Files",
+                    FileIO.<String, KV<String, GenericRecord>>writeDynamic()
+                            .by((KV<String, GenericRecord> record) -> record.getKey())
+                            .via(
+                                    Contextful.fn((KV<String, GenericRecord> record) -> record.getValue()),
+                                    new ParquetArchiveSink(avroSchema.toString(), this.rowGroupSizeBytes))
+                            .to(this.archivePrefix)
+                            .withDestinationCoder(StringUtf8Coder.of())
+                            .withNumShards(1)
+                            .withNaming((String archiveFile) ->
+                                    (window, pane, numShards, shardIndex, compression) -> archiveFile + ".parquet"))
+            .getPerDestinationOutputFilenames()
+            .apply("Get Parquet File Names", Values.<String>create());
+  }
+
+  private static class KeyByArchiveShardDoFn
+          extends DoFn<KV<String, GenericRecord>, KV<KV<String, Integer>, GenericRecord>> {
+
+    private final int shards;
+
+    KeyByArchiveShardDoFn(int shards) {
+      this.shards = shards;
+    }
+
+    @ProcessElement
+    public void processElement(ProcessContext context) {
+      int shard = Math.floorMod(context.element().getValue().hashCode(), this.shards);
+      context.output(KV.of(KV.of(context.element().getKey(), shard), context.element().getValue()));
+    }
+  }
+
+  /*
+   * Names the Archive file of every record of a shard, starting the next file once the Avro encoded
+   * size of the records of the current one reaches the file size. Parquet encodes and compresses them
+   * smaller, so the files stay below the file size
+   */
+  private static class AssignArchiveFileDoFn
+          extends DoFn<KV<KV<String, Integer>, GenericRecord>, KV<String, GenericRecord>> {
+
+    private final String partitionColumn;
+    private final String archiveRunId;
+    private final String avroSchema;
+    private final long fileSizeBytes;
+    private final Counter archivedFiles;
+    private transient GenericDatumWriter<GenericRecord> datumWriter;
+    private transient ByteArrayOutputStream recordBytes;
+    private transient BinaryEncoder encoder;
+
+    @StateId("fileIndex")
+    private final StateSpec<ValueState<Integer>> fileIndexSpec = StateSpecs.value(VarIntCoder.of());
+
+    @StateId("fileBytes")
+    private final StateSpec<ValueState<Long>> fileBytesSpec = StateSpecs.value(VarLongCoder.of());
+
+    AssignArchiveFileDoFn(String partitionColumn, String archiveRunId, String avroSchema, long fileSizeBytes) {
+      this.partitionColumn = partitionColumn;
+      this.archiveRunId = archiveRunId;
+      this.avroSchema = avroSchema;
+      this.fileSizeBytes = fileSizeBytes;
+      this.archivedFiles = Metrics.counter(ParquetArchiveTransform.class, "archived-file-counts");
+    }
+
+    @Setup
+    public void doSetup() {
+      this.datumWriter = new GenericDatumWriter<GenericRecord>(new Schema.Parser().parse(this.avroSchema));
+      this.recordBytes = new ByteArrayOutputStream();
+    }
+
+    private long getEncodedSize(GenericRecord record) throws IOException {
+      this.recordBytes.reset();
+      this.encoder = EncoderFactory.get().binaryEncoder(this.recordBytes, this.encoder);
+      this.datumWriter.write(record, this.encoder);
+      this.encoder.flush();
+      return this.recordBytes.size();
+    }
+
+    @ProcessElement
+    public void processElement(
+            ProcessContext context,
+            @StateId("fileIndex") ValueState<Integer> fileIndexState,
+            @StateId("fileBytes") ValueState<Long> fileBytesState) throws IOException {
+      String partitionValue = context.element().getKey().getKey();
+      int shard = context.element().getKey().getValue();
+      Integer fileIndex = fileIndexState.read();
+      long fileBytes = fileBytesState.read() == null ? 0L : fileBytesState.read();
+      long recordSize = getEncodedSize(context.element().getValue());
+      if (fileIndex == null) {
+        fileIndex = 0;
+        this.archivedFiles.inc();
+      } else if (fileBytes > 0L && fileBytes + recordSize > this.fileSizeBytes) {
+        fileIndex++;
+        fileBytes = 0L;
+        this.archivedFiles.inc();
+      }
+      fileIndexState.write(fileIndex);
+      fileBytesState.write(fileBytes + recordSize);
+      context.output(KV.of(
+              String.format("%s=%s/%s-%05d-%05d",
+                      this.partitionColumn, partitionValue, this.archiveRunId, shard, fileIndex),
+              context.element().getValue()));
+    }
+  }
+
+  /*
+   * FileIO Sink writing the records of a file with AvroParquetWriter, in row groups of the
+   * configured size
+   */
+  static class ParquetArchiveSink implements FileIO.Sink<GenericRecord> {
+
+    private final String avroSchema;
+    private final int rowGroupSizeBytes;
+    private transient ParquetWriter<GenericRecord> writer;
+
+    ParquetArchiveSink(String avroSchema, int rowGroupSizeBytes) {
+      this.avroSchema = avroSchema;
+      this.rowGroupSizeBytes = rowGroupSizeBytes;
+    }
+
+    @Override
+    public void open(WritableByteChannel channel) throws IOException {
+      this.writer = AvroParquetWriter.<GenericRecord>builder(new ChannelOutputFile(channel))
+              .withSchema(new Schema.Parser().parse(this.avroSchema))
+              .withRowGroupSize(this.rowGroupSizeBytes)
+              .withCompressionCodec(CompressionCodecName.SNAPPY)
+              .withWriteMode(ParquetFileWriter.Mode.OVERWRITE)
+              .build();
+    }
+
+    @Override
+    public void write(GenericRecord element) throws IOException {
+      this.writer.write(element);
+    }
+
+    /*
+     * Closing the writer writes the Parquet footer, FileIO closes the channel after
+     */
+    @Override
+    public void flush() throws IOException {
+      this.writer.close();
+    }
+  }
+
+  /*
+   * Parquet OutputFile over the channel FileIO opened for the file
+   */
+  private static class ChannelOutputFile implements OutputFile {
+
+    private final WritableByteChannel channel;
+
+    ChannelOutputFile(WritableByteChannel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public PositionOutputStream create(long blockSizeHint) {
+      return new ChannelPositionOutputStream(Channels.newOutputStream(this.channel));
+    }
+
+    @Override
+    public PositionOutputStream createOrOverwrite(long blockSizeHint) {
+      return create(blockSizeHint);
+    }
+
+    @Override
+    public boolean supportsBlockSize() {
+      return false;
+    }
+
+    @Override
+    public long defaultBlockSize() {
+      return 0;
+    }
+  }
+
+  private static class ChannelPositionOutputStream extends PositionOutputStream {
+
+    private final OutputStream outputStream;
+    private long position = 0;
+
+    ChannelPositionOutputStream(OutputStream outputStream) {
+      this.outputStream = outputStream;
+    }
+
+    @Override
+    public long getPos() {
+      return this.position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.position++;
+      this.outputStream.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      this.outputStream.write(b, off, len);
+      this.position += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      this.outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.outputStream.close();
+    }
+  }
+}
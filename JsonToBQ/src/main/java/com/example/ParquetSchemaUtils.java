@@ -0,0 +1,161 @@
+/*
+#
+# Copyright (C) 2018 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+ */
+package com.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.services.bigquery.model.TableFieldSchema;
+import com.google.api.services.bigquery.model.TableSchema;
+import org.apache.avro.JsonProperties;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+/*
+ * Derives the Avro Schema used for the Parquet Archive from the BigQuery Schema File and
+ * converts the transformed JSON rows into Avro GenericRecords.
+ * TIMESTAMP, DATE, TIME, DATETIME, NUMERIC and GEOGRAPHY values are archived as strings,
+ * exactly as they are loaded into BigQuery. A value which does not fit the type of its field is
+ * rejected with an IllegalArgumentException(or NumberFormatException) instead of being coerced.
+ */
+public class ParquetSchemaUtils {
+
+  private static final Schema NULL_SCHEMA = Schema.create(Schema.Type.NULL);
+
+  static Schema getAvroSchema(String bqSchema, String recordName) throws IOException {
+    /*
+     * SchemaUtils.getTableSchema leaves nested fields as plain maps, which is fine for BigQueryIO
+     * but not for walking RECORD fields. Parse the BigQuery Schema File into typed fields instead
+     */
+    TableSchema tableSchema = JacksonFactory.getDefaultInstance()
+            .fromString("{\"fields\":" + bqSchema + "}", TableSchema.class);
+    return getRecordSchema(tableSchema.getFields(), recordName);
+  }
+
+  private static Schema getRecordSchema(List<TableFieldSchema> tableFields, String recordName) {
+    List<Schema.Field> fields = new ArrayList<Schema.Field>();
+    for (TableFieldSchema tableField : tableFields) {
+      Schema fieldSchema = getFieldSchema(tableField, recordName);
+      if ("REPEATED".equals(tableField.getMode())) {
+        fields.add(new Schema.Field(tableField.getName(), Schema.createArray(fieldSchema), null, (Object) null));
+      } else if ("REQUIRED".equals(tableField.getMode())) {
+        fields.add(new Schema.Field(tableField.getName(), fieldSchema, null, (Object) null));
+      } else {
+        fields.add(new Schema.Field(
+                tableField.getName(),
+                Schema.createUnion(Arrays.asList(NULL_SCHEMA, fieldSchema)),
+                null,
+                JsonProperties.NULL_VALUE));
+      }
+    }
+    return Schema.createRecord(recordName, null, null, false, fields);
+  }
+
+  private static Schema getFieldSchema(TableFieldSchema tableField, String parentRecordName) {
+    switch (tableField.getType()) {
+      case "INTEGER":
+      case "INT64":
+        return Schema.create(Schema.Type.LONG);
+      case "FLOAT":
+      case "FLOAT64":
+        return Schema.create(Schema.Type.DOUBLE);
+      case "BOOLEAN":
+      case "BOOL":
+        return Schema.create(Schema.Type.BOOLEAN);
+      case "BYTES":
+        return Schema.create(Schema.Type.BYTES);
+      case "RECORD":
+      case "STRUCT":
+        /* Avro needs unique names for nested records */
+        return getRecordSchema(tableField.getFields(), parentRecordName + '_' + tableField.getName());
+      default:
+        return Schema.create(Schema.Type.STRING);
+    }
+  }
+
+  static GenericRecord toGenericRecord(JsonNode jsonNode, Schema schema) {
+    return (GenericRecord) toAvroValue(jsonNode, schema);
+  }
+
+  private static Object toAvroValue(JsonNode jsonNode, Schema schema) {
+    if (schema.getType() == Schema.Type.UNION) {
+      if (jsonNode == null || jsonNode.isNull() || jsonNode.isMissingNode()) {
+        return null;
+      }
+      return toAvroValue(jsonNode, schema.getTypes().get(1));
+    }
+    if (jsonNode == null || jsonNode.isNull() || jsonNode.isMissingNode()) {
+      if (schema.getType() == Schema.Type.ARRAY) {
+        return new GenericData.Array<Object>(0, schema);
+      }
+      throw new IllegalArgumentException("Missing value for required " + schema.getType() + " field");
+    }
+    switch (schema.getType()) {
+      case RECORD:
+        GenericRecord record = new GenericData.Record(schema);
+        for (Schema.Field field : schema.getFields()) {
+          record.put(field.name(), toAvroValue(jsonNode.get(field.name()), field.schema()));
+        }
+        return record;
+      case ARRAY:
+        GenericData.Array<Object> array = new GenericData.Array<Object>(jsonNode.size(), schema);
+        for (JsonNode item : jsonNode) {
+          array.add(toAvroValue(item, schema.getElementType()));
+        }
+        return array;
+      case LONG:
+        if (jsonNode.isIntegralNumber() && jsonNode.canConvertToLong()) {
+          return jsonNode.asLong();
+        }
+        /* BigQuery loads INTEGER values given as JSON strings as well */
+        if (jsonNode.isTextual()) {
+          return Long.parseLong(jsonNode.asText().trim());
+        }
+        throw new IllegalArgumentException("Not an INTEGER value: " + jsonNode);
+      case DOUBLE:
+        if (jsonNode.isNumber()) {
+          return jsonNode.asDouble();
+        }
+        if (jsonNode.isTextual()) {
+          return Double.parseDouble(jsonNode.asText().trim());
+        }
+        throw new IllegalArgumentException("Not a FLOAT value: " + jsonNode);
+      case BOOLEAN:
+        if (jsonNode.isBoolean()) {
+          return jsonNode.asBoolean();
+        }
+        if (jsonNode.isTextual()
+                && ("true".equalsIgnoreCase(jsonNode.asText()) || "false".equalsIgnoreCase(jsonNode.asText()))) {
+          return Boolean.parseBoolean(jsonNode.asText());
+        }
+        throw new IllegalArgumentException("Not a BOOLEAN value: " + jsonNode);
+      case BYTES:
+        return ByteBuffer.wrap(Base64.getDecoder().decode(jsonNode.asText()));
+      default:
+        /* Stringified Custom Data and other non textual values are archived as their JSON text */
+        return jsonNode.isTextual() ? jsonNode.asText() : jsonNode.toString();
+    }
+  }
+}
@@ -0,0 +1,132 @@
+/*
+#
+# Copyright (C) 2018 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+ */
+package com.example;
+
+import com.google.api.services.bigquery.model.Clustering;
+import com.google.api.services.bigquery.model.TableReference;
+import com.google.api.services.bigquery.model.TableRow;
+import com.google.api.services.bigquery.model.TableSchema;
+import com.google.api.services.bigquery.model.TimePartitioning;
+import org.apache.beam.sdk.io.gcp.bigquery.BigQueryHelpers;
+import org.apache.beam.sdk.io.gcp.bigquery.DynamicDestinations;
+import org.apache.beam.sdk.io.gcp.bigquery.TableDestination;
+import org.apache.beam.sdk.values.ValueInSingleWindow;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/*
+ * Routes every TableRow to the table$YYYYMMDD Partition Decorator derived from its
+ * Partition Column value, so that BigQueryIO issues one Load Job per Partition.
+ * BigQueryIO runs the Load Jobs of different Destinations in parallel, and WRITE_TRUNCATE
+ * on a Partition Decorator only replaces that single Partition.
+ * With CREATE_IF_NEEDED, BigQueryIO creates the table without the decorator, Partitioned and
+ * Clustered as given by getTable.
+ */
+public class PartitionDecoratorDestinations extends DynamicDestinations<TableRow, String> {
+
+  static final DateTimeFormatter DECORATOR_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+  private final String projectId;
+  private final String datasetId;
+  private final String tableId;
+  private final String partitionColumn;
+  private final String partitionColumnDateFormat;
+  private final String bqSchema;
+  private final List<String> clusteringFields;
+  private transient DateTimeFormatter partitionValueFormat;
+  private transient TableSchema tableSchema;
+
+  public PartitionDecoratorDestinations(
+          TableReference tableReference,
+          String partitionColumn,
+          String partitionColumnDateFormat,
+          String bqSchema,
+          List<String> clusteringFields) {
+    this.projectId = tableReference.getProjectId();
+    this.datasetId = tableReference.getDatasetId();
+    this.tableId = tableReference.getTableId();
+    this.partitionColumn = partitionColumn;
+    this.partitionColumnDateFormat = partitionColumnDateFormat;
+    this.bqSchema = bqSchema;
+    this.clusteringFields = clusteringFields;
+  }
+
+  /*
+   * Returns the YYYYMMDD Partition Decorator for the row, or null if the row does not carry
+   * a parsable Partition Column value
+   */
+  static String getPartitionDecorator(
+          TableRow tableRow, String partitionColumn, DateTimeFormatter partitionValueFormat) {
+    Object partitionValue = tableRow.get(partitionColumn);
+    if (partitionValue == null) {
+      return null;
+    }
+    try {
+      return LocalDate.parse(partitionValue.toString(), partitionValueFormat).format(DECORATOR_FORMAT);
+    } catch (DateTimeParseException e) {
+      return null;
+    }
+  }
+
+  private DateTimeFormatter getPartitionValueFormat() {
+    if (this.partitionValueFormat == null) {
+      this.partitionValueFormat = DateTimeFormatter.ofPattern(this.partitionColumnDateFormat);
+    }
+    return this.partitionValueFormat;
+  }
+
+  @Override
+  public String getDestination(ValueInSingleWindow<TableRow> element) {
+    String partitionDecorator
+            = getPartitionDecorator(element.getValue(), this.partitionColumn, getPartitionValueFormat());
+    if (partitionDecorator == null) {
+      /* Rows without a Partition Column value are diverted to the Error Table upstream */
+      throw new IllegalArgumentException(
+              "Row does not contain a valid value for Partition Column " + this.partitionColumn);
+    }
+    return partitionDecorator;
+  }
+
+  @Override
+  public TableDestination getTable(String partitionDecorator) {
+    TableReference tableReference = new TableReference()
+            .setProjectId(this.projectId)
+            .setDatasetId(this.datasetId)
+            .setTableId(this.tableId + '$' + partitionDecorator);
+    TimePartitioning timePartitioning = new TimePartitioning().setType("DAY").setField(this.partitionColumn);
+    if (this.clusteringFields.isEmpty()) {
+      return new TableDestination(tableReference, null, timePartitioning);
+    }
+    /* Loads into a Partition of a clustered table must carry the same Clustering Fields */
+    return new TableDestination(
+            BigQueryHelpers.toTableSpec(tableReference),
+            null,
+            timePartitioning,
+            new Clustering().setFields(this.clusteringFields));
+  }
+
+  @Override
+  public TableSchema getSchema(String partitionDecorator) {
+    if (this.tableSchema == null) {
+      this.tableSchema = SchemaUtils.getTableSchema(this.bqSchema);
+    }
+    return this.tableSchema;
+  }
+}
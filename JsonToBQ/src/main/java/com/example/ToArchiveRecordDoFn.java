@@ -0,0 +1,89 @@
+/*
+#
+# Copyright (C) 2018 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+ */
+package com.example;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.TupleTag;
+
+import java.io.IOException;
+
+/*
+ * Converts a transformed JSON row into the Avro GenericRecord of the Parquet Archive, keyed by its
+ * Partition Column value. Rows which do not match the BQ Schema(for eg: a non numeric value of an
+ * INTEGER field) are diverted to the Error Table instead of being archived with a made up value.
+ * The archived rows are passed on(ARCHIVED_ROWS) for the BQ Load, so that a row diverted to the
+ * Error Table is not loaded as well, and loaded twice once the Error Table is replayed
+ */
+public class ToArchiveRecordDoFn extends DoFn<String, KV<String, GenericRecord>> {
+
+  public static final TupleTag<KV<String, GenericRecord>> ARCHIVE_RECORDS
+          = new TupleTag<KV<String, GenericRecord>>() {
+  };
+  public static final TupleTag<String> ARCHIVED_ROWS = new TupleTag<String>() {
+  };
+  public static final TupleTag<KV<String, String>> ARCHIVE_FAILED
+          = new TupleTag<KV<String, String>>() {
+  };
+  private final String partitionColumn;
+  private final String bqSchema;
+  private final Counter archivedRows;
+  private final Counter failedArchiveRows;
+  private transient ObjectMapper objectMapper;
+  private transient Schema avroSchema;
+
+  public ToArchiveRecordDoFn(String partitionColumn, String bqSchema) {
+    this.partitionColumn = partitionColumn;
+    this.bqSchema = bqSchema;
+    this.archivedRows = Metrics.counter(ParquetArchiveTransform.class, "archived-row-counts");
+    this.failedArchiveRows = Metrics.counter(ParquetArchiveTransform.class, "failed-archive-row-counts");
+  }
+
+  @Setup
+  public void doSetup() throws IOException {
+    this.objectMapper = new ObjectMapper();
+    this.avroSchema = ParquetSchemaUtils.getAvroSchema(this.bqSchema, "Row");
+  }
+
+  @ProcessElement
+  public void processElement(ProcessContext context) {
+    try {
+      JsonNode row = this.objectMapper.readTree(context.element());
+      String partitionValue = row.path(this.partitionColumn).asText();
+      context.output(
+              ARCHIVE_RECORDS,
+              KV.of(partitionValue, ParquetSchemaUtils.toGenericRecord(row, this.avroSchema)));
+      context.output(ARCHIVED_ROWS, context.element());
+      this.archivedRows.inc();
+    } catch (IOException | RuntimeException e) {
+      KV<String, String> errorData = KV.of(
+              context.element(),
+              this.objectMapper.createObjectNode()
+                      .put("message", "unable to archive row: " + e.getMessage())
+                      .toString());
+      context.output(ARCHIVE_FAILED, errorData);
+      this.failedArchiveRows.inc();
+    }
+  }
+}
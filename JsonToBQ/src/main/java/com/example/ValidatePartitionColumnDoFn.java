@@ -0,0 +1,80 @@
+/*
+#
+# Copyright (C) 2018 Google Inc.
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+ */
+package com.example;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.bigquery.model.TableRow;
+import org.apache.beam.sdk.metrics.Counter;
+import org.apache.beam.sdk.metrics.Metrics;
+import org.apache.beam.sdk.options.ValueProvider;
+import org.apache.beam.sdk.transforms.DoFn;
+import org.apache.beam.sdk.values.KV;
+import org.apache.beam.sdk.values.TupleTag;
+
+import java.time.format.DateTimeFormatter;
+
+public class ValidatePartitionColumnDoFn extends DoFn<TableRow, TableRow> {
+
+  public static final TupleTag<TableRow> PARTITIONED_ROWS = new TupleTag<TableRow>() {
+  };
+  public static final TupleTag<KV<String, String>> UNPARTITIONED_ROWS
+          = new TupleTag<KV<String, String>>() {
+  };
+  private final Counter partitionedRows;
+  private final Counter unPartitionedRows;
+  private final ObjectMapper objectMapper;
+  private final ValueProvider<String> partitionColumn;
+  private final ValueProvider<String> dateFormat;
+  private String partitionField;
+  private DateTimeFormatter partitionValueFormat;
+
+  public ValidatePartitionColumnDoFn(
+          ValueProvider<String> partitionColumn, ValueProvider<String> dateFormat) {
+    this.partitionedRows = Metrics.counter(ValidatePartitionColumnDoFn.class, "partitioned-row-counts");
+    this.unPartitionedRows = Metrics.counter(ValidatePartitionColumnDoFn.class, "unpartitioned-row-counts");
+    this.partitionColumn = partitionColumn;
+    this.dateFormat = dateFormat;
+    this.objectMapper = new ObjectMapper();
+  }
+
+  @StartBundle
+  public void startBundle(StartBundleContext startBundleContext) {
+    this.partitionField = this.partitionColumn.get();
+    this.partitionValueFormat = DateTimeFormatter.ofPattern(this.dateFormat.get());
+  }
+
+  @ProcessElement
+  public void processElement(ProcessContext context) throws JsonProcessingException {
+    if (PartitionDecoratorDestinations.getPartitionDecorator(
+            context.element(), this.partitionField, this.partitionValueFormat) != null) {
+      context.output(PARTITIONED_ROWS, context.element());
+      this.partitionedRows.inc();
+    } else {
+      /*
+       * A row without a Partition Column value cannot be addressed by a Partition Decorator.
+       * Divert it to the Error Table instead of loading it into the whole table
+       */
+      KV<String, String> errorData = KV.of(
+              this.objectMapper.writeValueAsString(context.element()),
+              String.format("{\"message\":\"missing or unparsable partition column: %s\"}", this.partitionField));
+      context.output(UNPARTITIONED_ROWS, errorData);
+      this.unPartitionedRows.inc();
+    }
+  }
+}
@@ -3,6 +3,11 @@ package com.example;
 import org.junit.jupiter.api.Test;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.api.services.bigquery.model.TableRow;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.io.IOException;
 import org.junit.jupiter.api.Assertions;
 
@@ -26,4 +31,138 @@ class Testing {
     Assertions.assertTrue(json.get(field).isTextual());
   }
 
+  @Test
+  void testPartitionDecorator() {
+    DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    TableRow row = new TableRow().set("partition_date", "2018-10-01");
+    Assertions.assertEquals("20181001",
+        PartitionDecoratorDestinations.getPartitionDecorator(row, "partition_date", format));
+    Assertions.assertNull(
+        PartitionDecoratorDestinations.getPartitionDecorator(new TableRow(), "partition_date", format));
+    Assertions.assertNull(PartitionDecoratorDestinations.getPartitionDecorator(
+        new TableRow().set("partition_date", "not-a-date"), "partition_date", format));
+  }
+
+  @Test
+  void testDeDupKey() throws IOException {
+    ObjectMapper objectMapper = new ObjectMapper();
+    JsonNode first = objectMapper.readTree("{\"id\":1,\"device\":{\"os\":\"a\"},\"ts\":10}");
+    JsonNode second = objectMapper.readTree("{\"id\":1,\"device\":{\"os\":\"a\"},\"ts\":20}");
+    JsonNode third = objectMapper.readTree("{\"id\":1,\"device\":{\"os\":\"b\"},\"ts\":10}");
+    Assertions.assertEquals(
+        DeDuplicateTransform.getDeDupKey(first, Arrays.asList("id", "device.os")),
+        DeDuplicateTransform.getDeDupKey(second, Arrays.asList("id", "device.os")));
+    Assertions.assertNotEquals(
+        DeDuplicateTransform.getDeDupKey(first, Arrays.asList("id", "device.os")),
+        DeDuplicateTransform.getDeDupKey(third, Arrays.asList("id", "device.os")));
+    Assertions.assertNull(DeDuplicateTransform.getDeDupKey(first, Arrays.asList("missing")));
+  }
+
+  @Test
+  void testParquetArchiveRecord() throws IOException {
+    String bqSchema = "[{\"name\":\"id\",\"type\":\"INTEGER\",\"mode\":\"REQUIRED\"},"
+        + "{\"name\":\"tags\",\"type\":\"STRING\",\"mode\":\"REPEATED\"},"
+        + "{\"name\":\"geo\",\"type\":\"RECORD\",\"mode\":\"NULLABLE\",\"fields\":["
+        + "{\"name\":\"lat\",\"type\":\"FLOAT\",\"mode\":\"NULLABLE\"}]}]";
+    Schema schema = ParquetSchemaUtils.getAvroSchema(bqSchema, "Row");
+    GenericRecord record = ParquetSchemaUtils.toGenericRecord(
+        new ObjectMapper().readTree("{\"id\":7,\"tags\":[\"a\",\"b\"],\"geo\":{\"lat\":1.5}}"), schema);
+    Assertions.assertEquals(7L, record.get("id"));
+    Assertions.assertEquals(2, ((java.util.List<?>) record.get("tags")).size());
+    Assertions.assertEquals(1.5, ((GenericRecord) record.get("geo")).get("lat"));
+    GenericRecord sparse = ParquetSchemaUtils.toGenericRecord(new ObjectMapper().readTree("{\"id\":8}"), schema);
+    Assertions.assertNull(sparse.get("geo"));
+    GenericRecord textual = ParquetSchemaUtils.toGenericRecord(
+        new ObjectMapper().readTree("{\"id\":\"9\",\"geo\":{\"lat\":\"2.5\"}}"), schema);
+    Assertions.assertEquals(9L, textual.get("id"));
+    Assertions.assertEquals(2.5, ((GenericRecord) textual.get("geo")).get("lat"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> ParquetSchemaUtils.toGenericRecord(
+        new ObjectMapper().readTree("{\"id\":\"seven\"}"), schema));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> ParquetSchemaUtils.toGenericRecord(
+        new ObjectMapper().readTree("{\"id\":7.5}"), schema));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> ParquetSchemaUtils.toGenericRecord(
+        new ObjectMapper().readTree("{\"id\":7,\"geo\":{\"lat\":true}}"), schema));
+  }
+
+  @Test
+  void testParquetArchiveSink() throws IOException {
+    String bqSchema = "[{\"name\":\"id\",\"type\":\"INTEGER\",\"mode\":\"REQUIRED\"}]";
+    Schema schema = ParquetSchemaUtils.getAvroSchema(bqSchema, "Row");
+    java.io.File archiveFile = java.io.File.createTempFile("archive", ".parquet");
+    archiveFile.deleteOnExit();
+    ParquetArchiveTransform.ParquetArchiveSink sink =
+        new ParquetArchiveTransform.ParquetArchiveSink(schema.toString(), 1024 * 1024);
+    try (java.nio.channels.FileChannel channel = new java.io.FileOutputStream(archiveFile).getChannel()) {
+      sink.open(channel);
+      for (int id = 0; id < 3; id++) {
+        sink.write(ParquetSchemaUtils.toGenericRecord(
+            new ObjectMapper().readTree("{\"id\":" + id + "}"), schema));
+      }
+      sink.flush();
+    }
+    try (org.apache.parquet.hadoop.ParquetReader<GenericRecord> reader =
+        org.apache.parquet.avro.AvroParquetReader.<GenericRecord>builder(
+            new org.apache.hadoop.fs.Path(archiveFile.getPath())).build()) {
+      for (long id = 0; id < 3; id++) {
+        Assertions.assertEquals(id, reader.read().get("id"));
+      }
+      Assertions.assertNull(reader.read());
+    }
+  }
+
+  @Test
+  void testDryRunWorkerEstimate() {
+    Assertions.assertEquals(1, DryRunEstimator.getWorkerCpus(null));
+    Assertions.assertEquals(16, DryRunEstimator.getWorkerCpus("n1-highmem-16"));
+    Assertions.assertEquals(3, DryRunEstimator.getRecommendedWorkers(10.0, 4, 1.0, 0));
+    Assertions.assertEquals(2, DryRunEstimator.getRecommendedWorkers(10.0, 4, 1.0, 2));
+    Assertions.assertEquals(1, DryRunEstimator.getRecommendedWorkers(0.0, 4, 1.0, 0));
+  }
+
+  @Test
+  void testClusteringOrder() {
+    String bqSchema = "[{\"name\":\"customer\",\"type\":\"STRING\",\"mode\":\"NULLABLE\"},"
+        + "{\"name\":\"amount\",\"type\":\"INTEGER\",\"mode\":\"NULLABLE\"}]";
+    java.util.List<String> clusteringFields = JsonToBQ.getClusteringFields("customer, amount");
+    java.util.List<String> clusteringFieldTypes =
+        ClusteringSortTransform.getClusteringFieldTypes(bqSchema, clusteringFields);
+    Assertions.assertEquals(Arrays.asList("STRING", "INTEGER"), clusteringFieldTypes);
+    java.util.List<TableRow> rows = new java.util.ArrayList<TableRow>(Arrays.asList(
+        new TableRow().set("customer", "b").set("amount", 10),
+        new TableRow().set("customer", "a").set("amount", 9),
+        new TableRow().set("amount", 1),
+        new TableRow().set("customer", "b").set("amount", "2")));
+    rows.sort(ClusteringSortTransform.getClusteringOrder(clusteringFields, clusteringFieldTypes));
+    Assertions.assertNull(rows.get(0).get("customer"));
+    Assertions.assertEquals("a", rows.get(1).get("customer"));
+    Assertions.assertEquals("2", rows.get(2).get("amount"));
+    Assertions.assertEquals(10, rows.get(3).get("amount"));
+    Assertions.assertThrows(IllegalArgumentException.class, () -> JsonToBQ.getClusteringFields("a,b,c,d,e"));
+  }
+
+  @Test
+  void testClusteringValuesTotalOrder() {
+    /* Mixed values once broke transitivity: "9" > "1a" > "10" > "9" */
+    Object[] values = {"9", "1a", "10", null, 10L, "1e1", "x"};
+    for (String type : Arrays.asList("INTEGER", "FLOAT", "NUMERIC", "STRING")) {
+      for (Object a : values) {
+        for (Object b : values) {
+          int ab = ClusteringSortTransform.compareClusteringValues(type, a, b);
+          Assertions.assertEquals(-Integer.signum(ab),
+              Integer.signum(ClusteringSortTransform.compareClusteringValues(type, b, a)));
+          for (Object c : values) {
+            if (ab <= 0 && ClusteringSortTransform.compareClusteringValues(type, b, c) <= 0) {
+              Assertions.assertTrue(ClusteringSortTransform.compareClusteringValues(type, a, c) <= 0,
+                  type + ": " + a + " <= " + b + " <= " + c);
+            }
+          }
+        }
+      }
+    }
+    Assertions.assertTrue(ClusteringSortTransform.compareClusteringValues("INTEGER", "9", "10") < 0);
+    Assertions.assertTrue(ClusteringSortTransform.compareClusteringValues("INTEGER", "10", "1a") < 0);
+    Assertions.assertTrue(ClusteringSortTransform.compareClusteringValues("STRING", "10", "9") < 0);
+    Assertions.assertTrue(ClusteringSortTransform.compareClusteringValues("STRING", null, "") < 0);
+  }
+
 }